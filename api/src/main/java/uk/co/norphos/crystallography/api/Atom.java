@@ -37,6 +37,7 @@ public class Atom implements Serializable {
         this.occ = occ;
         this.uijMatrix = uijMatrix;
         this.radius = radius;
+        this.coordinationNumber = coordinationNumber;
         this.charge = charge;
         this.isotope = isotope;
     }
@@ -154,7 +155,7 @@ public class Atom implements Serializable {
                 Objects.equals(name, atom.name) &&
                 Objects.equals(type, atom.type) &&
                 Objects.equals(radius, atom.radius) &&
-                Arrays.equals(uijMatrix, atom.uijMatrix) &&
+                Arrays.deepEquals(uijMatrix, atom.uijMatrix) &&
                 Objects.equals(charge, atom.charge) &&
                 Objects.equals(isotope, atom.isotope) &&
                 Objects.equals(coordinationNumber, atom.coordinationNumber);
@@ -165,7 +166,7 @@ public class Atom implements Serializable {
 
         int result = Objects.hash(name, type, occ, radius, charge, isotope, coordinationNumber);
         result = 31 * result + Arrays.hashCode(coords);
-        result = 31 * result + Arrays.hashCode(uijMatrix);
+        result = 31 * result + Arrays.deepHashCode(uijMatrix);
         return result;
     }
 
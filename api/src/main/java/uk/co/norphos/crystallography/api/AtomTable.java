@@ -0,0 +1,454 @@
+package uk.co.norphos.crystallography.api;
+
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.PackedCoordinates;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact store for many atoms, holding the name, type, fractional
+ * coordinates, occupancy and anisotropic displacement parameters of each in
+ * primitive columns, rather than as one {@link Atom} object each.
+ *
+ * Coordinates are packed (x<sub>0</sub>, y<sub>0</sub>, z<sub>0</sub>,
+ * x<sub>1</sub>, ...) as used by {@link PackedCoordinates}. The six
+ * independent U<sub>ij</sub> of each atom are packed in the order U11, U22,
+ * U33, U12, U13, U23 (see {@link #U11} etc.). Each distinct type string is
+ * stored once and atoms refer to it by an integer type code.
+ *
+ * {@link #asList()} gives a {@link List} of {@link Atom}s backed by the
+ * table, holding only the fields above. Tables are not thread safe.
+ *
+ * @author Michael Wharmby
+ */
+public final class AtomTable {
+
+    public static final int U11 = 0, U22 = 1, U33 = 2, U12 = 3, U13 = 4, U23 = 5;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private String[] names;
+    private int[] typeCodes;
+    private double[] coords, occupancies, uijs;
+    private int size, capacity;
+
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeCodeLookup = new HashMap<>();
+
+    /**
+     * Create an empty table.
+     */
+    public AtomTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty table with space for a number of atoms before the
+     * columns need to grow.
+     * @param initialCapacity int number of atoms
+     */
+    public AtomTable(int initialCapacity) {
+        if (initialCapacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    /**
+     * Create a table containing the name, type, coordinates, occupancy and
+     * U<sub>ij</sub> of each of a list of {@link Atom}s.
+     * @param atoms List<Atom>
+     * @return {@link AtomTable}
+     */
+    public static AtomTable fromAtoms(List<Atom> atoms) {
+        AtomTable table = new AtomTable(atoms.size());
+        for (Atom atom : atoms) {
+            table.add(atom);
+        }
+        return table;
+    }
+
+    private void allocate(int newCapacity) {
+        names = names == null ? new String[newCapacity] : Arrays.copyOf(names, newCapacity);
+        typeCodes = typeCodes == null ? new int[newCapacity] : Arrays.copyOf(typeCodes, newCapacity);
+        coords = coords == null ? new double[3 * newCapacity] : Arrays.copyOf(coords, 3 * newCapacity);
+        occupancies = occupancies == null ? new double[newCapacity] : Arrays.copyOf(occupancies, newCapacity);
+        uijs = uijs == null ? new double[6 * newCapacity] : Arrays.copyOf(uijs, 6 * newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Return the number of atoms in the table.
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all atoms, keeping the allocated columns and known types.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Return the code for an atom type, adding it to the known types if it
+     * has not been seen before.
+     * @param type String e.g. element symbol
+     * @return int type code
+     */
+    public int typeCode(String type) {
+        Integer code = typeCodeLookup.get(type);
+        if (code == null) {
+            code = types.size();
+            types.add(type);
+            typeCodeLookup.put(type, code);
+        }
+        return code;
+    }
+
+    /**
+     * Return the distinct atom types in the table. The position of each type
+     * in the list is its type code.
+     * @return List<String> (unmodifiable)
+     */
+    public List<String> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    /**
+     * Add an atom with zero U<sub>ij</sub>.
+     * @param name String atom label
+     * @param type String e.g. element symbol
+     * @param x double fractional coordinate
+     * @param y double fractional coordinate
+     * @param z double fractional coordinate
+     * @param occ double site occupancy
+     * @return int index of the new atom
+     */
+    public int add(String name, String type, double x, double y, double z, double occ) {
+        if (size == capacity) allocate(Math.max(2 * capacity, DEFAULT_CAPACITY));
+        int i = size++;
+        names[i] = name;
+        typeCodes[i] = typeCode(type);
+        coords[3 * i] = x;
+        coords[3 * i + 1] = y;
+        coords[3 * i + 2] = z;
+        occupancies[i] = occ;
+        Arrays.fill(uijs, 6 * i, 6 * i + 6, 0);
+        return i;
+    }
+
+    /**
+     * Add the name, type, coordinates, occupancy and U<sub>ij</sub> of an
+     * {@link Atom}.
+     * @param atom {@link Atom}
+     * @return int index of the new atom
+     */
+    public int add(Atom atom) {
+        int i = add(atom.getName(), atom.getType(), atom.getX(), atom.getY(), atom.getZ(), atom.getOcc());
+        setUijMatrix(i, atom.getUijMatrix());
+        return i;
+    }
+
+    /**
+     * Insert an {@link Atom} at index i, moving atom i and all later atoms
+     * up one place.
+     * @param i int index for the new atom
+     * @param atom {@link Atom}
+     */
+    public void add(int i, Atom atom) {
+        if (i < 0 || i > size) {
+            throw new IndexOutOfBoundsException("Atom "+i+" outside table of size "+size);
+        }
+        if (size == capacity) allocate(Math.max(2 * capacity, DEFAULT_CAPACITY));
+        int nMoved = size - i;
+        System.arraycopy(names, i, names, i + 1, nMoved);
+        System.arraycopy(typeCodes, i, typeCodes, i + 1, nMoved);
+        System.arraycopy(coords, 3 * i, coords, 3 * (i + 1), 3 * nMoved);
+        System.arraycopy(occupancies, i, occupancies, i + 1, nMoved);
+        System.arraycopy(uijs, 6 * i, uijs, 6 * (i + 1), 6 * nMoved);
+        size++;
+        set(i, atom);
+    }
+
+    /**
+     * Replace atom i with the values of an {@link Atom}.
+     * @param i int index of atom
+     * @param atom {@link Atom}
+     */
+    public void set(int i, Atom atom) {
+        checkIndex(i);
+        names[i] = atom.getName();
+        typeCodes[i] = typeCode(atom.getType());
+        setCoords(i, atom.getX(), atom.getY(), atom.getZ());
+        occupancies[i] = atom.getOcc();
+        setUijMatrix(i, atom.getUijMatrix());
+    }
+
+    /**
+     * Remove atom i, moving all later atoms down one place.
+     * @param i int index of atom
+     */
+    public void remove(int i) {
+        checkIndex(i);
+        int nMoved = size - i - 1;
+        System.arraycopy(names, i + 1, names, i, nMoved);
+        System.arraycopy(typeCodes, i + 1, typeCodes, i, nMoved);
+        System.arraycopy(coords, 3 * (i + 1), coords, 3 * i, 3 * nMoved);
+        System.arraycopy(occupancies, i + 1, occupancies, i, nMoved);
+        System.arraycopy(uijs, 6 * (i + 1), uijs, 6 * i, 6 * nMoved);
+        names[--size] = null;
+    }
+
+    public String getName(int i) {
+        return names[checkIndex(i)];
+    }
+
+    public void setName(int i, String name) {
+        names[checkIndex(i)] = name;
+    }
+
+    public String getType(int i) {
+        return types.get(typeCodes[checkIndex(i)]);
+    }
+
+    public int getTypeCode(int i) {
+        return typeCodes[checkIndex(i)];
+    }
+
+    public void setType(int i, String type) {
+        typeCodes[checkIndex(i)] = typeCode(type);
+    }
+
+    public double getX(int i) {
+        return coords[3 * checkIndex(i)];
+    }
+
+    public double getY(int i) {
+        return coords[3 * checkIndex(i) + 1];
+    }
+
+    public double getZ(int i) {
+        return coords[3 * checkIndex(i) + 2];
+    }
+
+    public void setCoords(int i, double x, double y, double z) {
+        int j = 3 * checkIndex(i);
+        coords[j] = x;
+        coords[j + 1] = y;
+        coords[j + 2] = z;
+    }
+
+    public double getOcc(int i) {
+        return occupancies[checkIndex(i)];
+    }
+
+    public void setOcc(int i, double occ) {
+        occupancies[checkIndex(i)] = occ;
+    }
+
+    /**
+     * Return one of the six independent U<sub>ij</sub> of an atom.
+     * @param i int index of atom
+     * @param component int one of {@link #U11}, {@link #U22}, {@link #U33},
+     *                  {@link #U12}, {@link #U13} or {@link #U23}
+     * @return double U<sub>ij</sub> in Angstrom<sup>2</sup>
+     */
+    public double getUij(int i, int component) {
+        return uijs[6 * checkIndex(i) + component];
+    }
+
+    public void setUij(int i, int component, double value) {
+        uijs[6 * checkIndex(i) + component] = value;
+    }
+
+    /**
+     * Return the full, symmetric 3x3 U<sub>ij</sub> matrix of an atom.
+     * @param i int index of atom
+     * @return double[3][3]
+     */
+    public double[][] getUijMatrix(int i) {
+        int j = 6 * checkIndex(i);
+        return new double[][]{{uijs[j + U11], uijs[j + U12], uijs[j + U13]},
+                {uijs[j + U12], uijs[j + U22], uijs[j + U23]},
+                {uijs[j + U13], uijs[j + U23], uijs[j + U33]}};
+    }
+
+    /**
+     * Set the U<sub>ij</sub> of an atom from the upper triangle of a 3x3
+     * matrix. A null matrix sets all U<sub>ij</sub> to zero.
+     * @param i int index of atom
+     * @param uijMatrix double[3][3] (may be null)
+     */
+    public void setUijMatrix(int i, double[][] uijMatrix) {
+        int j = 6 * checkIndex(i);
+        if (uijMatrix == null) {
+            Arrays.fill(uijs, j, j + 6, 0);
+            return;
+        }
+        uijs[j + U11] = uijMatrix[0][0];
+        uijs[j + U22] = uijMatrix[1][1];
+        uijs[j + U33] = uijMatrix[2][2];
+        uijs[j + U12] = uijMatrix[0][1];
+        uijs[j + U13] = uijMatrix[0][2];
+        uijs[j + U23] = uijMatrix[1][2];
+    }
+
+    private int checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Atom "+i+" outside table of size "+size);
+        }
+        return i;
+    }
+
+    /**
+     * Return the packed coordinates column. Only the first 3 * {@link #size()}
+     * values are in use and the array is replaced when the table grows, so
+     * it should not be held on to while atoms are added.
+     * @return double[] packed fractional coordinates
+     */
+    public double[] getCoordinateArray() {
+        return coords;
+    }
+
+    /**
+     * Return the occupancy column. Only the first {@link #size()} values are
+     * in use and the array is replaced when the table grows.
+     * @return double[] occupancies
+     */
+    public double[] getOccupancyArray() {
+        return occupancies;
+    }
+
+    /**
+     * Return the packed U<sub>ij</sub> column. Only the first
+     * 6 * {@link #size()} values are in use and the array is replaced when
+     * the table grows.
+     * @return double[] six U<sub>ij</sub> per atom
+     */
+    public double[] getUijArray() {
+        return uijs;
+    }
+
+    /**
+     * Return the type code column. Only the first {@link #size()} values are
+     * in use and the array is replaced when the table grows.
+     * @return int[] type codes
+     */
+    public int[] getTypeCodeArray() {
+        return typeCodes;
+    }
+
+    /**
+     * Copy the coordinates of atoms from (inclusive) to to (exclusive) into
+     * a packed array.
+     * @param from int first atom
+     * @param to int index after last atom
+     * @param dst double[] to receive packed coordinates
+     * @param dstOffset int index in dst of the x value of the first atom
+     */
+    public void getCoords(int from, int to, double[] dst, int dstOffset) {
+        checkRange(from, to);
+        System.arraycopy(coords, 3 * from, dst, dstOffset, 3 * (to - from));
+    }
+
+    /**
+     * Set the coordinates of atoms from (inclusive) to to (exclusive) from a
+     * packed array.
+     * @param from int first atom
+     * @param to int index after last atom
+     * @param src double[] packed coordinates
+     * @param srcOffset int index in src of the x value of the first atom
+     */
+    public void setCoords(int from, int to, double[] src, int srcOffset) {
+        checkRange(from, to);
+        System.arraycopy(src, srcOffset, coords, 3 * from, 3 * (to - from));
+    }
+
+    /**
+     * Multiply the coordinates of every atom by a 3x3 matrix in place (e.g.
+     * to orthogonalize them with {@link UnitCell#getOrthogonalizationMatrix()}).
+     * @param matrix 3x3 {@link Matrix}
+     */
+    public void transformCoords(Matrix matrix) {
+        PackedCoordinates.transform(matrix, coords, 0, coords, 0, size);
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to < from || to > size) {
+            throw new IndexOutOfBoundsException("Range ["+from+","+to+") outside table of size "+size);
+        }
+    }
+
+    /**
+     * Create an {@link Atom} with the values of atom i. Changes to the
+     * returned atom are not written back to the table. Fields of the atom
+     * which the table does not hold are left unset (see {@link #asList()}).
+     * @param i int index of atom
+     * @return {@link Atom}
+     */
+    public Atom toAtom(int i) {
+        return new Atom(getName(i), getType(i), getX(i), getY(i), getZ(i), getOcc(i), getUijMatrix(i));
+    }
+
+    /**
+     * Return a {@link List} view of the table. Reading an element creates a
+     * new {@link Atom} from its row; setting, adding and removing elements
+     * changes the table. Changes to atoms already read are not written back.
+     * Only the columns of the table are kept, so the view is not a general
+     * store of atoms: radius, coordination number, charge and isotope are
+     * lost, a null U<sub>ij</sub> matrix is read back as zeros, and atoms
+     * which had them are not equal to those read back.
+     * @return List<Atom>
+     */
+    public List<Atom> asList() {
+        return new AtomListView();
+    }
+
+    private final class AtomListView extends AbstractList<Atom> {
+
+        @Override
+        public Atom get(int index) {
+            return toAtom(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Atom set(int index, Atom element) {
+            Atom previous = toAtom(index);
+            AtomTable.this.set(index, element);
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Atom element) {
+            AtomTable.this.add(index, element);
+            modCount++;
+        }
+
+        @Override
+        public Atom remove(int index) {
+            Atom previous = toAtom(index);
+            AtomTable.this.remove(index);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            AtomTable.this.clear();
+            modCount++;
+        }
+    }
+}
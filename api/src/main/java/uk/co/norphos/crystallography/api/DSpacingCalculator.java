@@ -0,0 +1,148 @@
+package uk.co.norphos.crystallography.api;
+
+import uk.co.norphos.crystallography.api.maths.Matrix;
+
+/**
+ * Static helpers to calculate the d-spacings of Miller planes from the six
+ * independent elements of a reciprocal metric tensor (G*):<br />
+ * 1/d<sup>2</sup> = h<sup>2</sup>G*<sub>11</sub> + k<sup>2</sup>G*<sub>22</sub>
+ * + l<sup>2</sup>G*<sub>33</sub> + 2hkG*<sub>12</sub> + 2hlG*<sub>13</sub>
+ * + 2klG*<sub>23</sub>
+ *
+ * The bulk methods work on h, k and l held in separate int arrays and use
+ * simple counted loops over primitives, which the JIT is able to unroll and
+ * vectorise. No {@link MillerPlane} objects are needed.
+ *
+ * @author Michael Wharmby
+ */
+public final class DSpacingCalculator {
+
+    public static final int G11 = 0, G22 = 1, G33 = 2, G12 = 3, G13 = 4, G23 = 5;
+
+    private DSpacingCalculator() {
+    }
+
+    /**
+     * Extract the six independent elements of a symmetric reciprocal metric
+     * tensor in the order G*<sub>11</sub>, G*<sub>22</sub>, G*<sub>33</sub>,
+     * G*<sub>12</sub>, G*<sub>13</sub>, G*<sub>23</sub>.
+     * @param reciprocalMetricTensor 3x3 {@link Matrix}
+     * @return double[6] tensor coefficients
+     */
+    public static double[] coefficients(Matrix reciprocalMetricTensor) {
+        return new double[]{reciprocalMetricTensor.get(0, 0), reciprocalMetricTensor.get(1, 1),
+                reciprocalMetricTensor.get(2, 2), reciprocalMetricTensor.get(0, 1),
+                reciprocalMetricTensor.get(0, 2), reciprocalMetricTensor.get(1, 2)};
+    }
+
+    /**
+     * Calculate the six independent elements of the reciprocal metric tensor
+     * directly from lattice parameters, without creating a unit cell or any
+     * matrices. Intended for refinement, where only the lattice parameters
+     * change from one iteration to the next.
+     * @param a double in Angstrom
+     * @param b double in Angstrom
+     * @param c double in Angstrom
+     * @param al double in degrees
+     * @param be double in degrees
+     * @param ga double in degrees
+     * @param coeffs double[6] to receive the reciprocal metric tensor coefficients
+     * @return double[6] coeffs
+     */
+    public static double[] reciprocalCoefficients(double a, double b, double c, double al, double be, double ga,
+                                                  double[] coeffs) {
+        coeffs[G11] = a * a;
+        coeffs[G22] = b * b;
+        coeffs[G33] = c * c;
+        coeffs[G12] = a * b * Math.cos(Math.toRadians(ga));
+        coeffs[G13] = a * c * Math.cos(Math.toRadians(be));
+        coeffs[G23] = b * c * Math.cos(Math.toRadians(al));
+        return inverse(coeffs, coeffs);
+    }
+
+    /**
+     * Invert a symmetric metric tensor given by its six independent
+     * elements, e.g. to find the direct metric tensor from the reciprocal.
+     * @param coeffs double[6] tensor coefficients
+     * @param inverse double[6] to receive the coefficients of the inverse (may be coeffs)
+     * @return double[6] inverse
+     */
+    public static double[] inverse(double[] coeffs, double[] inverse) {
+        double g11 = coeffs[G11], g22 = coeffs[G22], g33 = coeffs[G33], g12 = coeffs[G12], g13 = coeffs[G13],
+                g23 = coeffs[G23];
+        //Inverse of the symmetric tensor by cofactors
+        double c11 = g22 * g33 - g23 * g23, c12 = g13 * g23 - g12 * g33, c13 = g12 * g23 - g13 * g22;
+        double inverseDet = 1 / (g11 * c11 + g12 * c12 + g13 * c13);
+        inverse[G11] = c11 * inverseDet;
+        inverse[G22] = (g11 * g33 - g13 * g13) * inverseDet;
+        inverse[G33] = (g11 * g22 - g12 * g12) * inverseDet;
+        inverse[G12] = c12 * inverseDet;
+        inverse[G13] = c13 * inverseDet;
+        inverse[G23] = (g12 * g13 - g11 * g23) * inverseDet;
+        return inverse;
+    }
+
+    /**
+     * Return 1/d<sup>2</sup> for a single set of Miller indices.
+     * @param coeffs double[6] reciprocal metric tensor coefficients
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return double 1/d<sup>2</sup> in Angstrom<sup>-2</sup>
+     */
+    public static double inverseDSquared(double[] coeffs, int h, int k, int l) {
+        return h * h * coeffs[G11] + k * k * coeffs[G22] + l * l * coeffs[G33]
+                + 2 * (h * k * coeffs[G12] + h * l * coeffs[G13] + k * l * coeffs[G23]);
+    }
+
+    /**
+     * Return the d-spacing of a single set of Miller indices.
+     * @param coeffs double[6] reciprocal metric tensor coefficients
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return double d-spacing in Angstrom (infinite for (000))
+     */
+    public static double dSpacing(double[] coeffs, int h, int k, int l) {
+        return 1 / Math.sqrt(inverseDSquared(coeffs, h, k, l));
+    }
+
+    /**
+     * Calculate d-spacings (and, optionally, Q values) for the reflections
+     * between from (inclusive) and to (exclusive) of the h, k and l arrays.
+     * Results are written to the same index of the output arrays.
+     * @param coeffs double[6] reciprocal metric tensor coefficients
+     * @param h int[] Miller indices
+     * @param k int[] Miller indices
+     * @param l int[] Miller indices
+     * @param from int first reflection to calculate
+     * @param to int index after the last reflection to calculate
+     * @param dSpacings double[] to receive d-spacings in Angstrom
+     * @param qValues double[] to receive Q = 2&pi;/d in Angstrom<sup>-1</sup>
+     *                (may be null)
+     */
+    public static void dSpacings(double[] coeffs, int[] h, int[] k, int[] l, int from, int to,
+                                 double[] dSpacings, double[] qValues) {
+        if (from < 0 || to < from || to > h.length || to > k.length || to > l.length ||
+                to > dSpacings.length || (qValues != null && to > qValues.length)) {
+            throw new IndexOutOfBoundsException("Cannot calculate d-spacings for range ["+from+","+to+")");
+        }
+        final double g11 = coeffs[G11], g22 = coeffs[G22], g33 = coeffs[G33],
+                g12 = 2 * coeffs[G12], g13 = 2 * coeffs[G13], g23 = 2 * coeffs[G23];
+
+        //Separate loops keep each body simple enough to vectorise
+        for (int i = from; i < to; i++) {
+            double hi = h[i], ki = k[i], li = l[i];
+            dSpacings[i] = hi * (g11 * hi + g12 * ki + g13 * li) + ki * (g22 * ki + g23 * li) + g33 * li * li;
+        }
+        if (qValues != null) {
+            final double twoPi = 2 * Math.PI;
+            for (int i = from; i < to; i++) {
+                qValues[i] = twoPi * Math.sqrt(dSpacings[i]);
+            }
+        }
+        for (int i = from; i < to; i++) {
+            dSpacings[i] = 1 / Math.sqrt(dSpacings[i]);
+        }
+    }
+}
@@ -1,10 +1,7 @@
 package uk.co.norphos.crystallography.api;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Objects;
-import java.util.stream.DoubleStream;
-import java.util.stream.Stream;
 
 /**
  * A bean-like object which holds all of the parameters necessary to specify a 
@@ -16,6 +13,12 @@ import java.util.stream.Stream;
 public class Lattice implements Serializable, Comparable<Lattice> {
 
     private static final long serialVersionUID = 5083826131364460534L;
+
+    /**
+     * Resolution to which parameters are compared by {@link #equals(Object)}:
+     * lengths in Angstrom, angles in degrees
+     */
+    public static final double LENGTH_QUANTUM = 1e-8, ANGLE_QUANTUM = 1e-8;
     
     private final double[] lengths, angles, anglesRadians;
     private final Double volume;
@@ -56,7 +59,7 @@ public class Lattice implements Serializable, Comparable<Lattice> {
     public Lattice(double a, double b, double c, double al, double be, double ga, Double volume, CrystalSystem crystalSystem, PrincipleAxis pAxis) {
         lengths = new double[]{a,b,c};
         angles = new double[]{al,be,ga};
-        anglesRadians = DoubleStream.of(angles).map(Math::toRadians).toArray();
+        anglesRadians = new double[]{Math.toRadians(al), Math.toRadians(be), Math.toRadians(ga)};
         this.volume = volume;
         this.principleAxis = pAxis;
         this.crystalSystem = crystalSystem;
@@ -73,12 +76,7 @@ public class Lattice implements Serializable, Comparable<Lattice> {
      * @param pAxis {@link PrincipleAxis}
      */
     public Lattice(Double[] lengths, Double angles[], Double volume, CrystalSystem crystalSystem, PrincipleAxis pAxis) {
-        this.lengths = Stream.of(lengths).mapToDouble(Double::doubleValue).toArray();
-        this.angles = Stream.of(angles).mapToDouble(Double::doubleValue).toArray();
-        this.anglesRadians = Stream.of(angles).mapToDouble(Double::doubleValue).map(Math::toRadians).toArray();
-        this.volume = volume;
-        this.crystalSystem = crystalSystem;
-        this.principleAxis = pAxis;
+        this(lengths[0], lengths[1], lengths[2], angles[0], angles[1], angles[2], volume, crystalSystem, pAxis);
     }
     
     /**
@@ -202,6 +200,26 @@ public class Lattice implements Serializable, Comparable<Lattice> {
         return principleAxis;
     }
     
+    /**
+     * Determine whether this lattice has the same parameters as another,
+     * within tolerances. Lengths of the other lattice must be within the
+     * fraction lengthTol of the lengths of this one and angles within
+     * angleTol. The lattices are compared as given, so should be in the
+     * same setting (e.g. both reduced).
+     *
+     * @param other {@link Lattice} to compare
+     * @param lengthTol double fractional length tolerance (e.g. 0.02 for 2%)
+     * @param angleTol double angle tolerance in degrees
+     * @return boolean true if this and other are the same within tolerance
+     */
+    public boolean isSimilar(Lattice other, double lengthTol, double angleTol) {
+        for (int i = 0; i < 3; i++) {
+            if (Math.abs(other.lengths[i] - lengths[i]) > lengthTol * lengths[i]) return false;
+            if (Math.abs(other.angles[i] - angles[i]) > angleTol) return false;
+        }
+        return true;
+    }
+
     @Override
     public int compareTo(Lattice o) {
         // TODO Auto-generated method stub
@@ -216,36 +234,39 @@ public class Lattice implements Serializable, Comparable<Lattice> {
                 +", crystalSystem=" + crystalSystem    + ", principleAxis=" + principleAxis + "]";
     }
 
+    /**
+     * Lattices are equal if they have the same crystal system and principal
+     * axis and their parameters round to the same multiples of
+     * {@link #LENGTH_QUANTUM} and {@link #ANGLE_QUANTUM}. Unlike comparing
+     * to a tolerance, this is transitive and consistent with
+     * {@link #hashCode()}, so lattices may be used as keys of hash maps and
+     * caches. The volume is derived from the parameters so is not compared.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Lattice lattice = (Lattice) o;
-        return arraysAlmostEqual(lengths, lattice.lengths, 1e-10) &&
-                arraysAlmostEqual(angles, lattice.angles, 1e-10) &&
-                arraysAlmostEqual(anglesRadians, lattice.anglesRadians, 1e-10) &&
-                Objects.equals(volume, lattice.volume) &&
-                principleAxis == lattice.principleAxis &&
-                crystalSystem == lattice.crystalSystem;
+        for (int i = 0; i < 3; i++) {
+            if (quantise(lengths[i], LENGTH_QUANTUM) != quantise(lattice.lengths[i], LENGTH_QUANTUM)
+                    || quantise(angles[i], ANGLE_QUANTUM) != quantise(lattice.angles[i], ANGLE_QUANTUM)) {
+                return false;
+            }
+        }
+        return principleAxis == lattice.principleAxis && crystalSystem == lattice.crystalSystem;
     }
 
     @Override
     public int hashCode() {
-
-        int result = Objects.hash(volume, principleAxis, crystalSystem);
-        result = 31 * result + Arrays.hashCode(lengths);
-        result = 31 * result + Arrays.hashCode(angles);
-        result = 31 * result + Arrays.hashCode(anglesRadians);
+        int result = Objects.hash(principleAxis, crystalSystem);
+        for (int i = 0; i < 3; i++) {
+            result = 31 * result + Long.hashCode(quantise(lengths[i], LENGTH_QUANTUM));
+            result = 31 * result + Long.hashCode(quantise(angles[i], ANGLE_QUANTUM));
+        }
         return result;
     }
 
-    private boolean arraysAlmostEqual(double[] one, double[] two, double delta) {
-        if (one.length != two.length) return false;
-        for(int i = 0; i < one.length; i++) {
-            if (Math.abs(one[i] - two[i]) < delta) {
-                return true;
-            }
-        }
-        return false;
+    private static long quantise(double value, double quantum) {
+        return Math.round(value / quantum);
     }
 }
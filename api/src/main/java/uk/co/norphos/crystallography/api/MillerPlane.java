@@ -174,6 +174,14 @@ public class MillerPlane implements Serializable, Comparable<MillerPlane> {
         return structureFactor;
     }
 
+    /**
+     * Return whether a structure factor has been set for this plane.
+     * @return boolean true if {@link #getStructureFactor()} has a value
+     */
+    public boolean hasStructureFactor() {
+        return structureFactor != null;
+    }
+
     /**
      * Change the calculated structure factor (F<sub>hkl</sub>) of the 
      * diffracted beam associated with this set of {@link MillerPlane}s. This
@@ -196,6 +204,14 @@ public class MillerPlane implements Serializable, Comparable<MillerPlane> {
         return intensity;
     }
 
+    /**
+     * Return whether an intensity has been set for this plane.
+     * @return boolean true if {@link #getIntensity()} has a value
+     */
+    public boolean hasIntensity() {
+        return intensity != null;
+    }
+
     /**
      * Set the observed scattering intensity (I<sub>hkl</sub>) of the 
      * reflection associated with this set of {@link MillerPlane}s. This
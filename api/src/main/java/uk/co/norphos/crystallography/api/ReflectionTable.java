@@ -0,0 +1,529 @@
+package uk.co.norphos.crystallography.api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact store for many reflections, holding the Miller indices, d-spacing,
+ * structure factor magnitude |F|, phase and intensity of each in parallel
+ * primitive columns, rather than as one {@link MillerPlane} object each.
+ * Columns are either on the heap or (see {@link #allocateDirect(int)})
+ * in direct buffers outside it. Labels are only stored once one is set.
+ *
+ * Values which are not known are NaN, except the d-spacing which is -1 (as
+ * for {@link MillerPlane}). Rows are accessed by index or with a
+ * {@link Cursor}. Tables are not thread safe.
+ *
+ * @author Michael Wharmby
+ */
+public final class ReflectionTable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final boolean direct;
+    private IntBuffer h, k, l;
+    private DoubleBuffer dSpacing, structureFactor, phase, intensity;
+    private String[] labels;
+    private int size, capacity;
+
+    /**
+     * Create an empty table stored on the heap.
+     */
+    public ReflectionTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty table stored on the heap, with space for a number of
+     * reflections before the columns need to grow.
+     * @param initialCapacity int number of reflections
+     */
+    public ReflectionTable(int initialCapacity) {
+        this(false, initialCapacity);
+    }
+
+    private ReflectionTable(boolean direct, int initialCapacity) {
+        if (initialCapacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+        this.direct = direct;
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    private ReflectionTable(IntBuffer h, IntBuffer k, IntBuffer l, DoubleBuffer dSpacing,
+                            DoubleBuffer structureFactor, DoubleBuffer phase, DoubleBuffer intensity, int size) {
+        this.direct = h.isDirect();
+        this.h = h;
+        this.k = k;
+        this.l = l;
+        this.dSpacing = dSpacing;
+        this.structureFactor = structureFactor;
+        this.phase = phase;
+        this.intensity = intensity;
+        this.size = size;
+        this.capacity = size;
+    }
+
+    /**
+     * Create an empty table with its columns stored in direct buffers,
+     * outside the Java heap.
+     * @param initialCapacity int number of reflections
+     * @return {@link ReflectionTable}
+     */
+    public static ReflectionTable allocateDirect(int initialCapacity) {
+        return new ReflectionTable(true, initialCapacity);
+    }
+
+    /**
+     * Create a table using existing buffers as its columns (e.g. regions of
+     * a mapped file). Reflections 0 to size - 1 are read from the absolute
+     * positions 0 to size - 1 of each buffer. Changes to the table write
+     * through to the buffers until it grows beyond size, when the columns
+     * are copied.
+     * @param h IntBuffer Miller indices
+     * @param k IntBuffer Miller indices
+     * @param l IntBuffer Miller indices
+     * @param dSpacing DoubleBuffer d-spacings in Angstrom
+     * @param structureFactor DoubleBuffer |F|
+     * @param phase DoubleBuffer phases in radians
+     * @param intensity DoubleBuffer intensities
+     * @param size int number of reflections
+     * @return {@link ReflectionTable}
+     */
+    public static ReflectionTable wrap(IntBuffer h, IntBuffer k, IntBuffer l, DoubleBuffer dSpacing,
+                                       DoubleBuffer structureFactor, DoubleBuffer phase, DoubleBuffer intensity,
+                                       int size) {
+        if (size < 0 || h.limit() < size || k.limit() < size || l.limit() < size || dSpacing.limit() < size ||
+                structureFactor.limit() < size || phase.limit() < size || intensity.limit() < size) {
+            throw new IllegalArgumentException("All columns must have at least "+size+" elements");
+        }
+        return new ReflectionTable(h, k, l, dSpacing, structureFactor, phase, intensity, size);
+    }
+
+    /**
+     * Create a table containing the indices, d-spacings, structure factors,
+     * intensities and labels of a list of {@link MillerPlane}s.
+     * @param planes List<MillerPlane>
+     * @return {@link ReflectionTable}
+     */
+    public static ReflectionTable fromMillerPlanes(List<MillerPlane> planes) {
+        ReflectionTable table = new ReflectionTable(planes.size());
+        for (MillerPlane plane : planes) {
+            table.add(plane);
+        }
+        return table;
+    }
+
+    private void allocate(int newCapacity) {
+        h = allocateInts(newCapacity, h);
+        k = allocateInts(newCapacity, k);
+        l = allocateInts(newCapacity, l);
+        dSpacing = allocateDoubles(newCapacity, dSpacing);
+        structureFactor = allocateDoubles(newCapacity, structureFactor);
+        phase = allocateDoubles(newCapacity, phase);
+        intensity = allocateDoubles(newCapacity, intensity);
+        if (labels != null) labels = Arrays.copyOf(labels, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private IntBuffer allocateInts(int newCapacity, IntBuffer old) {
+        IntBuffer column = direct ? ByteBuffer.allocateDirect(newCapacity * Integer.BYTES)
+                .order(ByteOrder.nativeOrder()).asIntBuffer() : IntBuffer.allocate(newCapacity);
+        if (old != null) {
+            for (int i = 0; i < size; i++) column.put(i, old.get(i));
+        }
+        return column;
+    }
+
+    private DoubleBuffer allocateDoubles(int newCapacity, DoubleBuffer old) {
+        DoubleBuffer column = direct ? ByteBuffer.allocateDirect(newCapacity * Double.BYTES)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer() : DoubleBuffer.allocate(newCapacity);
+        if (old != null) {
+            for (int i = 0; i < size; i++) column.put(i, old.get(i));
+        }
+        return column;
+    }
+
+    /**
+     * Return the number of reflections in the table.
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return whether the columns of this table are outside the Java heap.
+     * @return boolean true if stored in direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Remove all reflections, keeping the allocated columns.
+     */
+    public void clear() {
+        size = 0;
+        labels = null;
+    }
+
+    /**
+     * Add a reflection with unknown d-spacing, structure factor, phase and
+     * intensity.
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return int index of the new reflection
+     */
+    public int add(int h, int k, int l) {
+        return add(h, k, l, -1);
+    }
+
+    /**
+     * Add a reflection with known d-spacing.
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @param dSpacing double in Angstrom
+     * @return int index of the new reflection
+     */
+    public int add(int h, int k, int l, double dSpacing) {
+        if (size == capacity) allocate(Math.max(2 * capacity, DEFAULT_CAPACITY));
+        int i = size++;
+        this.h.put(i, h);
+        this.k.put(i, k);
+        this.l.put(i, l);
+        this.dSpacing.put(i, dSpacing);
+        structureFactor.put(i, Double.NaN);
+        phase.put(i, Double.NaN);
+        intensity.put(i, Double.NaN);
+        if (labels != null) labels[i] = null;
+        return i;
+    }
+
+    /**
+     * Add the indices, d-spacing, structure factor, intensity and label of
+     * a {@link MillerPlane}.
+     * @param plane {@link MillerPlane}
+     * @return int index of the new reflection
+     */
+    public int add(MillerPlane plane) {
+        int i = add(plane.getH(), plane.getK(), plane.getL(), plane.getDSpacing());
+        if (plane.hasStructureFactor()) structureFactor.put(i, plane.getStructureFactor());
+        if (plane.hasIntensity()) intensity.put(i, plane.getIntensity());
+        setLabel(i, plane.getLabel());
+        return i;
+    }
+
+    public int getH(int i) {
+        return h.get(checkIndex(i));
+    }
+
+    public int getK(int i) {
+        return k.get(checkIndex(i));
+    }
+
+    public int getL(int i) {
+        return l.get(checkIndex(i));
+    }
+
+    /**
+     * @param i int index of reflection
+     * @return double d-spacing in Angstrom (-1 if unknown)
+     */
+    public double getDSpacing(int i) {
+        return dSpacing.get(checkIndex(i));
+    }
+
+    public void setDSpacing(int i, double value) {
+        dSpacing.put(checkIndex(i), value);
+    }
+
+    /**
+     * @param i int index of reflection
+     * @return double structure factor magnitude |F<sub>hkl</sub>| (NaN if
+     * unknown)
+     */
+    public double getStructureFactor(int i) {
+        return structureFactor.get(checkIndex(i));
+    }
+
+    public void setStructureFactor(int i, double value) {
+        structureFactor.put(checkIndex(i), value);
+    }
+
+    /**
+     * @param i int index of reflection
+     * @return double phase of F<sub>hkl</sub> in radians (NaN if unknown)
+     */
+    public double getPhase(int i) {
+        return phase.get(checkIndex(i));
+    }
+
+    public void setPhase(int i, double value) {
+        phase.put(checkIndex(i), value);
+    }
+
+    /**
+     * @param i int index of reflection
+     * @return double intensity I<sub>hkl</sub> (NaN if unknown)
+     */
+    public double getIntensity(int i) {
+        return intensity.get(checkIndex(i));
+    }
+
+    public void setIntensity(int i, double value) {
+        intensity.put(checkIndex(i), value);
+    }
+
+    /**
+     * @param i int index of reflection
+     * @return String label (empty if not set)
+     */
+    public String getLabel(int i) {
+        checkIndex(i);
+        if (labels == null || labels[i] == null) return "";
+        return labels[i];
+    }
+
+    public void setLabel(int i, String label) {
+        checkIndex(i);
+        if (labels == null) {
+            if (label == null || label.isEmpty()) return;
+            labels = new String[capacity];
+        }
+        labels[i] = label;
+    }
+
+    private int checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Reflection "+i+" outside table of size "+size);
+        }
+        return i;
+    }
+
+    /**
+     * Set the d-spacing of every reflection from a {@link UnitCell}.
+     * @param unitCell {@link UnitCell}
+     */
+    public void calculateDSpacings(UnitCell unitCell) {
+        calculateDSpacings(DSpacingCalculator.coefficients(unitCell.getReciprocalMetricTensor()));
+    }
+
+    /**
+     * Set the d-spacing of every reflection from the six reciprocal metric
+     * tensor coefficients (see {@link DSpacingCalculator}), e.g. when only the
+     * lattice parameters have changed during refinement.
+     * @param reciprocalCoefficients double[6]
+     */
+    public void calculateDSpacings(double[] reciprocalCoefficients) {
+        if (h.hasArray() && k.hasArray() && l.hasArray() && dSpacing.hasArray() && h.arrayOffset() == 0 &&
+                k.arrayOffset() == 0 && l.arrayOffset() == 0 && dSpacing.arrayOffset() == 0) {
+            DSpacingCalculator.dSpacings(reciprocalCoefficients, h.array(), k.array(), l.array(), 0, size,
+                    dSpacing.array(), null);
+        } else {
+            for (int i = 0; i < size; i++) {
+                dSpacing.put(i, DSpacingCalculator.dSpacing(reciprocalCoefficients, h.get(i), k.get(i), l.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Reorder the reflections by d-spacing. Reflections with equal
+     * d-spacings keep their relative order.
+     * @param descending boolean true to put the largest d-spacing first
+     */
+    public void sortByDSpacing(boolean descending) {
+        double[] keys = new double[size];
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = descending ? -dSpacing.get(i) : dSpacing.get(i);
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], keys, 0, size);
+
+        permute(h, order);
+        permute(k, order);
+        permute(l, order);
+        permute(dSpacing, order);
+        permute(structureFactor, order);
+        permute(phase, order);
+        permute(intensity, order);
+        if (labels != null) {
+            String[] sorted = new String[capacity];
+            for (int i = 0; i < size; i++) sorted[i] = labels[order[i]];
+            labels = sorted;
+        }
+    }
+
+    /*
+     * Stable sort of the indices in order[from, to) by their keys.
+     */
+    private static void mergeSort(int[] order, int[] scratch, double[] keys, int from, int to) {
+        if (to - from < 8) {
+            for (int i = from + 1; i < to; i++) {
+                int index = order[i], j = i;
+                while (j > from && Double.compare(keys[order[j - 1]], keys[index]) > 0) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = index;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, scratch, keys, from, mid);
+        mergeSort(order, scratch, keys, mid, to);
+        if (Double.compare(keys[order[mid - 1]], keys[order[mid]]) <= 0) return;
+
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from, j = mid, dest = from;
+        while (i < mid && j < to) {
+            order[dest++] = Double.compare(keys[scratch[j]], keys[scratch[i]]) < 0 ? scratch[j++] : scratch[i++];
+        }
+        while (i < mid) order[dest++] = scratch[i++];
+        while (j < to) order[dest++] = scratch[j++];
+    }
+
+    private void permute(IntBuffer column, int[] order) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) values[i] = column.get(order[i]);
+        for (int i = 0; i < size; i++) column.put(i, values[i]);
+    }
+
+    private void permute(DoubleBuffer column, int[] order) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) values[i] = column.get(order[i]);
+        for (int i = 0; i < size; i++) column.put(i, values[i]);
+    }
+
+    /**
+     * Create a {@link MillerPlane} for a reflection. The phase is not
+     * included; unknown structure factors and intensities are null.
+     * @param i int index of reflection
+     * @return {@link MillerPlane}
+     */
+    public MillerPlane toMillerPlane(int i) {
+        double f = getStructureFactor(i), intens = getIntensity(i);
+        return new MillerPlane(getH(i), getK(i), getL(i), getDSpacing(i), getLabel(i),
+                Double.isNaN(f) ? null : f, Double.isNaN(intens) ? null : intens);
+    }
+
+    /**
+     * Create a {@link MillerPlane} for every reflection in the table.
+     * @return List<MillerPlane>
+     */
+    public List<MillerPlane> toMillerPlanes() {
+        List<MillerPlane> planes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            planes.add(toMillerPlane(i));
+        }
+        return planes;
+    }
+
+    /**
+     * Return a new {@link Cursor}, positioned before the first reflection.
+     * @return {@link Cursor}
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Moves through the rows of the table, giving access to one reflection
+     * at a time without creating objects:
+     * <pre>
+     * Cursor cursor = table.cursor();
+     * while (cursor.next()) {
+     *     cursor.setIntensity(cursor.getStructureFactor() * cursor.getStructureFactor());
+     * }
+     * </pre>
+     */
+    public final class Cursor {
+
+        private int position = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move to the next reflection.
+         * @return boolean false if there are no more reflections
+         */
+        public boolean next() {
+            if (position + 1 >= size) {
+                position = size;
+                return false;
+            }
+            position++;
+            return true;
+        }
+
+        /**
+         * Return the index of the current reflection.
+         * @return int
+         */
+        public int position() {
+            return position;
+        }
+
+        /**
+         * Move to a reflection by its index. Use -1 to restart iteration.
+         * @param i int index of reflection
+         */
+        public void position(int i) {
+            if (i < -1 || i >= size) {
+                throw new IndexOutOfBoundsException("Reflection "+i+" outside table of size "+size);
+            }
+            position = i;
+        }
+
+        public int getH() {
+            return h.get(position);
+        }
+
+        public int getK() {
+            return k.get(position);
+        }
+
+        public int getL() {
+            return l.get(position);
+        }
+
+        public double getDSpacing() {
+            return dSpacing.get(position);
+        }
+
+        public void setDSpacing(double value) {
+            dSpacing.put(position, value);
+        }
+
+        public double getStructureFactor() {
+            return structureFactor.get(position);
+        }
+
+        public void setStructureFactor(double value) {
+            structureFactor.put(position, value);
+        }
+
+        public double getPhase() {
+            return phase.get(position);
+        }
+
+        public void setPhase(double value) {
+            phase.put(position, value);
+        }
+
+        public double getIntensity() {
+            return intensity.get(position);
+        }
+
+        public void setIntensity(double value) {
+            intensity.put(position, value);
+        }
+    }
+}
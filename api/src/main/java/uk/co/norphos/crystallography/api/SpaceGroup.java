@@ -1,5 +1,124 @@
 package uk.co.norphos.crystallography.api;
 
+/**
+ * The symmetry of a crystal structure, described by its symmetry operators
+ * (or general positions). Each operator (R,t) maps fractional coordinates x
+ * to Rx + t, where R is an integer 3x3 rotation matrix and t a translation.
+ *
+ * The operators are numbered 0 to {@link #getOrder()} - 1. Operator 0 is the
+ * identity. For a centred lattice, operator c * {@link #getPrimitiveOrder()}
+ * + p is operator p shifted by centring vector c, so the first
+ * {@link #getPrimitiveOrder()} operators have one of each distinct rotation.
+ * Implementations should be immutable, so they can be shared between threads.
+ *
+ * @author Michael Wharmby
+ */
 public interface SpaceGroup {
 
+    /**
+     * Return the number of this space group in International Tables Vol. A.
+     * @return int 1 to 230 (0 if not a standard setting)
+     */
+    int getNumber();
+
+    /**
+     * Return the short Hermann-Mauguin symbol of this space group, e.g. P21/c.
+     * @return String (null if not a standard setting)
+     */
+    String getHermannMauguinSymbol();
+
+    /**
+     * Return the Hall symbol from which the operators were generated, e.g.
+     * -P 2ybc.
+     * @return String (null if generated from symmetry operators)
+     */
+    String getHallSymbol();
+
+    /**
+     * Return the crystal system of this space group.
+     * @return {@link CrystalSystem}
+     */
+    CrystalSystem getCrystalSystem();
+
+    /**
+     * Return the number of symmetry operators (general positions), including
+     * those generated by lattice centring.
+     * @return int
+     */
+    int getOrder();
+
+    /**
+     * Return the number of operators which are not related by lattice
+     * centring (i.e. the order of the point group).
+     * @return int
+     */
+    int getPrimitiveOrder();
+
+    /**
+     * Return the number of lattice centring vectors, including (0,0,0).
+     * @return int 1 for P, 2 for A, B, C & I, 3 for R (hexagonal axes) and
+     * 4 for F lattices
+     */
+    default int getNumberOfCentringVectors() {
+        return getOrder() / getPrimitiveOrder();
+    }
+
+    /**
+     * Return whether this space group contains an inversion centre.
+     * @return boolean
+     */
+    boolean isCentrosymmetric();
+
+    /**
+     * Return one element of the rotation matrix of an operator.
+     * @param op int operator number
+     * @param row int 0-2
+     * @param col int 0-2
+     * @return int
+     */
+    int getRotation(int op, int row, int col);
+
+    /**
+     * Return one component of the translation of an operator.
+     * @param op int operator number
+     * @param component int 0-2
+     * @return double in the range [0,1)
+     */
+    double getTranslation(int op, int component);
+
+    /**
+     * Return the rotation matrices of all operators, each as nine row-ordered
+     * elements one after another.
+     * @return int[9 * {@link #getOrder()}] (a copy)
+     */
+    int[] getRotations();
+
+    /**
+     * Return the translations of all operators, each as three components one
+     * after another.
+     * @return double[3 * {@link #getOrder()}] (a copy)
+     */
+    double[] getTranslations();
+
+    /**
+     * Apply an operator to a single set of fractional coordinates. The
+     * result is not moved back into the unit cell.
+     * @param op int operator number
+     * @param x double fractional coordinate
+     * @param y double fractional coordinate
+     * @param z double fractional coordinate
+     * @param dst double[] to receive the new coordinates
+     * @param dstOffset int index in dst for the new x
+     */
+    void applyOperator(int op, double x, double y, double z, double[] dst, int dstOffset);
+
+    /**
+     * Return whether a reflection is systematically absent, i.e. whether
+     * some operator (R,t) has hR = h but h.t is not an integer.
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return boolean true if the reflection cannot be observed
+     */
+    boolean isSystematicallyAbsent(int h, int k, int l);
 }
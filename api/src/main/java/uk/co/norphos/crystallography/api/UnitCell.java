@@ -1,8 +1,11 @@
 package uk.co.norphos.crystallography.api;
 
 import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.PackedCoordinates;
 import uk.co.norphos.crystallography.api.maths.Vector;
 
+import java.nio.DoubleBuffer;
+
 /**
  * UnitCell describes the size of the repeating 3d tile of a crystal. It
  * consists of a {@link Lattice} and provides methods to change the lattice 
@@ -160,6 +163,21 @@ public interface UnitCell extends Comparable<UnitCell> {
      */
     UnitCell getReciprocal();
 
+    /**
+     * Return the Niggli reduced cell of this UnitCell, which is the same for
+     * all (primitive) cells of a lattice.
+     * @return UnitCell
+     */
+    UnitCell getNiggliReducedCell();
+
+    /**
+     * Return the transformation from this UnitCell to its Niggli reduced
+     * cell, whose columns are the reduced basis vectors in terms of those of
+     * this cell (so G<sub>reduced</sub> = P<sup>T</sup> G P).
+     * @return Matrix integer transformation matrix P
+     */
+    Matrix getNiggliTransformation();
+
     /**
      * Convert a vector in Cartesian coordinates to its equivalent in the
      * fractional coordinate system of this unit cell.
@@ -182,6 +200,88 @@ public interface UnitCell extends Comparable<UnitCell> {
         return getOrthogonalizationMatrix().multiply(fracVector);
     }
 
+    /**
+     * Convert many Cartesian coordinates, packed as consecutive x, y, z
+     * triplets, into fractional coordinates of this unit cell. The arrays
+     * may be the same to convert in place.
+     *
+     * @param cartCoords double[] packed Cartesian coordinates
+     * @param fracCoords double[] to receive packed fractional coordinates
+     */
+    default void fractionalize(double[] cartCoords, double[] fracCoords) {
+        if (cartCoords.length % 3 != 0) {
+            throw new IllegalArgumentException("Coordinate array does not contain a whole number of coordinates");
+        }
+        PackedCoordinates.transform(getFractionalizationMatrix(), cartCoords, 0, fracCoords, 0, cartCoords.length / 3);
+    }
+
+    /**
+     * Convert nCoords packed Cartesian coordinates into fractional
+     * coordinates of this unit cell.
+     *
+     * @param cartCoords double[] packed Cartesian coordinates
+     * @param cartOffset int index of first x value in cartCoords
+     * @param fracCoords double[] to receive packed fractional coordinates
+     * @param fracOffset int index of first x value in fracCoords
+     * @param nCoords int number of coordinates to convert
+     */
+    default void fractionalize(double[] cartCoords, int cartOffset, double[] fracCoords, int fracOffset, int nCoords) {
+        PackedCoordinates.transform(getFractionalizationMatrix(), cartCoords, cartOffset, fracCoords, fracOffset, nCoords);
+    }
+
+    /**
+     * Convert the packed Cartesian coordinates remaining in cartCoords into
+     * fractional coordinates of this unit cell. Buffer positions are advanced
+     * past the converted coordinates.
+     *
+     * @param cartCoords DoubleBuffer packed Cartesian coordinates
+     * @param fracCoords DoubleBuffer to receive packed fractional coordinates
+     */
+    default void fractionalize(DoubleBuffer cartCoords, DoubleBuffer fracCoords) {
+        PackedCoordinates.transform(getFractionalizationMatrix(), cartCoords, fracCoords);
+    }
+
+    /**
+     * Convert many fractional coordinates of this unit cell, packed as
+     * consecutive x, y, z triplets, into Cartesian coordinates. The arrays
+     * may be the same to convert in place.
+     *
+     * @param fracCoords double[] packed fractional coordinates
+     * @param cartCoords double[] to receive packed Cartesian coordinates
+     */
+    default void orthogonalize(double[] fracCoords, double[] cartCoords) {
+        if (fracCoords.length % 3 != 0) {
+            throw new IllegalArgumentException("Coordinate array does not contain a whole number of coordinates");
+        }
+        PackedCoordinates.transform(getOrthogonalizationMatrix(), fracCoords, 0, cartCoords, 0, fracCoords.length / 3);
+    }
+
+    /**
+     * Convert nCoords packed fractional coordinates of this unit cell into
+     * Cartesian coordinates.
+     *
+     * @param fracCoords double[] packed fractional coordinates
+     * @param fracOffset int index of first x value in fracCoords
+     * @param cartCoords double[] to receive packed Cartesian coordinates
+     * @param cartOffset int index of first x value in cartCoords
+     * @param nCoords int number of coordinates to convert
+     */
+    default void orthogonalize(double[] fracCoords, int fracOffset, double[] cartCoords, int cartOffset, int nCoords) {
+        PackedCoordinates.transform(getOrthogonalizationMatrix(), fracCoords, fracOffset, cartCoords, cartOffset, nCoords);
+    }
+
+    /**
+     * Convert the packed fractional coordinates remaining in fracCoords into
+     * Cartesian coordinates. Buffer positions are advanced past the converted
+     * coordinates.
+     *
+     * @param fracCoords DoubleBuffer packed fractional coordinates
+     * @param cartCoords DoubleBuffer to receive packed Cartesian coordinates
+     */
+    default void orthogonalize(DoubleBuffer fracCoords, DoubleBuffer cartCoords) {
+        PackedCoordinates.transform(getOrthogonalizationMatrix(), fracCoords, cartCoords);
+    }
+
     /**
      * Return matrix to convert Cartesian coordinates into fractional
      * coordinates for this unit cell's lattice.
@@ -253,9 +353,11 @@ public interface UnitCell extends Comparable<UnitCell> {
     double calculateDihedralAngle(Vector site1, Vector site2, Vector site3, Vector site4);
 
     /**
-     * Maximum {@link MillerPlane} for the given d-spacing limit.
+     * Maximum {@link MillerPlane} for the given d-spacing limit. Each index
+     * is the largest absolute value of h, k or l which any reflection with
+     * a d-spacing at or above the limit can have.
      *
-     * @param dSpacing in Angstrom<sup>-1<sup> TODO Right?
+     * @param dSpacing in Angstrom
      * @return MillerIndex maximum hkl observable
      */
     MillerPlane getMaxMillerIndex(double dSpacing);
@@ -264,17 +366,53 @@ public interface UnitCell extends Comparable<UnitCell> {
      * Return the d-space value for a specific {@link MillerPlane}.
      *
      * @param hkl {@link MillerPlane}
-     * @return double d-spacing in Angstrom<sup>-1<sup> TODO Right?
+     * @return double d-spacing in Angstrom
      */
     double calculateDSpacing(MillerPlane hkl);
-//    
-//    /**
-//     * Determine whether this UnitCell is similar to another one, within certain tolerances.
-//     *  
-//     * @param other UnitCell to compare
-//     * @param lengthTol Double length tolerance (if null, default to 0.02 - 2%)
-//     * @param angleTol Double angle tolerance (if null, default to 1degree)
-//     * @return boolean true if this and other are same within tolerance
-//     */
-//    boolean isSimilar(UnitCell other, Double lengthTol, Double angleTol);
+
+    /**
+     * Calculate the d-spacings of many reflections, whose Miller indices are
+     * held in separate h, k and l arrays. The d-spacing of reflection i is
+     * written to dSpacings[i].
+     *
+     * @param h int[] Miller indices
+     * @param k int[] Miller indices
+     * @param l int[] Miller indices
+     * @param dSpacings double[] to receive d-spacings in Angstrom
+     */
+    default void calculateDSpacings(int[] h, int[] k, int[] l, double[] dSpacings) {
+        calculateDSpacings(h, k, l, 0, h.length, dSpacings, null);
+    }
+
+    /**
+     * Calculate the d-spacings, and optionally the Q values, of reflections
+     * from (inclusive) to to (exclusive), whose Miller indices are held in
+     * separate h, k and l arrays.
+     *
+     * @param h int[] Miller indices
+     * @param k int[] Miller indices
+     * @param l int[] Miller indices
+     * @param from int index of first reflection
+     * @param to int index after last reflection
+     * @param dSpacings double[] to receive d-spacings in Angstrom
+     * @param qValues double[] to receive Q values in Angstrom<sup>-1</sup>
+     *                (may be null)
+     */
+    default void calculateDSpacings(int[] h, int[] k, int[] l, int from, int to, double[] dSpacings, double[] qValues) {
+        DSpacingCalculator.dSpacings(DSpacingCalculator.coefficients(getReciprocalMetricTensor()),
+                h, k, l, from, to, dSpacings, qValues);
+    }
+
+    /**
+     * Determine whether this UnitCell is similar to another one, within certain tolerances.
+     *
+     * @param other UnitCell to compare
+     * @param lengthTol Double length tolerance (if null, default to 0.02 - 2%)
+     * @param angleTol Double angle tolerance (if null, default to 1degree)
+     * @return boolean true if this and other are same within tolerance
+     */
+    default boolean isSimilar(UnitCell other, Double lengthTol, Double angleTol) {
+        return getLattice().isSimilar(other.getLattice(), lengthTol == null ? 0.02 : lengthTol,
+                angleTol == null ? 1 : angleTol);
+    }
 }
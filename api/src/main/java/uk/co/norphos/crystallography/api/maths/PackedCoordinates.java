@@ -0,0 +1,96 @@
+package uk.co.norphos.crystallography.api.maths;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Static helpers which apply a 3x3 {@link Matrix} to many three dimensional
+ * coordinates stored contiguously (x<sub>0</sub>, y<sub>0</sub>,
+ * z<sub>0</sub>, x<sub>1</sub>, y<sub>1</sub>, ...) in a double array or
+ * {@link DoubleBuffer}. The matrix elements are read once per call, so the
+ * loop over coordinates creates no objects. Source and destination may be
+ * the same array/buffer to transform in place.
+ *
+ * @author Michael Wharmby
+ */
+public final class PackedCoordinates {
+
+    private PackedCoordinates() {
+    }
+
+    /**
+     * Multiply every packed coordinate in src by matrix, writing the results
+     * to dst.
+     * @param matrix 3x3 {@link Matrix}
+     * @param src double[] packed input coordinates
+     * @param srcOffset int index of the x value of the first coordinate in src
+     * @param dst double[] packed output coordinates (may be src)
+     * @param dstOffset int index of the x value of the first coordinate in dst
+     * @param nCoords int number of coordinates (i.e. triplets) to transform
+     */
+    public static void transform(Matrix matrix, double[] src, int srcOffset, double[] dst, int dstOffset, int nCoords) {
+        checkMatrix(matrix);
+        if (nCoords < 0 || srcOffset < 0 || dstOffset < 0 ||
+                srcOffset + 3 * nCoords > src.length || dstOffset + 3 * nCoords > dst.length) {
+            throw new IndexOutOfBoundsException("Cannot transform "+nCoords+" coordinates with source offset "
+                    +srcOffset+" (length "+src.length+") and destination offset "+dstOffset+" (length "+dst.length+")");
+        }
+        final double m00 = matrix.get(0, 0), m01 = matrix.get(0, 1), m02 = matrix.get(0, 2),
+                m10 = matrix.get(1, 0), m11 = matrix.get(1, 1), m12 = matrix.get(1, 2),
+                m20 = matrix.get(2, 0), m21 = matrix.get(2, 1), m22 = matrix.get(2, 2);
+
+        for (int n = 0; n < nCoords; n++) {
+            int i = srcOffset + 3 * n, j = dstOffset + 3 * n;
+            double x = src[i], y = src[i + 1], z = src[i + 2];
+            dst[j] = m00 * x + m01 * y + m02 * z;
+            dst[j + 1] = m10 * x + m11 * y + m12 * z;
+            dst[j + 2] = m20 * x + m21 * y + m22 * z;
+        }
+    }
+
+    /**
+     * Multiply every coordinate in the remaining elements of src by matrix,
+     * writing the results to dst starting at its current position. The
+     * positions of both buffers are advanced past the coordinates processed.
+     * @param matrix 3x3 {@link Matrix}
+     * @param src DoubleBuffer packed input coordinates
+     * @param dst DoubleBuffer packed output coordinates (may be src)
+     */
+    public static void transform(Matrix matrix, DoubleBuffer src, DoubleBuffer dst) {
+        checkMatrix(matrix);
+        int srcPos = src.position(), dstPos = dst.position();
+        int nValues = src.remaining();
+        if (nValues % 3 != 0) {
+            throw new IllegalArgumentException("Source buffer does not contain a whole number of coordinates");
+        }
+        if (dst.remaining() < nValues) {
+            throw new IllegalArgumentException("Destination buffer has space for "+dst.remaining()/3
+                    +" coordinates, but "+nValues/3+" are required");
+        }
+        int nCoords = nValues / 3;
+
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()) {
+            transform(matrix, src.array(), src.arrayOffset() + srcPos, dst.array(), dst.arrayOffset() + dstPos, nCoords);
+        } else {
+            final double m00 = matrix.get(0, 0), m01 = matrix.get(0, 1), m02 = matrix.get(0, 2),
+                    m10 = matrix.get(1, 0), m11 = matrix.get(1, 1), m12 = matrix.get(1, 2),
+                    m20 = matrix.get(2, 0), m21 = matrix.get(2, 1), m22 = matrix.get(2, 2);
+
+            for (int n = 0; n < nCoords; n++) {
+                int i = srcPos + 3 * n, j = dstPos + 3 * n;
+                double x = src.get(i), y = src.get(i + 1), z = src.get(i + 2);
+                dst.put(j, m00 * x + m01 * y + m02 * z);
+                dst.put(j + 1, m10 * x + m11 * y + m12 * z);
+                dst.put(j + 2, m20 * x + m21 * y + m22 * z);
+            }
+        }
+        src.position(srcPos + nValues);
+        dst.position(dstPos + nValues);
+    }
+
+    private static void checkMatrix(Matrix matrix) {
+        int[] shape = matrix.getShape();
+        if (shape.length != 2 || shape[0] != 3 || shape[1] != 3) {
+            throw new IllegalArgumentException("Coordinates can only be transformed by a 3x3 matrix");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package uk.co.norphos.crystallography.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AtomTableTest {
+
+    private final double[][] uij = new double[][]{{0.01, 0.002, 0.003}, {0.002, 0.02, 0.004}, {0.003, 0.004, 0.03}};
+
+    @Test
+    public void testAddAndGrow() {
+        AtomTable table = new AtomTable(2);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("Wrong index for new atom", i, table.add("C"+i, i % 2 == 0 ? "C" : "O", i, 2 * i, 3 * i, 1));
+        }
+        assertEquals("Wrong size", 100, table.size());
+        assertEquals("Wrong name", "C57", table.getName(57));
+        assertEquals("Wrong type", "O", table.getType(57));
+        assertEquals("Wrong y", 114, table.getY(57), 0);
+        assertEquals("Types should only be stored once", Arrays.asList("C", "O"), table.getTypes());
+        assertEquals("Wrong type code", 1, table.getTypeCode(57));
+        assertSame("Type strings not shared", table.getType(1), table.getType(3));
+    }
+
+    @Test
+    public void testUij() {
+        AtomTable table = new AtomTable();
+        int i = table.add(new Atom("Si1", "Si", 0.1, 0.2, 0.3, 0.5, uij));
+        assertEquals("Wrong U12", 0.002, table.getUij(i, AtomTable.U12), 0);
+        assertEquals("Wrong U33", 0.03, table.getUij(i, AtomTable.U33), 0);
+        assertArrayEquals("Wrong Uij matrix", uij, table.getUijMatrix(i));
+
+        table.setUijMatrix(i, null);
+        assertEquals("Uij not cleared", 0, table.getUij(i, AtomTable.U11), 0);
+    }
+
+    @Test
+    public void testBulkCoordinates() {
+        AtomTable table = new AtomTable();
+        table.add("A", "C", 0.1, 0.2, 0.3, 1);
+        table.add("B", "C", 0.4, 0.5, 0.6, 1);
+        table.add("C", "C", 0.7, 0.8, 0.9, 1);
+
+        double[] coords = new double[6];
+        table.getCoords(1, 3, coords, 0);
+        assertArrayEquals("Wrong coordinates copied", new double[]{0.4, 0.5, 0.6, 0.7, 0.8, 0.9}, coords, 0);
+
+        table.setCoords(0, 1, new double[]{-1, -2, -3}, 0);
+        assertEquals("Coordinates not set", -2, table.getY(0), 0);
+        assertEquals("Wrong coordinate in array", -3, table.getCoordinateArray()[2], 0);
+    }
+
+    @Test
+    public void testListView() {
+        List<Atom> atoms = new ArrayList<>(Arrays.asList(new Atom("Si1", "Si", 0.1, 0.2, 0.3, 1, uij),
+                new Atom("O1", "O", 0.4, 0.5, 0.6, 0.5, uij), new Atom("O2", "O", 0.7, 0.8, 0.9, 1, uij)));
+        AtomTable table = AtomTable.fromAtoms(atoms);
+        List<Atom> view = table.asList();
+        assertEquals("View differs from atoms", atoms, view);
+
+        Atom extra = new Atom("H1", "H", 0, 0, 0, 1, uij);
+        view.add(1, extra);
+        atoms.add(1, extra);
+        assertEquals("Insert not made in table", 4, table.size());
+        assertEquals("Wrong atom after insert", "H1", table.getName(1));
+        assertEquals("View differs after insert", atoms, view);
+
+        view.remove(0);
+        atoms.remove(0);
+        assertEquals("View differs after removal", atoms, view);
+
+        view.set(0, new Atom("H2", "H", 0.5, 0.5, 0.5, 1, uij));
+        assertEquals("Set not made in table", 0.5, table.getX(0), 0);
+
+        view.clear();
+        assertEquals("Table not cleared", 0, table.size());
+    }
+}
@@ -0,0 +1,155 @@
+package uk.co.norphos.crystallography.api;
+
+import org.junit.Test;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReflectionTableTest {
+
+    @Test
+    public void testAddAndGrow() {
+        for (ReflectionTable table : Arrays.asList(new ReflectionTable(2), ReflectionTable.allocateDirect(2))) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals("Wrong index for new reflection", i, table.add(i, -i, 2 * i, i + 0.5));
+            }
+            table.setIntensity(50, 12.5);
+            assertEquals("Wrong size", 100, table.size());
+            assertEquals("Wrong k", -73, table.getK(73));
+            assertEquals("Wrong l", 146, table.getL(73));
+            assertEquals("Wrong d-spacing", 73.5, table.getDSpacing(73), 0);
+            assertEquals("Wrong intensity", 12.5, table.getIntensity(50), 0);
+            assertTrue("Intensity should be unknown", Double.isNaN(table.getIntensity(51)));
+            assertTrue("Phase should be unknown", Double.isNaN(table.getPhase(51)));
+            assertEquals("Label should be empty", "", table.getLabel(51));
+        }
+        assertTrue("Table should be direct", ReflectionTable.allocateDirect(1).isDirect());
+        assertFalse("Table should be on heap", new ReflectionTable().isDirect());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutsideTable() {
+        ReflectionTable table = new ReflectionTable(10);
+        table.add(1, 0, 0);
+        table.getH(1);
+    }
+
+    @Test
+    public void testSortByDSpacing() {
+        ReflectionTable table = new ReflectionTable();
+        table.add(1, 0, 0, 2.0);
+        table.add(1, 1, 0, 3.0);
+        table.add(0, 1, 0, 2.0);
+        table.add(1, 1, 1, 1.0);
+        table.setLabel(1, "strong");
+        table.setStructureFactor(3, 7.0);
+
+        table.sortByDSpacing(true);
+        assertEquals("Largest d-spacing not first", 3.0, table.getDSpacing(0), 0);
+        assertEquals("Label not moved with reflection", "strong", table.getLabel(0));
+        assertEquals("Equal d-spacings not kept in order", 1, table.getH(1));
+        assertEquals("Equal d-spacings not kept in order", 0, table.getH(2));
+        assertEquals("Structure factor not moved with reflection", 7.0, table.getStructureFactor(3), 0);
+
+        table.sortByDSpacing(false);
+        for (int i = 1; i < table.size(); i++) {
+            assertTrue("Not in ascending order", table.getDSpacing(i - 1) <= table.getDSpacing(i));
+        }
+        assertEquals("Wrong structure factor for (111)", 7.0, table.getStructureFactor(0), 0);
+    }
+
+    @Test
+    public void testCalculateDSpacings() {
+        //Triclinic cell a=5.1, b=6.3, c=7.4, al=81.2, be=103.5, ga=95.7
+        double[] coeffs = DSpacingCalculator.reciprocalCoefficients(5.1, 6.3, 7.4, 81.2, 103.5, 95.7, new double[6]);
+        for (ReflectionTable table : Arrays.asList(new ReflectionTable(4), ReflectionTable.allocateDirect(4))) {
+            for (int h = -2; h <= 2; h++) {
+                for (int k = -2; k <= 2; k++) {
+                    for (int l = 1; l <= 2; l++) table.add(h, k, l);
+                }
+            }
+            table.calculateDSpacings(coeffs);
+            for (int i = 0; i < table.size(); i++) {
+                assertEquals("Wrong d-spacing of reflection "+i+" in "+(table.isDirect() ? "direct" : "heap")
+                        +" table", DSpacingCalculator.dSpacing(coeffs, table.getH(i), table.getK(i), table.getL(i)),
+                        table.getDSpacing(i), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testSortManyReflections() {
+        ReflectionTable table = ReflectionTable.allocateDirect(1000);
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            double d = random.nextInt(50) / 10.0;
+            table.add(i, 0, 0, d);
+        }
+        table.sortByDSpacing(false);
+        for (int i = 1; i < table.size(); i++) {
+            assertTrue("Not in ascending order", table.getDSpacing(i - 1) <= table.getDSpacing(i));
+            if (table.getDSpacing(i - 1) == table.getDSpacing(i)) {
+                assertTrue("Sort not stable", table.getH(i - 1) < table.getH(i));
+            }
+        }
+    }
+
+    @Test
+    public void testCursor() {
+        ReflectionTable table = new ReflectionTable();
+        table.add(1, 0, 0, 2.0);
+        table.add(0, 2, 0, 1.5);
+        table.setStructureFactor(0, 3);
+        table.setStructureFactor(1, 4);
+
+        ReflectionTable.Cursor cursor = table.cursor();
+        int count = 0;
+        while (cursor.next()) {
+            cursor.setIntensity(cursor.getStructureFactor() * cursor.getStructureFactor());
+            count++;
+        }
+        assertEquals("Cursor visited wrong number of reflections", 2, count);
+        assertEquals("Wrong intensity", 9, table.getIntensity(0), 0);
+        assertEquals("Wrong intensity", 16, table.getIntensity(1), 0);
+
+        cursor.position(1);
+        assertEquals("Wrong k at cursor", 2, cursor.getK());
+    }
+
+    @Test
+    public void testMillerPlaneConversion() {
+        List<MillerPlane> planes = Arrays.asList(new MillerPlane(1, 0, 0, 2.5, "a", 10.0, 100.0),
+                new MillerPlane(1, 1, 0), new MillerPlane(2, 1, -1, 1.2, "", null, 4.0));
+
+        ReflectionTable table = ReflectionTable.fromMillerPlanes(planes);
+        assertEquals("Wrong size", 3, table.size());
+        assertEquals("Unknown d-spacing should be -1", -1, table.getDSpacing(1), 0);
+        assertTrue("Structure factor should be unknown", Double.isNaN(table.getStructureFactor(2)));
+
+        assertEquals("Planes changed by round trip", planes, table.toMillerPlanes());
+    }
+
+    @Test
+    public void testWrap() {
+        IntBuffer h = IntBuffer.wrap(new int[]{1, 2}), k = IntBuffer.wrap(new int[]{0, 0}),
+                l = IntBuffer.wrap(new int[]{0, 0});
+        DoubleBuffer d = DoubleBuffer.wrap(new double[]{3.0, 1.5}), f = DoubleBuffer.allocate(2),
+                phase = DoubleBuffer.allocate(2), intensity = DoubleBuffer.allocate(2);
+        ReflectionTable table = ReflectionTable.wrap(h, k, l, d, f, phase, intensity, 2);
+
+        assertEquals("Wrong h", 2, table.getH(1));
+        table.setIntensity(1, 5.0);
+        assertEquals("Change not written to buffer", 5.0, intensity.get(1), 0);
+
+        table.add(3, 0, 0, 1.0);
+        assertEquals("Wrong size after growing", 3, table.size());
+        assertEquals("Reflection lost after growing", 1.5, table.getDSpacing(1), 0);
+    }
+}
@@ -0,0 +1,66 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.adaptor.primitivemaths.PrimitiveMathsFactory;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+
+/**
+ * Fixed inputs shared by the benchmarks, so that results from different
+ * runs (and different maths backends) are directly comparable.
+ *
+ * @author Michael Wharmby
+ */
+public final class BenchmarkLattices {
+
+    public static final String APACHE = "apache", PRIMITIVE = "primitive";
+
+    private BenchmarkLattices() {
+    }
+
+    /**
+     * Return a representative lattice with the metric symmetry of the given
+     * crystal system.
+     * @param crystalSystem {@link CrystalSystem}
+     * @return {@link Lattice}
+     */
+    public static Lattice forCrystalSystem(CrystalSystem crystalSystem) {
+        switch (crystalSystem) {
+            case CUBIC:
+                return new Lattice(5.43018, 5.43018, 5.43018, 90, 90, 90, null, crystalSystem, PrincipleAxis.NONE);
+            case HEXAGONAL:
+            case TRIGONAL:
+                return new Lattice(4.9134, 4.9134, 5.4052, 90, 90, 120, null, crystalSystem, PrincipleAxis.C);
+            case RHOMBOHEDRAL:
+                return new Lattice(5.128, 5.128, 5.128, 55.28, 55.28, 55.28, null, crystalSystem, PrincipleAxis.NONE);
+            case TETRAGONAL:
+                return new Lattice(4.5937, 4.5937, 2.9587, 90, 90, 90, null, crystalSystem, PrincipleAxis.C);
+            case ORTHORHOMBIC:
+                return new Lattice(23.49290, 6.34350, 19.63820, 90, 90, 90, null, crystalSystem, PrincipleAxis.NONE);
+            case MONOCLINIC:
+                return new Lattice(5.145, 5.2075, 5.3107, 90, 99.23, 90, null, crystalSystem, PrincipleAxis.B);
+            case TRICLINIC:
+                return new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584, null, crystalSystem, PrincipleAxis.NONE);
+            default:
+                throw new IllegalArgumentException("No benchmark lattice for crystal system "+crystalSystem);
+        }
+    }
+
+    /**
+     * Return the {@link MathsFactory} for a named backend.
+     * @param backend String either {@link #APACHE} or {@link #PRIMITIVE}
+     * @return {@link MathsFactory}
+     */
+    public static MathsFactory mathsFactory(String backend) {
+        switch (backend) {
+            case APACHE:
+                return new ApacheMathsFactory();
+            case PRIMITIVE:
+                return new PrimitiveMathsFactory();
+            default:
+                throw new IllegalArgumentException("Unknown maths backend "+backend);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.tk.CellRefiner;
+import uk.co.norphos.crystallography.tk.ReflectionGenerator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Least-squares refinement of a cell of each crystal system against the
+ * d-spacings, with small random errors, of all its reflections to 1.2
+ * Angstrom.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CellRefinerBenchmark {
+
+    @Param({"CUBIC", "HEXAGONAL", "ORTHORHOMBIC", "MONOCLINIC", "TRICLINIC"})
+    public CrystalSystem crystalSystem;
+
+    private CellRefiner refiner;
+    private Lattice lattice;
+    private final double[] parameters = new double[6], uncertainties = new double[6];
+
+    @Setup
+    public void setUp() {
+        lattice = BenchmarkLattices.forCrystalSystem(crystalSystem);
+        double[] coeffs = DSpacingCalculator.reciprocalCoefficients(lattice.getA(), lattice.getB(), lattice.getC(),
+                lattice.getAl(), lattice.getBe(), lattice.getGa(), new double[6]);
+        ReflectionTable table = new ReflectionGenerator(coeffs, 1.2).toTable();
+        int n = table.size();
+        int[] h = new int[n], k = new int[n], l = new int[n];
+        double[] d = new double[n];
+        Random random = new Random(1234);
+        for (int i = 0; i < n; i++) {
+            h[i] = table.getH(i);
+            k[i] = table.getK(i);
+            l[i] = table.getL(i);
+            d[i] = DSpacingCalculator.dSpacing(coeffs, h[i], k[i], l[i]) * (1 + 1e-4 * random.nextGaussian());
+        }
+        refiner = new CellRefiner(h, k, l, d);
+    }
+
+    @Benchmark
+    public double refine() {
+        return refiner.refine(lattice.getCrystalSystem(), lattice.getPrincipleAxis(), parameters, uncertainties);
+    }
+}
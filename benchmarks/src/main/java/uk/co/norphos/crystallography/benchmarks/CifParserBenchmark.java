@@ -0,0 +1,83 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.io.CifHandler;
+import uk.co.norphos.crystallography.io.CifParser;
+import uk.co.norphos.crystallography.io.CifStructureReader;
+import uk.co.norphos.crystallography.io.CifValue;
+import uk.co.norphos.crystallography.io.StructureListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read a CIF holding a long _refln loop, either just tokenising it or
+ * loading the reflections in batches.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CifParserBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int nReflections;
+
+    private Path cif;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(1234);
+        StringBuilder sb = new StringBuilder("data_bench\n_cell_length_a 10.5(1)\n_cell_length_b 11.2(1)\n")
+                .append("_cell_length_c 12.9(2)\n_cell_angle_alpha 90\n_cell_angle_beta 101.3(1)\n")
+                .append("_cell_angle_gamma 90\nloop_\n_refln_index_h\n_refln_index_k\n_refln_index_l\n")
+                .append("_refln_F_meas\n_refln_phase_calc\n");
+        for (int i = 0; i < nReflections; i++) {
+            sb.append(random.nextInt(41) - 20).append(' ').append(random.nextInt(41) - 20).append(' ')
+                    .append(random.nextInt(41) - 20).append(' ')
+                    .append(String.format(Locale.ROOT, "%.3f(%d)", 100 * random.nextDouble(), random.nextInt(9) + 1)).append(' ')
+                    .append(random.nextInt(360)).append('\n');
+        }
+        cif = Files.createTempFile("bench", ".cif");
+        Files.write(cif, sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(cif);
+    }
+
+    @Benchmark
+    public long tokenise() throws IOException {
+        long[] count = new long[1];
+        CifParser.parse(cif, new CifHandler() {
+            @Override
+            public void loopRow(CifValue[] values) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public double loadReflections() throws IOException {
+        double[] sum = new double[1];
+        CifParser.parse(cif, new CifStructureReader(new StructureListener() {
+            @Override
+            public void reflections(ReflectionTable batch) {
+                for (int i = 0; i < batch.size(); i++) sum[0] += batch.getStructureFactor(i);
+            }
+        }));
+        return sum[0];
+    }
+}
@@ -0,0 +1,81 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.api.maths.Vector;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of many sites from fractional to Cartesian coordinates, one
+ * {@link Vector} at a time and in bulk over packed arrays and buffers.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CoordinateTransformBenchmark {
+
+    @Param({"1000", "100000"})
+    public int nSites;
+
+    @Param({BenchmarkLattices.APACHE, BenchmarkLattices.PRIMITIVE})
+    public String maths;
+
+    private UnitCell unitCell;
+    private Vector[] fracVectors;
+    private double[] fracCoords, cartCoords;
+    private DoubleBuffer fracBuffer, cartBuffer;
+
+    @Setup
+    public void setUp() {
+        MathsFactory mathsFactory = BenchmarkLattices.mathsFactory(maths);
+        unitCell = new UnitCellImpl(mathsFactory, BenchmarkLattices.forCrystalSystem(CrystalSystem.TRICLINIC));
+
+        Random random = new Random(42);
+        fracCoords = new double[3 * nSites];
+        fracVectors = new Vector[nSites];
+        for (int i = 0; i < fracCoords.length; i++) {
+            fracCoords[i] = random.nextDouble();
+        }
+        for (int i = 0; i < nSites; i++) {
+            fracVectors[i] = mathsFactory.createVector(new double[]{fracCoords[3 * i], fracCoords[3 * i + 1], fracCoords[3 * i + 2]});
+        }
+        cartCoords = new double[fracCoords.length];
+        fracBuffer = ByteBuffer.allocateDirect(8 * fracCoords.length).asDoubleBuffer();
+        fracBuffer.put(fracCoords).flip();
+        cartBuffer = ByteBuffer.allocateDirect(8 * fracCoords.length).asDoubleBuffer();
+    }
+
+    @Benchmark
+    public void orthogonalizeVectors(Blackhole bh) {
+        for (Vector fracVector : fracVectors) {
+            bh.consume(unitCell.orthogonalize(fracVector));
+        }
+    }
+
+    @Benchmark
+    public double[] orthogonalizePackedArray() {
+        unitCell.orthogonalize(fracCoords, cartCoords);
+        return cartCoords;
+    }
+
+    @Benchmark
+    public DoubleBuffer orthogonalizeDirectBuffer() {
+        fracBuffer.rewind();
+        cartBuffer.clear();
+        unitCell.orthogonalize(fracBuffer, cartBuffer);
+        return cartBuffer;
+    }
+}
@@ -0,0 +1,84 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.io.CrystalFileWriter;
+import uk.co.norphos.crystallography.io.MappedCrystal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load a cached set of reflections and read one value from each, either by
+ * mapping a crystal file or by Java deserialisation of {@link MillerPlane}s.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CrystalFileBenchmark {
+
+    @Param({"1000", "100000"})
+    public int nReflections;
+
+    private Path crystalFile, serialisedFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        ReflectionTable reflections = new ReflectionTable(nReflections);
+        for (int i = 0; i < nReflections; i++) {
+            int r = reflections.add(i % 40 - 20, (i / 40) % 40 - 20, i / 1600, 10. / (i + 1));
+            reflections.setStructureFactor(r, i);
+        }
+        crystalFile = Files.createTempFile("bench", ".crystal");
+        CrystalFileWriter writer = new CrystalFileWriter();
+        writer.setLattice(BenchmarkLattices.forCrystalSystem(CrystalSystem.MONOCLINIC));
+        writer.setReflections(reflections);
+        writer.write(crystalFile);
+
+        serialisedFile = Files.createTempFile("bench", ".ser");
+        try (OutputStream out = Files.newOutputStream(serialisedFile);
+             ObjectOutputStream objects = new ObjectOutputStream(out)) {
+            objects.writeObject(new ArrayList<>(reflections.toMillerPlanes()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(crystalFile);
+        Files.delete(serialisedFile);
+    }
+
+    @Benchmark
+    public double mapped() throws IOException {
+        ReflectionTable reflections = MappedCrystal.open(crystalFile).getReflections();
+        double sum = 0;
+        for (int i = 0; i < reflections.size(); i++) sum += reflections.getDSpacing(i);
+        return sum;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public double deserialised() throws IOException, ClassNotFoundException {
+        try (InputStream in = Files.newInputStream(serialisedFile);
+             ObjectInputStream objects = new ObjectInputStream(in)) {
+            double sum = 0;
+            for (MillerPlane plane : (List<MillerPlane>) objects.readObject()) sum += plane.getDSpacing();
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.tk.CrystallographyFactory;
+import uk.co.norphos.crystallography.tk.LatticeClassifier;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recovering a {@link Lattice} (including crystal system
+ * classification) from a metric tensor and from its parameters, and of
+ * classifying the parameters boxed or with a {@link LatticeClassifier}.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CrystallographyFactoryBenchmark {
+
+    @Param({"CUBIC", "HEXAGONAL", "TRIGONAL", "RHOMBOHEDRAL", "TETRAGONAL", "ORTHORHOMBIC", "MONOCLINIC", "TRICLINIC"})
+    public CrystalSystem crystalSystem;
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({BenchmarkLattices.APACHE, BenchmarkLattices.PRIMITIVE})
+    public String maths;
+
+    private Matrix metricTensor;
+    private Double[] lengths, angles;
+    private double a, b, c, al, be, ga;
+    private double[] metricCoefficients, packedParameters, packedCoefficients;
+    private final double[] g6 = new double[6];
+
+    @Setup
+    public void setUp() {
+        Lattice lattice = BenchmarkLattices.forCrystalSystem(crystalSystem);
+        metricTensor = new UnitCellImpl(BenchmarkLattices.mathsFactory(maths), lattice).getMetricTensor();
+        lengths = new Double[]{lattice.getA(), lattice.getB(), lattice.getC()};
+        angles = new Double[]{lattice.getAl(), lattice.getBe(), lattice.getGa()};
+        a = lattice.getA();
+        b = lattice.getB();
+        c = lattice.getC();
+        al = lattice.getAl();
+        be = lattice.getBe();
+        ga = lattice.getGa();
+        double[][] tensor = metricTensor.toArray();
+        metricCoefficients = new double[]{tensor[0][0], tensor[1][1], tensor[2][2], tensor[0][1], tensor[0][2],
+                tensor[1][2]};
+        //A batch of lattices, as created in each cycle of a refinement
+        packedParameters = new double[6 * BATCH_SIZE];
+        packedCoefficients = new double[6 * BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            System.arraycopy(new double[]{a, b, c, al, be, ga}, 0, packedParameters, 6 * i, 6);
+            System.arraycopy(metricCoefficients, 0, packedCoefficients, 6 * i, 6);
+        }
+    }
+
+    @Benchmark
+    public Lattice createLatticeFromMetricTensor() {
+        return CrystallographyFactory.createLattice(metricTensor);
+    }
+
+    @Benchmark
+    public Lattice createLatticeFromPrimitiveParameters() {
+        return CrystallographyFactory.createLattice(a, b, c, al, be, ga);
+    }
+
+    @Benchmark
+    public Lattice[] createLatticesFromParameters() {
+        return CrystallographyFactory.createLattices(packedParameters, LatticeClassifier.DEFAULT);
+    }
+
+    @Benchmark
+    public Lattice[] createLatticesFromMetricTensors() {
+        return CrystallographyFactory.createLatticesFromMetricTensors(packedCoefficients, LatticeClassifier.DEFAULT);
+    }
+
+    @Benchmark
+    public Lattice createLatticeFromParameters() {
+        return CrystallographyFactory.createLattice(lengths, angles, null);
+    }
+
+    @Benchmark
+    public CrystalSystem getCrystalSystem() {
+        return CrystallographyFactory.getCrystalSystem(lengths, angles);
+    }
+
+    @Benchmark
+    public CrystalSystem getCrystalSystemPrimitive() {
+        return LatticeClassifier.DEFAULT.getCrystalSystem(a, b, c, al, be, ga);
+    }
+
+    @Benchmark
+    public CrystalSystem getMetricSymmetry() {
+        return LatticeClassifier.DEFAULT.getMetricSymmetry(metricCoefficients[0], metricCoefficients[1],
+                metricCoefficients[2], metricCoefficients[3], metricCoefficients[4], metricCoefficients[5], g6);
+    }
+}
@@ -0,0 +1,72 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * d-spacing calculation for many reflections, one {@link MillerPlane} at a
+ * time and in bulk over h, k, l arrays.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DSpacingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int nReflections;
+
+    private UnitCell unitCell;
+    private MillerPlane[] planes;
+    private int[] h, k, l;
+    private double[] dSpacings, qValues;
+
+    @Setup
+    public void setUp() {
+        unitCell = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                BenchmarkLattices.forCrystalSystem(CrystalSystem.TRICLINIC));
+        Random random = new Random(42);
+        h = new int[nReflections];
+        k = new int[nReflections];
+        l = new int[nReflections];
+        planes = new MillerPlane[nReflections];
+        for (int i = 0; i < nReflections; i++) {
+            h[i] = random.nextInt(41) - 20;
+            k[i] = random.nextInt(41) - 20;
+            l[i] = random.nextInt(41) - 20;
+            planes[i] = new MillerPlane(h[i], k[i], l[i]);
+        }
+        dSpacings = new double[nReflections];
+        qValues = new double[nReflections];
+    }
+
+    @Benchmark
+    public MillerPlane[] millerPlanes() {
+        for (MillerPlane plane : planes) {
+            plane.setDSpacing(unitCell.calculateDSpacing(plane));
+        }
+        return planes;
+    }
+
+    @Benchmark
+    public double[] bulkDSpacings() {
+        unitCell.calculateDSpacings(h, k, l, dSpacings);
+        return dSpacings;
+    }
+
+    @Benchmark
+    public double[] bulkDSpacingsAndQ() {
+        unitCell.calculateDSpacings(h, k, l, 0, nReflections, dSpacings, qValues);
+        return qValues;
+    }
+}
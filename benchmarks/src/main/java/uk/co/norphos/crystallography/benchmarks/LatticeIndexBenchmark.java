@@ -0,0 +1,69 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.tk.LatticeIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Find the cells within 2% and 1 degree of a query among a large
+ * collection, with a {@link LatticeIndex} or by comparing every cell.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class LatticeIndexBenchmark {
+
+    @Param({"10000", "300000"})
+    public int nLattices;
+
+    private List<Lattice> lattices;
+    private LatticeIndex index;
+    private Lattice query;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1234);
+        lattices = new ArrayList<>(nLattices);
+        for (int i = 0; i < nLattices; i++) {
+            lattices.add(new Lattice(3 + 20 * random.nextDouble(), 3 + 20 * random.nextDouble(),
+                    3 + 20 * random.nextDouble(), random.nextBoolean() ? 90 : 60 + 60 * random.nextDouble(),
+                    random.nextBoolean() ? 90 : 60 + 60 * random.nextDouble(),
+                    random.nextBoolean() ? 90 : 60 + 60 * random.nextDouble()));
+        }
+        index = new LatticeIndex(lattices);
+        Lattice near = lattices.get(nLattices / 2);
+        query = new Lattice(near.getA() * 1.01, near.getB(), near.getC() * 0.995, near.getAl(), near.getBe() + 0.3,
+                near.getGa());
+    }
+
+    @Benchmark
+    public int[] indexed() {
+        return index.findSimilar(query);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int count = 0;
+        for (Lattice lattice : lattices) {
+            if (query.isSimilar(lattice, LatticeIndex.DEFAULT_LENGTH_TOLERANCE, LatticeIndex.DEFAULT_ANGLE_TOLERANCE)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public LatticeIndex build() {
+        return new LatticeIndex(lattices);
+    }
+}
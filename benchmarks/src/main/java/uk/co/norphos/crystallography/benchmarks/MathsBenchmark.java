@@ -0,0 +1,81 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.Vector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primitive operations of the {@link MathsFactory} backends: matrix creation,
+ * inversion and multiplication and vector addition and subtraction.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MathsBenchmark {
+
+    @Param({BenchmarkLattices.APACHE, BenchmarkLattices.PRIMITIVE})
+    public String maths;
+
+    private MathsFactory mathsFactory;
+    private double[][] matrixValues;
+    private double[] arrayA;
+    private Matrix matrix;
+    private Vector vectorA, vectorB;
+
+    @Setup
+    public void setUp() {
+        mathsFactory = BenchmarkLattices.mathsFactory(maths);
+        //Triclinic metric tensor
+        matrixValues = new double[][]{
+                {51.7242886416, 20.700473696386158, 20.699292030654693},
+                {20.700473696386158, 66.05137984000001, 8.643807381166594},
+                {20.699292030654693, 8.643807381166594, 66.0596698441}};
+        arrayA = new double[]{0.125, 0.25, 0.375};
+        matrix = mathsFactory.createMatrix(matrixValues);
+        vectorA = mathsFactory.createVector(arrayA);
+        vectorB = mathsFactory.createVector(new double[]{0.5, -0.25, 0.875});
+    }
+
+    @Benchmark
+    public Matrix createMatrix() {
+        return mathsFactory.createMatrix(matrixValues);
+    }
+
+    @Benchmark
+    public Matrix getInverse() {
+        return matrix.getInverse();
+    }
+
+    @Benchmark
+    public double getDeterminant() {
+        return matrix.getDeterminant();
+    }
+
+    @Benchmark
+    public double[] multiplyArray() {
+        return matrix.multiply(arrayA);
+    }
+
+    @Benchmark
+    public Vector multiplyVector() {
+        return matrix.multiply(vectorA);
+    }
+
+    @Benchmark
+    public Vector vectorAdd() {
+        return vectorA.add(vectorB);
+    }
+
+    @Benchmark
+    public Vector vectorSubtract() {
+        return vectorA.subtract(vectorB);
+    }
+}
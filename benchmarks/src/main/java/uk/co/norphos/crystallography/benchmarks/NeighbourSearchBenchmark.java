@@ -0,0 +1,58 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.tk.NeighbourList;
+import uk.co.norphos.crystallography.tk.NeighbourSearch;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search for all pairs of atoms within 3 Angstrom in a triclinic supercell
+ * holding atoms at roughly the density of a typical inorganic solid.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class NeighbourSearchBenchmark {
+
+    private static final double CUTOFF = 3, ATOMS_PER_A3 = 0.08;
+
+    @Param({"1000", "100000"})
+    public int nAtoms;
+
+    private UnitCell unitCell;
+    private double[] coords;
+
+    @Setup
+    public void setUp() {
+        Lattice tric = BenchmarkLattices.forCrystalSystem(CrystalSystem.TRICLINIC);
+        double scale = Math.cbrt(nAtoms / ATOMS_PER_A3 / new UnitCellImpl(
+                BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE), tric).getVolume());
+        unitCell = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                new Lattice(scale * tric.getA(), scale * tric.getB(), scale * tric.getC(),
+                        tric.getAl(), tric.getBe(), tric.getGa()));
+        Random random = new Random(1234);
+        coords = new double[3 * nAtoms];
+        for (int i = 0; i < coords.length; i++) coords[i] = random.nextDouble();
+    }
+
+    @Benchmark
+    public NeighbourList findPairs() {
+        return new NeighbourSearch(unitCell, coords, nAtoms, CUTOFF).findPairs();
+    }
+
+    @Benchmark
+    public int[] countNeighbours() {
+        return new NeighbourSearch(unitCell, coords, nAtoms, CUTOFF).countNeighbours();
+    }
+}
@@ -0,0 +1,79 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.tk.NiggliReduction;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Niggli reduce a batch of candidate cells, as in an indexing loop, either
+ * on the G6 vectors directly or through a new {@link UnitCell} for each.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class NiggliReductionBenchmark {
+
+    private static final int N_CELLS = 1000;
+
+    @Param({BenchmarkLattices.APACHE, BenchmarkLattices.PRIMITIVE})
+    public String maths;
+
+    private MathsFactory mathsFactory;
+    private Lattice[] lattices;
+    private double[] g6s;
+    private final double[] g6 = new double[6];
+    private final int[] transform = new int[9];
+
+    @Setup
+    public void setUp() {
+        mathsFactory = BenchmarkLattices.mathsFactory(maths);
+        Random random = new Random(1234);
+        lattices = new Lattice[N_CELLS];
+        g6s = new double[6 * N_CELLS];
+        for (int i = 0; i < N_CELLS; i++) {
+            double a = 3 + 5 * random.nextDouble(), b = 3 + 5 * random.nextDouble(), c = 3 + 5 * random.nextDouble();
+            double cosAl = Math.cos(Math.toRadians(80 + 20 * random.nextDouble())),
+                    cosBe = Math.cos(Math.toRadians(80 + 20 * random.nextDouble())),
+                    cosGa = Math.cos(Math.toRadians(80 + 20 * random.nextDouble()));
+            //Unreduced cell with edges a, b' = b + m a & c' = c + n b'
+            int m = 1 + random.nextInt(3), n = 1 + random.nextInt(3);
+            double aa = a * a, ab = a * b * cosGa, ac = a * c * cosBe, bb = b * b, bc = b * c * cosAl, cc = c * c;
+            double ab1 = ab + m * aa, bb1 = bb + 2 * m * ab + m * m * aa, ac1 = ac + n * ab1,
+                    bc1 = bc + m * ac + n * bb1, cc1 = cc + 2 * n * (bc + m * ac) + n * n * bb1;
+            double[] cell = {aa, bb1, cc1, 2 * bc1, 2 * ac1, 2 * ab1};
+            System.arraycopy(cell, 0, g6s, 6 * i, 6);
+            lattices[i] = NiggliReduction.toLattice(cell);
+        }
+    }
+
+    @Benchmark
+    public double reduceG6() {
+        double sum = 0;
+        for (int i = 0; i < N_CELLS; i++) {
+            System.arraycopy(g6s, 6 * i, g6, 0, 6);
+            NiggliReduction.reduce(g6, transform);
+            sum += g6[NiggliReduction.A];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double reduceUnitCell() {
+        double sum = 0;
+        for (Lattice lattice : lattices) {
+            sum += new UnitCellImpl(mathsFactory, lattice).getNiggliReducedCell().getA();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,63 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.tk.PowderIndexer;
+import uk.co.norphos.crystallography.tk.ReflectionGenerator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing of the first twenty lines of a tetragonal and an orthorhombic
+ * cell, in one thread and in the common pool.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PowderIndexerBenchmark {
+
+    @Param({"TETRAGONAL", "ORTHORHOMBIC"})
+    public CrystalSystem crystalSystem;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private PowderIndexer indexer;
+
+    @Setup
+    public void setUp() {
+        double[] coeffs = crystalSystem == CrystalSystem.TETRAGONAL
+                ? DSpacingCalculator.reciprocalCoefficients(4.1, 4.1, 7.3, 90, 90, 90, new double[6])
+                : DSpacingCalculator.reciprocalCoefficients(5.2, 6.7, 8.1, 90, 90, 90, new double[6]);
+        double[] d = new ReflectionGenerator(coeffs, 1.0).toTable().toMillerPlanes().stream()
+                .mapToDouble(plane -> plane.getDSpacing()).sorted().toArray();
+        double[] lines = new double[20];
+        int count = 0;
+        for (int i = d.length - 1; i >= 0 && count < lines.length; i--) {
+            if (count == 0 || lines[count - 1] - d[i] > 1e-9) lines[count++] = d[i];
+        }
+        //0 threads for the common pool
+        pool = threads == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(threads);
+        indexer = new PowderIndexer(Arrays.copyOf(lines, count), 5e-4, pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+    }
+
+    @Benchmark
+    public List<PowderIndexer.Solution> index() {
+        return indexer.index(crystalSystem);
+    }
+}
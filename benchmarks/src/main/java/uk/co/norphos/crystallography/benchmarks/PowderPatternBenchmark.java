@@ -0,0 +1,102 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.tk.PowderPatternCalculator;
+import uk.co.norphos.crystallography.tk.SpaceGroupFactory;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cu K&alpha; powder pattern from 5 to 120 degrees 2&theta; of a monoclinic
+ * (P21/c) structure with a random asymmetric unit, from the structure and
+ * from its precalculated reflections, in one thread and in the common pool.
+ * A refinement step with new lattice parameters is measured both by
+ * rebuilding the cell and structure and by updating a prepared reflection
+ * set.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PowderPatternBenchmark {
+
+    private static final String[] TYPES = {"C", "N", "O", "Fe"};
+
+    @Param({"0.01", "0.002"})
+    public double step;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private UnitCell unitCell;
+    private SpaceGroup spaceGroup;
+    private AtomTable atoms;
+    private PowderPatternCalculator calculator;
+    private PowderPatternCalculator.ReflectionSet reflectionSet;
+    private double[] dSpacings, intensities;
+
+    @Setup
+    public void setUp() {
+        unitCell = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                BenchmarkLattices.forCrystalSystem(CrystalSystem.MONOCLINIC));
+        spaceGroup = SpaceGroupFactory.getSpaceGroup("P21/c");
+        Random random = new Random(1234);
+        atoms = new AtomTable(20);
+        for (int i = 0; i < 20; i++) {
+            atoms.add("A" + i, TYPES[i % TYPES.length], random.nextDouble(), random.nextDouble(),
+                    random.nextDouble(), 1);
+        }
+        //0 threads for the common pool
+        ForkJoinPool pool = threads == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(threads);
+        calculator = new PowderPatternCalculator(1.5406, 5, 120, step, pool);
+        calculator.setProfile(0.01, -0.005, 0.005, 0.4);
+        reflectionSet = calculator.prepare(unitCell, spaceGroup, atoms);
+
+        int n = 5000;
+        dSpacings = new double[n];
+        intensities = new double[n];
+        for (int i = 0; i < n; i++) {
+            dSpacings[i] = 0.9 + 9 * random.nextDouble();
+            intensities[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public double[] fromStructure() {
+        return calculator.calculate(unitCell, spaceGroup, atoms);
+    }
+
+    @Benchmark
+    public double[] fromReflections() {
+        return calculator.calculate(dSpacings, intensities, dSpacings.length);
+    }
+
+    @Benchmark
+    public double[] refineFromStructure() {
+        Lattice lattice = unitCell.getLattice();
+        UnitCell refined = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                new Lattice(lattice.getA() * 1.001, lattice.getB(), lattice.getC(), lattice.getAl(), lattice.getBe(),
+                        lattice.getGa()));
+        return calculator.calculate(refined, spaceGroup, atoms);
+    }
+
+    @Benchmark
+    public double[] refineIncrementally() {
+        Lattice lattice = unitCell.getLattice();
+        reflectionSet.update(lattice.getA() * 1.001, lattice.getB(), lattice.getC(), lattice.getAl(),
+                lattice.getBe(), lattice.getGa());
+        return calculator.calculate(reflectionSet);
+    }
+}
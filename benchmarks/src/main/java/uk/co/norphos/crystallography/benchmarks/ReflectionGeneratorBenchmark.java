@@ -0,0 +1,59 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.tk.ReflectionGenerator;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enumeration of all reflections of a triclinic cell to a d-spacing limit,
+ * without creating objects, into a list and through sequential and parallel
+ * streams.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ReflectionGeneratorBenchmark {
+
+    @Param({"1.0", "0.5"})
+    public double dMin;
+
+    private ReflectionGenerator generator;
+
+    @Setup
+    public void setUp() {
+        UnitCell unitCell = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                BenchmarkLattices.forCrystalSystem(CrystalSystem.TRICLINIC));
+        generator = new ReflectionGenerator(unitCell, dMin);
+    }
+
+    @Benchmark
+    public int indices() {
+        return generator.count();
+    }
+
+    @Benchmark
+    public List<MillerPlane> list() {
+        return generator.toList();
+    }
+
+    @Benchmark
+    public long stream() {
+        return generator.stream().count();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return generator.parallelStream().count();
+    }
+}
@@ -0,0 +1,57 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.tk.SpaceGroupFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Space group lookup by symbol and application of every operator of Fm-3m
+ * to many sites.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SpaceGroupBenchmark {
+
+    @Param({"100", "10000"})
+    public int nSites;
+
+    private SpaceGroup spaceGroup;
+    private double[] sites, expanded;
+
+    @Setup
+    public void setUp() {
+        spaceGroup = SpaceGroupFactory.getSpaceGroup("Fm-3m");
+        Random random = new Random(42);
+        sites = new double[3 * nSites];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = random.nextDouble();
+        }
+        expanded = new double[3 * nSites * spaceGroup.getOrder()];
+    }
+
+    @Benchmark
+    public SpaceGroup lookupBySymbol() {
+        return SpaceGroupFactory.getSpaceGroup("Fm-3m");
+    }
+
+    @Benchmark
+    public double[] applyAllOperators() {
+        int order = spaceGroup.getOrder();
+        for (int n = 0; n < nSites; n++) {
+            for (int op = 0; op < order; op++) {
+                spaceGroup.applyOperator(op, sites[3 * n], sites[3 * n + 1], sites[3 * n + 2],
+                        expanded, 3 * (n * order + op));
+            }
+        }
+        return expanded;
+    }
+}
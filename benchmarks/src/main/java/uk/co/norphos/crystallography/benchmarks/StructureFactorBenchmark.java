@@ -0,0 +1,68 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.tk.ReflectionGenerator;
+import uk.co.norphos.crystallography.tk.SpaceGroupFactory;
+import uk.co.norphos.crystallography.tk.StructureFactorCalculator;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structure factors of all reflections to 0.8 Angstrom of a monoclinic
+ * (P21/c) structure with a random, anisotropic asymmetric unit.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class StructureFactorBenchmark {
+
+    private static final String[] TYPES = {"C", "N", "O", "Fe"};
+
+    @Param({"20", "200"})
+    public int nAtoms;
+
+    private UnitCell unitCell;
+    private SpaceGroup spaceGroup;
+    private AtomTable atoms;
+    private ReflectionTable reflections;
+    private StructureFactorCalculator calculator;
+
+    @Setup
+    public void setUp() {
+        unitCell = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                BenchmarkLattices.forCrystalSystem(CrystalSystem.MONOCLINIC));
+        spaceGroup = SpaceGroupFactory.getSpaceGroup("P21/c");
+        Random random = new Random(1234);
+        atoms = new AtomTable(nAtoms);
+        for (int i = 0; i < nAtoms; i++) {
+            atoms.add("A" + i, TYPES[i % TYPES.length], random.nextDouble(), random.nextDouble(),
+                    random.nextDouble(), 1);
+            atoms.setUijMatrix(i, new double[][]{{0.01, 0.002, 0}, {0.002, 0.015, 0.001}, {0, 0.001, 0.02}});
+        }
+        reflections = new ReflectionGenerator(unitCell, 0.8, spaceGroup).toTable();
+        calculator = new StructureFactorCalculator(unitCell, spaceGroup, atoms);
+    }
+
+    @Benchmark
+    public StructureFactorCalculator prepare() {
+        return new StructureFactorCalculator(unitCell, spaceGroup, atoms);
+    }
+
+    @Benchmark
+    public ReflectionTable calculate() {
+        calculator.calculate(reflections);
+        return reflections;
+    }
+}
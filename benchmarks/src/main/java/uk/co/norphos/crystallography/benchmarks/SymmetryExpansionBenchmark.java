@@ -0,0 +1,65 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.tk.SpaceGroupFactory;
+import uk.co.norphos.crystallography.tk.SymmetryExpander;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expansion of an asymmetric unit of random atoms, a quarter of them on
+ * special positions, into the full cell in a low and a high symmetry space
+ * group, in one thread and in the common pool.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SymmetryExpansionBenchmark {
+
+    @Param({"P21/c", "Fm-3m"})
+    public String spaceGroup;
+
+    @Param({"100", "5000"})
+    public int nAtoms;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private SymmetryExpander expander;
+    private double[] coords;
+
+    @Setup
+    public void setUp() {
+        //0 threads for the common pool
+        pool = threads == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(threads);
+        expander = new SymmetryExpander(SpaceGroupFactory.getSpaceGroup(spaceGroup),
+                SymmetryExpander.DEFAULT_TOLERANCE, pool);
+        Random random = new Random(1234);
+        coords = new double[3 * nAtoms];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = random.nextDouble();
+        }
+        //A quarter at the origin, a special position in both groups
+        for (int i = 0; i < nAtoms; i += 4) {
+            coords[3 * i] = coords[3 * i + 1] = coords[3 * i + 2] = 0;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+    }
+
+    @Benchmark
+    public SymmetryExpander.Expansion expand() {
+        return expander.expand(coords, nAtoms);
+    }
+}
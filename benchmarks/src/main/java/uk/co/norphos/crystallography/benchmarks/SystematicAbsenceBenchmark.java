@@ -0,0 +1,71 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.tk.ReflectionGenerator;
+import uk.co.norphos.crystallography.tk.SpaceGroupFactory;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enumeration of the reflections of a cubic cell present in a space group:
+ * with absences rejected during enumeration by the precomputed conditions,
+ * and by testing every operator on each reflection after enumeration.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SystematicAbsenceBenchmark {
+
+    @Param({"P21/c", "Im-3m", "Fd-3m"})
+    public String symbol;
+
+    private SpaceGroup spaceGroup;
+    private ReflectionGenerator all, present;
+
+    @Setup
+    public void setUp() {
+        UnitCell unitCell = new UnitCellImpl(BenchmarkLattices.mathsFactory(BenchmarkLattices.PRIMITIVE),
+                BenchmarkLattices.forCrystalSystem(CrystalSystem.CUBIC));
+        spaceGroup = SpaceGroupFactory.getSpaceGroup(symbol);
+        all = new ReflectionGenerator(unitCell, 0.5);
+        present = new ReflectionGenerator(unitCell, 0.5, spaceGroup);
+    }
+
+    @Benchmark
+    public int filteredDuringEnumeration() {
+        return present.count();
+    }
+
+    @Benchmark
+    public int filteredByOperators() {
+        int[] counter = new int[1];
+        all.forEach((h, k, l, invDSq) -> {
+            if (!absentByOperators(h, k, l)) counter[0]++;
+        });
+        return counter[0];
+    }
+
+    private boolean absentByOperators(int h, int k, int l) {
+        for (int op = 0; op < spaceGroup.getOrder(); op++) {
+            if (h * spaceGroup.getRotation(op, 0, 0) + k * spaceGroup.getRotation(op, 1, 0)
+                    + l * spaceGroup.getRotation(op, 2, 0) != h) continue;
+            if (h * spaceGroup.getRotation(op, 0, 1) + k * spaceGroup.getRotation(op, 1, 1)
+                    + l * spaceGroup.getRotation(op, 2, 1) != k) continue;
+            if (h * spaceGroup.getRotation(op, 0, 2) + k * spaceGroup.getRotation(op, 1, 2)
+                    + l * spaceGroup.getRotation(op, 2, 2) != l) continue;
+            double phase = h * spaceGroup.getTranslation(op, 0) + k * spaceGroup.getTranslation(op, 1)
+                    + l * spaceGroup.getTranslation(op, 2);
+            if (Math.abs(phase - Math.rint(phase)) > 1e-6) return true;
+        }
+        return false;
+    }
+}
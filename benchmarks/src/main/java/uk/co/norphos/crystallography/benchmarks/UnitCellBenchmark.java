@@ -0,0 +1,93 @@
+package uk.co.norphos.crystallography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.Vector;
+import uk.co.norphos.crystallography.tk.UnitCellCache;
+import uk.co.norphos.crystallography.tk.UnitCellImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction and coordinate transformation costs of {@link UnitCellImpl}
+ * for each crystal system and maths backend, and of fetching a cell already
+ * set up from a {@link UnitCellCache} instead.
+ *
+ * @author Michael Wharmby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class UnitCellBenchmark {
+
+    @Param({"CUBIC", "HEXAGONAL", "TRIGONAL", "RHOMBOHEDRAL", "TETRAGONAL", "ORTHORHOMBIC", "MONOCLINIC", "TRICLINIC"})
+    public CrystalSystem crystalSystem;
+
+    @Param({BenchmarkLattices.APACHE, BenchmarkLattices.PRIMITIVE})
+    public String maths;
+
+    private MathsFactory mathsFactory;
+    private Lattice lattice;
+    private Matrix metricTensor;
+    private UnitCell unitCell;
+    private UnitCellCache cache;
+    private Vector fracVector, cartVector;
+
+    @Setup
+    public void setUp() {
+        mathsFactory = BenchmarkLattices.mathsFactory(maths);
+        lattice = BenchmarkLattices.forCrystalSystem(crystalSystem);
+        unitCell = new UnitCellImpl(mathsFactory, lattice);
+        metricTensor = unitCell.getMetricTensor();
+        fracVector = mathsFactory.createVector(new double[]{0.125, 0.25, 0.375});
+        cartVector = unitCell.orthogonalize(fracVector);
+        cache = new UnitCellCache(mathsFactory);
+        cache.getUnitCell(lattice).getReciprocal();
+    }
+
+    @Benchmark
+    public UnitCell constructFromLattice() {
+        return new UnitCellImpl(mathsFactory, lattice);
+    }
+
+    @Benchmark
+    public UnitCell constructFromMetricTensor() {
+        return new UnitCellImpl(mathsFactory, metricTensor);
+    }
+
+    @Benchmark
+    public double constructAndGetVolume() {
+        return new UnitCellImpl(mathsFactory, lattice).getVolume();
+    }
+
+    @Benchmark
+    public UnitCell constructWithReciprocal() {
+        UnitCell cell = new UnitCellImpl(mathsFactory, lattice);
+        cell.getReciprocal();
+        return cell;
+    }
+
+    @Benchmark
+    public UnitCell cachedWithReciprocal() {
+        UnitCell cell = cache.getUnitCell(lattice);
+        cell.getReciprocal();
+        return cell;
+    }
+
+    @Benchmark
+    public Vector fractionalize() {
+        return unitCell.fractionalize(cartVector);
+    }
+
+    @Benchmark
+    public Vector orthogonalize() {
+        return unitCell.orthogonalize(fracVector);
+    }
+}
@@ -0,0 +1,28 @@
+package uk.co.norphos.crystallography.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a CIF cannot be parsed, giving the line at which the problem
+ * was found.
+ *
+ * @author Michael Wharmby
+ */
+public class CifException extends IOException {
+
+    private static final long serialVersionUID = -2387465123907345611L;
+
+    private final int line;
+
+    public CifException(String message, int line) {
+        super(message + " (line " + line + ")");
+        this.line = line;
+    }
+
+    /**
+     * @return int line number (from 1) at which the error was found
+     */
+    public int getLine() {
+        return line;
+    }
+}
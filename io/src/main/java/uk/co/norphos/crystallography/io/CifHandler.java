@@ -0,0 +1,54 @@
+package uk.co.norphos.crystallography.io;
+
+/**
+ * Receives the contents of a CIF from a {@link CifParser} as it is read.
+ * Tags are given in lower case, including the leading '_'. Values are
+ * reused by the parser and are only valid until the method they are passed
+ * to returns. All methods do nothing by default.
+ *
+ * @author Michael Wharmby
+ */
+public interface CifHandler {
+
+    /**
+     * Called at the start of each data block.
+     * @param name String block name, without the leading data_
+     */
+    default void startBlock(String name) {
+    }
+
+    /**
+     * Called for each data item outside a loop.
+     * @param tag String data name
+     * @param value {@link CifValue}
+     */
+    default void item(String tag, CifValue value) {
+    }
+
+    /**
+     * Called at the start of a loop.
+     * @param tags String[] data names of the loop columns
+     */
+    default void startLoop(String[] tags) {
+    }
+
+    /**
+     * Called for each row of a loop. The array and values are reused for
+     * the next row.
+     * @param values {@link CifValue}[] one value for each tag of the loop
+     */
+    default void loopRow(CifValue[] values) {
+    }
+
+    /**
+     * Called after the last row of a loop.
+     */
+    default void endLoop() {
+    }
+
+    /**
+     * Called at the end of each data block.
+     */
+    default void endBlock() {
+    }
+}
@@ -0,0 +1,161 @@
+package uk.co.norphos.crystallography.io;
+
+import uk.co.norphos.crystallography.io.CifTokenizer.Token;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass parser for CIF (version 1.1) files, passing the data blocks,
+ * items and loop rows to a {@link CifHandler} as they are read. Nothing is
+ * kept once it has been passed on, so the memory used does not depend on
+ * the size of the file: only the current token, or the current loop row, is
+ * held at a time.
+ *
+ * Files are read through memory-mapped windows; other input is read from a
+ * {@link ReadableByteChannel}. Save frames and global blocks are not treated
+ * specially: their items are passed on as part of the enclosing block.
+ *
+ * @author Michael Wharmby
+ */
+public final class CifParser {
+
+    private final CifTokenizer tokenizer;
+    private final CifHandler handler;
+
+    //Values of the current loop row, copied out of the tokenizer's window
+    private byte[] rowBytes = new byte[1024];
+    private int[] rowOffsets, rowLengths;
+    private boolean[] rowQuoted;
+    private CifValue[] row;
+
+    private CifParser(CifTokenizer.ByteSource source, CifHandler handler) {
+        this.tokenizer = new CifTokenizer(source);
+        this.handler = handler;
+    }
+
+    /**
+     * Parse a CIF file.
+     * @param path Path of the file
+     * @param handler {@link CifHandler}
+     * @throws IOException if the file cannot be read
+     * @throws CifException if the file is not valid CIF
+     */
+    public static void parse(Path path, CifHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            new CifParser(CifTokenizer.mappedSource(channel), handler).parse();
+        }
+    }
+
+    /**
+     * Parse CIF from a channel. The channel is not closed.
+     * @param channel ReadableByteChannel
+     * @param handler {@link CifHandler}
+     * @throws IOException if the channel cannot be read
+     * @throws CifException if the input is not valid CIF
+     */
+    public static void parse(ReadableByteChannel channel, CifHandler handler) throws IOException {
+        new CifParser(CifTokenizer.channelSource(channel), handler).parse();
+    }
+
+    /**
+     * Parse CIF from a stream. The stream is not closed.
+     * @param in InputStream
+     * @param handler {@link CifHandler}
+     * @throws IOException if the stream cannot be read
+     * @throws CifException if the input is not valid CIF
+     */
+    public static void parse(InputStream in, CifHandler handler) throws IOException {
+        parse(Channels.newChannel(in), handler);
+    }
+
+    private void parse() throws IOException {
+        boolean inBlock = false;
+        Token token = tokenizer.next();
+        while (token != Token.EOF) {
+            switch (token) {
+                case DATA:
+                    if (inBlock) handler.endBlock();
+                    handler.startBlock(tokenizer.getValue().asString());
+                    inBlock = true;
+                    token = tokenizer.next();
+                    break;
+                case TAG:
+                    if (!inBlock) throw new CifException("Data item outside a data block", tokenizer.getLine());
+                    String tag = tokenizer.getLowerCase();
+                    if (tokenizer.next() != Token.VALUE) {
+                        throw new CifException("No value given for "+tag, tokenizer.getLine());
+                    }
+                    handler.item(tag, tokenizer.getValue());
+                    token = tokenizer.next();
+                    break;
+                case LOOP:
+                    if (!inBlock) throw new CifException("Loop outside a data block", tokenizer.getLine());
+                    token = parseLoop();
+                    break;
+                case VALUE:
+                    throw new CifException("Value without a data name: "+tokenizer.getValue(), tokenizer.getLine());
+                default:
+                    //Save frames, global_ and stop_ are skipped over
+                    token = tokenizer.next();
+            }
+        }
+        if (inBlock) handler.endBlock();
+    }
+
+    private Token parseLoop() throws IOException {
+        List<String> tags = new ArrayList<>();
+        Token token;
+        while ((token = tokenizer.next()) == Token.TAG) {
+            tags.add(tokenizer.getLowerCase());
+        }
+        if (tags.isEmpty()) throw new CifException("Loop has no data names", tokenizer.getLine());
+        int nColumns = tags.size();
+        if (row == null || row.length != nColumns) {
+            row = new CifValue[nColumns];
+            for (int i = 0; i < nColumns; i++) row[i] = new CifValue();
+            rowOffsets = new int[nColumns];
+            rowLengths = new int[nColumns];
+            rowQuoted = new boolean[nColumns];
+        }
+        handler.startLoop(tags.toArray(new String[nColumns]));
+
+        int column = 0, used = 0;
+        while (token == Token.VALUE) {
+            //The tokenizer's window may move on the next token, so the row is copied out
+            CifValue value = tokenizer.getValue();
+            if (used + value.length > rowBytes.length) {
+                byte[] grown = new byte[Math.max(2 * rowBytes.length, used + value.length)];
+                System.arraycopy(rowBytes, 0, grown, 0, used);
+                rowBytes = grown;
+            }
+            System.arraycopy(value.data, value.offset, rowBytes, used, value.length);
+            rowOffsets[column] = used;
+            rowLengths[column] = value.length;
+            rowQuoted[column] = value.quoted;
+            used += value.length;
+            if (++column == nColumns) {
+                for (int i = 0; i < nColumns; i++) {
+                    row[i].set(rowBytes, rowOffsets[i], rowLengths[i], rowQuoted[i]);
+                }
+                handler.loopRow(row);
+                column = 0;
+                used = 0;
+            }
+            token = tokenizer.next();
+        }
+        if (column != 0) {
+            throw new CifException("Number of values in loop is not a multiple of the number of data names",
+                    tokenizer.getLine());
+        }
+        handler.endLoop();
+        return token;
+    }
+}
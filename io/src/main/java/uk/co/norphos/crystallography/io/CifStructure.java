@@ -0,0 +1,111 @@
+package uk.co.norphos.crystallography.io;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.util.List;
+
+/**
+ * Crystal structure read from one data block of a CIF.
+ *
+ * @author Michael Wharmby
+ */
+public class CifStructure {
+
+    private final String name;
+    private Lattice lattice;
+    private String hermannMauguin, hall;
+    private Integer spaceGroupNumber;
+    private List<String> symmetryOperators;
+    private AtomTable atoms;
+    private ReflectionTable reflections;
+
+    CifStructure(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return String data block name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@link Lattice} (null if not given)
+     */
+    public Lattice getLattice() {
+        return lattice;
+    }
+
+    void setLattice(Lattice lattice) {
+        this.lattice = lattice;
+    }
+
+    /**
+     * @return String Hermann-Mauguin symbol of the space group (null if not given)
+     */
+    public String getHermannMauguin() {
+        return hermannMauguin;
+    }
+
+    /**
+     * @return String Hall symbol of the space group (null if not given)
+     */
+    public String getHall() {
+        return hall;
+    }
+
+    /**
+     * @return Integer International Tables number of the space group (null if not given)
+     */
+    public Integer getSpaceGroupNumber() {
+        return spaceGroupNumber;
+    }
+
+    /**
+     * @return List of String symmetry operators, e.g. -x,y+1/2,-z (null if not given)
+     */
+    public List<String> getSymmetryOperators() {
+        return symmetryOperators;
+    }
+
+    void setSymmetryOperators(List<String> symmetryOperators) {
+        this.symmetryOperators = symmetryOperators;
+    }
+
+    void setSpaceGroup(String hermannMauguin, String hall, Integer number) {
+        this.hermannMauguin = hermannMauguin;
+        this.hall = hall;
+        this.spaceGroupNumber = number;
+    }
+
+    /**
+     * @return {@link AtomTable} (null if no atoms given)
+     */
+    public AtomTable getAtoms() {
+        return atoms;
+    }
+
+    void setAtoms(AtomTable atoms) {
+        this.atoms = atoms;
+    }
+
+    /**
+     * @return {@link ReflectionTable} (null if no reflections given)
+     */
+    public ReflectionTable getReflections() {
+        return reflections;
+    }
+
+    void addReflections(ReflectionTable batch) {
+        if (reflections == null) reflections = new ReflectionTable(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            int n = reflections.add(batch.getH(i), batch.getK(i), batch.getL(i), batch.getDSpacing(i));
+            reflections.setStructureFactor(n, batch.getStructureFactor(i));
+            reflections.setPhase(n, batch.getPhase(i));
+            reflections.setIntensity(n, batch.getIntensity(i));
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package uk.co.norphos.crystallography.io;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CifHandler} which picks the unit cell, space group, atoms and
+ * reflections out of each data block and passes them to a
+ * {@link StructureListener}.
+ *
+ * Symmetry operators are read from the _space_group_symop_operation_xyz (or
+ * _symmetry_equiv_pos_as_xyz) loop.
+ *
+ * Reflections from the _refln loop are collected into batches of a fixed
+ * size and passed on as each batch fills, so reflection files of any size
+ * are read in bounded memory. Structure factors are taken from
+ * _refln_F_meas (or _refln_F_calc), intensities from
+ * _refln_intensity_meas (or _refln_F_squared_meas) and phases from
+ * _refln_phase_calc, converted to radians.
+ *
+ * Isotropic displacement parameters (U<sub>iso</sub> or B<sub>iso</sub>)
+ * are converted to the equivalent U<sub>ij</sub> once the cell is known;
+ * anisotropic parameters from the _atom_site_aniso loop replace them.
+ * DDLm style data names (e.g. _cell.length_a) are read as their CIF 1.1
+ * equivalents.
+ *
+ * @author Michael Wharmby
+ */
+public class CifStructureReader implements CifHandler {
+
+    public static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+    private static final String[] CELL_TAGS = {"_cell_length_a", "_cell_length_b", "_cell_length_c",
+            "_cell_angle_alpha", "_cell_angle_beta", "_cell_angle_gamma"};
+    private static final String[] ANISO_U_TAGS = {"_atom_site_aniso_u_11", "_atom_site_aniso_u_22",
+            "_atom_site_aniso_u_33", "_atom_site_aniso_u_12", "_atom_site_aniso_u_13", "_atom_site_aniso_u_23"};
+    private static final String[] ANISO_B_TAGS = {"_atom_site_aniso_b_11", "_atom_site_aniso_b_22",
+            "_atom_site_aniso_b_33", "_atom_site_aniso_b_12", "_atom_site_aniso_b_13", "_atom_site_aniso_b_23"};
+    private static final double B_TO_U = 1 / (8 * Math.PI * Math.PI);
+
+    private enum Loop {NONE, SYMOP, ATOM_SITE, ATOM_SITE_ANISO, REFLN}
+
+    private final StructureListener listener;
+    private final ReflectionTable batch;
+    private final int batchSize;
+
+    //State of the current block
+    private final double[] cell = new double[6];
+    private boolean latticeSent;
+    private String hermannMauguin, hall;
+    private Integer spaceGroupNumber;
+    private List<String> symmetryOperators;
+    private AtomTable atoms;
+    private double[] uIso;
+    private final Map<String, double[]> anisoByLabel = new HashMap<>();
+
+    //Columns of the current loop
+    private Loop loop = Loop.NONE;
+    private int[] columns;
+
+    /**
+     * Create a reader passing reflections to the listener in batches of
+     * {@link #DEFAULT_BATCH_SIZE}.
+     * @param listener {@link StructureListener}
+     */
+    public CifStructureReader(StructureListener listener) {
+        this(listener, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Create a reader passing reflections to the listener in batches of a
+     * given size.
+     * @param listener {@link StructureListener}
+     * @param batchSize int number of reflections in each batch
+     */
+    public CifStructureReader(StructureListener listener, int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive");
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.batch = new ReflectionTable(batchSize);
+    }
+
+    /**
+     * Read every data block of a CIF file into memory.
+     * @param path Path of the file
+     * @return List of {@link CifStructure}, one for each data block
+     * @throws IOException if the file cannot be read or is not valid CIF
+     */
+    public static List<CifStructure> read(Path path) throws IOException {
+        List<CifStructure> structures = new ArrayList<>();
+        CifParser.parse(path, new CifStructureReader(new StructureListener() {
+            private CifStructure current;
+
+            @Override
+            public void startBlock(String name) {
+                current = new CifStructure(name);
+                structures.add(current);
+            }
+
+            @Override
+            public void lattice(Lattice lattice) {
+                current.setLattice(lattice);
+            }
+
+            @Override
+            public void symmetryOperators(List<String> operators) {
+                current.setSymmetryOperators(operators);
+            }
+
+            @Override
+            public void spaceGroup(String hermannMauguin, String hall, Integer number) {
+                current.setSpaceGroup(hermannMauguin, hall, number);
+            }
+
+            @Override
+            public void atoms(AtomTable atoms) {
+                current.setAtoms(atoms);
+            }
+
+            @Override
+            public void reflections(ReflectionTable batch) {
+                current.addReflections(batch);
+            }
+        }));
+        return structures;
+    }
+
+    private static String normalise(String tag) {
+        return tag.replace('.', '_');
+    }
+
+    @Override
+    public void startBlock(String name) {
+        Arrays.fill(cell, Double.NaN);
+        latticeSent = false;
+        hermannMauguin = null;
+        hall = null;
+        spaceGroupNumber = null;
+        symmetryOperators = null;
+        atoms = null;
+        uIso = null;
+        anisoByLabel.clear();
+        listener.startBlock(name);
+    }
+
+    @Override
+    public void item(String tag, CifValue value) {
+        tag = normalise(tag);
+        if (tag.startsWith("_cell_")) {
+            for (int i = 0; i < CELL_TAGS.length; i++) {
+                if (CELL_TAGS[i].equals(tag)) {
+                    cell[i] = value.asDouble();
+                    sendLattice();
+                }
+            }
+        } else if (value.isNull()) {
+            return;
+        } else if (tag.equals("_symmetry_space_group_name_h-m") || tag.equals("_space_group_name_h-m_alt")) {
+            hermannMauguin = value.asString().trim();
+        } else if (tag.equals("_symmetry_space_group_name_hall") || tag.equals("_space_group_name_hall")) {
+            hall = value.asString().trim();
+        } else if (tag.equals("_symmetry_int_tables_number") || tag.equals("_space_group_it_number")) {
+            spaceGroupNumber = value.asInt();
+        }
+    }
+
+    private void sendLattice() {
+        if (latticeSent) return;
+        for (double parameter : cell) {
+            if (Double.isNaN(parameter)) return;
+        }
+        latticeSent = true;
+        listener.lattice(new Lattice(cell[0], cell[1], cell[2], cell[3], cell[4], cell[5]));
+    }
+
+    @Override
+    public void startLoop(String[] tags) {
+        for (int i = 0; i < tags.length; i++) tags[i] = normalise(tags[i]);
+        if (tags[0].startsWith("_space_group_symop_") || tags[0].startsWith("_symmetry_equiv_pos_")) {
+            loop = Loop.SYMOP;
+            columns = indicesOf(tags, "_space_group_symop_operation_xyz", "_symmetry_equiv_pos_as_xyz");
+            if (columns[0] < 0 && columns[1] < 0) {
+                loop = Loop.NONE;
+            } else {
+                symmetryOperators = new ArrayList<>();
+            }
+        } else if (tags[0].startsWith("_atom_site_aniso_")) {
+            loop = Loop.ATOM_SITE_ANISO;
+            columns = new int[13];
+            columns[0] = indexOf(tags, "_atom_site_aniso_label");
+            for (int i = 0; i < 6; i++) {
+                columns[1 + i] = indexOf(tags, ANISO_U_TAGS[i]);
+                columns[7 + i] = indexOf(tags, ANISO_B_TAGS[i]);
+            }
+            if (columns[0] < 0) loop = Loop.NONE;
+        } else if (tags[0].startsWith("_atom_site_")) {
+            loop = Loop.ATOM_SITE;
+            columns = indicesOf(tags, "_atom_site_label", "_atom_site_type_symbol", "_atom_site_fract_x",
+                    "_atom_site_fract_y", "_atom_site_fract_z", "_atom_site_occupancy",
+                    "_atom_site_u_iso_or_equiv", "_atom_site_b_iso_or_equiv");
+            if (columns[2] < 0 || columns[3] < 0 || columns[4] < 0) {
+                loop = Loop.NONE;
+            } else {
+                atoms = new AtomTable();
+                uIso = new double[16];
+            }
+        } else if (tags[0].startsWith("_refln_")) {
+            loop = Loop.REFLN;
+            columns = indicesOf(tags, "_refln_index_h", "_refln_index_k", "_refln_index_l", "_refln_d_spacing",
+                    "_refln_f_meas", "_refln_f_calc", "_refln_phase_calc", "_refln_intensity_meas",
+                    "_refln_f_squared_meas");
+            if (columns[0] < 0 || columns[1] < 0 || columns[2] < 0) loop = Loop.NONE;
+        } else {
+            loop = Loop.NONE;
+        }
+    }
+
+    private static int indexOf(String[] tags, String tag) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i].equals(tag)) return i;
+        }
+        return -1;
+    }
+
+    private static int[] indicesOf(String[] tags, String... wanted) {
+        int[] indices = new int[wanted.length];
+        for (int i = 0; i < wanted.length; i++) {
+            indices[i] = indexOf(tags, wanted[i]);
+        }
+        return indices;
+    }
+
+    /**
+     * Return the value of a column as a number, or NaN if the column is
+     * missing or the value is unknown.
+     */
+    private static double number(CifValue[] values, int column) {
+        return column < 0 ? Double.NaN : values[column].asDouble();
+    }
+
+    private static double firstNumber(CifValue[] values, int column, int fallback) {
+        double value = number(values, column);
+        return Double.isNaN(value) ? number(values, fallback) : value;
+    }
+
+    @Override
+    public void loopRow(CifValue[] values) {
+        switch (loop) {
+            case SYMOP:
+                CifValue operator = values[columns[0] < 0 ? columns[1] : columns[0]];
+                if (!operator.isNull()) symmetryOperators.add(operator.asString().trim());
+                break;
+            case ATOM_SITE:
+                addAtom(values);
+                break;
+            case ATOM_SITE_ANISO:
+                double[] uij = new double[6];
+                for (int i = 0; i < 6; i++) {
+                    double u = number(values, columns[1 + i]);
+                    uij[i] = Double.isNaN(u) ? number(values, columns[7 + i]) * B_TO_U : u;
+                }
+                anisoByLabel.put(values[columns[0]].asString(), uij);
+                break;
+            case REFLN:
+                addReflection(values);
+                break;
+            default:
+        }
+    }
+
+    private void addAtom(CifValue[] values) {
+        String label = columns[0] < 0 ? "" : values[columns[0]].asString();
+        String type = columns[1] < 0 || values[columns[1]].isNull() ? typeFromLabel(label)
+                : values[columns[1]].asString();
+        double occ = number(values, columns[5]);
+        int i = atoms.add(label, type, number(values, columns[2]), number(values, columns[3]),
+                number(values, columns[4]), Double.isNaN(occ) ? 1 : occ);
+        if (i == uIso.length) uIso = Arrays.copyOf(uIso, 2 * uIso.length);
+        double u = number(values, columns[6]);
+        uIso[i] = Double.isNaN(u) ? number(values, columns[7]) * B_TO_U : u;
+    }
+
+    /**
+     * Atom labels conventionally start with the element symbol, e.g. Fe1.
+     */
+    private static String typeFromLabel(String label) {
+        int end = 0;
+        while (end < label.length() && Character.isLetter(label.charAt(end))) end++;
+        return label.substring(0, end);
+    }
+
+    private void addReflection(CifValue[] values) {
+        double dSpacing = number(values, columns[3]);
+        int i = batch.add(values[columns[0]].asInt(), values[columns[1]].asInt(), values[columns[2]].asInt(),
+                Double.isNaN(dSpacing) ? -1 : dSpacing);
+        batch.setStructureFactor(i, firstNumber(values, columns[4], columns[5]));
+        batch.setPhase(i, Math.toRadians(number(values, columns[6])));
+        batch.setIntensity(i, firstNumber(values, columns[7], columns[8]));
+        if (batch.size() == batchSize) flushReflections();
+    }
+
+    private void flushReflections() {
+        if (batch.size() == 0) return;
+        listener.reflections(batch);
+        batch.clear();
+    }
+
+    @Override
+    public void endLoop() {
+        if (loop == Loop.REFLN) flushReflections();
+        loop = Loop.NONE;
+        columns = null;
+    }
+
+    @Override
+    public void endBlock() {
+        if (symmetryOperators != null && !symmetryOperators.isEmpty()) {
+            listener.symmetryOperators(symmetryOperators);
+        }
+        if (hermannMauguin != null || hall != null || spaceGroupNumber != null) {
+            listener.spaceGroup(hermannMauguin, hall, spaceGroupNumber);
+        }
+        if (atoms != null) {
+            setDisplacementParameters();
+            listener.atoms(atoms);
+        }
+        listener.endBlock();
+    }
+
+    private void setDisplacementParameters() {
+        //U_ij equivalent to U_iso is U_iso * cos(angle between reciprocal axes i and j)
+        double[] cosRecip = null;
+        if (latticeSent) {
+            double[] cos = new double[3], sin = new double[3];
+            for (int i = 0; i < 3; i++) {
+                cos[i] = Math.cos(Math.toRadians(cell[3 + i]));
+                sin[i] = Math.sin(Math.toRadians(cell[3 + i]));
+            }
+            cosRecip = new double[]{(cos[1] * cos[2] - cos[0]) / (sin[1] * sin[2]),
+                    (cos[0] * cos[2] - cos[1]) / (sin[0] * sin[2]),
+                    (cos[0] * cos[1] - cos[2]) / (sin[0] * sin[1])};
+        }
+        for (int i = 0; i < atoms.size(); i++) {
+            double[] uij = anisoByLabel.get(atoms.getName(i));
+            if (uij != null) {
+                for (int n = 0; n < 6; n++) atoms.setUij(i, n, uij[n]);
+            } else if (!Double.isNaN(uIso[i])) {
+                atoms.setUij(i, AtomTable.U11, uIso[i]);
+                atoms.setUij(i, AtomTable.U22, uIso[i]);
+                atoms.setUij(i, AtomTable.U33, uIso[i]);
+                if (cosRecip != null) {
+                    atoms.setUij(i, AtomTable.U12, uIso[i] * cosRecip[2]);
+                    atoms.setUij(i, AtomTable.U13, uIso[i] * cosRecip[1]);
+                    atoms.setUij(i, AtomTable.U23, uIso[i] * cosRecip[0]);
+                }
+            }
+        }
+    }
+}
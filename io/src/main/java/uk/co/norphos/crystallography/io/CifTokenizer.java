@@ -0,0 +1,276 @@
+package uk.co.norphos.crystallography.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits CIF text into tokens, reading through a fixed size window of bytes
+ * so that files of any size are tokenised in bounded memory. The window only
+ * grows if a single token (e.g. a long text field) does not fit in it.
+ *
+ * The current token is held as a {@link CifValue} pointing into the window
+ * and is only valid until {@link #next()} is called again.
+ *
+ * @author Michael Wharmby
+ */
+final class CifTokenizer {
+
+    enum Token {EOF, DATA, LOOP, TAG, VALUE, SAVE, GLOBAL, STOP}
+
+    /**
+     * Supplies bytes to the tokenizer.
+     */
+    @FunctionalInterface
+    interface ByteSource {
+        /**
+         * Read up to len bytes into dst.
+         * @return int number of bytes read, or -1 at the end of the input
+         */
+        int read(byte[] dst, int offset, int len) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAPPED_WINDOW = 1 << 28;
+
+    private final ByteSource source;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    //Bytes from start to limit are held; start is the beginning of the current token
+    private int start, pos, limit;
+    private boolean eof, lineStart = true;
+    private int line = 1;
+
+    private final CifValue value = new CifValue();
+    private int valueOffset, valueLength;
+
+    CifTokenizer(ByteSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Read from a channel, which is not closed by the tokenizer.
+     * @param channel ReadableByteChannel
+     * @return ByteSource
+     */
+    static ByteSource channelSource(ReadableByteChannel channel) {
+        return (dst, offset, len) -> channel.read(ByteBuffer.wrap(dst, offset, len));
+    }
+
+    /**
+     * Read a file through successive memory-mapped windows. The channel is
+     * not closed by the tokenizer.
+     * @param channel FileChannel
+     * @return ByteSource
+     */
+    static ByteSource mappedSource(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        return new ByteSource() {
+            private long mapped;
+            private MappedByteBuffer window;
+
+            @Override
+            public int read(byte[] dst, int offset, int len) throws IOException {
+                if (window == null || !window.hasRemaining()) {
+                    if (mapped >= size) return -1;
+                    long length = Math.min(MAPPED_WINDOW, size - mapped);
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+                    mapped += length;
+                }
+                int n = Math.min(len, window.remaining());
+                window.get(dst, offset, n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * @return int line number of the current position, from 1
+     */
+    int getLine() {
+        return line;
+    }
+
+    /**
+     * Return the value of the current token: the value itself for VALUE,
+     * the tag for TAG and the name for DATA and SAVE.
+     * @return {@link CifValue}
+     */
+    CifValue getValue() {
+        value.set(buffer, start + valueOffset, valueLength, value.quoted);
+        return value;
+    }
+
+    /**
+     * @return String the current token (i.e. a tag) in lower case
+     */
+    String getLowerCase() {
+        char[] chars = new char[valueLength];
+        for (int i = 0; i < valueLength; i++) {
+            int b = buffer[start + valueOffset + i] & 0xff;
+            chars[i] = (char) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Read the next token.
+     * @return {@link Token}
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    Token next() throws IOException {
+        for (;;) {
+            start = pos;
+            int c = peek(0);
+            if (c < 0) {
+                return Token.EOF;
+            } else if (c == '\n') {
+                line++;
+                lineStart = true;
+                pos++;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                lineStart = false;
+                pos++;
+            } else if (c == '#') {
+                while ((c = peek(0)) >= 0 && c != '\n') {
+                    start = ++pos;
+                }
+            } else {
+                boolean atLineStart = lineStart;
+                lineStart = false;
+                if (c == ';' && atLineStart) return textField();
+                if (c == '\'' || c == '"') return quoted(c);
+                return word();
+            }
+        }
+    }
+
+    private Token textField() throws IOException {
+        int firstLine = line;
+        pos++;
+        for (;;) {
+            int c = peek(0);
+            if (c < 0) throw new CifException("Unterminated text field", firstLine);
+            if (c == '\n') {
+                int end = pos - start;
+                line++;
+                if (peek(1) == ';') {
+                    pos += 2;
+                    //The field runs from after the opening ';' (and the line ending, if nothing else is
+                    //on that line) to the line ending before the closing ';'
+                    if (end > 1 && buffer[start + end - 1] == '\r') end--;
+                    int from = 1;
+                    if (from + 1 < end && buffer[start + from] == '\r' && buffer[start + from + 1] == '\n') {
+                        from += 2;
+                    } else if (from < end && buffer[start + from] == '\n') {
+                        from++;
+                    }
+                    return setValue(Token.VALUE, from, Math.max(end - from, 0), true);
+                }
+            }
+            pos++;
+        }
+    }
+
+    private Token quoted(int quote) throws IOException {
+        pos++;
+        for (;;) {
+            int c = peek(0);
+            if (c < 0 || c == '\n') throw new CifException("Unterminated quoted value", line);
+            if (c == quote) {
+                //A quote only closes the value if followed by whitespace
+                int after = peek(1);
+                if (after < 0 || isWhitespace(after)) {
+                    pos++;
+                    return setValue(Token.VALUE, 1, pos - start - 2, true);
+                }
+            }
+            pos++;
+        }
+    }
+
+    private Token word() throws IOException {
+        int c;
+        while ((c = peek(0)) >= 0 && !isWhitespace(c)) {
+            pos++;
+        }
+        int length = pos - start;
+        if (buffer[start] == '_') {
+            return setValue(Token.TAG, 0, length, false);
+        } else if (startsWith("data_", length)) {
+            return setValue(Token.DATA, 5, length - 5, false);
+        } else if (startsWith("save_", length)) {
+            return setValue(Token.SAVE, 5, length - 5, false);
+        } else if (length == 5 && startsWith("loop_", length)) {
+            return setValue(Token.LOOP, 0, length, false);
+        } else if (length == 7 && startsWith("global_", length)) {
+            return setValue(Token.GLOBAL, 0, length, false);
+        } else if (length == 5 && startsWith("stop_", length)) {
+            return setValue(Token.STOP, 0, length, false);
+        }
+        return setValue(Token.VALUE, 0, length, false);
+    }
+
+    private Token setValue(Token token, int offset, int length, boolean quoted) {
+        valueOffset = offset;
+        valueLength = length;
+        value.quoted = quoted;
+        return token;
+    }
+
+    /**
+     * Case-insensitive test of whether the current word starts with a
+     * reserved word.
+     */
+    private boolean startsWith(String word, int length) {
+        if (length < word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            int b = buffer[start + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Return the byte ahead of the current position, reading more input if
+     * needed.
+     * @return int the byte, or -1 at the end of the input
+     */
+    private int peek(int ahead) throws IOException {
+        while (pos + ahead >= limit) {
+            if (!fill()) return -1;
+        }
+        return buffer[pos + ahead] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            pos -= start;
+            limit -= start;
+            start = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] grown = new byte[2 * buffer.length];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+        int n;
+        do {
+            n = source.read(buffer, limit, buffer.length - limit);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
@@ -0,0 +1,210 @@
+package uk.co.norphos.crystallography.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single CIF data value, viewed in place in the parser's buffer. Numbers
+ * are read directly from the bytes, so no {@link String} is created unless
+ * {@link #asString()} is called.
+ *
+ * Values are reused by the parser: a value passed to a {@link CifHandler} is
+ * only valid until the handler method returns.
+ *
+ * @author Michael Wharmby
+ */
+public final class CifValue {
+
+    //Powers of ten which are exact as doubles
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+    }
+
+    byte[] data;
+    int offset, length;
+    boolean quoted;
+
+    CifValue() {
+    }
+
+    void set(byte[] data, int offset, int length, boolean quoted) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.quoted = quoted;
+    }
+
+    /**
+     * @return boolean true if the value is the unquoted '?' (unknown)
+     */
+    public boolean isUnknown() {
+        return !quoted && length == 1 && data[offset] == '?';
+    }
+
+    /**
+     * @return boolean true if the value is the unquoted '.' (inapplicable)
+     */
+    public boolean isInapplicable() {
+        return !quoted && length == 1 && data[offset] == '.';
+    }
+
+    /**
+     * @return boolean true if the value is unknown or inapplicable
+     */
+    public boolean isNull() {
+        return isUnknown() || isInapplicable();
+    }
+
+    /**
+     * @return boolean true if the value was quoted or a text field
+     */
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * @return String the value, without quotes
+     */
+    public String asString() {
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the value as an integer.
+     * @return int
+     * @throws NumberFormatException if the value is not an integer
+     */
+    public int asInt() {
+        int i = offset, end = offset + length;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) negative = data[i++] == '-';
+        if (i == end) throw new NumberFormatException("Not an integer: " + asString());
+        //Magnitude of Integer.MIN_VALUE is one more than Integer.MAX_VALUE
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Not an integer: " + asString());
+            value = 10 * value + digit;
+            if (value > limit) throw new NumberFormatException("Integer out of range: " + asString());
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Read the value as a number, ignoring any standard uncertainty in
+     * brackets, e.g. 1.2345(6) is read as 1.2345.
+     * @return double (NaN if the value is unknown or inapplicable)
+     * @throws NumberFormatException if the value is not a number
+     */
+    public double asDouble() {
+        if (isNull()) return Double.NaN;
+        int end = numberEnd();
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) negative = data[i++] == '-';
+
+        //Fast path: up to 15 significant digits and a small power of ten are exact in a double
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean point = false, any = false;
+        for (; i < end; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    if (point) scale--;
+                    continue;
+                }
+                if (++digits > 15) return slowParse(end);
+                mantissa = 10 * mantissa + (b - '0');
+                if (point) scale--;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else if (b == 'e' || b == 'E') {
+                break;
+            } else {
+                throw new NumberFormatException("Not a number: " + asString());
+            }
+        }
+        if (!any) throw new NumberFormatException("Not a number: " + asString());
+        if (i < end) {
+            //Exponent
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (data[i] == '-' || data[i] == '+')) negativeExponent = data[i++] == '-';
+            if (i == end) throw new NumberFormatException("Not a number: " + asString());
+            int exponent = 0;
+            for (; i < end; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException("Not a number: " + asString());
+                if (exponent > 1000) return slowParse(end);
+                exponent = 10 * exponent + digit;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return slowParse(end);
+        }
+        return negative ? -value : value;
+    }
+
+    private double slowParse(int end) {
+        return Double.parseDouble(new String(data, offset, end - offset, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Index after the number, before any standard uncertainty
+     */
+    private int numberEnd() {
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] == '(') return i;
+        }
+        return offset + length;
+    }
+
+    /**
+     * Return the standard uncertainty given in brackets after a number, in
+     * the units of the number, e.g. 0.0006 for 1.2345(6).
+     * @return double (NaN if no uncertainty is given)
+     */
+    public double getUncertainty() {
+        int open = numberEnd(), end = offset + length;
+        if (open == end) return Double.NaN;
+        long digits = 0;
+        int i;
+        for (i = open + 1; i < end && data[i] != ')'; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Bad standard uncertainty: " + asString());
+            digits = 10 * digits + digit;
+        }
+        //The uncertainty applies to the last decimal place of the number
+        int decimals = 0, exponent = 0;
+        boolean point = false;
+        for (i = offset; i < open; i++) {
+            if (data[i] == '.') {
+                point = true;
+            } else if (data[i] == 'e' || data[i] == 'E') {
+                exponent = Integer.parseInt(new String(data, i + 1, open - i - 1, StandardCharsets.US_ASCII)
+                        .replace("+", ""));
+                break;
+            } else if (point) {
+                decimals++;
+            }
+        }
+        return digits * Math.pow(10, exponent - decimals);
+    }
+
+    @Override
+    public String toString() {
+        return asString();
+    }
+}
@@ -0,0 +1,265 @@
+package uk.co.norphos.crystallography.io;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Crystal;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a crystal - its lattice, space group, atoms and reflections - in
+ * the binary columnar format read by {@link MappedCrystal} (see
+ * {@link CrystalFormat} for the layout). Each column is written straight
+ * from the {@link AtomTable} or {@link ReflectionTable} through a small
+ * buffer, so writing does not need a second copy of the data.
+ *
+ * Any part of the crystal may be left unset. Reflection labels are not
+ * written.
+ *
+ * @author Michael Wharmby
+ */
+public class CrystalFileWriter {
+
+    //Largest file which can be mapped into a single buffer by the reader
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private Lattice lattice;
+    private String hermannMauguin, hall;
+    private int spaceGroupNumber;
+    private AtomTable atoms;
+    private ReflectionTable reflections;
+
+    /**
+     * Create a writer with nothing set.
+     */
+    public CrystalFileWriter() {
+    }
+
+    /**
+     * Create a writer for the lattice, space group and asymmetric unit of a
+     * {@link Crystal}.
+     * @param crystal {@link Crystal}
+     */
+    public CrystalFileWriter(Crystal crystal) {
+        if (crystal.getUnitCell() != null) lattice = crystal.getUnitCell().getLattice();
+        SpaceGroup spaceGroup = crystal.getSpaceGroup();
+        if (spaceGroup != null) {
+            setSpaceGroup(spaceGroup.getHermannMauguinSymbol(), spaceGroup.getHallSymbol(), spaceGroup.getNumber());
+        }
+        if (crystal.getAsymmetricUnit() != null) atoms = AtomTable.fromAtoms(crystal.getAsymmetricUnit());
+    }
+
+    /**
+     * Create a writer for a structure read from a CIF.
+     * @param structure {@link CifStructure}
+     */
+    public CrystalFileWriter(CifStructure structure) {
+        lattice = structure.getLattice();
+        setSpaceGroup(structure.getHermannMauguin(), structure.getHall(), structure.getSpaceGroupNumber());
+        atoms = structure.getAtoms();
+        reflections = structure.getReflections();
+    }
+
+    public void setLattice(Lattice lattice) {
+        this.lattice = lattice;
+    }
+
+    /**
+     * Set the symbols of the space group.
+     * @param hermannMauguin String Hermann-Mauguin symbol (may be null)
+     * @param hall String Hall symbol (may be null)
+     * @param number Integer International Tables number (may be null)
+     */
+    public void setSpaceGroup(String hermannMauguin, String hall, Integer number) {
+        this.hermannMauguin = hermannMauguin;
+        this.hall = hall;
+        this.spaceGroupNumber = number == null ? 0 : number;
+    }
+
+    public void setAtoms(AtomTable atoms) {
+        this.atoms = atoms;
+    }
+
+    public void setReflections(ReflectionTable reflections) {
+        this.reflections = reflections;
+    }
+
+    /**
+     * Write the crystal to a file, replacing any existing file.
+     * @param path Path of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel);
+        }
+    }
+
+    /**
+     * Write the crystal to a channel, which is not closed.
+     * @param channel WritableByteChannel
+     * @throws IOException if the channel cannot be written
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        int nAtoms = atoms == null ? 0 : atoms.size(), nReflections = reflections == null ? 0 : reflections.size();
+        List<String> types = atoms == null ? new ArrayList<>() : atoms.getTypes();
+
+        List<byte[]> strings = new ArrayList<>(2 + types.size() + nAtoms);
+        strings.add(encode(hermannMauguin));
+        strings.add(encode(hall));
+        for (String type : types) strings.add(encode(type));
+        for (int i = 0; i < nAtoms; i++) strings.add(encode(atoms.getName(i)));
+        long stringBytes = 0;
+        for (byte[] string : strings) stringBytes += string == null ? 0 : string.length;
+
+        long[] sizes = new long[CrystalFormat.N_SECTIONS];
+        sizes[CrystalFormat.STRINGS] = Integer.BYTES * (1 + 2L * strings.size()) + stringBytes;
+        sizes[CrystalFormat.COORDS] = 3L * Double.BYTES * nAtoms;
+        sizes[CrystalFormat.OCCUPANCIES] = (long) Double.BYTES * nAtoms;
+        sizes[CrystalFormat.UIJS] = 6L * Double.BYTES * nAtoms;
+        sizes[CrystalFormat.TYPE_CODES] = (long) Integer.BYTES * nAtoms;
+        sizes[CrystalFormat.H] = sizes[CrystalFormat.K] = sizes[CrystalFormat.L] = (long) Integer.BYTES * nReflections;
+        sizes[CrystalFormat.D_SPACINGS] = sizes[CrystalFormat.STRUCTURE_FACTORS] = sizes[CrystalFormat.PHASES]
+                = sizes[CrystalFormat.INTENSITIES] = (long) Double.BYTES * nReflections;
+        long[] offsets = new long[CrystalFormat.N_SECTIONS];
+        long end = CrystalFormat.HEADER_SIZE;
+        for (int s = 0; s < CrystalFormat.N_SECTIONS; s++) {
+            offsets[s] = end;
+            end = CrystalFormat.align(end + sizes[s]);
+        }
+        if (end > MAX_SIZE) throw new IOException("Crystal too large to write as a single file ("+end+" bytes)");
+
+        Output out = new Output(channel);
+        out.putInt(CrystalFormat.MAGIC);
+        out.putInt(CrystalFormat.VERSION);
+        out.putInt(CrystalFormat.N_SECTIONS);
+        out.putInt(nAtoms);
+        out.putInt(nReflections);
+        out.putInt(types.size());
+        out.putInt(spaceGroupNumber);
+        out.putInt(0);
+        double[] parameters = lattice == null ? new double[]{Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN} : new double[]{lattice.getA(), lattice.getB(), lattice.getC(),
+                lattice.getAl(), lattice.getBe(), lattice.getGa()};
+        for (double parameter : parameters) out.putDouble(parameter);
+        for (long offset : offsets) out.putLong(offset);
+
+        out.padTo(offsets[CrystalFormat.STRINGS]);
+        out.putInt(strings.size());
+        int start = 0;
+        for (byte[] string : strings) {
+            out.putInt(start);
+            out.putInt(string == null ? -1 : string.length);
+            if (string != null) start += string.length;
+        }
+        for (byte[] string : strings) {
+            if (string != null) out.put(string);
+        }
+
+        out.padTo(offsets[CrystalFormat.COORDS]);
+        for (int i = 0; i < nAtoms; i++) {
+            out.putDouble(atoms.getX(i));
+            out.putDouble(atoms.getY(i));
+            out.putDouble(atoms.getZ(i));
+        }
+        out.padTo(offsets[CrystalFormat.OCCUPANCIES]);
+        for (int i = 0; i < nAtoms; i++) out.putDouble(atoms.getOcc(i));
+        out.padTo(offsets[CrystalFormat.UIJS]);
+        for (int i = 0; i < nAtoms; i++) {
+            for (int n = 0; n < 6; n++) out.putDouble(atoms.getUij(i, n));
+        }
+        out.padTo(offsets[CrystalFormat.TYPE_CODES]);
+        for (int i = 0; i < nAtoms; i++) out.putInt(atoms.getTypeCode(i));
+
+        out.padTo(offsets[CrystalFormat.H]);
+        for (int i = 0; i < nReflections; i++) out.putInt(reflections.getH(i));
+        out.padTo(offsets[CrystalFormat.K]);
+        for (int i = 0; i < nReflections; i++) out.putInt(reflections.getK(i));
+        out.padTo(offsets[CrystalFormat.L]);
+        for (int i = 0; i < nReflections; i++) out.putInt(reflections.getL(i));
+        out.padTo(offsets[CrystalFormat.D_SPACINGS]);
+        for (int i = 0; i < nReflections; i++) out.putDouble(reflections.getDSpacing(i));
+        out.padTo(offsets[CrystalFormat.STRUCTURE_FACTORS]);
+        for (int i = 0; i < nReflections; i++) out.putDouble(reflections.getStructureFactor(i));
+        out.padTo(offsets[CrystalFormat.PHASES]);
+        for (int i = 0; i < nReflections; i++) out.putDouble(reflections.getPhase(i));
+        out.padTo(offsets[CrystalFormat.INTENSITIES]);
+        for (int i = 0; i < nReflections; i++) out.putDouble(reflections.getIntensity(i));
+        out.padTo(end);
+        out.flush();
+    }
+
+    private static byte[] encode(String string) {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers values on their way to the channel.
+     */
+    private static final class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(CrystalFormat.ORDER);
+        private long position;
+
+        private Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+            position += Double.BYTES;
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            for (int done = 0; done < bytes.length; ) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - done);
+                buffer.put(bytes, done, n);
+                done += n;
+                position += n;
+            }
+        }
+
+        private void padTo(long offset) throws IOException {
+            while (position < offset) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.co.norphos.crystallography.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary crystal file written by {@link CrystalFileWriter}
+ * and read by {@link MappedCrystal}. All values are little-endian.
+ *
+ * The file starts with a header:
+ * <pre>
+ *  0  int     magic number, the bytes "NCRY"
+ *  4  int     format version
+ *  8  int     number of sections (n)
+ * 12  int     number of atoms
+ * 16  int     number of reflections
+ * 20  int     number of atom types
+ * 24  int     space group number (0 if not known)
+ * 28  int     unused
+ * 32  double  a, b, c, alpha, beta, gamma (NaN if not known)
+ * 80  long[n] offset of each section from the start of the file
+ * </pre>
+ * followed by the sections, each starting on an 8 byte boundary. The string
+ * section holds an int count, then the start and length of each string in
+ * the UTF-8 bytes which follow (length -1 for null): first the
+ * Hermann-Mauguin and Hall symbols, then the atom types, then the atom
+ * names. Every other section is a single column of the atom or reflection
+ * tables, in the order of the section numbers below.
+ *
+ * @author Michael Wharmby
+ */
+final class CrystalFormat {
+
+    static final int MAGIC = 'N' | 'C' << 8 | 'R' << 16 | 'Y' << 24;
+    static final int VERSION = 1;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    //Header fields
+    static final int VERSION_OFFSET = 4, N_SECTIONS_OFFSET = 8, N_ATOMS_OFFSET = 12, N_REFLECTIONS_OFFSET = 16,
+            N_TYPES_OFFSET = 20, SPACE_GROUP_OFFSET = 24, LATTICE_OFFSET = 32, SECTIONS_OFFSET = 80;
+
+    //Sections
+    static final int STRINGS = 0, COORDS = 1, OCCUPANCIES = 2, UIJS = 3, TYPE_CODES = 4, H = 5, K = 6, L = 7,
+            D_SPACINGS = 8, STRUCTURE_FACTORS = 9, PHASES = 10, INTENSITIES = 11, N_SECTIONS = 12;
+
+    static final int HEADER_SIZE = SECTIONS_OFFSET + 8 * N_SECTIONS;
+
+    private CrystalFormat() {
+    }
+
+    static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * Return a view of part of a buffer, in the byte order of the format.
+     */
+    static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit((int) (offset + length));
+        view.position((int) offset);
+        return view.slice().order(ORDER);
+    }
+}
@@ -0,0 +1,242 @@
+package uk.co.norphos.crystallography.io;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a crystal file written by {@link CrystalFileWriter}.
+ * The file is memory-mapped and only the header is read when it is opened;
+ * atoms are read from the mapped columns by index and reflections are
+ * given as a {@link ReflectionTable} wrapping the mapped columns, so nothing
+ * is copied onto the heap unless asked for (e.g. by {@link #toAtomTable()}).
+ *
+ * Files are mapped read-only, so the structure factors, phases and
+ * intensities of the reflection table cannot be changed. Values may be
+ * read from several threads at once.
+ *
+ * @author Michael Wharmby
+ */
+public final class MappedCrystal {
+
+    private final int nAtoms, nReflections;
+    private final Lattice lattice;
+    private final Integer spaceGroupNumber;
+    private final String hermannMauguin, hall;
+    private final String[] types;
+
+    //Start and length of each string in stringBytes
+    private final IntBuffer stringIndex;
+    private final ByteBuffer stringBytes;
+    private final DoubleBuffer coords, occupancies, uijs;
+    private final IntBuffer typeCodes, h, k, l;
+    private final DoubleBuffer dSpacings, structureFactors, phases, intensities;
+
+    private MappedCrystal(ByteBuffer buffer) throws IOException {
+        buffer = buffer.duplicate().order(CrystalFormat.ORDER);
+        if (buffer.limit() < CrystalFormat.HEADER_SIZE || buffer.getInt(0) != CrystalFormat.MAGIC) {
+            throw new IOException("Not a crystal file");
+        }
+        int version = buffer.getInt(CrystalFormat.VERSION_OFFSET);
+        if (version != CrystalFormat.VERSION) {
+            throw new IOException("Unsupported crystal file version "+version+" (expected "+CrystalFormat.VERSION+")");
+        }
+        if (buffer.getInt(CrystalFormat.N_SECTIONS_OFFSET) != CrystalFormat.N_SECTIONS) {
+            throw new IOException("Wrong number of sections in crystal file");
+        }
+        nAtoms = buffer.getInt(CrystalFormat.N_ATOMS_OFFSET);
+        nReflections = buffer.getInt(CrystalFormat.N_REFLECTIONS_OFFSET);
+        int nTypes = buffer.getInt(CrystalFormat.N_TYPES_OFFSET);
+        int number = buffer.getInt(CrystalFormat.SPACE_GROUP_OFFSET);
+        spaceGroupNumber = number == 0 ? null : number;
+
+        double[] parameters = new double[6];
+        for (int i = 0; i < 6; i++) {
+            parameters[i] = buffer.getDouble(CrystalFormat.LATTICE_OFFSET + Double.BYTES * i);
+        }
+        lattice = Double.isNaN(parameters[0]) ? null : new Lattice(parameters[0], parameters[1], parameters[2],
+                parameters[3], parameters[4], parameters[5]);
+
+        long[] offsets = new long[CrystalFormat.N_SECTIONS];
+        for (int s = 0; s < CrystalFormat.N_SECTIONS; s++) {
+            offsets[s] = buffer.getLong(CrystalFormat.SECTIONS_OFFSET + Long.BYTES * s);
+        }
+        int nStrings = section(buffer, offsets, CrystalFormat.STRINGS, Integer.BYTES).getInt(0);
+        if (nStrings != 2 + nTypes + nAtoms) throw new IOException("Wrong number of strings in crystal file");
+        stringIndex = section(buffer, offsets, CrystalFormat.STRINGS, Integer.BYTES * (1 + 2L * nStrings))
+                .asIntBuffer();
+        long bytesOffset = offsets[CrystalFormat.STRINGS] + Integer.BYTES * (1 + 2L * nStrings);
+        stringBytes = CrystalFormat.slice(buffer, bytesOffset, buffer.limit() - bytesOffset);
+
+        coords = section(buffer, offsets, CrystalFormat.COORDS, 3L * Double.BYTES * nAtoms).asDoubleBuffer();
+        occupancies = section(buffer, offsets, CrystalFormat.OCCUPANCIES, (long) Double.BYTES * nAtoms)
+                .asDoubleBuffer();
+        uijs = section(buffer, offsets, CrystalFormat.UIJS, 6L * Double.BYTES * nAtoms).asDoubleBuffer();
+        typeCodes = section(buffer, offsets, CrystalFormat.TYPE_CODES, (long) Integer.BYTES * nAtoms).asIntBuffer();
+        long intColumn = (long) Integer.BYTES * nReflections, doubleColumn = (long) Double.BYTES * nReflections;
+        h = section(buffer, offsets, CrystalFormat.H, intColumn).asIntBuffer();
+        k = section(buffer, offsets, CrystalFormat.K, intColumn).asIntBuffer();
+        l = section(buffer, offsets, CrystalFormat.L, intColumn).asIntBuffer();
+        dSpacings = section(buffer, offsets, CrystalFormat.D_SPACINGS, doubleColumn).asDoubleBuffer();
+        structureFactors = section(buffer, offsets, CrystalFormat.STRUCTURE_FACTORS, doubleColumn).asDoubleBuffer();
+        phases = section(buffer, offsets, CrystalFormat.PHASES, doubleColumn).asDoubleBuffer();
+        intensities = section(buffer, offsets, CrystalFormat.INTENSITIES, doubleColumn).asDoubleBuffer();
+
+        hermannMauguin = string(0);
+        hall = string(1);
+        types = new String[nTypes];
+        for (int i = 0; i < nTypes; i++) types[i] = string(2 + i);
+    }
+
+    private static ByteBuffer section(ByteBuffer buffer, long[] offsets, int section, long length) throws IOException {
+        if (offsets[section] < CrystalFormat.HEADER_SIZE || offsets[section] + length > buffer.limit()) {
+            throw new IOException("Crystal file truncated or corrupt (section "+section+")");
+        }
+        return CrystalFormat.slice(buffer, offsets[section], length);
+    }
+
+    /**
+     * Map a crystal file into memory.
+     * @param path Path of the file
+     * @return {@link MappedCrystal}
+     * @throws IOException if the file cannot be read or is not a crystal file
+     */
+    public static MappedCrystal open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Crystal file too large to map");
+            return new MappedCrystal(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read a crystal file already held in a buffer.
+     * @param buffer ByteBuffer containing the file from position 0
+     * @return {@link MappedCrystal}
+     * @throws IOException if the buffer does not hold a crystal file
+     */
+    public static MappedCrystal wrap(ByteBuffer buffer) throws IOException {
+        return new MappedCrystal(buffer);
+    }
+
+    private String string(int index) {
+        int start = stringIndex.get(1 + 2 * index), length = stringIndex.get(2 + 2 * index);
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = stringBytes.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return {@link Lattice} (null if not known)
+     */
+    public Lattice getLattice() {
+        return lattice;
+    }
+
+    /**
+     * @return String Hermann-Mauguin symbol of the space group (null if not known)
+     */
+    public String getHermannMauguinSymbol() {
+        return hermannMauguin;
+    }
+
+    /**
+     * @return String Hall symbol of the space group (null if not known)
+     */
+    public String getHallSymbol() {
+        return hall;
+    }
+
+    /**
+     * @return Integer International Tables number of the space group (null if not known)
+     */
+    public Integer getSpaceGroupNumber() {
+        return spaceGroupNumber;
+    }
+
+    public int getNumberOfAtoms() {
+        return nAtoms;
+    }
+
+    /**
+     * Return the name of an atom, decoded from the file on each call.
+     * @param i int atom index
+     * @return String
+     */
+    public String getName(int i) {
+        return string(2 + types.length + i);
+    }
+
+    public String getType(int i) {
+        return types[typeCodes.get(i)];
+    }
+
+    public int getTypeCode(int i) {
+        return typeCodes.get(i);
+    }
+
+    public double getX(int i) {
+        return coords.get(3 * i);
+    }
+
+    public double getY(int i) {
+        return coords.get(3 * i + 1);
+    }
+
+    public double getZ(int i) {
+        return coords.get(3 * i + 2);
+    }
+
+    public double getOcc(int i) {
+        return occupancies.get(i);
+    }
+
+    /**
+     * Return one anisotropic displacement parameter of an atom.
+     * @param i int atom index
+     * @param component int one of {@link AtomTable#U11} etc.
+     * @return double
+     */
+    public double getUij(int i, int component) {
+        return uijs.get(6 * i + component);
+    }
+
+    /**
+     * Copy the atoms into a new {@link AtomTable}.
+     * @return {@link AtomTable}
+     */
+    public AtomTable toAtomTable() {
+        AtomTable table = new AtomTable(nAtoms);
+        for (int i = 0; i < nAtoms; i++) {
+            table.add(getName(i), getType(i), getX(i), getY(i), getZ(i), getOcc(i));
+            for (int n = 0; n < 6; n++) table.setUij(i, n, getUij(i, n));
+        }
+        return table;
+    }
+
+    public int getNumberOfReflections() {
+        return nReflections;
+    }
+
+    /**
+     * Return the reflections as a table reading directly from the mapped
+     * columns. The columns are only copied if reflections are added to the
+     * table.
+     * @return {@link ReflectionTable}
+     */
+    public ReflectionTable getReflections() {
+        return ReflectionTable.wrap(h.duplicate(), k.duplicate(), l.duplicate(), dSpacings.duplicate(),
+                structureFactors.duplicate(), phases.duplicate(), intensities.duplicate(), nReflections);
+    }
+}
@@ -0,0 +1,73 @@
+package uk.co.norphos.crystallography.io;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.util.List;
+
+/**
+ * Receives the crystal structure read from each data block of a CIF by a
+ * {@link CifStructureReader}. Methods are only called for the parts of the
+ * structure found in the block. All methods do nothing by default.
+ *
+ * @author Michael Wharmby
+ */
+public interface StructureListener {
+
+    /**
+     * Called at the start of each data block.
+     * @param name String block name
+     */
+    default void startBlock(String name) {
+    }
+
+    /**
+     * Called once all six cell parameters of the block have been read, so
+     * before any reflections which follow them.
+     * @param lattice {@link Lattice}
+     */
+    default void lattice(Lattice lattice) {
+    }
+
+    /**
+     * Called at the end of the block with the symmetry operators of the
+     * _space_group_symop (or _symmetry_equiv_pos) loop, before
+     * {@link #spaceGroup(String, String, Integer)}.
+     * @param operators List of String coordinate triplets, e.g. -x,y+1/2,-z
+     */
+    default void symmetryOperators(List<String> operators) {
+    }
+
+    /**
+     * Called at the end of the block with the space group symbols found.
+     * @param hermannMauguin String Hermann-Mauguin symbol (may be null)
+     * @param hall String Hall symbol (may be null)
+     * @param number Integer International Tables number (may be null)
+     */
+    default void spaceGroup(String hermannMauguin, String hall, Integer number) {
+    }
+
+    /**
+     * Called at the end of the block with the atoms of the _atom_site loop,
+     * including any anisotropic displacement parameters.
+     * @param atoms {@link AtomTable}
+     */
+    default void atoms(AtomTable atoms) {
+    }
+
+    /**
+     * Called for each batch of reflections read from a _refln loop. The
+     * table is cleared and reused for the next batch, so reflections to be
+     * kept must be copied out of it.
+     * @param batch {@link ReflectionTable}
+     */
+    default void reflections(ReflectionTable batch) {
+    }
+
+    /**
+     * Called at the end of each data block.
+     */
+    default void endBlock() {
+    }
+}
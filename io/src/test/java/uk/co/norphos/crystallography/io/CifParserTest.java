@@ -0,0 +1,193 @@
+package uk.co.norphos.crystallography.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CifParserTest {
+
+    /**
+     * Records every callback as a string.
+     */
+    private static class Recorder implements CifHandler {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void startBlock(String name) {
+            events.add("block " + name);
+        }
+
+        @Override
+        public void item(String tag, CifValue value) {
+            events.add(tag + "=" + value.asString());
+        }
+
+        @Override
+        public void startLoop(String[] tags) {
+            events.add("loop " + Arrays.toString(tags));
+        }
+
+        @Override
+        public void loopRow(CifValue[] values) {
+            events.add("row " + Arrays.toString(values));
+        }
+
+        @Override
+        public void endLoop() {
+            events.add("end loop");
+        }
+
+        @Override
+        public void endBlock() {
+            events.add("end block");
+        }
+    }
+
+    private static List<String> parse(String cif) throws IOException {
+        Recorder recorder = new Recorder();
+        CifParser.parse(new ByteArrayInputStream(cif.getBytes(StandardCharsets.UTF_8)), recorder);
+        return recorder.events;
+    }
+
+    @Test
+    public void testTokens() throws IOException {
+        String cif = "# comment\n" +
+                "DATA_test\n" +
+                "_Tag.One 'it''s quoted' _tag_two \"double quoted\"\n" +
+                "_text\n" +
+                ";\nfirst line\n second; # not a comment\n" +
+                ";\n" +
+                "Loop_ _a _B # comment\n" +
+                "1 'x y'\n" +
+                "2 ?\n" +
+                "_after .\n";
+        assertEquals("Wrong events", Arrays.asList("block test", "_tag.one=it''s quoted",
+                "_tag_two=double quoted", "_text=first line\n second; # not a comment", "loop [_a, _b]",
+                "row [1, x y]", "row [2, ?]", "end loop", "_after=.", "end block"), parse(cif));
+    }
+
+    @Test
+    public void testLineEndings() throws IOException {
+        String cif = "data_a\r\n_text\r\n;\r\nline\r\n;\r\n_b 1\r\ndata_b\r\n_c 2";
+        assertEquals("Wrong events", Arrays.asList("block a", "_text=line", "_b=1", "end block", "block b",
+                "_c=2", "end block"), parse(cif));
+    }
+
+    @Test
+    public void testLongTokens() throws IOException {
+        //Text fields and loops much longer than the tokenizer's window
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) text.append("line ").append(i).append('\n');
+        StringBuilder loop = new StringBuilder("loop_ _h _k _l\n");
+        for (int i = 0; i < 50000; i++) loop.append(i).append(' ').append(-i).append(" 0\n");
+        String cif = "data_long\n_text\n;\n" + text + ";\n" + loop;
+
+        int[] rows = new int[1];
+        String[] field = new String[1];
+        CifParser.parse(new ByteArrayInputStream(cif.getBytes(StandardCharsets.UTF_8)), new CifHandler() {
+            @Override
+            public void item(String tag, CifValue value) {
+                field[0] = value.asString();
+            }
+
+            @Override
+            public void loopRow(CifValue[] values) {
+                assertEquals("Wrong h", rows[0], values[0].asInt());
+                assertEquals("Wrong k", -rows[0], values[1].asInt());
+                rows[0]++;
+            }
+        });
+        assertEquals("Wrong text field", text.substring(0, text.length() - 1), field[0]);
+        assertEquals("Wrong number of rows", 50000, rows[0]);
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        String cif = "data_n\nloop_ _x\n1.2345(6) -0.5 +12 3.4e-2 1E3(2) 0.000012345678901234567 ? . 1.7976931348623157e308";
+        List<double[]> numbers = new ArrayList<>();
+        CifParser.parse(new ByteArrayInputStream(cif.getBytes(StandardCharsets.UTF_8)), new CifHandler() {
+            @Override
+            public void loopRow(CifValue[] values) {
+                numbers.add(new double[]{values[0].asDouble(), values[0].isNull() ? Double.NaN
+                        : values[0].getUncertainty()});
+            }
+        });
+        double[][] expected = {{1.2345, 0.0006}, {-0.5, Double.NaN}, {12, Double.NaN}, {0.034, Double.NaN},
+                {1000, 2000}, {0.000012345678901234567, Double.NaN}, {Double.NaN, Double.NaN},
+                {Double.NaN, Double.NaN}, {Double.MAX_VALUE, Double.NaN}};
+        assertEquals("Wrong number of values", expected.length, numbers.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Wrong value "+i, expected[i][0], numbers.get(i)[0], 1e-15 * Math.abs(expected[i][0]));
+            assertEquals("Wrong uncertainty "+i, expected[i][1], numbers.get(i)[1], 1e-15);
+        }
+    }
+
+    @Test
+    public void testValueTypes() throws IOException {
+        String cif = "data_v\n_a ? _b . _c '?' _d -42";
+        List<CifValue> seen = new ArrayList<>();
+        CifParser.parse(new ByteArrayInputStream(cif.getBytes(StandardCharsets.UTF_8)), new CifHandler() {
+            @Override
+            public void item(String tag, CifValue value) {
+                switch (tag) {
+                    case "_a":
+                        assertTrue("Not unknown", value.isUnknown());
+                        break;
+                    case "_b":
+                        assertTrue("Not inapplicable", value.isInapplicable());
+                        break;
+                    case "_c":
+                        assertFalse("Quoted ? is a value", value.isNull());
+                        break;
+                    default:
+                        assertEquals("Wrong integer", -42, value.asInt());
+                }
+                seen.add(value);
+            }
+        });
+        assertEquals("Wrong number of items", 4, seen.size());
+    }
+
+    @Test
+    public void testIntegerRange() throws IOException {
+        String cif = "data_i\nloop_ _i\n2147483647 -2147483648 2147483648 -2147483649 4294967297 99999999999";
+        List<Integer> values = new ArrayList<>();
+        CifParser.parse(new ByteArrayInputStream(cif.getBytes(StandardCharsets.UTF_8)), new CifHandler() {
+            @Override
+            public void loopRow(CifValue[] row) {
+                try {
+                    values.add(row[0].asInt());
+                } catch (NumberFormatException e) {
+                    values.add(null);
+                }
+            }
+        });
+        assertEquals("Wrong values", Arrays.asList(Integer.MAX_VALUE, Integer.MIN_VALUE, null, null, null, null),
+                values);
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        String[] invalid = {"_a 1\n", "data_a\n_a\n_b 1\n", "data_a\nloop_ _a _b\n1 2 3\n", "data_a\n1\n",
+                "data_a\n_a 'unterminated\n", "data_a\n_a\n;\nno end\n"};
+        int[] lines = {1, 3, 4, 2, 2, 3};
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                parse(invalid[i]);
+                fail("Parsed invalid CIF: "+invalid[i]);
+            } catch (CifException e) {
+                assertEquals("Wrong line for "+invalid[i], lines[i], e.getLine());
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package uk.co.norphos.crystallography.io;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CifStructureReaderTest {
+
+    private static Path resource(String name) throws URISyntaxException {
+        return Paths.get(CifStructureReaderTest.class.getResource(name).toURI());
+    }
+
+    @Test
+    public void testReadStructure() throws IOException, URISyntaxException {
+        List<CifStructure> structures = CifStructureReader.read(resource("nacl.cif"));
+        assertEquals("Wrong number of blocks", 2, structures.size());
+
+        CifStructure nacl = structures.get(0);
+        assertEquals("Wrong name", "NaCl", nacl.getName());
+        Lattice lattice = nacl.getLattice();
+        assertArrayEquals("Wrong lengths", new double[]{5.6402, 5.6402, 5.6402}, lattice.getLengths(), 0);
+        assertArrayEquals("Wrong angles", new double[]{90, 90, 90}, lattice.getAngles(), 0);
+        assertEquals("Wrong H-M symbol", "F m -3 m", nacl.getHermannMauguin());
+        assertEquals("Wrong Hall symbol", "-F 4 2 3", nacl.getHall());
+        assertEquals("Wrong space group number", Integer.valueOf(225), nacl.getSpaceGroupNumber());
+        assertNull("No symmetry operators given", nacl.getSymmetryOperators());
+
+        AtomTable atoms = nacl.getAtoms();
+        assertEquals("Wrong number of atoms", 2, atoms.size());
+        assertEquals("Wrong name", "Cl1", atoms.getName(1));
+        assertEquals("Wrong type", "Cl", atoms.getType(1));
+        assertArrayEquals("Wrong coordinates", new double[]{0, 0, 0, 0.5, 0.5, 0.5}, 
+                Arrays.copyOf(atoms.getCoordinateArray(), 6), 0);
+        assertEquals("Wrong occupancy", 1, atoms.getOcc(1), 0);
+        //Na1 is isotropic; Cl1 anisotropic
+        assertArrayEquals("Wrong isotropic Uij", new double[]{0.012, 0.012, 0.012, 0, 0, 0},
+                new double[]{atoms.getUij(0, AtomTable.U11), atoms.getUij(0, AtomTable.U22),
+                        atoms.getUij(0, AtomTable.U33), atoms.getUij(0, AtomTable.U12),
+                        atoms.getUij(0, AtomTable.U13), atoms.getUij(0, AtomTable.U23)}, 1e-15);
+        assertEquals("Wrong U11", 0.011, atoms.getUij(1, AtomTable.U11), 0);
+        assertEquals("Wrong U12", 0.0001, atoms.getUij(1, AtomTable.U12), 0);
+
+        ReflectionTable reflections = nacl.getReflections();
+        assertEquals("Wrong number of reflections", 5, reflections.size());
+        assertEquals("Wrong h", 2, reflections.getH(1));
+        assertEquals("Wrong structure factor", 20.48, reflections.getStructureFactor(1), 0);
+        assertEquals("Wrong phase", Math.PI, reflections.getPhase(3), 1e-15);
+        assertEquals("Wrong d-spacing", 1.6282, reflections.getDSpacing(4), 0);
+        assertEquals("Intensity given", Double.NaN, reflections.getIntensity(0), 0);
+
+        //DDLm data names; B converted to U and the monoclinic angle used for U13
+        CifStructure second = structures.get(1);
+        assertEquals("Wrong beta", 100, second.getLattice().getBe(), 0);
+        assertEquals("Wrong space group number", Integer.valueOf(4), second.getSpaceGroupNumber());
+        assertNull("No H-M symbol given", second.getHermannMauguin());
+        assertEquals("Wrong symmetry operators", Arrays.asList("x, y, z", "-x, y+1/2, -z"),
+                second.getSymmetryOperators());
+        assertNull("No reflections given", second.getReflections());
+        AtomTable oxygen = second.getAtoms();
+        assertEquals("Wrong type from label", "O", oxygen.getType(0));
+        double uIso = 1.5 / (8 * Math.PI * Math.PI);
+        assertEquals("Wrong U22", uIso, oxygen.getUij(0, AtomTable.U22), 1e-15);
+        assertEquals("Wrong U13", uIso * -Math.cos(Math.toRadians(100)), oxygen.getUij(0, AtomTable.U13), 1e-15);
+        assertEquals("Wrong U12", 0, oxygen.getUij(0, AtomTable.U12), 1e-15);
+    }
+
+    @Test
+    public void testReflectionBatches() throws IOException {
+        List<String> events = new ArrayList<>();
+        List<Integer> hs = new ArrayList<>();
+        StructureListener listener = new StructureListener() {
+            @Override
+            public void lattice(Lattice lattice) {
+                events.add("lattice");
+            }
+
+            @Override
+            public void atoms(AtomTable atoms) {
+                events.add("atoms");
+            }
+
+            @Override
+            public void reflections(ReflectionTable batch) {
+                events.add("batch " + batch.size());
+                for (int i = 0; i < batch.size(); i++) hs.add(batch.getH(i));
+            }
+        };
+        try (InputStream in = getClass().getResourceAsStream("nacl.cif")) {
+            CifParser.parse(in, new CifStructureReader(listener, 2));
+        }
+        assertEquals("Wrong order of events", "[lattice, batch 2, batch 2, batch 1, atoms, lattice, atoms]",
+                events.toString());
+        assertEquals("Wrong h", "[1, 2, 2, 3, 2]", hs.toString());
+    }
+}
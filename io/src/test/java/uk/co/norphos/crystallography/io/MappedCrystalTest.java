@@ -0,0 +1,152 @@
+package uk.co.norphos.crystallography.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedCrystalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException, URISyntaxException {
+        CifStructure nacl = CifStructureReader.read(Paths.get(getClass().getResource("nacl.cif").toURI())).get(0);
+        Path file = folder.newFile("nacl.crystal").toPath();
+        new CrystalFileWriter(nacl).write(file);
+
+        MappedCrystal crystal = MappedCrystal.open(file);
+        assertArrayEquals("Wrong lattice", nacl.getLattice().getLengths(), crystal.getLattice().getLengths(), 0);
+        assertArrayEquals("Wrong lattice", nacl.getLattice().getAngles(), crystal.getLattice().getAngles(), 0);
+        assertEquals("Wrong H-M symbol", "F m -3 m", crystal.getHermannMauguinSymbol());
+        assertEquals("Wrong Hall symbol", "-F 4 2 3", crystal.getHallSymbol());
+        assertEquals("Wrong space group number", Integer.valueOf(225), crystal.getSpaceGroupNumber());
+
+        AtomTable expected = nacl.getAtoms(), atoms = crystal.toAtomTable();
+        assertEquals("Wrong number of atoms", expected.size(), crystal.getNumberOfAtoms());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Wrong name", expected.getName(i), crystal.getName(i));
+            assertEquals("Wrong type", expected.getType(i), crystal.getType(i));
+            assertEquals("Wrong x", expected.getX(i), crystal.getX(i), 0);
+            assertEquals("Wrong z", expected.getZ(i), atoms.getZ(i), 0);
+            assertEquals("Wrong occupancy", expected.getOcc(i), crystal.getOcc(i), 0);
+            for (int n = 0; n < 6; n++) {
+                assertEquals("Wrong Uij", expected.getUij(i, n), atoms.getUij(i, n), 0);
+            }
+        }
+
+        ReflectionTable reflections = crystal.getReflections();
+        assertTrue("Reflections copied onto the heap", reflections.isDirect());
+        ReflectionTable original = nacl.getReflections();
+        assertEquals("Wrong number of reflections", original.size(), reflections.size());
+        for (int i = 0; i < original.size(); i++) {
+            assertArrayEquals("Wrong indices", new int[]{original.getH(i), original.getK(i), original.getL(i)},
+                    new int[]{reflections.getH(i), reflections.getK(i), reflections.getL(i)});
+            assertEquals("Wrong d-spacing", original.getDSpacing(i), reflections.getDSpacing(i), 0);
+            assertEquals("Wrong structure factor", original.getStructureFactor(i),
+                    reflections.getStructureFactor(i), 0);
+            assertEquals("Wrong phase", original.getPhase(i), reflections.getPhase(i), 0);
+            assertEquals("Wrong intensity", original.getIntensity(i), reflections.getIntensity(i), 0);
+        }
+        try {
+            reflections.setIntensity(0, 1);
+            fail("Mapped reflections changed");
+        } catch (ReadOnlyBufferException e) {
+            //Expected
+        }
+        //Growing the table copies the columns
+        reflections.add(4, 0, 0);
+        reflections.setIntensity(0, 1);
+        assertEquals("Wrong number of reflections", 5, crystal.getNumberOfReflections());
+    }
+
+    @Test
+    public void testEmptyCrystal() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CrystalFileWriter writer = new CrystalFileWriter();
+        writer.setLattice(new Lattice(3, 4, 5, 90, 95, 90));
+        writer.write(Channels.newChannel(bytes));
+
+        MappedCrystal crystal = MappedCrystal.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+        assertEquals("Wrong beta", 95, crystal.getLattice().getBe(), 0);
+        assertNull("Space group given", crystal.getHermannMauguinSymbol());
+        assertNull("Space group given", crystal.getSpaceGroupNumber());
+        assertEquals("Atoms given", 0, crystal.getNumberOfAtoms());
+        assertEquals("Reflections given", 0, crystal.getReflections().size());
+    }
+
+    @Test
+    public void testLargeTables() throws IOException {
+        AtomTable atoms = new AtomTable();
+        for (int i = 0; i < 5000; i++) {
+            atoms.add("C" + i, i % 3 == 0 ? "C" : "\u00d6", i / 5000., 0.5, -i, 1);
+            atoms.setUij(i, AtomTable.U23, i);
+        }
+        ReflectionTable reflections = new ReflectionTable();
+        for (int i = 0; i < 100000; i++) {
+            int r = reflections.add(i, -i, i % 7, 1. / (i + 1));
+            reflections.setPhase(r, i);
+        }
+        Path file = folder.newFile("large.crystal").toPath();
+        CrystalFileWriter writer = new CrystalFileWriter();
+        writer.setAtoms(atoms);
+        writer.setReflections(reflections);
+        writer.write(file);
+
+        MappedCrystal crystal = MappedCrystal.open(file);
+        assertNull("Lattice given", crystal.getLattice());
+        assertEquals("Wrong name", "C4321", crystal.getName(4321));
+        assertEquals("Wrong type", "\u00d6", crystal.getType(4322));
+        assertEquals("Wrong U23", 4999, crystal.getUij(4999, AtomTable.U23), 0);
+        assertEquals("Wrong z", -17, crystal.getZ(17), 0);
+        ReflectionTable mapped = crystal.getReflections();
+        assertEquals("Wrong k", -99999, mapped.getK(99999));
+        assertEquals("Wrong l", 3, mapped.getL(10));
+        assertEquals("Wrong d-spacing", 1. / 50001, mapped.getDSpacing(50000), 0);
+        assertEquals("Wrong phase", 77777, mapped.getPhase(77777), 0);
+    }
+
+    @Test
+    public void testInvalidFiles() throws IOException {
+        Path file = folder.newFile("bad.crystal").toPath();
+        new CrystalFileWriter().write(file);
+        byte[] good = Files.readAllBytes(file);
+        List<byte[]> invalid = Arrays.asList(new byte[0], "not a crystal file".getBytes(),
+                Arrays.copyOf(good, good.length - 8), withInt(good, CrystalFormat.VERSION_OFFSET, 99));
+        for (byte[] bytes : invalid) {
+            try {
+                MappedCrystal.wrap(ByteBuffer.wrap(bytes));
+                fail("Read invalid file of length "+bytes.length);
+            } catch (IOException e) {
+                //Expected
+            }
+        }
+    }
+
+    private static byte[] withInt(byte[] bytes, int offset, int value) {
+        byte[] changed = bytes.clone();
+        ByteBuffer.wrap(changed).order(CrystalFormat.ORDER).putInt(offset, value);
+        return changed;
+    }
+}
@@ -0,0 +1,49 @@
+package uk.co.norphos.crystallography.adaptor.primitivemaths;
+
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.Vector;
+
+/**
+ * {@link MathsFactory} producing fixed size 3x3 matrices and three element
+ * vectors. Only these shapes are supported; any other input is rejected with
+ * an {@link IllegalArgumentException}.
+ *
+ * @author Michael Wharmby
+ */
+public class PrimitiveMathsFactory implements MathsFactory {
+
+    @Override
+    public Vector createVector(double[] vector) {
+        return new PrimitiveVector(vector);
+    }
+
+    @Override
+    public Vector createVector(Vector vector) {
+        if (vector instanceof PrimitiveVector) {
+            //Immutable, so there is no need to copy
+            return vector;
+        }
+        if (vector.getSize() != 3) throw new IllegalArgumentException("PrimitiveVector only supports three elements");
+        return new PrimitiveVector(vector.get(0), vector.get(1), vector.get(2));
+    }
+
+    @Override
+    public Matrix createMatrix(double[][] matrix) {
+        return new PrimitiveMatrix(matrix);
+    }
+
+    @Override
+    public Matrix createMatrix(Matrix matrix) {
+        if (matrix instanceof PrimitiveMatrix) {
+            return matrix;
+        }
+        int[] shape = matrix.getShape();
+        if (shape.length != 2 || shape[0] != 3 || shape[1] != 3) {
+            throw new IllegalArgumentException("PrimitiveMatrix only supports 3x3 matrices");
+        }
+        return new PrimitiveMatrix(matrix.get(0, 0), matrix.get(0, 1), matrix.get(0, 2),
+                matrix.get(1, 0), matrix.get(1, 1), matrix.get(1, 2),
+                matrix.get(2, 0), matrix.get(2, 1), matrix.get(2, 2));
+    }
+}
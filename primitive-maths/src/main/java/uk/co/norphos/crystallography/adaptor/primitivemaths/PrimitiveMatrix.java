@@ -0,0 +1,156 @@
+package uk.co.norphos.crystallography.adaptor.primitivemaths;
+
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.Vector;
+
+/**
+ * Immutable 3x3 {@link Matrix} held in nine primitive fields. Inverse and
+ * determinant are calculated in closed form on request, so no decomposition
+ * is performed when the matrix is constructed.
+ *
+ * @author Michael Wharmby
+ */
+public final class PrimitiveMatrix implements Matrix {
+
+    private final double m00, m01, m02,
+            m10, m11, m12,
+            m20, m21, m22;
+
+    public PrimitiveMatrix(double m00, double m01, double m02,
+                           double m10, double m11, double m12,
+                           double m20, double m21, double m22) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+        this.m20 = m20;
+        this.m21 = m21;
+        this.m22 = m22;
+    }
+
+    public PrimitiveMatrix(double[][] values) {
+        this(checkShape(values)[0][0], values[0][1], values[0][2],
+                values[1][0], values[1][1], values[1][2],
+                values[2][0], values[2][1], values[2][2]);
+    }
+
+    private static double[][] checkShape(double[][] values) {
+        if (values.length != 3 || values[0].length != 3 || values[1].length != 3 || values[2].length != 3) {
+            throw new IllegalArgumentException("PrimitiveMatrix only supports 3x3 matrices");
+        }
+        return values;
+    }
+
+    @Override
+    public int[] getShape() {
+        return new int[]{3, 3};
+    }
+
+    @Override
+    public int getSize() {
+        return 9;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        //Checked separately, as e.g. (0,3) would otherwise be read as (1,0)
+        if (i < 0 || i > 2 || j < 0 || j > 2) {
+            throw new IndexOutOfBoundsException("No element ("+i+","+j+") in 3x3 matrix");
+        }
+        switch (i * 3 + j) {
+            case 0: return m00;
+            case 1: return m01;
+            case 2: return m02;
+            case 3: return m10;
+            case 4: return m11;
+            case 5: return m12;
+            case 6: return m20;
+            case 7: return m21;
+            case 8: return m22;
+            default: throw new IndexOutOfBoundsException("No element ("+i+","+j+") in 3x3 matrix");
+        }
+    }
+
+    @Override
+    public double[] multiply(double[] vector) {
+        if (vector.length != 3) throw new IllegalArgumentException("Vector must have three elements");
+        double x = vector[0], y = vector[1], z = vector[2];
+        return new double[]{m00 * x + m01 * y + m02 * z,
+                m10 * x + m11 * y + m12 * z,
+                m20 * x + m21 * y + m22 * z};
+    }
+
+    @Override
+    public Vector multiply(Vector vector) {
+        if (vector.getSize() != 3) throw new IllegalArgumentException("Vector must have three elements");
+        double x = vector.get(0), y = vector.get(1), z = vector.get(2);
+        return new PrimitiveVector(m00 * x + m01 * y + m02 * z,
+                m10 * x + m11 * y + m12 * z,
+                m20 * x + m21 * y + m22 * z);
+    }
+
+    @Override
+    public Matrix getInverse() {
+        //Cofactors of the first row are reused for the determinant
+        double c00 = m11 * m22 - m12 * m21,
+                c01 = m12 * m20 - m10 * m22,
+                c02 = m10 * m21 - m11 * m20;
+        double det = m00 * c00 + m01 * c01 + m02 * c02;
+        if (det == 0) throw new ArithmeticException("Matrix is singular and cannot be inverted");
+        double invDet = 1 / det;
+
+        return new PrimitiveMatrix(c00 * invDet, (m02 * m21 - m01 * m22) * invDet, (m01 * m12 - m02 * m11) * invDet,
+                c01 * invDet, (m00 * m22 - m02 * m20) * invDet, (m02 * m10 - m00 * m12) * invDet,
+                c02 * invDet, (m01 * m20 - m00 * m21) * invDet, (m00 * m11 - m01 * m10) * invDet);
+    }
+
+    @Override
+    public double getDeterminant() {
+        return m00 * (m11 * m22 - m12 * m21)
+                + m01 * (m12 * m20 - m10 * m22)
+                + m02 * (m10 * m21 - m11 * m20);
+    }
+
+    @Override
+    public double[][] toArray() {
+        return new double[][]{{m00, m01, m02}, {m10, m11, m12}, {m20, m21, m22}};
+    }
+
+    @Override
+    public String toString() {
+        return "PrimitiveMatrix{{" + m00 + "," + m01 + "," + m02 + "},{"
+                + m10 + "," + m11 + "," + m12 + "},{"
+                + m20 + "," + m21 + "," + m22 + "}}";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PrimitiveMatrix that = (PrimitiveMatrix) o;
+
+        return Double.compare(m00, that.m00) == 0 && Double.compare(m01, that.m01) == 0 &&
+                Double.compare(m02, that.m02) == 0 && Double.compare(m10, that.m10) == 0 &&
+                Double.compare(m11, that.m11) == 0 && Double.compare(m12, that.m12) == 0 &&
+                Double.compare(m20, that.m20) == 0 && Double.compare(m21, that.m21) == 0 &&
+                Double.compare(m22, that.m22) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(m00);
+        result = 31 * result + Double.hashCode(m01);
+        result = 31 * result + Double.hashCode(m02);
+        result = 31 * result + Double.hashCode(m10);
+        result = 31 * result + Double.hashCode(m11);
+        result = 31 * result + Double.hashCode(m12);
+        result = 31 * result + Double.hashCode(m20);
+        result = 31 * result + Double.hashCode(m21);
+        result = 31 * result + Double.hashCode(m22);
+        return result;
+    }
+
+}
@@ -0,0 +1,127 @@
+package uk.co.norphos.crystallography.adaptor.primitivemaths;
+
+import uk.co.norphos.crystallography.api.maths.Vector;
+
+/**
+ * Immutable three element {@link Vector} held in primitive fields.
+ *
+ * @author Michael Wharmby
+ */
+public final class PrimitiveVector implements Vector {
+
+    private final double x, y, z;
+
+    public PrimitiveVector(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public PrimitiveVector(double[] values) {
+        this(checkLength(values)[0], values[1], values[2]);
+    }
+
+    private static double[] checkLength(double[] values) {
+        if (values.length != 3) throw new IllegalArgumentException("PrimitiveVector only supports three elements");
+        return values;
+    }
+
+    @Override
+    public int[] getShape() {
+        return new int[]{3};
+    }
+
+    @Override
+    public int getSize() {
+        return 3;
+    }
+
+    @Override
+    public double get(int i) {
+        switch (i) {
+            case 0: return x;
+            case 1: return y;
+            case 2: return z;
+            default: throw new IndexOutOfBoundsException("No element "+i+" in three element vector");
+        }
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (j != 0) throw new IllegalArgumentException("Vector only has one dimension");
+        return get(i);
+    }
+
+    @Override
+    public Vector add(double[] vector) {
+        checkLength(vector);
+        return new PrimitiveVector(x + vector[0], y + vector[1], z + vector[2]);
+    }
+
+    @Override
+    public Vector add(Vector vector) {
+        if (vector instanceof PrimitiveVector) {
+            PrimitiveVector other = (PrimitiveVector) vector;
+            return new PrimitiveVector(x + other.x, y + other.y, z + other.z);
+        }
+        if (vector.getSize() != 3) throw new IllegalArgumentException("PrimitiveVector only supports three elements");
+        return new PrimitiveVector(x + vector.get(0), y + vector.get(1), z + vector.get(2));
+    }
+
+    @Override
+    public Vector subtract(double[] vector) {
+        checkLength(vector);
+        return new PrimitiveVector(x - vector[0], y - vector[1], z - vector[2]);
+    }
+
+    @Override
+    public Vector subtract(Vector vector) {
+        if (vector instanceof PrimitiveVector) {
+            PrimitiveVector other = (PrimitiveVector) vector;
+            return new PrimitiveVector(x - other.x, y - other.y, z - other.z);
+        }
+        if (vector.getSize() != 3) throw new IllegalArgumentException("PrimitiveVector only supports three elements");
+        return new PrimitiveVector(x - vector.get(0), y - vector.get(1), z - vector.get(2));
+    }
+
+    @Override
+    public double[] toArray() {
+        return new double[]{x, y, z};
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    @Override
+    public String toString() {
+        return "PrimitiveVector{" + x + "; " + y + "; " + z + "}";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PrimitiveVector that = (PrimitiveVector) o;
+
+        return Double.compare(x, that.x) == 0 && Double.compare(y, that.y) == 0 && Double.compare(z, that.z) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(x);
+        result = 31 * result + Double.hashCode(y);
+        result = 31 * result + Double.hashCode(z);
+        return result;
+    }
+
+}
@@ -0,0 +1,48 @@
+package uk.co.norphos.crystallography.adaptor.primitivemaths;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.Vector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static uk.co.norphos.crystallography.adaptor.primitivemaths.TestUtils.assert2dArrayEquals;
+
+public class PrimitiveMathsFactoryTest {
+
+    private MathsFactory mathsFactory;
+
+    @Before
+    public void setUp() {
+        mathsFactory = new PrimitiveMathsFactory();
+    }
+
+    @Test
+    public void testMatrixBuild() {
+        //Test building Matrix from double arrays
+        double[][] inputArr = new double[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 9}};
+        Matrix fromArray = mathsFactory.createMatrix(inputArr);
+        assert2dArrayEquals("Matrix built from array not as expected", inputArr, fromArray.toArray(), 0d);
+
+        //Test building Matrix from another Matrix
+        PrimitiveMatrix primMat = new PrimitiveMatrix(inputArr);
+        Matrix fromMat = mathsFactory.createMatrix(primMat);
+        assertEquals("Matrix built from matrix not as expected", primMat, fromMat);
+    }
+
+    @Test
+    public void testVectorBuild() {
+        //Test building Vector from double array
+        double[] inputArr = new double[]{8, 6, 3};
+        Vector fromArray = mathsFactory.createVector(inputArr);
+        assertArrayEquals("Vector built from array not as expected", inputArr, fromArray.toArray(), 0);
+
+        //Test building Vector from another Vector
+        PrimitiveVector primVec = new PrimitiveVector(inputArr);
+        Vector fromVec = mathsFactory.createVector(primVec);
+        assertEquals("Vector built from another Vector not as expected", primVec, fromVec);
+    }
+
+}
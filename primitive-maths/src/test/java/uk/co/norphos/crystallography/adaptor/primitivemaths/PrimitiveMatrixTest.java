@@ -0,0 +1,83 @@
+package uk.co.norphos.crystallography.adaptor.primitivemaths;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+import uk.co.norphos.crystallography.api.maths.Vector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static uk.co.norphos.crystallography.adaptor.primitivemaths.TestUtils.assert2dArrayEquals;
+
+public class PrimitiveMatrixTest {
+
+    private double[][] matVals = new double[][]{{5.,4.,6.},{3.,1.,2.},{9.,8.,7.}};
+
+    @Test
+    public void testBasicFunctions() {
+        Matrix mat = new PrimitiveMatrix(matVals);
+
+        assertEquals("Wrong size", 9, mat.getSize());
+        assertArrayEquals("Wrong shape", new int[]{3, 3}, mat.getShape());
+        assertEquals("Wrong value at (2,1)", 8d, mat.get(2,1), 0);
+        assertEquals("Wrong value at (1,2)", 2d, mat.get(1,2), 0);
+    }
+
+    @Test
+    public void testIndexOutOfRange() {
+        Matrix mat = new PrimitiveMatrix(matVals);
+        int[][] indices = {{0, 3}, {3, 0}, {1, -1}, {-1, 5}};
+        for (int[] index : indices) {
+            try {
+                mat.get(index[0], index[1]);
+                fail("Element ("+index[0]+","+index[1]+") read from 3x3 matrix");
+            } catch (IndexOutOfBoundsException e) {
+                //Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonSquareRejected() {
+        new PrimitiveMatrix(new double[][]{{3, 8}, {4, 6}});
+    }
+
+    @Test
+    public void testToArray() {
+        Matrix mat = new PrimitiveMatrix(matVals);
+        assert2dArrayEquals("Output array different from that used in constructor", matVals, mat.toArray(), 0);
+    }
+
+    @Test
+    public void testMultiplyVector() {
+        double[] vecVals = new double[]{10.,11.,12.};
+        double[] expected = new double[]{166., 65., 262.};
+
+        Matrix mat = new PrimitiveMatrix(matVals);
+        Vector vec = new PrimitiveVector(vecVals);
+
+        assertArrayEquals("Array multiplication values differ", expected, mat.multiply(vecVals), 0);
+        assertArrayEquals("PrimitiveVector multiplication values differ", expected, mat.multiply(vec).toArray(), 0);
+    }
+
+    @Test
+    public void testGetInverse() {
+        double[][] matVals = new double[][]{{1, 2, 3}, {0, 1, 4}, {5, 6, 0}};
+        Matrix mat = new PrimitiveMatrix(matVals);
+
+        double[][] invMatVals = new double[][]{{-24d, 18d, 5d}, {20d, -15d, -4d}, {-5d, 4d, 1d}};
+        assert2dArrayEquals("Wrong inverse matrix calculated", invMatVals, mat.getInverse().toArray(), 1e-10);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testSingularInverse() {
+        new PrimitiveMatrix(new double[][]{{1, 2, 3}, {2, 4, 6}, {5, 6, 0}}).getInverse();
+    }
+
+    @Test
+    public void testGetDeterminant() {
+        Matrix mat = new PrimitiveMatrix(new double[][]{{6, 1, 1}, {4, -2, 5}, {2, 8, 7}});
+        assertEquals("Wrong value for determinant of 3x3 matrix", -306d, mat.getDeterminant(), 1e-10);
+    }
+
+}
@@ -0,0 +1,403 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+import static uk.co.norphos.crystallography.api.DSpacingCalculator.G11;
+import static uk.co.norphos.crystallography.api.DSpacingCalculator.G12;
+import static uk.co.norphos.crystallography.api.DSpacingCalculator.G13;
+import static uk.co.norphos.crystallography.api.DSpacingCalculator.G22;
+import static uk.co.norphos.crystallography.api.DSpacingCalculator.G23;
+import static uk.co.norphos.crystallography.api.DSpacingCalculator.G33;
+
+/**
+ * Refines lattice parameters against the observed d-spacings of indexed
+ * reflections by least squares in the space of the reciprocal metric tensor
+ * (see {@link DSpacingCalculator}).
+ *
+ * 1/d<sup>2</sup> is linear in the elements of G*, and the constraints of
+ * every crystal system on G* are linear too, so G* is described by one
+ * (cubic) to six (triclinic) free parameters whose derivatives are exact
+ * and independent of their values. The normal equations are therefore
+ * accumulated in a single pass over the observations and solved once, with
+ * no starting values and no iteration. Standard uncertainties of the free
+ * parameters are propagated analytically through G = (G*)<sup>-1</sup> to
+ * those of the lattice parameters.
+ *
+ * The constraints are those of the crystal system and principal axis of the
+ * cell: the two axes other than the principal axis are equal for tetragonal
+ * and hexagonal cells, and the monoclinic angle is that between them. A
+ * hexagonal or trigonal cell is in the hexagonal setting and a
+ * rhombohedral cell in the rhombohedral setting.
+ *
+ * A refiner keeps its working arrays between refinements, so that
+ * {@link #refine(CrystalSystem, PrincipleAxis, double[], double[])}
+ * allocates nothing, and must not be shared between threads.
+ *
+ * @author Michael Wharmby
+ */
+public final class CellRefiner {
+
+    private static final int NG = 6;
+
+    private final int[] h, k, l;
+    private final double[] inverseDSquared, weights;
+
+    //Working arrays: constraints, normal equations, solution and Jacobian
+    private final double[] constraints = new double[NG * NG], normal = new double[NG * NG],
+            covariance = new double[NG * NG], jacobian = new double[NG * NG];
+    private final double[] rhs = new double[NG], derivatives = new double[NG], solution = new double[NG];
+    private final double[] reciprocal = new double[NG], direct = new double[NG], change = new double[NG];
+
+    /**
+     * Create a refiner with all observations given equal weight in
+     * 1/d<sup>2</sup>.
+     * @param h int[] Miller indices
+     * @param k int[] Miller indices
+     * @param l int[] Miller indices
+     * @param dSpacings double[] observed d-spacings in Angstrom
+     */
+    public CellRefiner(int[] h, int[] k, int[] l, double[] dSpacings) {
+        this(h, k, l, dSpacings, null);
+    }
+
+    /**
+     * Create a refiner with each observation weighted by the inverse
+     * variance of its 1/d<sup>2</sup>.
+     * @param h int[] Miller indices
+     * @param k int[] Miller indices
+     * @param l int[] Miller indices
+     * @param dSpacings double[] observed d-spacings in Angstrom
+     * @param uncertainties double[] standard uncertainties of the d-spacings in Angstrom (null for equal weights)
+     */
+    public CellRefiner(int[] h, int[] k, int[] l, double[] dSpacings, double[] uncertainties) {
+        int n = dSpacings.length;
+        if (h.length != n || k.length != n || l.length != n || (uncertainties != null && uncertainties.length != n)) {
+            throw new IllegalArgumentException("Indices, d-spacings and uncertainties must have the same length");
+        }
+        this.h = h.clone();
+        this.k = k.clone();
+        this.l = l.clone();
+        inverseDSquared = new double[n];
+        weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            double d = dSpacings[i];
+            if (!(d > 0)) throw new IllegalArgumentException("d-spacings must be positive");
+            inverseDSquared[i] = 1 / (d * d);
+            if (uncertainties == null) {
+                weights[i] = 1;
+            } else {
+                if (!(uncertainties[i] > 0)) throw new IllegalArgumentException("Uncertainties must be positive");
+                //s(1/d^2) = 2 s(d)/d^3
+                double sigma = 2 * uncertainties[i] / (d * d * d);
+                weights[i] = 1 / (sigma * sigma);
+            }
+        }
+    }
+
+    public int getNumberOfObservations() {
+        return inverseDSquared.length;
+    }
+
+    /**
+     * Refine a cell with the crystal system and principal axis of the given
+     * lattice, whose parameters are not needed.
+     * @param lattice {@link Lattice} giving the constraints
+     * @return {@link Refinement}
+     */
+    public Refinement refine(Lattice lattice) {
+        double[] parameters = new double[6], uncertainties = new double[6];
+        double goodnessOfFit = refine(lattice.getCrystalSystem(), lattice.getPrincipleAxis(), parameters,
+                uncertainties);
+        Lattice refined = new Lattice(parameters[0], parameters[1], parameters[2], parameters[3], parameters[4],
+                parameters[5], 1 / Math.sqrt(determinant(reciprocal)), lattice.getCrystalSystem(),
+                lattice.getPrincipleAxis());
+        return new Refinement(refined, uncertainties, reciprocal.clone(), goodnessOfFit);
+    }
+
+    /**
+     * Refine a cell, writing its parameters and their standard uncertainties
+     * to the given arrays. The uncertainties are scaled by the goodness of
+     * fit and are NaN if there are no more observations than free
+     * parameters.
+     * @param crystalSystem {@link CrystalSystem} of the cell (UNKNOWN for no constraints)
+     * @param axis {@link PrincipleAxis} of the cell (NONE for c, or b if monoclinic)
+     * @param parameters double[6] to receive a, b, c in Angstrom and alpha, beta, gamma in degrees
+     * @param uncertainties double[6] to receive the standard uncertainties of the parameters (may be null)
+     * @return double goodness of fit, sqrt(&Sigma;w&Delta;<sup>2</sup>/(n - p))
+     */
+    public double refine(CrystalSystem crystalSystem, PrincipleAxis axis, double[] parameters,
+                         double[] uncertainties) {
+        int np = setConstraints(crystalSystem, axis);
+        int n = inverseDSquared.length;
+        if (n < np) throw new IllegalArgumentException("Fewer observations than free parameters: "+n+" < "+np);
+
+        //Normal equations, upper triangle, in one pass
+        for (int j = 0; j < np; j++) {
+            rhs[j] = 0;
+            for (int m = j; m < np; m++) normal[j * NG + m] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            design(i, np);
+            double w = weights[i], wq = w * inverseDSquared[i];
+            for (int j = 0; j < np; j++) {
+                double wx = w * derivatives[j];
+                rhs[j] += wq * derivatives[j];
+                for (int m = j; m < np; m++) normal[j * NG + m] += wx * derivatives[m];
+            }
+        }
+        if (!choleskyDecompose(np)) {
+            throw new IllegalArgumentException("Observations do not determine the cell in "+crystalSystem);
+        }
+        System.arraycopy(rhs, 0, solution, 0, np);
+        choleskySolve(solution, np);
+
+        //Covariance of the free parameters, column by column
+        for (int c = 0; c < np; c++) {
+            for (int j = 0; j < np; j++) derivatives[j] = j == c ? 1 : 0;
+            choleskySolve(derivatives, np);
+            for (int j = 0; j < np; j++) covariance[j * NG + c] = derivatives[j];
+        }
+
+        for (int g = 0; g < NG; g++) {
+            double sum = 0;
+            for (int j = 0; j < np; j++) sum += constraints[g * NG + j] * solution[j];
+            reciprocal[g] = sum;
+        }
+        double sumSq = 0;
+        for (int i = 0; i < n; i++) {
+            double delta = inverseDSquared[i] - DSpacingCalculator.inverseDSquared(reciprocal, h[i], k[i], l[i]);
+            sumSq += weights[i] * delta * delta;
+        }
+        double goodnessOfFit = n > np ? Math.sqrt(sumSq / (n - np)) : Double.NaN;
+
+        DSpacingCalculator.inverse(reciprocal, direct);
+        double a = Math.sqrt(direct[G11]), b = Math.sqrt(direct[G22]), c = Math.sqrt(direct[G33]);
+        parameters[0] = a;
+        parameters[1] = b;
+        parameters[2] = c;
+        parameters[3] = LatticeClassifier.angle(direct[G23], b, c);
+        parameters[4] = LatticeClassifier.angle(direct[G13], a, c);
+        parameters[5] = LatticeClassifier.angle(direct[G12], a, b);
+        if (uncertainties != null) {
+            latticeJacobian(np, a, b, c, parameters);
+            double variance = goodnessOfFit * goodnessOfFit;
+            for (int p = 0; p < NG; p++) {
+                double sum = 0;
+                for (int j = 0; j < np; j++) {
+                    for (int m = 0; m < np; m++) {
+                        sum += jacobian[p * NG + j] * covariance[j * NG + m] * jacobian[p * NG + m];
+                    }
+                }
+                uncertainties[p] = Math.sqrt(variance * sum);
+            }
+        }
+        return goodnessOfFit;
+    }
+
+    /**
+     * Fill the matrix taking the free parameters to G* and return their
+     * number.
+     */
+    private int setConstraints(CrystalSystem crystalSystem, PrincipleAxis axis) {
+        for (int i = 0; i < constraints.length; i++) constraints[i] = 0;
+        //Principal axis u and the two others, i < j
+        int u = axis == PrincipleAxis.A ? 0 : axis == PrincipleAxis.B ? 1 : 2;
+        if (crystalSystem == CrystalSystem.MONOCLINIC && axis == PrincipleAxis.NONE) u = 1;
+        int i = u == 0 ? 1 : 0, j = u == 2 ? 1 : 2;
+        switch (crystalSystem) {
+            case CUBIC:
+                constraints[G11 * NG] = constraints[G22 * NG] = constraints[G33 * NG] = 1;
+                return 1;
+            case HEXAGONAL:
+            case TRIGONAL:
+                uniaxial(i, j, u);
+                //gamma* = 60 degrees
+                constraints[cross(i, j) * NG] = 0.5;
+                return 2;
+            case TETRAGONAL:
+                uniaxial(i, j, u);
+                return 2;
+            case RHOMBOHEDRAL:
+                constraints[G11 * NG] = constraints[G22 * NG] = constraints[G33 * NG] = 1;
+                constraints[G12 * NG + 1] = constraints[G13 * NG + 1] = constraints[G23 * NG + 1] = 1;
+                return 2;
+            case ORTHORHOMBIC:
+                constraints[G11 * NG] = constraints[G22 * NG + 1] = constraints[G33 * NG + 2] = 1;
+                return 3;
+            case MONOCLINIC:
+                constraints[G11 * NG] = constraints[G22 * NG + 1] = constraints[G33 * NG + 2] = 1;
+                constraints[cross(i, j) * NG + 3] = 1;
+                return 4;
+            default:
+                for (int g = 0; g < NG; g++) constraints[g * NG + g] = 1;
+                return NG;
+        }
+    }
+
+    /**
+     * Constrain the two axes i and j to be equal (free parameter 0) and
+     * principal axis u to be free (parameter 1).
+     */
+    private void uniaxial(int i, int j, int u) {
+        constraints[i * NG] = constraints[j * NG] = 1;
+        constraints[u * NG + 1] = 1;
+    }
+
+    /**
+     * Index in G* of the product of axes i &lt; j.
+     */
+    private static int cross(int i, int j) {
+        return 2 + i + j;
+    }
+
+    /**
+     * Derivatives of 1/d<sup>2</sup> of observation i with respect to the
+     * free parameters.
+     */
+    private void design(int i, int np) {
+        double hi = h[i], ki = k[i], li = l[i];
+        double m0 = hi * hi, m1 = ki * ki, m2 = li * li, m3 = 2 * hi * ki, m4 = 2 * hi * li, m5 = 2 * ki * li;
+        for (int j = 0; j < np; j++) {
+            derivatives[j] = m0 * constraints[G11 * NG + j] + m1 * constraints[G22 * NG + j]
+                    + m2 * constraints[G33 * NG + j] + m3 * constraints[G12 * NG + j]
+                    + m4 * constraints[G13 * NG + j] + m5 * constraints[G23 * NG + j];
+        }
+    }
+
+    /**
+     * Derivatives of the lattice parameters with respect to the free
+     * parameters, from dG = -G dG* G.
+     */
+    private void latticeJacobian(int np, double a, double b, double c, double[] parameters) {
+        double toDegrees = 180 / Math.PI;
+        for (int p = 0; p < np; p++) {
+            for (int g = 0; g < NG; g++) reciprocal[g] = constraints[g * NG + p];
+            //G.dG*.G, using the reciprocal coefficients as scratch
+            for (int r = 0; r < 3; r++) {
+                for (int s = r; s < 3; s++) {
+                    double sum = 0;
+                    for (int x = 0; x < 3; x++) {
+                        double gr = element(direct, r, x);
+                        for (int y = 0; y < 3; y++) sum += gr * element(reciprocal, x, y) * element(direct, y, s);
+                    }
+                    change[r == s ? r : cross(r, s)] = -sum;
+                }
+            }
+            double da = change[G11] / (2 * a), db = change[G22] / (2 * b), dc = change[G33] / (2 * c);
+            jacobian[p] = da;
+            jacobian[NG + p] = db;
+            jacobian[2 * NG + p] = dc;
+            jacobian[3 * NG + p] = angleDerivative(change[G23], direct[G23], b, c, db, dc, parameters[3]) * toDegrees;
+            jacobian[4 * NG + p] = angleDerivative(change[G13], direct[G13], a, c, da, dc, parameters[4]) * toDegrees;
+            jacobian[5 * NG + p] = angleDerivative(change[G12], direct[G12], a, b, da, db, parameters[5]) * toDegrees;
+        }
+        //Restore G*
+        for (int g = 0; g < NG; g++) {
+            double sum = 0;
+            for (int j = 0; j < np; j++) sum += constraints[g * NG + j] * solution[j];
+            reciprocal[g] = sum;
+        }
+    }
+
+    /**
+     * d(angle) in radians from cos(angle) = g/(xy).
+     */
+    private static double angleDerivative(double dg, double g, double x, double y, double dx, double dy,
+                                          double angle) {
+        double cos = g / (x * y);
+        double dCos = dg / (x * y) - cos * (dx / x + dy / y);
+        return -dCos / Math.sin(Math.toRadians(angle));
+    }
+
+    private static double element(double[] coeffs, int r, int s) {
+        return coeffs[r == s ? r : cross(Math.min(r, s), Math.max(r, s))];
+    }
+
+    private static double determinant(double[] coeffs) {
+        double g11 = coeffs[G11], g22 = coeffs[G22], g33 = coeffs[G33], g12 = coeffs[G12], g13 = coeffs[G13],
+                g23 = coeffs[G23];
+        return g11 * (g22 * g33 - g23 * g23) - g12 * (g12 * g33 - g23 * g13) + g13 * (g12 * g23 - g22 * g13);
+    }
+
+    /**
+     * In-place Cholesky decomposition of the upper triangle of the normal
+     * matrix, N = U<sup>T</sup>U. False if N is not positive definite.
+     */
+    private boolean choleskyDecompose(int np) {
+        for (int j = 0; j < np; j++) {
+            double diagonal = normal[j * NG + j];
+            for (int x = 0; x < j; x++) diagonal -= normal[x * NG + j] * normal[x * NG + j];
+            if (!(diagonal > 0)) return false;
+            diagonal = Math.sqrt(diagonal);
+            normal[j * NG + j] = diagonal;
+            for (int m = j + 1; m < np; m++) {
+                double sum = normal[j * NG + m];
+                for (int x = 0; x < j; x++) sum -= normal[x * NG + j] * normal[x * NG + m];
+                normal[j * NG + m] = sum / diagonal;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solve U<sup>T</sup>Ux = v in place.
+     */
+    private void choleskySolve(double[] v, int np) {
+        for (int j = 0; j < np; j++) {
+            double sum = v[j];
+            for (int x = 0; x < j; x++) sum -= normal[x * NG + j] * v[x];
+            v[j] = sum / normal[j * NG + j];
+        }
+        for (int j = np - 1; j >= 0; j--) {
+            double sum = v[j];
+            for (int x = j + 1; x < np; x++) sum -= normal[j * NG + x] * v[x];
+            v[j] = sum / normal[j * NG + j];
+        }
+    }
+
+    /**
+     * Refined lattice, with the standard uncertainties of its parameters.
+     */
+    public static final class Refinement {
+
+        private final Lattice lattice;
+        private final double[] uncertainties, reciprocalCoefficients;
+        private final double goodnessOfFit;
+
+        private Refinement(Lattice lattice, double[] uncertainties, double[] reciprocalCoefficients,
+                           double goodnessOfFit) {
+            this.lattice = lattice;
+            this.uncertainties = uncertainties;
+            this.reciprocalCoefficients = reciprocalCoefficients;
+            this.goodnessOfFit = goodnessOfFit;
+        }
+
+        public Lattice getLattice() {
+            return lattice;
+        }
+
+        /**
+         * @return double[6] standard uncertainties of a, b, c in Angstrom and alpha, beta, gamma in degrees
+         */
+        public double[] getUncertainties() {
+            return uncertainties.clone();
+        }
+
+        /**
+         * @return double[6] reciprocal metric tensor coefficients (see {@link DSpacingCalculator})
+         */
+        public double[] getReciprocalCoefficients() {
+            return reciprocalCoefficients.clone();
+        }
+
+        /**
+         * @return double sqrt(&Sigma;w&Delta;<sup>2</sup>/(n - p)) in 1/d<sup>2</sup>
+         */
+        public double getGoodnessOfFit() {
+            return goodnessOfFit;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.Atom;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Crystal;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.api.maths.Matrix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@link Crystal} holding a {@link UnitCell}, {@link SpaceGroup} and
+ * asymmetric unit. The asymmetric unit is a list of the {@link Atom}s
+ * themselves, so atoms read from it keep all their fields and changes to
+ * them are kept; bulk calculations build an {@link AtomTable} from it when
+ * needed (see {@link AtomTable#fromAtoms(List)}). Expected reflections are enumerated with a
+ * {@link ReflectionGenerator}, omitting those absent in the space group.
+ * When the unit cell or space group changes, they are regenerated to the
+ * previous d-spacing limit on next request.
+ *
+ * @author Michael Wharmby
+ */
+public class CrystalImpl implements Crystal {
+
+    //Avogadro constant in mol^-1
+    private static final double AVOGADRO = 6.02214076e23;
+
+    private UnitCell unitCell;
+    private SpaceGroup spaceGroup;
+    private List<Atom> asymmetricUnit;
+    private Matrix orientationMatrix;
+
+    private Double dSpacingLimit;
+    private List<MillerPlane> expectedReflections = Collections.emptyList();
+    private boolean reflectionsStale;
+
+    public CrystalImpl(UnitCell unitCell) {
+        this(unitCell, null, new ArrayList<>());
+    }
+
+    public CrystalImpl(UnitCell unitCell, SpaceGroup spaceGroup, List<Atom> asymmetricUnit) {
+        this.unitCell = unitCell;
+        this.spaceGroup = spaceGroup;
+        this.asymmetricUnit = asymmetricUnit;
+    }
+
+    @Override
+    public UnitCell getUnitCell() {
+        return unitCell;
+    }
+
+    @Override
+    public void setUnitCell(UnitCell unitCell) {
+        this.unitCell = unitCell;
+        reflectionsStale = true;
+    }
+
+    @Override
+    public List<MillerPlane> calculateExpectedReflections(Double dSpacing) {
+        if (dSpacing == null) {
+            if (reflectionsStale && dSpacingLimit != null) {
+                dSpacing = dSpacingLimit;
+            } else {
+                return expectedReflections;
+            }
+        }
+        expectedReflections = new ReflectionGenerator(unitCell, dSpacing, spaceGroup).toList();
+        dSpacingLimit = dSpacing;
+        reflectionsStale = false;
+        return expectedReflections;
+    }
+
+    /**
+     * Return a lazy stream of the reflections which will be observed up to a
+     * d-spacing limit. Unlike {@link #calculateExpectedReflections(Double)},
+     * the reflections are not stored.
+     * @param dSpacing double limit up to which reflections could be observed
+     * @param parallel boolean true to return a parallel stream
+     * @return Stream<MillerPlane> expected reflections up to d-space limit
+     */
+    public Stream<MillerPlane> streamExpectedReflections(double dSpacing, boolean parallel) {
+        ReflectionGenerator generator = new ReflectionGenerator(unitCell, dSpacing, spaceGroup);
+        return parallel ? generator.parallelStream() : generator.stream();
+    }
+
+    @Override
+    public SpaceGroup getSpaceGroup() {
+        return spaceGroup;
+    }
+
+    @Override
+    public void setSpaceGroup(SpaceGroup spaceGroup) {
+        this.spaceGroup = spaceGroup;
+        reflectionsStale = true;
+    }
+
+    @Override
+    public List<Atom> getAsymmetricUnit() {
+        return asymmetricUnit;
+    }
+
+    @Override
+    public void setAsymmetricUnit(List<Atom> atoms) {
+        this.asymmetricUnit = atoms;
+    }
+
+    @Override
+    public Matrix getOrientationMatrix() {
+        return orientationMatrix;
+    }
+
+    @Override
+    public void setOrientationMatrix(Matrix ubMatrix) {
+        this.orientationMatrix = ubMatrix;
+    }
+
+    /**
+     * Calculate the density from the mass of the cell contents: the atomic
+     * weight (see {@link Elements}) times the occupancy of each atom of the
+     * asymmetric unit, times the number of its sites in the cell (see
+     * {@link SymmetryExpander}).
+     * @return double density in g cm<sup>-3</sup>
+     */
+    @Override
+    public double calculateDensity() {
+        AtomTable atoms = AtomTable.fromAtoms(asymmetricUnit);
+        SymmetryExpander.Expansion expansion = new SymmetryExpander(spaceGroup).expand(atoms);
+        double mass = 0;
+        for (int i = 0; i < atoms.size(); i++) {
+            mass += Elements.getAtomicMass(atoms.getType(i)) * atoms.getOcc(i) * expansion.getMultiplicity(i);
+        }
+        //Volume in cm^3
+        return mass / (AVOGADRO * unitCell.getVolume() * 1e-24);
+    }
+}
@@ -2,11 +2,13 @@ package uk.co.norphos.crystallography.tk;
 
 import uk.co.norphos.crystallography.api.Crystal;
 import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
 import uk.co.norphos.crystallography.api.Lattice;
 import uk.co.norphos.crystallography.api.PrincipleAxis;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
 import uk.co.norphos.crystallography.api.maths.Matrix;
 
-import javax.xml.bind.PrintConversionEvent;
 import java.util.*;
 
 public class CrystallographyFactory {
@@ -103,30 +105,143 @@ public class CrystallographyFactory {
         return new Lattice(cleanedLengths, cleanedAngles, volume, cSystem, pAxis);
     }
 
+    /**
+     * Create a lattice from its parameters, with the crystal system given by
+     * {@link LatticeClassifier#DEFAULT}. The volume is not set.
+     * @param a double in Angstrom
+     * @param b double in Angstrom
+     * @param c double in Angstrom
+     * @param al double in degrees
+     * @param be double in degrees
+     * @param ga double in degrees
+     * @return {@link Lattice}
+     */
+    public static Lattice createLattice(double a, double b, double c, double al, double be, double ga) {
+        return createLattice(a, b, c, al, be, ga, null, LatticeClassifier.DEFAULT);
+    }
+
+    private static Lattice createLattice(double a, double b, double c, double al, double be, double ga,
+                                         Double volume, LatticeClassifier classifier) {
+        CrystalSystem cSystem = classifier.getCrystalSystem(a, b, c, al, be, ga);
+        return new Lattice(a, b, c, al, be, ga, volume, cSystem, classifier.getPrincipalAxis(al, be, ga, cSystem));
+    }
+
+    /**
+     * Create a lattice from a metric tensor, with the crystal system of this
+     * cell setting (see
+     * {@link LatticeClassifier#getCrystalSystem(double, double, double, double, double, double)}),
+     * so that e.g. a reduced cell of a cubic lattice is triclinic. Use
+     * {@link LatticeClassifier#getMetricSymmetry(double[])} for the symmetry
+     * of the lattice itself.
+     * @param metricTensor Matrix
+     * @return {@link Lattice}
+     */
     public static Lattice createLattice(Matrix metricTensor) {
         double[][] tensor = metricTensor.toArray();
+        return createLatticeFromMetricTensor(tensor[0][0], tensor[1][1], tensor[2][2], tensor[0][1], tensor[0][2],
+                tensor[1][2], Math.sqrt(metricTensor.getDeterminant()), LatticeClassifier.DEFAULT);
+    }
 
-        Double[] lengths = new Double[3], angles = new Double[3];
-        double volume;
+    /**
+     * Create a lattice from the elements of its metric tensor, with the
+     * crystal system of this cell setting (see
+     * {@link LatticeClassifier#getCrystalSystem(double, double, double, double, double, double)}).
+     * Use {@link LatticeClassifier#getMetricSymmetry(double, double, double, double, double, double)}
+     * for the symmetry of the lattice whatever the setting.
+     * @param g11 double a.a
+     * @param g22 double b.b
+     * @param g33 double c.c
+     * @param g12 double a.b
+     * @param g13 double a.c
+     * @param g23 double b.c
+     * @return {@link Lattice}
+     */
+    public static Lattice createLatticeFromMetricTensor(double g11, double g22, double g33, double g12, double g13,
+                                                        double g23) {
+        return createLatticeFromMetricTensor(g11, g22, g33, g12, g13, g23, metricVolume(g11, g22, g33, g12, g13, g23),
+                LatticeClassifier.DEFAULT);
+    }
 
-        int i,j,k;
+    private static Lattice createLatticeFromMetricTensor(double g11, double g22, double g33, double g12, double g13,
+                                                         double g23, double volume, LatticeClassifier classifier) {
+        //Recover lengths and angles
+        double a = Math.sqrt(g11), b = Math.sqrt(g22), c = Math.sqrt(g33);
+        return createLattice(a, b, c, LatticeClassifier.angle(g23, b, c), LatticeClassifier.angle(g13, a, c),
+                LatticeClassifier.angle(g12, a, b), volume, classifier);
+    }
 
-        //Recover lengths...
-        for (i = 0; i < 3; i++) {
-            lengths[i] = Math.sqrt(tensor[i][i]);
+    /*
+     * V = sqrt(det G)
+     */
+    private static double metricVolume(double g11, double g22, double g33, double g12, double g13, double g23) {
+        return Math.sqrt(g11 * (g22 * g33 - g23 * g23) - g12 * (g12 * g33 - g23 * g13) + g13 * (g12 * g23 - g22 * g13));
+    }
+
+    /**
+     * Create many lattices from their parameters, packed as consecutive
+     * (a, b, c, alpha, beta, gamma) sextets. Volumes are not set.
+     * @param parameters double[] packed lattice parameters, in Angstrom and degrees
+     * @param classifier {@link LatticeClassifier} to determine the crystal systems
+     * @return {@link Lattice}[] one for each sextet
+     */
+    public static Lattice[] createLattices(double[] parameters, LatticeClassifier classifier) {
+        Lattice[] lattices = new Lattice[sextets(parameters)];
+        for (int i = 0, p = 0; i < lattices.length; i++, p += 6) {
+            lattices[i] = createLattice(parameters[p], parameters[p + 1], parameters[p + 2], parameters[p + 3],
+                    parameters[p + 4], parameters[p + 5], null, classifier);
         }
-        //... and angles...
-        for (i = 0; i <3; i++) {
-            j = (i + 1) % 3;
-            k = (j + 1) % 3;
+        return lattices;
+    }
 
-            angles[i] = Math.toDegrees(Math.acos(tensor[j][k] / (lengths[j] * lengths[k])));
+    /**
+     * Create many lattices from their metric tensors, each given by six
+     * consecutive elements in the order used by {@link DSpacingCalculator}.
+     * @param metricCoefficients double[] packed metric tensor elements
+     * @param classifier {@link LatticeClassifier} to determine the crystal systems
+     * @return {@link Lattice}[] one for each metric tensor
+     */
+    public static Lattice[] createLatticesFromMetricTensors(double[] metricCoefficients,
+                                                            LatticeClassifier classifier) {
+        Lattice[] lattices = new Lattice[sextets(metricCoefficients)];
+        for (int i = 0, p = 0; i < lattices.length; i++, p += 6) {
+            double g11 = metricCoefficients[p + DSpacingCalculator.G11],
+                    g22 = metricCoefficients[p + DSpacingCalculator.G22],
+                    g33 = metricCoefficients[p + DSpacingCalculator.G33],
+                    g12 = metricCoefficients[p + DSpacingCalculator.G12],
+                    g13 = metricCoefficients[p + DSpacingCalculator.G13],
+                    g23 = metricCoefficients[p + DSpacingCalculator.G23];
+            lattices[i] = createLatticeFromMetricTensor(g11, g22, g33, g12, g13, g23,
+                    metricVolume(g11, g22, g33, g12, g13, g23), classifier);
         }
+        return lattices;
+    }
 
-        //... and volume
-        volume = Math.sqrt(metricTensor.getDeterminant());
+    private static int sextets(double[] packed) {
+        if (packed.length % 6 != 0) {
+            throw new IllegalArgumentException("Parameter array does not contain a whole number of lattices");
+        }
+        return packed.length / 6;
+    }
+
+    /**
+     * Create a new unit cell for a lattice.
+     * @param mathsFactory {@link MathsFactory} for the cell
+     * @param lattice {@link Lattice}
+     * @return {@link UnitCell}
+     */
+    public static UnitCell createUnitCell(MathsFactory mathsFactory, Lattice lattice) {
+        return new UnitCellImpl(mathsFactory, lattice);
+    }
 
-        return createLattice(lengths, angles, volume);
+    /**
+     * Return a unit cell for a lattice, shared with all other callers asking
+     * the cache for an equal lattice.
+     * @param cache {@link UnitCellCache}
+     * @param lattice {@link Lattice}
+     * @return {@link UnitCell}
+     */
+    public static UnitCell createUnitCell(UnitCellCache cache, Lattice lattice) {
+        return cache.getUnitCell(lattice);
     }
 
 }
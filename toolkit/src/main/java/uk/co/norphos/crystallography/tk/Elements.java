@@ -0,0 +1,101 @@
+package uk.co.norphos.crystallography.tk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Symbols and standard atomic weights (IUPAC, abridged to five significant
+ * figures) of the elements. Elements with no stable isotope have the mass
+ * number of their longest-lived isotope.
+ *
+ * Atom types are resolved to elements by their leading symbol, so that
+ * charges and site numbers (e.g. Fe3+, O2-, Cu1) are ignored. A two letter
+ * symbol which is not an element (e.g. OW for the oxygen of a water
+ * molecule) is taken as a label for the element of its first letter; a two
+ * letter symbol which is an element (e.g. Co) is never shortened.
+ *
+ * @author Michael Wharmby
+ */
+public final class Elements {
+
+    private static final String[] SYMBOLS = {"H", "He",
+            "Li", "Be", "B", "C", "N", "O", "F", "Ne",
+            "Na", "Mg", "Al", "Si", "P", "S", "Cl", "Ar",
+            "K", "Ca", "Sc", "Ti", "V", "Cr", "Mn", "Fe", "Co", "Ni", "Cu", "Zn", "Ga", "Ge", "As", "Se", "Br", "Kr",
+            "Rb", "Sr", "Y", "Zr", "Nb", "Mo", "Tc", "Ru", "Rh", "Pd", "Ag", "Cd", "In", "Sn", "Sb", "Te", "I", "Xe",
+            "Cs", "Ba", "La", "Ce", "Pr", "Nd", "Pm", "Sm", "Eu", "Gd", "Tb", "Dy", "Ho", "Er", "Tm", "Yb", "Lu",
+            "Hf", "Ta", "W", "Re", "Os", "Ir", "Pt", "Au", "Hg", "Tl", "Pb", "Bi", "Po", "At", "Rn",
+            "Fr", "Ra", "Ac", "Th", "Pa", "U", "Np", "Pu", "Am", "Cm", "Bk", "Cf", "Es", "Fm", "Md", "No", "Lr",
+            "Rf", "Db", "Sg", "Bh", "Hs", "Mt", "Ds", "Rg", "Cn", "Nh", "Fl", "Mc", "Lv", "Ts", "Og"};
+
+    private static final double[] MASSES = {1.0080, 4.0026,
+            6.9400, 9.0122, 10.810, 12.011, 14.007, 15.999, 18.998, 20.180,
+            22.990, 24.305, 26.982, 28.085, 30.974, 32.060, 35.450, 39.948,
+            39.098, 40.078, 44.956, 47.867, 50.942, 51.996, 54.938, 55.845, 58.933, 58.693, 63.546, 65.380, 69.723,
+            72.630, 74.922, 78.971, 79.904, 83.798,
+            85.468, 87.620, 88.906, 91.224, 92.906, 95.950, 98, 101.07, 102.91, 106.42, 107.87, 112.41, 114.82,
+            118.71, 121.76, 127.60, 126.90, 131.29,
+            132.91, 137.33, 138.91, 140.12, 140.91, 144.24, 145, 150.36, 151.96, 157.25, 158.93, 162.50, 164.93,
+            167.26, 168.93, 173.05, 174.97,
+            178.49, 180.95, 183.84, 186.21, 190.23, 192.22, 195.08, 196.97, 200.59, 204.38, 207.20, 208.98, 209, 210,
+            222,
+            223, 226, 227, 232.04, 231.04, 238.03, 237, 244, 243, 247, 247, 251, 252, 257, 258, 259, 262,
+            267, 268, 269, 270, 269, 278, 281, 282, 285, 286, 289, 290, 293, 294, 294};
+
+    private static final Map<String, Integer> ATOMIC_NUMBERS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            ATOMIC_NUMBERS.put(SYMBOLS[i], i + 1);
+        }
+    }
+
+    private Elements() {
+    }
+
+    /**
+     * Return whether a string is the symbol of an element (case
+     * sensitive, e.g. Co but not CO).
+     * @param symbol String
+     * @return boolean
+     */
+    public static boolean isElement(String symbol) {
+        return ATOMIC_NUMBERS.containsKey(symbol);
+    }
+
+    /**
+     * Return the atomic number of an element.
+     * @param symbol String element symbol
+     * @return int 1 to 118
+     * @throws IllegalArgumentException if symbol is not an element
+     */
+    public static int getAtomicNumber(String symbol) {
+        Integer z = ATOMIC_NUMBERS.get(symbol);
+        if (z == null) throw new IllegalArgumentException("Unknown element "+symbol);
+        return z;
+    }
+
+    /**
+     * Return the element of an atom type, e.g. Fe from FE3+, O from O2- or
+     * OW, Co from Co1.
+     * @param type String atom type
+     * @return String element symbol
+     * @throws IllegalArgumentException if the type does not start with an
+     * element symbol
+     */
+    public static String getElement(String type) {
+        String symbol = ScatteringFactors.elementSymbol(type);
+        if (isElement(symbol)) return symbol;
+        if (symbol.length() == 2 && isElement(symbol.substring(0, 1))) return symbol.substring(0, 1);
+        throw new IllegalArgumentException("No element symbol in atom type "+type);
+    }
+
+    /**
+     * Return the standard atomic weight of the element of an atom type.
+     * @param type String atom type
+     * @return double in g mol<sup>-1</sup>
+     */
+    public static double getAtomicMass(String type) {
+        return MASSES[getAtomicNumber(getElement(type)) - 1];
+    }
+}
@@ -0,0 +1,312 @@
+package uk.co.norphos.crystallography.tk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates the operators of a space group from its Hall symbol (S.R. Hall,
+ * Acta Cryst. A37 (1981) 517-525), e.g. "-P 2ybc" or "P 31 2c (0 0 1)".
+ *
+ * Operators are built with integer arithmetic, as int[12] holding a
+ * row-ordered rotation matrix and a translation in twelfths of a lattice
+ * vector. Only origin shifts are supported as a change of basis.
+ *
+ * @author Michael Wharmby
+ */
+final class HallSymbolParser {
+
+    //Largest order of any space group (Fm-3m) - anything bigger did not close
+    private static final int MAX_ORDER = 192;
+
+    private static final int[] IDENTITY = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+    //Rotations about z (or the body diagonal for 3*), which other axes are permuted from
+    private static final int[] TWO_Z = {-1, 0, 0, 0, -1, 0, 0, 0, 1},
+            THREE_Z = {0, -1, 0, 1, -1, 0, 0, 0, 1},
+            FOUR_Z = {0, -1, 0, 1, 0, 0, 0, 0, 1},
+            SIX_Z = {1, -1, 0, 1, 0, 0, 0, 0, 1},
+            TWO_PRIME_Z = {0, -1, 0, -1, 0, 0, 0, 0, -1},
+            TWO_DOUBLE_PRIME_Z = {0, 1, 0, 1, 0, 0, 0, 0, -1},
+            THREE_STAR = {0, 0, 1, 1, 0, 0, 0, 1, 0};
+
+    private HallSymbolParser() {
+    }
+
+    /**
+     * Parse a Hall symbol into a space group.
+     * @param number int International Tables number (0 if not standard)
+     * @param hermannMauguinSymbol String (may be null)
+     * @param hallSymbol String
+     * @return {@link SpaceGroupImpl}
+     * @throws IllegalArgumentException if the symbol cannot be parsed
+     */
+    static SpaceGroupImpl parse(int number, String hermannMauguinSymbol, String hallSymbol) {
+        String symbol = normalise(hallSymbol);
+        int[] originShift = new int[3];
+        int bracket = symbol.indexOf('(');
+        if (bracket >= 0) {
+            if (!symbol.endsWith(")")) throw invalid(hallSymbol, "unclosed change of basis");
+            String[] shift = symbol.substring(bracket + 1, symbol.length() - 1).trim().split("\\s+");
+            if (shift.length != 3) throw invalid(hallSymbol, "change of basis must be an origin shift");
+            try {
+                for (int i = 0; i < 3; i++) originShift[i] = Integer.parseInt(shift[i]);
+            } catch (NumberFormatException nfe) {
+                throw invalid(hallSymbol, "change of basis must be an origin shift");
+            }
+            symbol = symbol.substring(0, bracket).trim();
+        }
+
+        String[] tokens = symbol.split(" ");
+        if (tokens.length < 2) throw invalid(hallSymbol, "no lattice or rotation symbols");
+
+        List<int[]> generators = new ArrayList<>();
+        List<int[]> centringVectors = latticeCentring(tokens[0], hallSymbol);
+        for (int[] centring : centringVectors) {
+            generators.add(operator(IDENTITY, centring));
+        }
+        if (tokens[0].startsWith("-")) {
+            generators.add(operator(negate(IDENTITY), new int[3]));
+        }
+
+        int previousOrder = 0, previousAxis = -1;
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            int pos = 0;
+            boolean improper = token.charAt(pos) == '-';
+            if (improper) pos++;
+            if (pos >= token.length() || "12346".indexOf(token.charAt(pos)) < 0) {
+                throw invalid(hallSymbol, "bad rotation order in '"+token+"'");
+            }
+            int order = token.charAt(pos++) - '0';
+
+            char axis = pos < token.length() && "xyz'\"*".indexOf(token.charAt(pos)) >= 0 ? token.charAt(pos++) : 0;
+            if (axis == 0 && order != 1) {
+                axis = defaultAxis(i, order, previousOrder, hallSymbol);
+            }
+            int[] rotation = rotation(order, axis, previousAxis, hallSymbol);
+            if (improper) rotation = negate(rotation);
+
+            int[] translation = new int[3];
+            for (; pos < token.length(); pos++) {
+                addTranslation(token.charAt(pos), order, axis, translation, hallSymbol);
+            }
+            generators.add(operator(rotation, translation));
+
+            previousOrder = order;
+            if (axis == 'x' || axis == 'y' || axis == 'z') previousAxis = axis - 'x';
+        }
+
+        if (originShift[0] != 0 || originShift[1] != 0 || originShift[2] != 0) {
+            for (int[] op : generators) {
+                shiftOrigin(op, originShift);
+            }
+        }
+
+        String source = "Hall symbol '"+hallSymbol+"'";
+        return arrange(number, hermannMauguinSymbol, normalise(hallSymbol), close(generators, source), source);
+    }
+
+    /**
+     * Collapse whitespace, so equivalent symbols are equal strings.
+     */
+    static String normalise(String hallSymbol) {
+        return hallSymbol.trim().replaceAll("\\s+", " ");
+    }
+
+    private static IllegalArgumentException invalid(String hallSymbol, String reason) {
+        return new IllegalArgumentException("Invalid Hall symbol '"+hallSymbol+"': "+reason);
+    }
+
+    private static List<int[]> latticeCentring(String lattice, String hallSymbol) {
+        String symbol = lattice.startsWith("-") ? lattice.substring(1) : lattice;
+        if (symbol.length() != 1) throw invalid(hallSymbol, "unknown lattice symbol '"+lattice+"'");
+        switch (symbol.charAt(0)) {
+            case 'P': return Arrays.asList();
+            case 'A': return Arrays.asList(new int[]{0, 6, 6});
+            case 'B': return Arrays.asList(new int[]{6, 0, 6});
+            case 'C': return Arrays.asList(new int[]{6, 6, 0});
+            case 'I': return Arrays.asList(new int[]{6, 6, 6});
+            case 'R': return Arrays.asList(new int[]{8, 4, 4}, new int[]{4, 8, 8});
+            case 'S': return Arrays.asList(new int[]{4, 4, 8}, new int[]{8, 8, 4});
+            case 'T': return Arrays.asList(new int[]{4, 8, 4}, new int[]{8, 4, 8});
+            case 'F': return Arrays.asList(new int[]{0, 6, 6}, new int[]{6, 0, 6}, new int[]{6, 6, 0});
+            default: throw invalid(hallSymbol, "unknown lattice symbol '"+lattice+"'");
+        }
+    }
+
+    /*
+     * First axis is c; second is a for a 2-fold after a 2- or 4-fold, or a-b
+     * after a 3- or 6-fold; third 3-fold is along the body diagonal.
+     */
+    private static char defaultAxis(int position, int order, int previousOrder, String hallSymbol) {
+        if (position == 1) return 'z';
+        if (position == 2 && order == 2) {
+            if (previousOrder == 2 || previousOrder == 4) return 'x';
+            if (previousOrder == 3 || previousOrder == 6) return '\'';
+        }
+        if (position == 3 && order == 3) return '*';
+        throw invalid(hallSymbol, "cannot determine axis of rotation "+position);
+    }
+
+    private static int[] rotation(int order, char axis, int previousAxis, String hallSymbol) {
+        if (order == 1) return IDENTITY.clone();
+        switch (axis) {
+            case 'x':
+            case 'y':
+            case 'z':
+                int[] zForm;
+                switch (order) {
+                    case 2: zForm = TWO_Z; break;
+                    case 3: zForm = THREE_Z; break;
+                    case 4: zForm = FOUR_Z; break;
+                    default: zForm = SIX_Z; break;
+                }
+                return permute(zForm, axis - 'x');
+            case '\'':
+            case '"':
+                if (order != 2) throw invalid(hallSymbol, "only 2-fold rotations can be about ' or \" axes");
+                if (previousAxis < 0) throw invalid(hallSymbol, "' and \" axes need a preceding principal axis");
+                return permute(axis == '\'' ? TWO_PRIME_Z : TWO_DOUBLE_PRIME_Z, previousAxis);
+            default:
+                if (order != 3) throw invalid(hallSymbol, "only 3-fold rotations can be about the * axis");
+                return THREE_STAR.clone();
+        }
+    }
+
+    /**
+     * Re-express a rotation about z as the same rotation about another axis,
+     * by cycling the axes (z to x, x to y, y to z for the x axis).
+     */
+    private static int[] permute(int[] zForm, int axis) {
+        int shift = (axis + 1) % 3;
+        int[] rotation = new int[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                rotation[3 * ((i + shift) % 3) + (j + shift) % 3] = zForm[3 * i + j];
+            }
+        }
+        return rotation;
+    }
+
+    private static void addTranslation(char symbol, int order, char axis, int[] translation, String hallSymbol) {
+        switch (symbol) {
+            case 'a': translation[0] += 6; break;
+            case 'b': translation[1] += 6; break;
+            case 'c': translation[2] += 6; break;
+            case 'n': translation[0] += 6; translation[1] += 6; translation[2] += 6; break;
+            case 'u': translation[0] += 3; break;
+            case 'v': translation[1] += 3; break;
+            case 'w': translation[2] += 3; break;
+            case 'd': translation[0] += 3; translation[1] += 3; translation[2] += 3; break;
+            default:
+                //Screw component along the rotation axis
+                int screw = symbol - '0';
+                if (screw < 1 || screw >= order || (axis != 'x' && axis != 'y' && axis != 'z')) {
+                    throw invalid(hallSymbol, "bad translation symbol '"+symbol+"'");
+                }
+                translation[axis - 'x'] += 12 * screw / order;
+        }
+    }
+
+    private static int[] operator(int[] rotation, int[] translation) {
+        int[] op = new int[12];
+        System.arraycopy(rotation, 0, op, 0, 9);
+        for (int i = 0; i < 3; i++) op[9 + i] = Math.floorMod(translation[i], 12);
+        return op;
+    }
+
+    private static int[] negate(int[] rotation) {
+        int[] negated = new int[9];
+        for (int i = 0; i < 9; i++) negated[i] = -rotation[i];
+        return negated;
+    }
+
+    /*
+     * (R, t) -> (R, t + v - Rv)
+     */
+    private static void shiftOrigin(int[] op, int[] shift) {
+        for (int i = 0; i < 3; i++) {
+            int rv = op[3 * i] * shift[0] + op[3 * i + 1] * shift[1] + op[3 * i + 2] * shift[2];
+            op[9 + i] = Math.floorMod(op[9 + i] + shift[i] - rv, 12);
+        }
+    }
+
+    private static int[] multiply(int[] a, int[] b) {
+        int[] product = new int[12];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                product[3 * i + j] = a[3 * i] * b[j] + a[3 * i + 1] * b[3 + j] + a[3 * i + 2] * b[6 + j];
+            }
+            int t = a[3 * i] * b[9] + a[3 * i + 1] * b[10] + a[3 * i + 2] * b[11] + a[9 + i];
+            product[9 + i] = Math.floorMod(t, 12);
+        }
+        return product;
+    }
+
+    private static IllegalArgumentException notAGroup(String source) {
+        return new IllegalArgumentException("Invalid "+source+": operators do not form a space group");
+    }
+
+    /**
+     * Multiply operators together until no new ones appear.
+     * @param generators List of int[12] operators
+     * @param source String description of the operators for error messages
+     * @return List of int[12] operators of the group, identity first
+     * @throws IllegalArgumentException if the operators do not close
+     */
+    static List<int[]> close(List<int[]> generators, String source) {
+        List<int[]> ops = new ArrayList<>();
+        Set<List<Integer>> seen = new HashSet<>();
+        add(operator(IDENTITY, new int[3]), ops, seen);
+        for (int[] generator : generators) {
+            add(generator, ops, seen);
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            for (int j = 0; j <= i; j++) {
+                add(multiply(ops.get(i), ops.get(j)), ops, seen);
+                add(multiply(ops.get(j), ops.get(i)), ops, seen);
+                if (ops.size() > MAX_ORDER) throw notAGroup(source);
+            }
+        }
+        return ops;
+    }
+
+    private static void add(int[] op, List<int[]> ops, Set<List<Integer>> seen) {
+        List<Integer> key = new ArrayList<>(12);
+        for (int value : op) key.add(value);
+        if (seen.add(key)) ops.add(op);
+    }
+
+    /**
+     * Order the operators with one for each rotation first (identity at the
+     * start), then those repeated for each centring vector.
+     * @throws IllegalArgumentException if the operators are not a space group
+     */
+    static SpaceGroupImpl arrange(int number, String hermannMauguinSymbol, String hallSymbol, List<int[]> ops,
+                                  String source) {
+        List<int[]> centrings = new ArrayList<>(), primitive = new ArrayList<>();
+        Set<List<Integer>> rotations = new HashSet<>();
+        for (int[] op : ops) {
+            List<Integer> rotation = new ArrayList<>(9);
+            for (int i = 0; i < 9; i++) rotation.add(op[i]);
+            if (rotations.add(rotation)) primitive.add(op);
+            if (Arrays.equals(Arrays.copyOf(op, 9), IDENTITY)) centrings.add(Arrays.copyOfRange(op, 9, 12));
+        }
+
+        List<int[]> arranged = new ArrayList<>(ops.size());
+        for (int[] centring : centrings) {
+            for (int[] op : primitive) {
+                int[] shifted = op.clone();
+                for (int i = 0; i < 3; i++) shifted[9 + i] = Math.floorMod(op[9 + i] + centring[i], 12);
+                arranged.add(shifted);
+            }
+        }
+        if (arranged.size() != ops.size()) {
+            throw notAGroup(source);
+        }
+        return SpaceGroupImpl.fromOperators(number, hermannMauguinSymbol, hallSymbol, arranged, primitive.size());
+    }
+}
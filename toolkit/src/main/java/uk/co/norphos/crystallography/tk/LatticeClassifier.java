@@ -0,0 +1,303 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+/**
+ * Determines the crystal system and principal axis of a cell from its
+ * parameters or its metric tensor, treating lengths as equal when they
+ * differ by less than a fraction lengthTolerance of the longer and angles as
+ * equal when they differ by less than angleTolerance degrees.
+ * {@link #getCrystalSystem(double, double, double, double, double, double)}
+ * and the getPrincipalAxis methods classify the cell in the setting given:
+ * lengths and angles are compared in the conventional order (e.g. a = b for
+ * tetragonal, beta unique for a b-axis monoclinic cell).
+ *
+ * getMetricSymmetry instead finds the symmetry of the lattice whatever the
+ * setting, so that e.g. the primitive cell of a face centred cubic lattice
+ * is cubic. The cell is Niggli reduced and the twofold axes of the lattice
+ * are found as direct lattice rows parallel to a reciprocal lattice row (Le
+ * Page, J. Appl. Cryst. 15, 255-259, 1982), each with indices of at most 2
+ * in the reduced cell. The number of axes, and for three whether they are
+ * perpendicular, gives the crystal system: a row counts as an axis when it
+ * is within the sum of the angle tolerance and the length tolerance (as an
+ * angle in radians) of parallel.
+ *
+ * All methods work on primitive values and allocate nothing, so may be used
+ * in bulk, except that getMetricSymmetry allocates the six element G6 vector
+ * it reduces unless one is passed to it as scratch. A classifier is
+ * immutable and may be shared between threads.
+ *
+ * @author Michael Wharmby
+ */
+public final class LatticeClassifier {
+
+    /**
+     * Tolerances which only allow for rounding, e.g. in recovering the
+     * parameters from a metric tensor
+     */
+    public static final double DEFAULT_LENGTH_TOLERANCE = 1e-6, DEFAULT_ANGLE_TOLERANCE = 1e-6;
+
+    public static final LatticeClassifier DEFAULT = new LatticeClassifier(DEFAULT_LENGTH_TOLERANCE,
+            DEFAULT_ANGLE_TOLERANCE);
+
+    private final double lengthTolerance, angleTolerance;
+    //Tangent of the largest angle between the rows of a twofold axis
+    private final double axisTolerance;
+
+    /**
+     * Create a classifier.
+     * @param lengthTolerance double fractional length tolerance (e.g. 0.001 for 0.1%)
+     * @param angleTolerance double angle tolerance in degrees
+     */
+    public LatticeClassifier(double lengthTolerance, double angleTolerance) {
+        if (!(lengthTolerance >= 0) || !(angleTolerance >= 0)) {
+            throw new IllegalArgumentException("Tolerances must not be negative");
+        }
+        this.lengthTolerance = lengthTolerance;
+        this.angleTolerance = angleTolerance;
+        this.axisTolerance = Math.tan(Math.min(Math.PI / 4, Math.toRadians(angleTolerance) + lengthTolerance));
+    }
+
+    public double getLengthTolerance() {
+        return lengthTolerance;
+    }
+
+    public double getAngleTolerance() {
+        return angleTolerance;
+    }
+
+    /**
+     * Return the crystal system of a cell. Cells which are not valid (e.g.
+     * with NaN parameters) are UNKNOWN.
+     * @param a double in Angstrom
+     * @param b double in Angstrom
+     * @param c double in Angstrom
+     * @param al double in degrees
+     * @param be double in degrees
+     * @param ga double in degrees
+     * @return {@link CrystalSystem}
+     */
+    public CrystalSystem getCrystalSystem(double a, double b, double c, double al, double be, double ga) {
+        if (!(a > 0 && b > 0 && c > 0 && al > 0 && be > 0 && ga > 0 && al < 180 && be < 180 && ga < 180)) {
+            return CrystalSystem.UNKNOWN;
+        }
+        boolean abEqual = lengthsEqual(a, b), lengthsEqual = abEqual && lengthsEqual(b, c);
+        boolean alRight = anglesEqual(al, 90), beRight = anglesEqual(be, 90), gaRight = anglesEqual(ga, 90);
+
+        if (alRight && beRight && gaRight) {
+            if (lengthsEqual) return CrystalSystem.CUBIC;
+            if (abEqual) return CrystalSystem.TETRAGONAL;
+            return CrystalSystem.ORTHORHOMBIC;
+        }
+        if (lengthsEqual && anglesEqual(al, be) && anglesEqual(be, ga)) return CrystalSystem.RHOMBOHEDRAL;
+        if (abEqual && alRight && beRight && anglesEqual(ga, 120)) return CrystalSystem.HEXAGONAL;
+        if ((alRight ? 1 : 0) + (beRight ? 1 : 0) + (gaRight ? 1 : 0) == 2) return CrystalSystem.MONOCLINIC;
+        return CrystalSystem.TRICLINIC;
+    }
+
+    /**
+     * Return the principal axis of a cell of the given crystal system: c for
+     * tetragonal and hexagonal cells, the axis whose angle is not 90 degrees
+     * for monoclinic cells and none otherwise.
+     * @param al double in degrees
+     * @param be double in degrees
+     * @param ga double in degrees
+     * @param crystalSystem {@link CrystalSystem}
+     * @return {@link PrincipleAxis}
+     */
+    public PrincipleAxis getPrincipalAxis(double al, double be, double ga, CrystalSystem crystalSystem) {
+        switch (crystalSystem) {
+            case TETRAGONAL:
+            case HEXAGONAL:
+                return PrincipleAxis.C;
+            case MONOCLINIC:
+                if (!anglesEqual(al, 90)) return PrincipleAxis.A;
+                if (!anglesEqual(be, 90)) return PrincipleAxis.B;
+                return PrincipleAxis.C;
+            default:
+                return PrincipleAxis.NONE;
+        }
+    }
+
+    /**
+     * Return the crystal system given by the metric symmetry of a lattice,
+     * from the elements of the metric tensor of any of its primitive cells.
+     * The result does not depend on the setting of the cell (see above).
+     * Cells which are not valid (e.g. with no volume) are UNKNOWN.
+     * @param g11 double a.a
+     * @param g22 double b.b
+     * @param g33 double c.c
+     * @param g12 double a.b
+     * @param g13 double a.c
+     * @param g23 double b.c
+     * @return {@link CrystalSystem} of the lattice (never TRIGONAL: a
+     * trigonal lattice is either HEXAGONAL or RHOMBOHEDRAL)
+     */
+    public CrystalSystem getMetricSymmetry(double g11, double g22, double g33, double g12, double g13, double g23) {
+        return getMetricSymmetry(g11, g22, g33, g12, g13, g23, new double[6]);
+    }
+
+    /**
+     * Return the crystal system given by the metric symmetry of a lattice,
+     * as {@link #getMetricSymmetry(double, double, double, double, double, double)},
+     * reducing the cell in a scratch array so that nothing is allocated.
+     * @param g11 double a.a
+     * @param g22 double b.b
+     * @param g33 double c.c
+     * @param g12 double a.b
+     * @param g13 double a.c
+     * @param g23 double b.c
+     * @param g6 double[6] scratch, left holding the G6 vector of the Niggli
+     *           reduced cell (if it reduces)
+     * @return {@link CrystalSystem} of the lattice
+     */
+    public CrystalSystem getMetricSymmetry(double g11, double g22, double g33, double g12, double g13, double g23,
+                                           double[] g6) {
+        if (!(g11 > 0 && g22 > 0 && g33 > 0)) return CrystalSystem.UNKNOWN;
+        g6[NiggliReduction.A] = g11;
+        g6[NiggliReduction.B] = g22;
+        g6[NiggliReduction.C] = g33;
+        g6[NiggliReduction.XI] = 2 * g23;
+        g6[NiggliReduction.ETA] = 2 * g13;
+        g6[NiggliReduction.ZETA] = 2 * g12;
+        try {
+            NiggliReduction.reduce(g6, null);
+        } catch (IllegalArgumentException e) {
+            return CrystalSystem.UNKNOWN;
+        }
+
+        //Cartesian basis of the reduced cell: a along x, b in the xy plane
+        double ax = Math.sqrt(g6[NiggliReduction.A]);
+        double bx = g6[NiggliReduction.ZETA] / (2 * ax), bySq = g6[NiggliReduction.B] - bx * bx;
+        if (!(bySq > 0)) return CrystalSystem.UNKNOWN;
+        double by = Math.sqrt(bySq);
+        double cx = g6[NiggliReduction.ETA] / (2 * ax), cy = (g6[NiggliReduction.XI] / 2 - bx * cx) / by;
+        double czSq = g6[NiggliReduction.C] - cx * cx - cy * cy;
+        if (!(czSq > 0)) return CrystalSystem.UNKNOWN;
+        double cz = Math.sqrt(czSq);
+
+        //Only the first three (unit) axes are kept, to tell orthorhombic from rhombohedral
+        double x1 = 0, y1 = 0, z1 = 0, x2 = 0, y2 = 0, z2 = 0, x3 = 0, y3 = 0, z3 = 0;
+        int nAxes = 0;
+        for (int u1 = 0; u1 <= 2; u1++) {
+            for (int u2 = u1 == 0 ? 0 : -2; u2 <= 2; u2++) {
+                for (int u3 = u1 == 0 && u2 == 0 ? 1 : -2; u3 <= 2; u3++) {
+                    //Only one of u and -u, and only primitive rows
+                    if (u1 % 2 == 0 && u2 % 2 == 0 && u3 % 2 == 0) continue;
+                    double ux = u1 * ax + u2 * bx + u3 * cx, uy = u2 * by + u3 * cy, uz = u3 * cz;
+                    if (!isTwofoldAxis(u1, u2, u3, ux, uy, uz, ax, bx, by, cx, cy, cz)) continue;
+                    double length = Math.sqrt(ux * ux + uy * uy + uz * uz);
+                    if (nAxes == 0) {
+                        x1 = ux / length;
+                        y1 = uy / length;
+                        z1 = uz / length;
+                    } else if (nAxes == 1) {
+                        x2 = ux / length;
+                        y2 = uy / length;
+                        z2 = uz / length;
+                    } else if (nAxes == 2) {
+                        x3 = ux / length;
+                        y3 = uy / length;
+                        z3 = uz / length;
+                    }
+                    nAxes++;
+                }
+            }
+        }
+
+        //Triclinic 0, monoclinic 1, orthorhombic & rhombohedral 3, tetragonal 5, hexagonal 7, cubic 9
+        if (nAxes == 0) return CrystalSystem.TRICLINIC;
+        if (nAxes < 3) return CrystalSystem.MONOCLINIC;
+        //Those of an orthorhombic lattice are mutually perpendicular, those of a rhombohedral one at 60 degrees
+        if (nAxes < 5) return perpendicular(x1, y1, z1, x2, y2, z2) && perpendicular(x1, y1, z1, x3, y3, z3)
+                && perpendicular(x2, y2, z2, x3, y3, z3) ? CrystalSystem.ORTHORHOMBIC : CrystalSystem.RHOMBOHEDRAL;
+        if (nAxes < 7) return CrystalSystem.TETRAGONAL;
+        if (nAxes < 9) return CrystalSystem.HEXAGONAL;
+        return CrystalSystem.CUBIC;
+    }
+
+    /**
+     * Whether direct row u (with Cartesian components ux, uy, uz) is within
+     * tolerance of parallel to a reciprocal row h with |u.h| of 1 or 2.
+     */
+    private boolean isTwofoldAxis(int u1, int u2, int u3, double ux, double uy, double uz,
+                                  double ax, double bx, double by, double cx, double cy, double cz) {
+        for (int h1 = -2; h1 <= 2; h1++) {
+            for (int h2 = -2; h2 <= 2; h2++) {
+                for (int h3 = -2; h3 <= 2; h3++) {
+                    int product = Math.abs(u1 * h1 + u2 * h2 + u3 * h3);
+                    if (product != 1 && product != 2) continue;
+                    //Reciprocal basis vectors are the rows of the inverse of the (upper triangular) basis
+                    double hx = h1 / ax;
+                    double hy = (h2 - h1 * bx / ax) / by;
+                    double hz = (h3 - (h2 - h1 * bx / ax) * cy / by - h1 * cx / ax) / cz;
+                    double crossX = uy * hz - uz * hy, crossY = uz * hx - ux * hz, crossZ = ux * hy - uy * hx;
+                    double dot = ux * hx + uy * hy + uz * hz;
+                    if (Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ)
+                            <= axisTolerance * Math.abs(dot)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether two unit vectors are within tolerance of perpendicular.
+     */
+    private boolean perpendicular(double x1, double y1, double z1, double x2, double y2, double z2) {
+        //cos of the angle is at most tan of the tolerance from 90 degrees
+        return Math.abs(x1 * x2 + y1 * y2 + z1 * z2) <= axisTolerance;
+    }
+
+    /**
+     * Return the crystal system given by the metric symmetry of a lattice,
+     * from the six independent elements of the metric tensor of a cell.
+     * @param metricCoefficients double[6] in the order used by {@link DSpacingCalculator}
+     * @return {@link CrystalSystem}
+     */
+    public CrystalSystem getMetricSymmetry(double[] metricCoefficients) {
+        return getMetricSymmetry(metricCoefficients[DSpacingCalculator.G11],
+                metricCoefficients[DSpacingCalculator.G22], metricCoefficients[DSpacingCalculator.G33],
+                metricCoefficients[DSpacingCalculator.G12], metricCoefficients[DSpacingCalculator.G13],
+                metricCoefficients[DSpacingCalculator.G23]);
+    }
+
+    /**
+     * Return the principal axis of a cell of the given crystal system, from
+     * the elements of its metric tensor, in the setting of the cell.
+     * @param g11 double a.a
+     * @param g22 double b.b
+     * @param g33 double c.c
+     * @param g12 double a.b
+     * @param g13 double a.c
+     * @param g23 double b.c
+     * @param crystalSystem {@link CrystalSystem}
+     * @return {@link PrincipleAxis}
+     */
+    public PrincipleAxis getPrincipalAxis(double g11, double g22, double g33, double g12, double g13, double g23,
+                                          CrystalSystem crystalSystem) {
+        double a = Math.sqrt(g11), b = Math.sqrt(g22), c = Math.sqrt(g33);
+        return getPrincipalAxis(angle(g23, b, c), angle(g13, a, c), angle(g12, a, b), crystalSystem);
+    }
+
+    /**
+     * Angle in degrees between vectors with the given scalar product and
+     * lengths.
+     */
+    static double angle(double product, double length1, double length2) {
+        //Rounding can take parallel vectors just outside [-1, 1]
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, product / (length1 * length2)))));
+    }
+
+    private boolean lengthsEqual(double x, double y) {
+        return Math.abs(x - y) <= lengthTolerance * Math.max(x, y);
+    }
+
+    private boolean anglesEqual(double x, double y) {
+        return Math.abs(x - y) <= angleTolerance;
+    }
+}
@@ -0,0 +1,213 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Index of a fixed collection of lattices, answering "which lattices match
+ * this one within tolerance" without comparing against every lattice.
+ *
+ * The six parameters (a, b, c, alpha, beta, gamma) of each lattice are held
+ * in a k-d tree: the lattices are recursively split at the median of the
+ * parameter which varies most among them. Lattices match if each length is
+ * within a fraction lengthTol of the query's and each angle within angleTol
+ * of it (as {@link Lattice#isSimilar(Lattice, double, double)}), which is a
+ * box around the query in parameter space, so only the branches of the tree
+ * overlapping the box are searched.
+ *
+ * Lattices are matched in the setting given, so should be reduced to a
+ * common form before being indexed and queried. The index is immutable and
+ * may be queried from several threads.
+ *
+ * @author Michael Wharmby
+ */
+public class LatticeIndex {
+
+    public static final double DEFAULT_LENGTH_TOLERANCE = 0.02, DEFAULT_ANGLE_TOLERANCE = 1;
+
+    private static final int N_PARAMETERS = 6, LEAF_SIZE = 8;
+
+    private final int size;
+    //Parameters of the lattices in tree order, with the index of each in the original list
+    private final double[] parameters;
+    private final int[] ids;
+    //Parameter split on at each node, stored at the node's median position
+    private final byte[] splitParameters;
+
+    /**
+     * Build an index over a list of lattices. Lattices are identified in
+     * results by their position in the list.
+     * @param lattices List of {@link Lattice}
+     */
+    public LatticeIndex(List<Lattice> lattices) {
+        size = lattices.size();
+        parameters = new double[N_PARAMETERS * size];
+        ids = new int[size];
+        splitParameters = new byte[size];
+        for (int i = 0; i < size; i++) {
+            Lattice lattice = lattices.get(i);
+            double[] lengths = lattice.getLengths(), angles = lattice.getAngles();
+            System.arraycopy(lengths, 0, parameters, N_PARAMETERS * i, 3);
+            System.arraycopy(angles, 0, parameters, N_PARAMETERS * i + 3, 3);
+            ids[i] = i;
+        }
+        build(0, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void build(int from, int to) {
+        if (to - from <= LEAF_SIZE) return;
+        int split = widestParameter(from, to);
+        int mid = (from + to) >>> 1;
+        select(from, to, mid, split);
+        splitParameters[mid] = (byte) split;
+        build(from, mid);
+        build(mid + 1, to);
+    }
+
+    /**
+     * Parameter with the largest spread over a range, relative to its size
+     * for lengths, so lengths and angles are split on about equally.
+     */
+    private int widestParameter(int from, int to) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int p = 0; p < N_PARAMETERS; p++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = parameters[N_PARAMETERS * i + p];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            double spread = p < 3 ? (max - min) / (DEFAULT_LENGTH_TOLERANCE * Math.max(min, Double.MIN_VALUE))
+                    : (max - min) / DEFAULT_ANGLE_TOLERANCE;
+            if (spread > widestSpread) {
+                widestSpread = spread;
+                widest = p;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Partially sort a range so that position k holds the lattice which
+     * would be there if sorted by parameter p, with none greater before it
+     * and none smaller after it.
+     */
+    private void select(int from, int to, int k, int p) {
+        int lo = from, hi = to - 1;
+        while (hi > lo) {
+            //Median of three pivot
+            int mid = (lo + hi) >>> 1;
+            double a = value(lo, p), b = value(mid, p), c = value(hi, p);
+            double pivot = a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (value(i, p) < pivot) i++;
+                while (value(j, p) > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double value(int i, int p) {
+        return parameters[N_PARAMETERS * i + p];
+    }
+
+    private void swap(int i, int j) {
+        for (int p = 0; p < N_PARAMETERS; p++) {
+            double tmp = parameters[N_PARAMETERS * i + p];
+            parameters[N_PARAMETERS * i + p] = parameters[N_PARAMETERS * j + p];
+            parameters[N_PARAMETERS * j + p] = tmp;
+        }
+        int tmp = ids[i];
+        ids[i] = ids[j];
+        ids[j] = tmp;
+    }
+
+    /**
+     * Pass the index (in the original list) of each lattice similar to the
+     * query to a consumer, in no particular order.
+     * @param query {@link Lattice}
+     * @param lengthTol double fractional length tolerance (e.g. 0.02 for 2%)
+     * @param angleTol double angle tolerance in degrees
+     * @param consumer IntConsumer
+     */
+    public void forEachSimilar(Lattice query, double lengthTol, double angleTol, IntConsumer consumer) {
+        double[] lengths = query.getLengths(), angles = query.getAngles();
+        double[] lower = new double[N_PARAMETERS], upper = new double[N_PARAMETERS];
+        for (int p = 0; p < 3; p++) {
+            lower[p] = lengths[p] - lengthTol * lengths[p];
+            upper[p] = lengths[p] + lengthTol * lengths[p];
+            lower[p + 3] = angles[p] - angleTol;
+            upper[p + 3] = angles[p] + angleTol;
+        }
+        search(0, size, lower, upper, consumer);
+    }
+
+    private void search(int from, int to, double[] lower, double[] upper, IntConsumer consumer) {
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                if (inBox(i, lower, upper)) consumer.accept(ids[i]);
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        int p = splitParameters[mid];
+        double split = value(mid, p);
+        //Equal values may lie either side of the median
+        if (lower[p] <= split) search(from, mid, lower, upper, consumer);
+        if (inBox(mid, lower, upper)) consumer.accept(ids[mid]);
+        if (upper[p] >= split) search(mid + 1, to, lower, upper, consumer);
+    }
+
+    private boolean inBox(int i, double[] lower, double[] upper) {
+        for (int p = 0; p < N_PARAMETERS; p++) {
+            double value = parameters[N_PARAMETERS * i + p];
+            if (value < lower[p] || value > upper[p]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find all lattices similar to the query.
+     * @param query {@link Lattice}
+     * @param lengthTol double fractional length tolerance (e.g. 0.02 for 2%)
+     * @param angleTol double angle tolerance in degrees
+     * @return int[] indices in the original list of the similar lattices, in ascending order
+     */
+    public int[] findSimilar(Lattice query, double lengthTol, double angleTol) {
+        int[][] found = {new int[16]};
+        int[] count = new int[1];
+        forEachSimilar(query, lengthTol, angleTol, id -> {
+            if (count[0] == found[0].length) found[0] = Arrays.copyOf(found[0], 2 * count[0]);
+            found[0][count[0]++] = id;
+        });
+        int[] result = Arrays.copyOf(found[0], count[0]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Find all lattices within 2% in length and 1 degree in angle of the
+     * query.
+     * @param query {@link Lattice}
+     * @return int[] indices in the original list of the similar lattices, in ascending order
+     */
+    public int[] findSimilar(Lattice query) {
+        return findSimilar(query, DEFAULT_LENGTH_TOLERANCE, DEFAULT_ANGLE_TOLERANCE);
+    }
+}
@@ -0,0 +1,135 @@
+package uk.co.norphos.crystallography.tk;
+
+import java.util.Arrays;
+
+/**
+ * Pairs of atoms found by a {@link NeighbourSearch}, held in primitive
+ * columns: the indices of the two atoms, the lattice translation (image)
+ * which must be added to the second atom and the distance between them.
+ * Each pair is listed once, with the first index no greater than the
+ * second.
+ *
+ * @author Michael Wharmby
+ */
+public final class NeighbourList {
+
+    private int[] first, second, images;
+    private double[] distances;
+    private int size;
+
+    NeighbourList(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        first = new int[capacity];
+        second = new int[capacity];
+        images = new int[3 * capacity];
+        distances = new double[capacity];
+    }
+
+    void add(int i, int j, int imageA, int imageB, int imageC, double distance) {
+        if (size == first.length) {
+            int capacity = 2 * size;
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            images = Arrays.copyOf(images, 3 * capacity);
+            distances = Arrays.copyOf(distances, capacity);
+        }
+        first[size] = i;
+        second[size] = j;
+        images[3 * size] = imageA;
+        images[3 * size + 1] = imageB;
+        images[3 * size + 2] = imageC;
+        distances[size] = distance;
+        size++;
+    }
+
+    /**
+     * Return the number of pairs.
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param n int index of pair
+     * @return int index of the first atom
+     */
+    public int getFirst(int n) {
+        return first[n];
+    }
+
+    /**
+     * @param n int index of pair
+     * @return int index of the second atom
+     */
+    public int getSecond(int n) {
+        return second[n];
+    }
+
+    /**
+     * @param n int index of pair
+     * @param axis int 0-2
+     * @return int lattice translation along axis added to the second atom
+     */
+    public int getImage(int n, int axis) {
+        return images[3 * n + axis];
+    }
+
+    /**
+     * @param n int index of pair
+     * @return double distance in Angstrom
+     */
+    public double getDistance(int n) {
+        return distances[n];
+    }
+
+    /**
+     * Return the first atom column. Only the first {@link #size()} values
+     * are in use.
+     * @return int[]
+     */
+    public int[] getFirstArray() {
+        return first;
+    }
+
+    /**
+     * Return the second atom column. Only the first {@link #size()} values
+     * are in use.
+     * @return int[]
+     */
+    public int[] getSecondArray() {
+        return second;
+    }
+
+    /**
+     * Return the packed lattice translations of the second atoms. Only the
+     * first 3 * {@link #size()} values are in use.
+     * @return int[]
+     */
+    public int[] getImageArray() {
+        return images;
+    }
+
+    /**
+     * Return the distance column. Only the first {@link #size()} values are
+     * in use.
+     * @return double[] in Angstrom
+     */
+    public double[] getDistanceArray() {
+        return distances;
+    }
+
+    /**
+     * Count the neighbours of each atom.
+     * @param nAtoms int number of atoms searched
+     * @return int[nAtoms] number of pairs each atom belongs to
+     */
+    public int[] countNeighbours(int nAtoms) {
+        int[] counts = new int[nAtoms];
+        for (int n = 0; n < size; n++) {
+            counts[first[n]]++;
+            counts[second[n]]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,195 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+/**
+ * Finds all pairs of atoms, including periodic images, closer than a cutoff
+ * distance, using a cell list.
+ *
+ * Fractional coordinates are sorted into a grid of bins. The width of the
+ * unit cell perpendicular to axis i is 1/|a*<sub>i</sub>|, so two atoms
+ * within the cutoff r differ in fractional coordinate i by at most
+ * r|a*<sub>i</sub>|. This holds for any cell shape, so only the bins this
+ * far from each atom's bin are searched, wrapping round the cell (and
+ * possibly past several images of it, if the cell is small) to find the
+ * periodic images. The cost is proportional to the number of atoms times
+ * the mean number of neighbours, rather than the square of the number of
+ * atoms.
+ *
+ * @author Michael Wharmby
+ */
+public class NeighbourSearch {
+
+    /**
+     * Receives each pair found: atoms i and j, with j translated by the
+     * lattice vector (imageA, imageB, imageC).
+     */
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(int i, int j, int imageA, int imageB, int imageC, double distance);
+    }
+
+    private final double[] metric;
+    private final double cutoff, cutoffSq;
+    private final int nAtoms;
+    private final double[] coords;
+
+    private final int[] gridSize = new int[3], searchRange = new int[3];
+    //Atoms sorted by bin, with the atoms of bin b from binStart[b] to binStart[b + 1]
+    private final int[] binStart, binAtoms, atomBins;
+
+    /**
+     * Create a search over the atoms of an {@link AtomTable}.
+     * @param unitCell {@link UnitCell}
+     * @param atoms {@link AtomTable}
+     * @param cutoff double largest distance between neighbours in Angstrom
+     */
+    public NeighbourSearch(UnitCell unitCell, AtomTable atoms, double cutoff) {
+        this(unitCell, atoms.getCoordinateArray(), atoms.size(), cutoff);
+    }
+
+    /**
+     * Create a search over packed fractional coordinates.
+     * @param unitCell {@link UnitCell}
+     * @param fracCoords double[] packed fractional coordinates
+     * @param nAtoms int number of atoms in fracCoords
+     * @param cutoff double largest distance between neighbours in Angstrom
+     */
+    public NeighbourSearch(UnitCell unitCell, double[] fracCoords, int nAtoms, double cutoff) {
+        if (!(cutoff > 0)) throw new IllegalArgumentException("Cutoff distance must be positive");
+        this.metric = DSpacingCalculator.coefficients(unitCell.getMetricTensor());
+        this.cutoff = cutoff;
+        this.cutoffSq = cutoff * cutoff;
+        this.nAtoms = nAtoms;
+
+        //Coordinates are wrapped into [0, 1), so images are relative to the wrapped sites
+        coords = new double[3 * nAtoms];
+        for (int i = 0; i < 3 * nAtoms; i++) {
+            coords[i] = fracCoords[i] - Math.floor(fracCoords[i]);
+        }
+
+        double[] recip = DSpacingCalculator.coefficients(unitCell.getReciprocalMetricTensor());
+        int[] diagonal = {DSpacingCalculator.G11, DSpacingCalculator.G22, DSpacingCalculator.G33};
+        //Don't use more bins than atoms; very small cutoffs would otherwise make huge, empty grids
+        double maxBinsPerAxis = Math.max(1, Math.cbrt(nAtoms));
+        for (int axis = 0; axis < 3; axis++) {
+            double reach = cutoff * Math.sqrt(recip[diagonal[axis]]);
+            gridSize[axis] = (int) Math.max(1, Math.min(maxBinsPerAxis, Math.floor(1 / reach)));
+            searchRange[axis] = (int) Math.ceil(reach * gridSize[axis]);
+        }
+
+        int nBins = gridSize[0] * gridSize[1] * gridSize[2];
+        binStart = new int[nBins + 1];
+        binAtoms = new int[nAtoms];
+        atomBins = new int[nAtoms];
+        for (int i = 0; i < nAtoms; i++) {
+            atomBins[i] = binOf(i);
+            binStart[atomBins[i] + 1]++;
+        }
+        for (int b = 0; b < nBins; b++) {
+            binStart[b + 1] += binStart[b];
+        }
+        int[] next = new int[nBins];
+        System.arraycopy(binStart, 0, next, 0, nBins);
+        for (int i = 0; i < nAtoms; i++) {
+            binAtoms[next[atomBins[i]]++] = i;
+        }
+    }
+
+    private int binOf(int atom) {
+        int a = Math.min((int) (coords[3 * atom] * gridSize[0]), gridSize[0] - 1),
+                b = Math.min((int) (coords[3 * atom + 1] * gridSize[1]), gridSize[1] - 1),
+                c = Math.min((int) (coords[3 * atom + 2] * gridSize[2]), gridSize[2] - 1);
+        return (a * gridSize[1] + b) * gridSize[2] + c;
+    }
+
+    /**
+     * Return the cutoff distance.
+     * @return double in Angstrom
+     */
+    public double getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * Return the number of bins along each axis of the cell.
+     * @return int[3]
+     */
+    public int[] getGridSize() {
+        return gridSize.clone();
+    }
+
+    /**
+     * Pass each pair of atoms within the cutoff to consumer. Each pair is
+     * passed once, with i no greater than j; an atom is paired with its own
+     * images if they are close enough.
+     * @param consumer {@link PairConsumer}
+     */
+    public void forEachPair(PairConsumer consumer) {
+        for (int i = 0; i < nAtoms; i++) {
+            int bin = atomBins[i];
+            int binA = bin / (gridSize[1] * gridSize[2]), binB = (bin / gridSize[2]) % gridSize[1],
+                    binC = bin % gridSize[2];
+            double xi = coords[3 * i], yi = coords[3 * i + 1], zi = coords[3 * i + 2];
+
+            for (int oa = binA - searchRange[0]; oa <= binA + searchRange[0]; oa++) {
+                int imageA = Math.floorDiv(oa, gridSize[0]), wrappedA = oa - imageA * gridSize[0];
+                for (int ob = binB - searchRange[1]; ob <= binB + searchRange[1]; ob++) {
+                    int imageB = Math.floorDiv(ob, gridSize[1]), wrappedB = ob - imageB * gridSize[1];
+                    for (int oc = binC - searchRange[2]; oc <= binC + searchRange[2]; oc++) {
+                        int imageC = Math.floorDiv(oc, gridSize[2]), wrappedC = oc - imageC * gridSize[2];
+                        int other = (wrappedA * gridSize[1] + wrappedB) * gridSize[2] + wrappedC;
+                        for (int n = binStart[other]; n < binStart[other + 1]; n++) {
+                            int j = binAtoms[n];
+                            //Each pair is found from both atoms; keep it once
+                            if (j < i || (j == i && !isPositive(imageA, imageB, imageC))) continue;
+                            double dx = coords[3 * j] + imageA - xi, dy = coords[3 * j + 1] + imageB - yi,
+                                    dz = coords[3 * j + 2] + imageC - zi;
+                            double distSq = metric[DSpacingCalculator.G11] * dx * dx
+                                    + metric[DSpacingCalculator.G22] * dy * dy + metric[DSpacingCalculator.G33] * dz * dz
+                                    + 2 * (metric[DSpacingCalculator.G12] * dx * dy
+                                    + metric[DSpacingCalculator.G13] * dx * dz + metric[DSpacingCalculator.G23] * dy * dz);
+                            if (distSq <= cutoffSq) {
+                                consumer.accept(i, j, imageA, imageB, imageC, Math.sqrt(distSq));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Of each image and its inverse, only the lexicographically positive one
+     * is kept for pairs of an atom with itself.
+     */
+    private static boolean isPositive(int a, int b, int c) {
+        return a > 0 || (a == 0 && (b > 0 || (b == 0 && c > 0)));
+    }
+
+    /**
+     * Find all pairs of atoms within the cutoff.
+     * @return {@link NeighbourList}
+     */
+    public NeighbourList findPairs() {
+        NeighbourList pairs = new NeighbourList(8 * nAtoms);
+        forEachPair(pairs::add);
+        return pairs;
+    }
+
+    /**
+     * Count the neighbours of each atom within the cutoff, without storing
+     * the pairs.
+     * @return int[] coordination number of each atom
+     */
+    public int[] countNeighbours() {
+        int[] counts = new int[nAtoms];
+        forEachPair((i, j, imageA, imageB, imageC, distance) -> {
+            counts[i]++;
+            counts[j]++;
+        });
+        return counts;
+    }
+}
@@ -0,0 +1,233 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+
+/**
+ * Niggli reduction of a unit cell, by the algorithm of Křivý &amp; Gruber
+ * (Acta Cryst. A32, 297-298, 1976) with the comparisons made to a tolerance
+ * as described by Grosse-Kunstleve, Sauter &amp; Adams (Acta Cryst. A60, 1-6,
+ * 2004), so that it terminates for measured cells.
+ *
+ * The cell is given by its G6 vector (A, B, C, xi, eta, zeta) = (a.a, b.b,
+ * c.c, 2b.c, 2a.c, 2a.b). Reduction works on six local doubles and updates
+ * the transformation in place, so nothing is allocated while reducing. The
+ * transformation P is returned as a 3x3 integer matrix (row-major) whose
+ * columns are the reduced basis vectors in terms of the original ones, so
+ * that G<sub>reduced</sub> = P<sup>T</sup> G P.
+ *
+ * @author Michael Wharmby
+ */
+public final class NiggliReduction {
+
+    public static final int A = 0, B = 1, C = 2, XI = 3, ETA = 4, ZETA = 5;
+
+    /**
+     * Tolerance relative to the square of the mean cell edge (V<sup>2/3</sup>)
+     */
+    public static final double DEFAULT_RELATIVE_EPSILON = 1e-5;
+
+    private static final int MAX_ITERATIONS = 100;
+
+    private NiggliReduction() {
+    }
+
+    /**
+     * Fill a G6 vector from the metric tensor coefficients, in the order
+     * used by {@link DSpacingCalculator}.
+     * @param metricCoefficients double[6] G11, G22, G33, G12, G13, G23
+     * @param g6 double[6] to receive A, B, C, xi, eta, zeta
+     * @return double[] g6
+     */
+    public static double[] toG6(double[] metricCoefficients, double[] g6) {
+        g6[A] = metricCoefficients[DSpacingCalculator.G11];
+        g6[B] = metricCoefficients[DSpacingCalculator.G22];
+        g6[C] = metricCoefficients[DSpacingCalculator.G33];
+        g6[XI] = 2 * metricCoefficients[DSpacingCalculator.G23];
+        g6[ETA] = 2 * metricCoefficients[DSpacingCalculator.G13];
+        g6[ZETA] = 2 * metricCoefficients[DSpacingCalculator.G12];
+        return g6;
+    }
+
+    /**
+     * Return the lattice parameters of a G6 vector.
+     * @param g6 double[6]
+     * @return {@link Lattice}
+     */
+    public static Lattice toLattice(double[] g6) {
+        double a = Math.sqrt(g6[A]), b = Math.sqrt(g6[B]), c = Math.sqrt(g6[C]);
+        return CrystallographyFactory.createLattice(a, b, c, Math.toDegrees(Math.acos(g6[XI] / (2 * b * c))),
+                Math.toDegrees(Math.acos(g6[ETA] / (2 * a * c))), Math.toDegrees(Math.acos(g6[ZETA] / (2 * a * b))));
+    }
+
+    /**
+     * Reduce a cell with a tolerance of {@link #DEFAULT_RELATIVE_EPSILON}
+     * relative to the square of its mean edge.
+     * @param g6 double[6] G6 vector, replaced by that of the reduced cell
+     * @param transform int[9] to receive the transformation P (row-major),
+     *                  or null if it is not needed
+     * @return int number of iterations taken
+     */
+    public static int reduce(double[] g6, int[] transform) {
+        //Squared volume is the determinant of the metric tensor
+        double volumeSq = g6[A] * g6[B] * g6[C] + (g6[XI] * g6[ETA] * g6[ZETA]
+                - g6[A] * g6[XI] * g6[XI] - g6[B] * g6[ETA] * g6[ETA] - g6[C] * g6[ZETA] * g6[ZETA]) / 4;
+        return reduce(g6, transform, DEFAULT_RELATIVE_EPSILON * Math.cbrt(volumeSq));
+    }
+
+    /**
+     * Reduce a cell.
+     * @param g6 double[6] G6 vector, replaced by that of the reduced cell
+     * @param transform int[9] to receive the transformation P (row-major),
+     *                  or null if it is not needed
+     * @param epsilon double tolerance in Angstrom<sup>2</sup>
+     * @return int number of iterations taken
+     * @throws IllegalArgumentException if the cell does not reduce (e.g. it has no volume)
+     */
+    public static int reduce(double[] g6, int[] transform, double epsilon) {
+        double a = g6[A], b = g6[B], c = g6[C], xi = g6[XI], eta = g6[ETA], zeta = g6[ZETA], tmp;
+        if (transform != null) {
+            for (int i = 0; i < 9; i++) transform[i] = i % 4 == 0 ? 1 : 0;
+        }
+
+        int iteration = 0;
+        while (true) {
+            if (++iteration > MAX_ITERATIONS) {
+                throw new IllegalArgumentException("Cell did not reduce in "+MAX_ITERATIONS+" iterations");
+            }
+            //A1: a.a <= b.b
+            if (gt(a, b, epsilon) || (eq(a, b, epsilon) && gt(Math.abs(xi), Math.abs(eta), epsilon))) {
+                tmp = a; a = b; b = tmp;
+                tmp = xi; xi = eta; eta = tmp;
+                multiply(transform, 0, -1, 0, -1, 0, 0, 0, 0, -1);
+            }
+            //A2: b.b <= c.c
+            if (gt(b, c, epsilon) || (eq(b, c, epsilon) && gt(Math.abs(eta), Math.abs(zeta), epsilon))) {
+                tmp = b; b = c; c = tmp;
+                tmp = eta; eta = zeta; zeta = tmp;
+                multiply(transform, -1, 0, 0, 0, 0, -1, 0, -1, 0);
+                continue;
+            }
+            //A3/A4: angles all acute or all non-acute
+            int nPositive = (gt(xi, 0, epsilon) ? 1 : 0) + (gt(eta, 0, epsilon) ? 1 : 0)
+                    + (gt(zeta, 0, epsilon) ? 1 : 0);
+            boolean anyZero = eq(xi, 0, epsilon) || eq(eta, 0, epsilon) || eq(zeta, 0, epsilon);
+            if (nPositive == 3 || (!anyZero && nPositive == 1)) {
+                multiply(transform, lt(xi, 0, epsilon) ? -1 : 1, 0, 0, 0, lt(eta, 0, epsilon) ? -1 : 1, 0,
+                        0, 0, lt(zeta, 0, epsilon) ? -1 : 1);
+                xi = Math.abs(xi);
+                eta = Math.abs(eta);
+                zeta = Math.abs(zeta);
+            } else {
+                int i = 1, j = 1, k = 1, zeroAt = -1;
+                if (gt(xi, 0, epsilon)) i = -1;
+                else if (!lt(xi, 0, epsilon)) zeroAt = 0;
+                if (gt(eta, 0, epsilon)) j = -1;
+                else if (!lt(eta, 0, epsilon)) zeroAt = 1;
+                if (gt(zeta, 0, epsilon)) k = -1;
+                else if (!lt(zeta, 0, epsilon)) zeroAt = 2;
+                if (i * j * k < 0) {
+                    //Keep the handedness by also flipping an axis at 90 degrees
+                    if (zeroAt == 0) i = -i;
+                    else if (zeroAt == 1) j = -j;
+                    else if (zeroAt == 2) k = -k;
+                }
+                multiply(transform, i, 0, 0, 0, j, 0, 0, 0, k);
+                xi = -Math.abs(xi);
+                eta = -Math.abs(eta);
+                zeta = -Math.abs(zeta);
+            }
+            //A5: |2b.c| <= b.b
+            if (gt(Math.abs(xi), b, epsilon) || (eq(xi, b, epsilon) && lt(2 * eta, zeta, epsilon))
+                    || (eq(xi, -b, epsilon) && lt(zeta, 0, epsilon))) {
+                if (xi > 0) {
+                    multiply(transform, 1, 0, 0, 0, 1, -1, 0, 0, 1);
+                    c += b - xi;
+                    eta -= zeta;
+                    xi -= 2 * b;
+                } else {
+                    multiply(transform, 1, 0, 0, 0, 1, 1, 0, 0, 1);
+                    c += b + xi;
+                    eta += zeta;
+                    xi += 2 * b;
+                }
+                continue;
+            }
+            //A6: |2a.c| <= a.a
+            if (gt(Math.abs(eta), a, epsilon) || (eq(eta, a, epsilon) && lt(2 * xi, zeta, epsilon))
+                    || (eq(eta, -a, epsilon) && lt(zeta, 0, epsilon))) {
+                if (eta > 0) {
+                    multiply(transform, 1, 0, -1, 0, 1, 0, 0, 0, 1);
+                    c += a - eta;
+                    xi -= zeta;
+                    eta -= 2 * a;
+                } else {
+                    multiply(transform, 1, 0, 1, 0, 1, 0, 0, 0, 1);
+                    c += a + eta;
+                    xi += zeta;
+                    eta += 2 * a;
+                }
+                continue;
+            }
+            //A7: |2a.b| <= a.a
+            if (gt(Math.abs(zeta), a, epsilon) || (eq(zeta, a, epsilon) && lt(2 * xi, eta, epsilon))
+                    || (eq(zeta, -a, epsilon) && lt(eta, 0, epsilon))) {
+                if (zeta > 0) {
+                    multiply(transform, 1, -1, 0, 0, 1, 0, 0, 0, 1);
+                    b += a - zeta;
+                    xi -= eta;
+                    zeta -= 2 * a;
+                } else {
+                    multiply(transform, 1, 1, 0, 0, 1, 0, 0, 0, 1);
+                    b += a + zeta;
+                    xi += eta;
+                    zeta += 2 * a;
+                }
+                continue;
+            }
+            //A8: a + b + c is not the shortest body diagonal
+            double sum = xi + eta + zeta + a + b;
+            if (lt(sum, 0, epsilon) || (eq(sum, 0, epsilon) && gt(2 * (a + eta) + zeta, 0, epsilon))) {
+                multiply(transform, 1, 0, 1, 0, 1, 1, 0, 0, 1);
+                c += sum;
+                xi += 2 * b + zeta;
+                eta += 2 * a + zeta;
+                continue;
+            }
+            break;
+        }
+        g6[A] = a;
+        g6[B] = b;
+        g6[C] = c;
+        g6[XI] = xi;
+        g6[ETA] = eta;
+        g6[ZETA] = zeta;
+        return iteration;
+    }
+
+    private static boolean lt(double x, double y, double epsilon) {
+        return x < y - epsilon;
+    }
+
+    private static boolean gt(double x, double y, double epsilon) {
+        return y < x - epsilon;
+    }
+
+    private static boolean eq(double x, double y, double epsilon) {
+        return !lt(x, y, epsilon) && !gt(x, y, epsilon);
+    }
+
+    /**
+     * Replace t with t M, for M given row by row (nothing if t is null)
+     */
+    private static void multiply(int[] t, int m00, int m01, int m02, int m10, int m11, int m12,
+                                 int m20, int m21, int m22) {
+        if (t == null) return;
+        for (int row = 0; row < 3; row++) {
+            int t0 = t[3 * row], t1 = t[3 * row + 1], t2 = t[3 * row + 2];
+            t[3 * row] = t0 * m00 + t1 * m10 + t2 * m20;
+            t[3 * row + 1] = t0 * m01 + t1 * m11 + t2 * m21;
+            t[3 * row + 2] = t0 * m02 + t1 * m12 + t2 * m22;
+        }
+    }
+}
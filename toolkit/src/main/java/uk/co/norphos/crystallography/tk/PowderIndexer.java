@@ -0,0 +1,679 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds unit cells which index the d-spacings of the first lines of a powder
+ * pattern, by the dichotomy method of Louër &amp; Louër (J. Appl. Cryst. 5,
+ * 271-275, 1972) extended to the lower symmetry crystal systems.
+ *
+ * For each crystal system, the reciprocal metric tensor is described by one
+ * (cubic) to six (triclinic) free parameters, so that 1/d<sup>2</sup> of each
+ * reflection is linear in them. A box of parameter values is kept only if
+ * every observed 1/d<sup>2</sup> lies, within tolerance, in the range of
+ * 1/d<sup>2</sup> of some reflection over the box; otherwise the whole box
+ * is discarded at the first line which cannot be indexed. Boxes which are
+ * kept are halved along the parameter giving the widest ranges until the
+ * ranges are within tolerance, when the centre of the box is a candidate
+ * cell. The reflections whose ranges lie beyond the last observed line are
+ * dropped as each box is halved, so the smaller boxes have fewer to check.
+ * The halves are searched as tasks in a {@link ForkJoinPool}, whose work
+ * stealing balances the very uneven sizes of the remaining searches.
+ *
+ * Each candidate is scored by the de Wolff figure of merit M(N) and, if a
+ * wavelength is given, the Smith-Snyder figure of merit F(N), calculating
+ * the 1/d<sup>2</sup> of the possible lines in one pass of
+ * {@link ReflectionGenerator}. Lattice centring and systematic absences are
+ * not considered, so a centred cell is found as a primitive cell with a
+ * lower figure of merit. Cells are searched up to a maximum axis length, in
+ * the setting with a* &ge; b* &ge; c* where the symmetry allows, and with
+ * the monoclinic unique axis b. Monoclinic and triclinic cells are searched
+ * as reduced reciprocal cells (2|a*.c*| &le; c*<sup>2</sup> and so on, with
+ * a*.b* and a*.c* not negative), which every lattice has, so that few
+ * equivalent settings of each lattice are searched. The monoclinic and
+ * triclinic searches have four and six parameters and are far more expensive
+ * than the others, so should be given as few lines and as short a maximum
+ * axis as the data allow.
+ *
+ * Search settings must not be changed while indexing.
+ *
+ * @author Michael Wharmby
+ */
+public class PowderIndexer {
+
+    public static final double DEFAULT_MAX_CELL_LENGTH = 20;
+    public static final int DEFAULT_NUMBER_OF_LINES = 20;
+    public static final double DEFAULT_MIN_FIGURE_OF_MERIT = 5;
+    public static final int DEFAULT_MAX_SOLUTIONS = 10;
+    public static final double DEFAULT_MAX_CALCULATED_RATIO = 5;
+
+    //Boxes are searched as separate tasks down to this depth, then in the same task
+    private static final int FORK_DEPTH = 16;
+    private static final int MAX_DEPTH = 256;
+    //Calculated lines closer than this (relative) are counted once
+    private static final double COINCIDENCE = 1e-9;
+    //Each volume searched is this much larger than the last
+    private static final double VOLUME_SHELL_RATIO = 2;
+
+    private final double[] observed, tolerances;
+    private final double dSpacingTolerance;
+    private final ForkJoinPool pool;
+
+    private double maxCellLength = DEFAULT_MAX_CELL_LENGTH;
+    private int numberOfLines = DEFAULT_NUMBER_OF_LINES;
+    private double minFigureOfMerit = DEFAULT_MIN_FIGURE_OF_MERIT;
+    private int maxSolutions = DEFAULT_MAX_SOLUTIONS;
+    private double maxCalculatedRatio = DEFAULT_MAX_CALCULATED_RATIO;
+    private double maxVolume = Double.NaN;
+    private double wavelength = Double.NaN;
+
+    /**
+     * Create an indexer using the common fork-join pool.
+     * @param dSpacings double[] observed d-spacings in Angstrom, in any order
+     * @param tolerance double fractional error of the d-spacings (e.g. 0.0005)
+     */
+    public PowderIndexer(double[] dSpacings, double tolerance) {
+        this(dSpacings, tolerance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an indexer.
+     * @param dSpacings double[] observed d-spacings in Angstrom, in any order
+     * @param tolerance double fractional error of the d-spacings (e.g. 0.0005)
+     * @param pool {@link ForkJoinPool} to search in
+     */
+    public PowderIndexer(double[] dSpacings, double tolerance, ForkJoinPool pool) {
+        if (dSpacings.length < 3) throw new IllegalArgumentException("At least three lines are needed to index");
+        if (!(tolerance > 0 && tolerance < 0.1)) throw new IllegalArgumentException("Tolerance must be in (0, 0.1)");
+        this.observed = new double[dSpacings.length];
+        for (int i = 0; i < dSpacings.length; i++) {
+            if (!(dSpacings[i] > 0)) throw new IllegalArgumentException("d-spacings must be positive");
+            observed[i] = 1 / (dSpacings[i] * dSpacings[i]);
+        }
+        Arrays.sort(observed);
+        //d(1/d^2) = -2 dd/d^3
+        this.tolerances = new double[observed.length];
+        for (int i = 0; i < observed.length; i++) {
+            tolerances[i] = 2 * tolerance * observed[i];
+        }
+        this.dSpacingTolerance = tolerance;
+        this.pool = pool;
+    }
+
+    /**
+     * @param maxCellLength double longest cell axis searched in Angstrom
+     */
+    public void setMaxCellLength(double maxCellLength) {
+        if (!(maxCellLength > 0)) throw new IllegalArgumentException("Maximum cell length must be positive");
+        this.maxCellLength = maxCellLength;
+    }
+
+    /**
+     * @param maxVolume double largest cell volume searched in Angstrom<sup>3</sup> (NaN for the cube of the
+     *                  maximum cell length)
+     */
+    public void setMaxVolume(double maxVolume) {
+        this.maxVolume = maxVolume;
+    }
+
+    /**
+     * @param numberOfLines int number of lines (from the largest d-spacing) to index and score
+     */
+    public void setNumberOfLines(int numberOfLines) {
+        if (numberOfLines < 3) throw new IllegalArgumentException("At least three lines are needed to index");
+        this.numberOfLines = numberOfLines;
+    }
+
+    /**
+     * @param minFigureOfMerit double smallest M(N) of a solution
+     */
+    public void setMinFigureOfMerit(double minFigureOfMerit) {
+        this.minFigureOfMerit = minFigureOfMerit;
+    }
+
+    /**
+     * @param maxSolutions int most solutions returned
+     */
+    public void setMaxSolutions(int maxSolutions) {
+        this.maxSolutions = maxSolutions;
+    }
+
+    /**
+     * Limit the number of distinct lines a cell may have up to the last
+     * line indexed. Boxes are abandoned as soon as more reflections than
+     * this are certain to lie in range, which stops the search following
+     * the many large cells which index any set of lines with a poor figure
+     * of merit.
+     * @param maxCalculatedRatio double most calculated lines per observed line
+     */
+    public void setMaxCalculatedRatio(double maxCalculatedRatio) {
+        if (!(maxCalculatedRatio >= 1)) throw new IllegalArgumentException("Ratio must be at least one");
+        this.maxCalculatedRatio = maxCalculatedRatio;
+    }
+
+    /**
+     * @param wavelength double in Angstrom, to calculate F(N) (NaN for none)
+     */
+    public void setWavelength(double wavelength) {
+        this.wavelength = wavelength;
+    }
+
+    /**
+     * Search for cells in each of the crystal systems given, which should be
+     * given from highest to lowest symmetry: where the same cell is found in
+     * more than one system, only the first is kept. TRIGONAL cells are
+     * searched on hexagonal axes, as HEXAGONAL cells.
+     * @param crystalSystems {@link CrystalSystem}s (not UNKNOWN)
+     * @return List of {@link Solution}s, best first
+     */
+    public List<Solution> index(CrystalSystem... crystalSystems) {
+        List<Solution> solutions = new ArrayList<>();
+        for (CrystalSystem crystalSystem : crystalSystems) {
+            List<Solution> found = new ArrayList<>(search(crystalSystem));
+            found.sort(Comparator.comparingDouble(Solution::getFigureOfMerit).reversed());
+            for (Solution solution : found) {
+                if (!isDuplicate(solution, solutions)) solutions.add(solution);
+            }
+        }
+        solutions.sort(Comparator.comparingDouble(Solution::getFigureOfMerit).reversed());
+        return solutions.size() > maxSolutions ? new ArrayList<>(solutions.subList(0, maxSolutions)) : solutions;
+    }
+
+    /**
+     * Search shells of increasing volume, starting from the cube of the
+     * largest d-spacing, until cells are found, so that the many larger
+     * cells which index the lines with a poor figure of merit are never
+     * searched.
+     */
+    private Queue<Solution> search(CrystalSystem crystalSystem) {
+        double limit = Double.isNaN(maxVolume) ? Math.pow(maxCellLength, 3) : maxVolume;
+        double volume = Math.min(Math.pow(observed[0], -1.5), limit);
+        while (true) {
+            Search search = new Search(crystalSystem, volume);
+            pool.invoke(new Box(search, search.lower.clone(), search.upper.clone(), search.reflections, 0));
+            if (!search.solutions.isEmpty() || volume >= limit) return search.solutions;
+            volume = Math.min(VOLUME_SHELL_RATIO * volume, limit);
+        }
+    }
+
+    /**
+     * Cells are the same if their Niggli reduced cells agree within the
+     * tolerance of the d-spacings.
+     */
+    private boolean isDuplicate(Solution solution, List<Solution> solutions) {
+        double[] reduced = solution.getReducedG6();
+        double scale = (reduced[NiggliReduction.A] + reduced[NiggliReduction.B] + reduced[NiggliReduction.C]) / 3;
+        for (Solution other : solutions) {
+            double[] otherReduced = other.getReducedG6();
+            boolean same = true;
+            for (int i = 0; i < 6 && same; i++) {
+                same = Math.abs(reduced[i] - otherReduced[i]) <= 10 * dSpacingTolerance * scale;
+            }
+            if (same) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The parameterisation of one crystal system and the reflections and
+     * solutions of its search.
+     */
+    private final class Search {
+        private final CrystalSystem crystalSystem;
+        //Weight of each free parameter in each reciprocal metric coefficient, [6 * nParams]
+        private final double[] weights;
+        private final int nParams;
+        private final double[] lower, upper;
+        //Pairs of parameters which must be ordered (first >= second)
+        private final int[] ordered;
+        //Pairs of an off-diagonal and a diagonal parameter of a reduced cell (2|first| <= second)
+        private final int[] reduced;
+        private final int nLines, maxCalculated;
+        private final double qMax, minReciprocalDeterminant;
+        //Coefficient of each parameter in 1/d^2 for each distinct reflection, [nReflections * nParams]
+        private double[] coefficients;
+        private int[] reflections;
+        private final Queue<double[]> candidates = new ConcurrentLinkedQueue<>();
+        private final Queue<Solution> solutions = new ConcurrentLinkedQueue<>();
+
+        private Search(CrystalSystem crystalSystem, double maxVolume) {
+            this.crystalSystem = crystalSystem;
+            this.minReciprocalDeterminant = 1 / (maxVolume * maxVolume);
+            nLines = Math.min(numberOfLines, observed.length);
+            maxCalculated = (int) Math.ceil(maxCalculatedRatio * nLines);
+            qMax = observed[nLines - 1] + tolerances[nLines - 1];
+            double diagonal = 1 / (maxCellLength * maxCellLength);
+            //Rows are G11, G22, G33, G12, G13, G23
+            switch (crystalSystem) {
+                case CUBIC:
+                    weights = new double[]{1, 1, 1, 0, 0, 0};
+                    lower = new double[]{diagonal};
+                    upper = new double[]{qMax};
+                    ordered = new int[0];
+                    reduced = new int[0];
+                    break;
+                case TETRAGONAL:
+                    weights = new double[]{1, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0};
+                    lower = new double[]{diagonal, diagonal};
+                    upper = new double[]{qMax, qMax};
+                    ordered = new int[0];
+                    reduced = new int[0];
+                    break;
+                case HEXAGONAL:
+                case TRIGONAL:
+                    //1/d^2 = (h^2 + k^2 + hk) a*^2 + l^2 c*^2
+                    weights = new double[]{1, 0, 1, 0, 0, 1, 0.5, 0, 0, 0, 0, 0};
+                    lower = new double[]{diagonal, diagonal};
+                    upper = new double[]{qMax, qMax};
+                    ordered = new int[0];
+                    reduced = new int[0];
+                    break;
+                case RHOMBOHEDRAL:
+                    //Second parameter is a*^2 cos(alpha*), with alpha* < 120 degrees
+                    weights = new double[]{1, 0, 1, 0, 1, 0, 0, 1, 0, 1, 0, 1};
+                    lower = new double[]{diagonal, -qMax / 2};
+                    upper = new double[]{qMax, qMax};
+                    ordered = new int[0];
+                    reduced = new int[0];
+                    break;
+                case ORTHORHOMBIC:
+                    weights = identity(3);
+                    lower = new double[]{diagonal, diagonal, diagonal};
+                    upper = new double[]{qMax, qMax, qMax};
+                    ordered = new int[]{0, 1, 1, 2};
+                    reduced = new int[0];
+                    break;
+                case MONOCLINIC:
+                    //G13 of a reduced reciprocal cell with beta* <= 90
+                    weights = new double[24];
+                    weights[0] = weights[5] = weights[10] = weights[4 * 4 + 3] = 1;
+                    lower = new double[]{diagonal, diagonal, diagonal, 0};
+                    upper = new double[]{qMax, qMax, qMax, qMax / 2};
+                    ordered = new int[]{0, 2};
+                    reduced = new int[]{3, 2};
+                    break;
+                case TRICLINIC:
+                    //Buerger reduced reciprocal cell, with the axes turned so that G12 and G13 are not negative
+                    weights = identity(6);
+                    lower = new double[]{diagonal, diagonal, diagonal, 0, 0, -qMax / 2};
+                    upper = new double[]{qMax, qMax, qMax, qMax / 2, qMax / 2, qMax / 2};
+                    ordered = new int[]{0, 1, 1, 2};
+                    reduced = new int[]{3, 1, 4, 2, 5, 2};
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot index in crystal system "+crystalSystem);
+            }
+            nParams = lower.length;
+            enumerateReflections();
+        }
+
+        private double[] identity(int n) {
+            double[] result = new double[6 * n];
+            for (int i = 0; i < n; i++) {
+                result[i * n + i] = 1;
+            }
+            return result;
+        }
+
+        /**
+         * List one reflection for each distinct set of coefficients of the
+         * parameters in 1/d<sup>2</sup>. |h| &le; a|d*| so |h|, |k| and |l|
+         * are bounded by the maximum cell length.
+         */
+        private void enumerateReflections() {
+            int max = (int) Math.floor(maxCellLength * Math.sqrt(qMax));
+            Set<String> seen = new HashSet<>();
+            double[] row = new double[nParams];
+            double[] result = new double[256 * nParams];
+            int count = 0;
+            for (int h = 0; h <= max; h++) {
+                for (int k = h == 0 ? 0 : -max; k <= max; k++) {
+                    for (int l = h == 0 && k == 0 ? 1 : -max; l <= max; l++) {
+                        //In the order G11, G22, G33, G12, G13, G23
+                        double[] basis = {h * h, k * k, l * l, 2 * h * k, 2 * h * l, 2 * k * l};
+                        boolean nonZero = false;
+                        for (int p = 0; p < nParams; p++) {
+                            row[p] = 0;
+                            for (int g = 0; g < 6; g++) {
+                                row[p] += basis[g] * weights[g * nParams + p];
+                            }
+                            nonZero |= row[p] != 0;
+                        }
+                        if (!nonZero || !seen.add(Arrays.toString(row))) continue;
+                        if ((count + 1) * nParams > result.length) result = Arrays.copyOf(result, 2 * result.length);
+                        System.arraycopy(row, 0, result, count * nParams, nParams);
+                        count++;
+                    }
+                }
+            }
+            coefficients = Arrays.copyOf(result, count * nParams);
+            reflections = new int[count];
+            for (int i = 0; i < count; i++) {
+                reflections[i] = i;
+            }
+        }
+
+        /**
+         * Score the cell at the centre of a box, unless a candidate has
+         * already been found there.
+         */
+        private void candidate(double[] lo, double[] hi) {
+            double[] coeffs = new double[6];
+            for (int g = 0; g < 6; g++) {
+                for (int p = 0; p < nParams; p++) {
+                    coeffs[g] += weights[g * nParams + p] * (lo[p] + hi[p]) / 2;
+                }
+            }
+            double g11 = coeffs[DSpacingCalculator.G11], g22 = coeffs[DSpacingCalculator.G22],
+                    g12 = coeffs[DSpacingCalculator.G12];
+            //Must be positive definite
+            if (!(g11 > 0 && g11 * g22 - g12 * g12 > 0 && determinant(coeffs) > 0)) return;
+
+            double scale = Math.max(g11, Math.max(g22, coeffs[DSpacingCalculator.G33]));
+            for (double[] other : candidates) {
+                boolean same = true;
+                for (int g = 0; g < 6 && same; g++) {
+                    same = Math.abs(coeffs[g] - other[g]) <= 4 * dSpacingTolerance * scale;
+                }
+                if (same) return;
+            }
+            candidates.add(coeffs);
+
+            Solution solution = score(crystalSystem, coeffs, nLines);
+            if (solution != null && solution.getFigureOfMerit() >= minFigureOfMerit) solutions.add(solution);
+        }
+    }
+
+    private static double determinant(double[] coeffs) {
+        double g11 = coeffs[DSpacingCalculator.G11], g22 = coeffs[DSpacingCalculator.G22],
+                g33 = coeffs[DSpacingCalculator.G33], g12 = coeffs[DSpacingCalculator.G12],
+                g13 = coeffs[DSpacingCalculator.G13], g23 = coeffs[DSpacingCalculator.G23];
+        return g11 * (g22 * g33 - g23 * g23) - g12 * (g12 * g33 - g23 * g13) + g13 * (g12 * g23 - g22 * g13);
+    }
+
+    /**
+     * Calculate the figures of merit of a cell against the first nLines
+     * observed lines. M(N) = Q<sub>N</sub> / (2 &lt;&epsilon;&gt; N<sub>calc</sub>)
+     * and F(N) = N / (&lt;|&Delta;2&theta;|&gt; N<sub>calc</sub>), where
+     * N<sub>calc</sub> is the number of distinct calculated lines up to the
+     * Nth observed line.
+     * @return {@link Solution} or null if no lines are calculated
+     */
+    private Solution score(CrystalSystem crystalSystem, double[] reciprocalCoefficients, int nLines) {
+        double qN = observed[nLines - 1] + tolerances[nLines - 1];
+        Lines lines = new Lines();
+        new ReflectionGenerator(reciprocalCoefficients, 1 / Math.sqrt(qN)).forEach(lines);
+        int n = lines.size;
+        if (n == 0) return null;
+        double[] calculated = lines.inverseDSquared;
+        Arrays.sort(calculated, 0, n);
+        int nCalculated = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || calculated[i] - calculated[i - 1] > COINCIDENCE * calculated[i]) nCalculated++;
+        }
+
+        double sumQ = 0, sumTwoTheta = 0;
+        for (int i = 0; i < nLines; i++) {
+            int j = Arrays.binarySearch(calculated, 0, n, observed[i]);
+            if (j < 0) j = -j - 1;
+            double nearest = j == n || (j > 0 && observed[i] - calculated[j - 1] < calculated[j] - observed[i])
+                    ? calculated[j - 1] : calculated[j];
+            sumQ += Math.abs(observed[i] - nearest);
+            if (!Double.isNaN(wavelength)) sumTwoTheta += Math.abs(twoTheta(observed[i]) - twoTheta(nearest));
+        }
+        double figureOfMerit = observed[nLines - 1] / (2 * sumQ / nLines * nCalculated);
+        double fN = Double.isNaN(wavelength) ? Double.NaN : nLines / (sumTwoTheta / nLines * nCalculated);
+        return new Solution(crystalSystem, reciprocalCoefficients, figureOfMerit, fN, nLines, nCalculated);
+    }
+
+    /**
+     * Collects 1/d<sup>2</sup> of each reflection generated, in one pass.
+     */
+    private static final class Lines implements ReflectionGenerator.IndexConsumer {
+        private double[] inverseDSquared = new double[64];
+        private int size;
+
+        @Override
+        public void accept(int h, int k, int l, double inverseDSquared) {
+            if (size == this.inverseDSquared.length) {
+                this.inverseDSquared = Arrays.copyOf(this.inverseDSquared, 2 * size);
+            }
+            this.inverseDSquared[size++] = inverseDSquared;
+        }
+    }
+
+    private double twoTheta(double inverseDSquared) {
+        return 2 * Math.toDegrees(Math.asin(Math.min(1, wavelength * Math.sqrt(inverseDSquared) / 2)));
+    }
+
+    /**
+     * A box of parameter values, with the reflections which may still fall
+     * within the observed lines.
+     */
+    private final class Box extends RecursiveAction {
+        private static final long serialVersionUID = -4270833119436584127L;
+
+        private final Search search;
+        private final double[] lo, hi;
+        private final int[] reflections;
+        private final int depth;
+
+        private Box(Search search, double[] lo, double[] hi, int[] reflections, int depth) {
+            this.search = search;
+            this.lo = lo;
+            this.hi = hi;
+            this.reflections = reflections;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            int[] ordered = search.ordered;
+            for (int i = 0; i < ordered.length; i += 2) {
+                if (hi[ordered[i]] < lo[ordered[i + 1]]) return;
+            }
+            int[] reduced = search.reduced;
+            for (int i = 0; i < reduced.length; i += 2) {
+                double offDiagonal = Math.max(0, Math.max(lo[reduced[i]], -hi[reduced[i]]));
+                if (2 * offDiagonal > hi[reduced[i + 1]]) return;
+            }
+            //det(G*) = 1/V^2 = G*11 G*22 G*33 + 2 G*12 G*13 G*23 - G*11 G*23^2 - G*22 G*13^2 - G*33 G*12^2, so is
+            //bounded by the ranges of the coefficients over the box
+            double[] gLo = new double[6], gHi = new double[6];
+            for (int g = 0; g < 6; g++) {
+                for (int p = 0; p < search.nParams; p++) {
+                    double w = search.weights[g * search.nParams + p];
+                    gLo[g] += w * (w >= 0 ? lo[p] : hi[p]);
+                    gHi[g] += w * (w >= 0 ? hi[p] : lo[p]);
+                }
+            }
+            double determinant = gHi[DSpacingCalculator.G11] * gHi[DSpacingCalculator.G22] * gHi[DSpacingCalculator.G33]
+                    + 2 * maxAbs(gLo, gHi, DSpacingCalculator.G12) * maxAbs(gLo, gHi, DSpacingCalculator.G13)
+                    * maxAbs(gLo, gHi, DSpacingCalculator.G23)
+                    - gLo[DSpacingCalculator.G11] * minSquare(gLo, gHi, DSpacingCalculator.G23)
+                    - gLo[DSpacingCalculator.G22] * minSquare(gLo, gHi, DSpacingCalculator.G13)
+                    - gLo[DSpacingCalculator.G33] * minSquare(gLo, gHi, DSpacingCalculator.G12);
+            if (determinant < search.minReciprocalDeterminant) return;
+
+            //Range of 1/d^2 of each reflection over the box
+            int nParams = search.nParams, nLines = search.nLines;
+            double[] coefficients = search.coefficients;
+            int[] remaining = new int[reflections.length];
+            double[] qLo = new double[reflections.length], qHi = new double[reflections.length];
+            int n = 0, certain = 0;
+            for (int reflection : reflections) {
+                double low = 0, high = 0;
+                int offset = reflection * nParams;
+                for (int p = 0; p < nParams; p++) {
+                    double c = coefficients[offset + p];
+                    if (c >= 0) {
+                        low += c * lo[p];
+                        high += c * hi[p];
+                    } else {
+                        low += c * hi[p];
+                        high += c * lo[p];
+                    }
+                }
+                if (low > search.qMax) continue;
+                remaining[n] = reflection;
+                qLo[n] = low;
+                qHi[n++] = high;
+                //Reflections certainly in range, which are all distinct lines
+                if (high <= search.qMax && ++certain > search.maxCalculated) return;
+            }
+
+            //Abandon the box at the first line it cannot index. The box has converged when every line is
+            //indexed by a reflection whose range is within tolerance; until then, the widths of the ranges of
+            //the reflections which may index each line decide which parameter to halve
+            double[] influence = new double[nParams];
+            boolean converged = true;
+            for (int i = 0; i < nLines; i++) {
+                double q = observed[i], tolerance = tolerances[i];
+                boolean indexed = false, narrow = false;
+                for (int j = 0; j < n; j++) {
+                    if (qLo[j] - tolerance > q || q > qHi[j] + tolerance) continue;
+                    indexed = true;
+                    if (qHi[j] - qLo[j] <= tolerance) {
+                        narrow = true;
+                        break;
+                    }
+                    int offset = remaining[j] * nParams;
+                    for (int p = 0; p < nParams; p++) {
+                        influence[p] = Math.max(influence[p], Math.abs(coefficients[offset + p]) * (hi[p] - lo[p]));
+                    }
+                }
+                if (!indexed) return;
+                converged &= narrow;
+            }
+
+            if (converged || depth >= MAX_DEPTH) {
+                search.candidate(lo, hi);
+                return;
+            }
+
+            int split = 0;
+            for (int p = 1; p < nParams; p++) {
+                if (influence[p] > influence[split]) split = p;
+            }
+            double mid = (lo[split] + hi[split]) / 2;
+            double[] leftHi = hi.clone(), rightLo = lo.clone();
+            leftHi[split] = mid;
+            rightLo[split] = mid;
+            int[] next = Arrays.copyOf(remaining, n);
+            Box left = new Box(search, lo, leftHi, next, depth + 1), right = new Box(search, rightLo, hi, next, depth + 1);
+            if (depth < FORK_DEPTH) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+        }
+    }
+
+    private static double maxAbs(double[] lo, double[] hi, int g) {
+        return Math.max(Math.abs(lo[g]), Math.abs(hi[g]));
+    }
+
+    private static double minSquare(double[] lo, double[] hi, int g) {
+        if (lo[g] <= 0 && hi[g] >= 0) return 0;
+        double nearest = Math.min(Math.abs(lo[g]), Math.abs(hi[g]));
+        return nearest * nearest;
+    }
+
+    /**
+     * A cell which indexes the observed lines, with its figures of merit.
+     */
+    public static final class Solution {
+        private final CrystalSystem crystalSystem;
+        private final double[] reciprocalCoefficients;
+        private final double figureOfMerit, fN;
+        private final int numberOfLines, numberOfCalculatedLines;
+        private final Lattice lattice;
+        private final double[] reducedG6 = new double[6];
+
+        private Solution(CrystalSystem crystalSystem, double[] reciprocalCoefficients, double figureOfMerit,
+                         double fN, int numberOfLines, int numberOfCalculatedLines) {
+            this.crystalSystem = crystalSystem;
+            this.reciprocalCoefficients = reciprocalCoefficients;
+            this.figureOfMerit = figureOfMerit;
+            this.fN = fN;
+            this.numberOfLines = numberOfLines;
+            this.numberOfCalculatedLines = numberOfCalculatedLines;
+
+            double[] metric = DSpacingCalculator.inverse(reciprocalCoefficients, new double[6]);
+            this.lattice = CrystallographyFactory.createLatticeFromMetricTensor(metric[DSpacingCalculator.G11],
+                    metric[DSpacingCalculator.G22], metric[DSpacingCalculator.G33], metric[DSpacingCalculator.G12],
+                    metric[DSpacingCalculator.G13], metric[DSpacingCalculator.G23]);
+            NiggliReduction.reduce(NiggliReduction.toG6(metric, reducedG6), new int[9]);
+        }
+
+        /**
+         * @return {@link CrystalSystem} searched to find this cell
+         */
+        public CrystalSystem getCrystalSystem() {
+            return crystalSystem;
+        }
+
+        public Lattice getLattice() {
+            return lattice;
+        }
+
+        /**
+         * @return double[6] reciprocal metric tensor coefficients (see {@link DSpacingCalculator})
+         */
+        public double[] getReciprocalCoefficients() {
+            return reciprocalCoefficients.clone();
+        }
+
+        /**
+         * @return double de Wolff M(N)
+         */
+        public double getFigureOfMerit() {
+            return figureOfMerit;
+        }
+
+        /**
+         * @return double Smith-Snyder F(N) (NaN if no wavelength was given)
+         */
+        public double getFN() {
+            return fN;
+        }
+
+        /**
+         * @return int N, the number of observed lines scored
+         */
+        public int getNumberOfLines() {
+            return numberOfLines;
+        }
+
+        /**
+         * @return int number of distinct calculated lines up to the Nth observed line
+         */
+        public int getNumberOfCalculatedLines() {
+            return numberOfCalculatedLines;
+        }
+
+        private double[] getReducedG6() {
+            return reducedG6;
+        }
+
+        @Override
+        public String toString() {
+            return "Solution [" + crystalSystem + ", " + lattice + ", M(" + numberOfLines + ")=" + figureOfMerit
+                    + ", F(" + numberOfLines + ")=" + fN + "]";
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Crystal;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates a 1-D X-ray powder diffraction pattern on a regular grid of
+ * 2&theta;, from a crystal structure or from a list of reflections with
+ * intensities.
+ *
+ * Each reflection gives a pseudo-Voigt peak of area I &times; Lp, where Lp
+ * is the Lorentz-polarisation factor (1 + cos<sup>2</sup>2&theta;<sub>m</sub>
+ * cos<sup>2</sup>2&theta;) / (sin<sup>2</sup>&theta; cos&theta;
+ * (1 + cos<sup>2</sup>2&theta;<sub>m</sub>)) for a monochromator at
+ * 2&theta;<sub>m</sub> (0 for none). The full width at half maximum follows
+ * the Caglioti function H<sup>2</sup> = U tan<sup>2</sup>&theta; +
+ * V tan&theta; + W (in degrees) and the Lorentzian fraction of the profile is
+ * eta. Each peak is only calculated within a window of a few FWHM either
+ * side of its centre.
+ *
+ * Reflections at the same 2&theta; (symmetry equivalents, Friedel pairs and
+ * coincidences) are merged into one peak before rendering, so each distinct
+ * peak is only rendered once, with its multiplicity in its area. For
+ * refinement, the reflections of a structure can be prepared once as a
+ * {@link ReflectionSet}, whose d-spacings are then updated as the lattice
+ * parameters change. The grid is
+ * then split into blocks, which are rendered in parallel in a
+ * {@link ForkJoinPool}; each block only visits the peaks whose windows
+ * overlap it.
+ *
+ * The pattern is given as intensity per degree 2&theta;, with no background
+ * or scale factor. Profile settings must not be changed while a pattern is
+ * being calculated.
+ *
+ * @author Michael Wharmby
+ */
+public class PowderPatternCalculator {
+
+    /**
+     * Half-width of the window each peak is calculated in, in FWHM
+     */
+    public static final double DEFAULT_PEAK_WINDOW = 5;
+
+    //Grid points rendered by each fork-join task
+    private static final int BLOCK_SIZE = 512;
+    //Peaks closer than this (in degrees) are merged
+    private static final double MERGE_TOLERANCE = 1e-7;
+    //Positions are sorted to this resolution (in degrees), leaving 24 bits for the peak index
+    private static final double SORT_RESOLUTION = 1e-8;
+    private static final int INDEX_BITS = 24;
+    private static final double MAX_TWO_THETA = 179.9;
+    private static final double FOUR_LN2 = 4 * Math.log(2), GAUSSIAN_NORM = 2 * Math.sqrt(Math.log(2) / Math.PI);
+
+    private final double wavelength, twoThetaMin, twoThetaMax, step;
+    private final int nPoints;
+    private final ForkJoinPool pool;
+
+    private double u = 0, v = 0, w = 0.01, eta = 0.5;
+    private double peakWindow = DEFAULT_PEAK_WINDOW;
+    private double monochromatorCos2Sq = 1;
+
+    /**
+     * Create a calculator using the common fork-join pool.
+     * @param wavelength double in Angstrom
+     * @param twoThetaMin double first point of the grid in degrees
+     * @param twoThetaMax double last point of the grid in degrees
+     * @param step double grid spacing in degrees
+     */
+    public PowderPatternCalculator(double wavelength, double twoThetaMin, double twoThetaMax, double step) {
+        this(wavelength, twoThetaMin, twoThetaMax, step, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a calculator.
+     * @param wavelength double in Angstrom
+     * @param twoThetaMin double first point of the grid in degrees
+     * @param twoThetaMax double last point of the grid in degrees
+     * @param step double grid spacing in degrees
+     * @param pool {@link ForkJoinPool} to render blocks of the pattern in
+     */
+    public PowderPatternCalculator(double wavelength, double twoThetaMin, double twoThetaMax, double step,
+                                   ForkJoinPool pool) {
+        if (!(wavelength > 0)) throw new IllegalArgumentException("Wavelength must be positive");
+        if (!(step > 0)) throw new IllegalArgumentException("Step must be positive");
+        if (!(twoThetaMin >= 0 && twoThetaMax > twoThetaMin && twoThetaMax < 180)) {
+            throw new IllegalArgumentException("2theta range must be within [0, 180) degrees");
+        }
+        this.wavelength = wavelength;
+        this.twoThetaMin = twoThetaMin;
+        this.twoThetaMax = twoThetaMax;
+        this.step = step;
+        this.nPoints = (int) Math.floor((twoThetaMax - twoThetaMin) / step + 1e-9) + 1;
+        this.pool = pool;
+    }
+
+    /**
+     * Set the peak profile. The default is a constant FWHM of 0.1 degrees
+     * (U = V = 0, W = 0.01) with eta = 0.5.
+     * @param u double Caglioti U in degrees<sup>2</sup>
+     * @param v double Caglioti V in degrees<sup>2</sup>
+     * @param w double Caglioti W in degrees<sup>2</sup>
+     * @param eta double Lorentzian fraction of the pseudo-Voigt, from 0 (Gaussian) to 1 (Lorentzian)
+     */
+    public void setProfile(double u, double v, double w, double eta) {
+        if (!(eta >= 0 && eta <= 1)) throw new IllegalArgumentException("eta must be between 0 and 1");
+        this.u = u;
+        this.v = v;
+        this.w = w;
+        this.eta = eta;
+    }
+
+    /**
+     * Set how far either side of its centre each peak is calculated.
+     * @param fwhms double half-width of the window in FWHM
+     */
+    public void setPeakWindow(double fwhms) {
+        if (!(fwhms > 0)) throw new IllegalArgumentException("Peak window must be positive");
+        this.peakWindow = fwhms;
+    }
+
+    /**
+     * Set the monochromator angle used in the polarisation factor.
+     * @param twoTheta double 2&theta;<sub>m</sub> in degrees (0 for no monochromator)
+     */
+    public void setMonochromatorAngle(double twoTheta) {
+        double cos = Math.cos(Math.toRadians(twoTheta));
+        this.monochromatorCos2Sq = cos * cos;
+    }
+
+    public int getNumberOfPoints() {
+        return nPoints;
+    }
+
+    /**
+     * Return the 2&theta; of a grid point.
+     * @param i int grid point
+     * @return double in degrees
+     */
+    public double getTwoTheta(int i) {
+        return twoThetaMin + i * step;
+    }
+
+    /**
+     * Return the smallest d-spacing which can contribute to the pattern,
+     * allowing for the window of peaks just beyond the end of the grid.
+     * @return double in Angstrom
+     */
+    public double getDMin() {
+        double limit = Math.min(twoThetaMax + peakWindow * fwhm(Math.toRadians(twoThetaMax / 2)), MAX_TWO_THETA);
+        return wavelength / (2 * Math.sin(Math.toRadians(limit / 2)));
+    }
+
+    /**
+     * Calculate the pattern of a crystal structure.
+     * @param crystal {@link Crystal}
+     * @return double[] intensity at each grid point
+     */
+    public double[] calculate(Crystal crystal) {
+        return calculate(crystal.getUnitCell(), crystal.getSpaceGroup(),
+                AtomTable.fromAtoms(crystal.getAsymmetricUnit()));
+    }
+
+    /**
+     * Calculate the pattern of a crystal structure.
+     * @param unitCell {@link UnitCell}
+     * @param spaceGroup {@link SpaceGroup} (null for P1)
+     * @param asymmetricUnit {@link AtomTable}
+     * @return double[] intensity at each grid point
+     */
+    public double[] calculate(UnitCell unitCell, SpaceGroup spaceGroup, AtomTable asymmetricUnit) {
+        return calculate(prepare(unitCell, spaceGroup, asymmetricUnit));
+    }
+
+    /**
+     * Find the reflections of a crystal structure within range of the grid
+     * and calculate their intensities, for calculating the pattern of the
+     * structure repeatedly as its lattice parameters are refined. All
+     * reflections which are not systematically absent are generated, but
+     * only one of each set of symmetry equivalents (including Friedel
+     * pairs) is kept, with its multiplicity, and has its structure factor
+     * calculated.
+     * @param unitCell {@link UnitCell}
+     * @param spaceGroup {@link SpaceGroup} (null for P1)
+     * @param asymmetricUnit {@link AtomTable}
+     * @return {@link ReflectionSet}
+     */
+    public ReflectionSet prepare(UnitCell unitCell, SpaceGroup spaceGroup, AtomTable asymmetricUnit) {
+        int[] rotations = spaceGroup == null ? new int[]{1, 0, 0, 0, 1, 0, 0, 0, 1} : spaceGroup.getRotations();
+        long[] orbit = new long[2 * rotations.length / 9];
+        ReflectionSet reflections = new ReflectionSet();
+        new ReflectionGenerator(unitCell, getDMin(), spaceGroup).forEach((h, k, l, inverseDSquared) -> {
+            int multiplicity = multiplicity(rotations, orbit, h, k, l);
+            if (multiplicity > 0) reflections.add(h, k, l, 1 / Math.sqrt(inverseDSquared), multiplicity);
+        });
+        int n = reflections.size;
+        double[] real = new double[n], imaginary = new double[n];
+        new StructureFactorCalculator(unitCell, spaceGroup, asymmetricUnit, pool)
+                .calculate(reflections.h, reflections.k, reflections.l, 0, n, real, imaginary);
+        for (int i = 0; i < n; i++) {
+            reflections.intensities[i] *= real[i] * real[i] + imaginary[i] * imaginary[i];
+        }
+        return reflections;
+    }
+
+    /**
+     * Calculate the pattern of a set of reflections at their current
+     * d-spacings.
+     * @param reflections {@link ReflectionSet}
+     * @return double[] intensity at each grid point
+     */
+    public double[] calculate(ReflectionSet reflections) {
+        return calculate(reflections.dSpacings, reflections.intensities, reflections.size);
+    }
+
+    /**
+     * Calculate the pattern of a list of reflections, using their d-spacings
+     * and intensities. Reflections without an intensity are skipped.
+     * @param reflections {@link ReflectionTable}
+     * @return double[] intensity at each grid point
+     */
+    public double[] calculate(ReflectionTable reflections) {
+        int n = reflections.size();
+        double[] dSpacings = new double[n], intensities = new double[n];
+        for (int i = 0; i < n; i++) {
+            dSpacings[i] = reflections.getDSpacing(i);
+            intensities[i] = reflections.getIntensity(i);
+        }
+        return calculate(dSpacings, intensities, n);
+    }
+
+    /**
+     * Calculate the pattern of n reflections, given by their d-spacings and
+     * intensities (including any multiplicity).
+     * @param dSpacings double[] in Angstrom
+     * @param intensities double[]
+     * @param n int number of reflections
+     * @return double[] intensity at each grid point
+     */
+    public double[] calculate(double[] dSpacings, double[] intensities, int n) {
+        double[] pattern = new double[nPoints];
+        Peaks peaks = findPeaks(dSpacings, intensities, n);
+        if (peaks.size > 0) pool.invoke(new RenderTask(peaks, pattern, 0, nPoints));
+        return pattern;
+    }
+
+    private double fwhm(double theta) {
+        double tan = Math.tan(theta);
+        return Math.sqrt(Math.max(u * tan * tan + v * tan + w, Double.MIN_NORMAL));
+    }
+
+    /**
+     * Convert reflections to peaks, dropping those outside the grid, then
+     * sort them by position and merge those which coincide.
+     */
+    private Peaks findPeaks(double[] dSpacings, double[] intensities, int n) {
+        if (n >= 1 << INDEX_BITS) throw new IllegalArgumentException("Too many reflections: "+n);
+        double[] positions = new double[n], areas = new double[n], halfWidths = new double[n];
+        long[] order = new long[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            double sinTheta = wavelength / (2 * dSpacings[i]);
+            if (!(sinTheta < 1) || !(intensities[i] > 0) || Double.isInfinite(intensities[i])) continue;
+            double theta = Math.asin(sinTheta), position = Math.toDegrees(2 * theta);
+            double halfWidth = fwhm(theta) / 2;
+            double window = peakWindow * 2 * halfWidth;
+            if (position + window < twoThetaMin || position - window > twoThetaMax) continue;
+
+            double cos2Theta = Math.cos(2 * theta), cosTheta = Math.cos(theta);
+            double lp = (1 + monochromatorCos2Sq * cos2Theta * cos2Theta)
+                    / (sinTheta * sinTheta * cosTheta * (1 + monochromatorCos2Sq));
+            positions[count] = position;
+            areas[count] = intensities[i] * lp;
+            halfWidths[count] = halfWidth;
+            //Position in the high bits, index in the low, so one primitive sort orders both
+            order[count] = (long) Math.rint(position / SORT_RESOLUTION) << INDEX_BITS | count;
+            count++;
+        }
+        Arrays.sort(order, 0, count);
+
+        Peaks peaks = new Peaks(count);
+        for (int j = 0; j < count; j++) {
+            int i = (int) (order[j] & ((1 << INDEX_BITS) - 1));
+            int last = peaks.size - 1;
+            if (last >= 0 && positions[i] - peaks.positions[last] <= MERGE_TOLERANCE) {
+                peaks.areas[last] += areas[i];
+            } else {
+                peaks.add(positions[i], areas[i], halfWidths[i], peakWindow * 2 * halfWidths[i]);
+            }
+        }
+        return peaks;
+    }
+
+    /**
+     * Return the number of distinct reflections equivalent to (hkl) under
+     * the rotations and inversion, or 0 if (hkl) is not the representative
+     * of its set (the one with the lexicographically largest indices).
+     */
+    private static int multiplicity(int[] rotations, long[] orbit, int h, int k, int l) {
+        int count = 0;
+        for (int r = 0; r < rotations.length; r += 9) {
+            //Miller indices transform as a row vector: h' = hR
+            int hr = h * rotations[r] + k * rotations[r + 3] + l * rotations[r + 6],
+                    kr = h * rotations[r + 1] + k * rotations[r + 4] + l * rotations[r + 7],
+                    lr = h * rotations[r + 2] + k * rotations[r + 5] + l * rotations[r + 8];
+            if (hr > h || (hr == h && (kr > k || (kr == k && lr > l)))) return 0;
+            if (-hr > h || (-hr == h && (-kr > k || (-kr == k && -lr > l)))) return 0;
+            count = addDistinct(orbit, count, hr, kr, lr);
+            count = addDistinct(orbit, count, -hr, -kr, -lr);
+        }
+        return count;
+    }
+
+    private static int addDistinct(long[] orbit, int count, int h, int k, int l) {
+        long key = ((long) (h & 0x1FFFFF) << 42) | ((long) (k & 0x1FFFFF) << 21) | (l & 0x1FFFFF);
+        for (int i = 0; i < count; i++) {
+            if (orbit[i] == key) return count;
+        }
+        orbit[count] = key;
+        return count + 1;
+    }
+
+    /**
+     * Symmetry-unique reflections of a structure with their intensities
+     * (|F|<sup>2</sup> times multiplicity), whose d-spacings can be updated
+     * cheaply when only the lattice parameters change, e.g. during
+     * refinement. The indices and intensities are fixed when the set is
+     * created: the small change in scattering factors with d-spacing is
+     * ignored and reflections which move into range of the grid are not
+     * added, so the set should be prepared again if the lattice changes
+     * much. Lattice changes should keep the metric symmetry of the space
+     * group, or symmetry equivalents would no longer coincide.
+     */
+    public static final class ReflectionSet {
+        private final double[] coeffs = new double[6];
+        private int[] h = new int[256], k = new int[256], l = new int[256];
+        private double[] dSpacings = new double[256], intensities = new double[256];
+        private int size;
+
+        private ReflectionSet() {
+        }
+
+        private void add(int hIndex, int kIndex, int lIndex, double dSpacing, int multiplicity) {
+            if (size == h.length) {
+                h = Arrays.copyOf(h, 2 * size);
+                k = Arrays.copyOf(k, 2 * size);
+                l = Arrays.copyOf(l, 2 * size);
+                dSpacings = Arrays.copyOf(dSpacings, 2 * size);
+                intensities = Arrays.copyOf(intensities, 2 * size);
+            }
+            h[size] = hIndex;
+            k[size] = kIndex;
+            l[size] = lIndex;
+            dSpacings[size] = dSpacing;
+            intensities[size++] = multiplicity;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getH(int i) {
+            return h[checkIndex(i)];
+        }
+
+        public int getK(int i) {
+            return k[checkIndex(i)];
+        }
+
+        public int getL(int i) {
+            return l[checkIndex(i)];
+        }
+
+        /**
+         * @param i int reflection
+         * @return double d-spacing in Angstrom for the current lattice
+         */
+        public double getDSpacing(int i) {
+            return dSpacings[checkIndex(i)];
+        }
+
+        /**
+         * @param i int reflection
+         * @return double |F|<sup>2</sup> times multiplicity
+         */
+        public double getIntensity(int i) {
+            return intensities[checkIndex(i)];
+        }
+
+        /**
+         * Recalculate the d-spacings for new lattice parameters.
+         * @param a double in Angstrom
+         * @param b double in Angstrom
+         * @param c double in Angstrom
+         * @param al double in degrees
+         * @param be double in degrees
+         * @param ga double in degrees
+         */
+        public void update(double a, double b, double c, double al, double be, double ga) {
+            update(DSpacingCalculator.reciprocalCoefficients(a, b, c, al, be, ga, coeffs));
+        }
+
+        /**
+         * Recalculate the d-spacings for a new reciprocal metric tensor.
+         * @param reciprocalCoefficients double[6] (see {@link DSpacingCalculator})
+         */
+        public void update(double[] reciprocalCoefficients) {
+            DSpacingCalculator.dSpacings(reciprocalCoefficients, h, k, l, 0, size, dSpacings, null);
+        }
+
+        private int checkIndex(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Reflection "+i+" outside set of size "+size);
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Peaks sorted by position, with the widest window of any of them so
+     * blocks can find the peaks overlapping them by binary search.
+     */
+    private static final class Peaks {
+        private final double[] positions, areas, halfWidths, windows;
+        private double maxWindow;
+        private int size;
+
+        private Peaks(int capacity) {
+            positions = new double[capacity];
+            areas = new double[capacity];
+            halfWidths = new double[capacity];
+            windows = new double[capacity];
+        }
+
+        private void add(double position, double area, double halfWidth, double window) {
+            positions[size] = position;
+            areas[size] = area;
+            halfWidths[size] = halfWidth;
+            windows[size++] = window;
+            maxWindow = Math.max(maxWindow, window);
+        }
+
+        /**
+         * Index of the first peak at or after a position.
+         */
+        private int search(double position) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (positions[mid] < position) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Renders the peaks overlapping a range of grid points, splitting the
+     * range in two while it is larger than one block.
+     */
+    private final class RenderTask extends RecursiveAction {
+        private static final long serialVersionUID = 2490309412535928050L;
+
+        private final Peaks peaks;
+        private final double[] pattern;
+        private final int from, to;
+
+        private RenderTask(Peaks peaks, double[] pattern, int from, int to) {
+            this.peaks = peaks;
+            this.pattern = pattern;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BLOCK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RenderTask(peaks, pattern, from, mid), new RenderTask(peaks, pattern, mid, to));
+                return;
+            }
+            double first = getTwoTheta(from), last = getTwoTheta(to - 1);
+            for (int p = peaks.search(first - peaks.maxWindow); p < peaks.size; p++) {
+                double position = peaks.positions[p], window = peaks.windows[p];
+                if (position - peaks.maxWindow > last) break;
+                int start = Math.max(from, (int) Math.ceil((position - window - twoThetaMin) / step));
+                int end = Math.min(to - 1, (int) Math.floor((position + window - twoThetaMin) / step));
+                render(p, start, end);
+            }
+        }
+
+        /*
+         * Normalised pseudo-Voigt, with x the distance from the centre and H the FWHM:
+         * G = (2/H) sqrt(ln2/pi) exp(-4 ln2 x^2/H^2), L = (2/(pi H)) / (1 + 4x^2/H^2)
+         */
+        private void render(int p, int start, int end) {
+            double position = peaks.positions[p], area = peaks.areas[p], fwhm = 2 * peaks.halfWidths[p];
+            double invFwhmSq = 1 / (fwhm * fwhm);
+            double gaussian = (1 - eta) * area * GAUSSIAN_NORM / fwhm, lorentzian = eta * area * 2 / (Math.PI * fwhm);
+            for (int i = start; i <= end; i++) {
+                double x = getTwoTheta(i) - position;
+                double xSq = x * x * invFwhmSq;
+                pattern[i] += gaussian * Math.exp(-FOUR_LN2 * xSq) + lorentzian / (1 + 4 * xSq);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The general reflection conditions of a {@link SpaceGroup}, reduced to
+ * integer tests which find systematically absent reflections without
+ * visiting every operator.
+ *
+ * A reflection h is absent if, for some operator (R,t), hR = h but h.t is
+ * not an integer. Lattice centring vectors give conditions which apply to
+ * every reflection (e.g. h+k+l = 2n for I). The remaining conditions come
+ * from the operators of the point group which have a translation, stored as
+ * the rows of R<sup>T</sup> - I (which must give zero for the condition to
+ * apply) and the translation in twelfths. Conditions which can never fail
+ * and duplicates are removed when the conditions are created.
+ *
+ * @author Michael Wharmby
+ */
+public final class ReflectionConditions {
+
+    //Largest index needed in a vector spanning R^T - I = 0 for any crystallographic R
+    private static final int BASIS_SEARCH_LIMIT = 6;
+
+    private final int[] centrings;
+    private final int[] kernels, translations;
+    private final int nCentrings, nConditions;
+
+    private ReflectionConditions(List<int[]> centrings, List<int[]> kernels, List<int[]> translations) {
+        this.nCentrings = centrings.size();
+        this.nConditions = kernels.size();
+        this.centrings = flatten(centrings, 3);
+        this.kernels = flatten(kernels, 9);
+        this.translations = flatten(translations, 3);
+    }
+
+    private static int[] flatten(List<int[]> values, int width) {
+        int[] flat = new int[width * values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            System.arraycopy(values.get(i), 0, flat, width * i, width);
+        }
+        return flat;
+    }
+
+    /**
+     * Derive the reflection conditions of a space group.
+     * @param spaceGroup {@link SpaceGroup}
+     * @return {@link ReflectionConditions}
+     */
+    public static ReflectionConditions of(SpaceGroup spaceGroup) {
+        List<int[]> centrings = new ArrayList<>();
+        int primitiveOrder = spaceGroup.getPrimitiveOrder();
+        for (int c = 1; c < spaceGroup.getNumberOfCentringVectors(); c++) {
+            centrings.add(twelfths(spaceGroup, c * primitiveOrder));
+        }
+
+        List<int[]> kernels = new ArrayList<>(), translations = new ArrayList<>();
+        //Centring is tested separately, so only one operator per rotation is needed
+        for (int op = 1; op < primitiveOrder; op++) {
+            int[] kernel = new int[9];
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    kernel[3 * i + j] = spaceGroup.getRotation(op, j, i) - (i == j ? 1 : 0);
+                }
+            }
+            int[] translation = twelfths(spaceGroup, op);
+            if (alwaysSatisfied(kernel, translation, centrings)) continue;
+
+            boolean duplicate = false;
+            for (int n = 0; n < kernels.size() && !duplicate; n++) {
+                if (Arrays.equals(kernels.get(n), kernel)) {
+                    int[] difference = new int[3];
+                    for (int i = 0; i < 3; i++) difference[i] = translation[i] - translations.get(n)[i];
+                    duplicate = alwaysSatisfied(kernel, difference, centrings);
+                }
+            }
+            if (!duplicate) {
+                kernels.add(kernel);
+                translations.add(translation);
+            }
+        }
+        return new ReflectionConditions(centrings, kernels, translations);
+    }
+
+    /**
+     * Return the reflection conditions of a space group, using those cached
+     * by the group if it is a {@link SpaceGroupImpl}.
+     * @param spaceGroup {@link SpaceGroup}
+     * @return {@link ReflectionConditions}
+     */
+    public static ReflectionConditions forSpaceGroup(SpaceGroup spaceGroup) {
+        if (spaceGroup instanceof SpaceGroupImpl) return ((SpaceGroupImpl) spaceGroup).getReflectionConditions();
+        return of(spaceGroup);
+    }
+
+    private static int[] twelfths(SpaceGroup spaceGroup, int op) {
+        int[] translation = new int[3];
+        for (int i = 0; i < 3; i++) {
+            translation[i] = (int) Math.round(12 * spaceGroup.getTranslation(op, i));
+        }
+        return translation;
+    }
+
+    /**
+     * Test whether h.t is an integer for every h allowed by the centring
+     * with (R<sup>T</sup> - I)h = 0. As the condition is linear in h, it is
+     * enough to test all h in a box containing a basis of the solutions.
+     */
+    private static boolean alwaysSatisfied(int[] kernel, int[] translation, List<int[]> centrings) {
+        int lim = BASIS_SEARCH_LIMIT;
+        for (int h = -lim; h <= lim; h++) {
+            for (int k = -lim; k <= lim; k++) {
+                for (int l = -lim; l <= lim; l++) {
+                    if (!applies(kernel, 0, h, k, l)) continue;
+                    if (Math.floorMod(translation[0] * h + translation[1] * k + translation[2] * l, 12) == 0) continue;
+                    boolean centred = true;
+                    for (int[] c : centrings) {
+                        centred &= Math.floorMod(c[0] * h + c[1] * k + c[2] * l, 12) == 0;
+                    }
+                    if (centred) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean applies(int[] kernel, int offset, int h, int k, int l) {
+        return kernel[offset] * h + kernel[offset + 1] * k + kernel[offset + 2] * l == 0
+                && kernel[offset + 3] * h + kernel[offset + 4] * k + kernel[offset + 5] * l == 0
+                && kernel[offset + 6] * h + kernel[offset + 7] * k + kernel[offset + 8] * l == 0;
+    }
+
+    /**
+     * Return the number of conditions from lattice centring.
+     * @return int
+     */
+    public int getNumberOfCentringConditions() {
+        return nCentrings;
+    }
+
+    /**
+     * Return the number of conditions from screw axes and glide planes.
+     * @return int
+     */
+    public int getNumberOfOperatorConditions() {
+        return nConditions;
+    }
+
+    /**
+     * Test whether a reflection is systematically absent.
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return boolean true if the reflection is absent
+     */
+    public boolean isAbsent(int h, int k, int l) {
+        return isCentringAbsent(h, k, l) || isOperatorAbsent(h, k, l);
+    }
+
+    /**
+     * Test whether a reflection is absent due to lattice centring only.
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return boolean true if the reflection is absent
+     */
+    public boolean isCentringAbsent(int h, int k, int l) {
+        for (int c = 0; c < 3 * nCentrings; c += 3) {
+            if ((centrings[c] * h + centrings[c + 1] * k + centrings[c + 2] * l) % 12 != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Test whether a reflection is absent due to screw axes or glide planes
+     * only.
+     * @param h Miller index
+     * @param k Miller index
+     * @param l Miller index
+     * @return boolean true if the reflection is absent
+     */
+    public boolean isOperatorAbsent(int h, int k, int l) {
+        for (int n = 0; n < nConditions; n++) {
+            if (applies(kernels, 9 * n, h, k, l)) {
+                int t = 3 * n;
+                if ((translations[t] * h + translations[t + 1] * k + translations[t + 2] * l) % 12 != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find which values of l (modulo 12) are allowed by lattice centring
+     * for given h and k, so that absent l need not be visited.
+     * @param h Miller index
+     * @param k Miller index
+     * @param allowed boolean[12] set true at l mod 12 for allowed l
+     * @return boolean false if no l is allowed
+     */
+    public boolean allowedL(int h, int k, boolean[] allowed) {
+        boolean any = false;
+        for (int r = 0; r < 12; r++) {
+            allowed[r] = !isCentringAbsent(h, k, r);
+            any |= allowed[r];
+        }
+        return any;
+    }
+}
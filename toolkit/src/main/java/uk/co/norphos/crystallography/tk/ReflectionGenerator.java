@@ -0,0 +1,401 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Enumerates all reflections (hkl) of a {@link UnitCell} with a d-spacing
+ * greater than or equal to a limit d<sub>min</sub>, excluding (000).
+ *
+ * The reflections form the reciprocal lattice points inside a sphere of
+ * radius 1/d<sub>min</sub>. Using the reciprocal metric tensor, the exact
+ * range of h is found for the sphere, then the range of k for each h and the
+ * range of l for each (h,k). No index outside the sphere is visited, so the
+ * cost is proportional to the number of reflections generated.
+ *
+ * Reflections can be consumed lazily through {@link #stream()} or a
+ * {@link Spliterator}, which splits by h-slabs of roughly equal size for
+ * parallel streams. They can also be passed without creating any
+ * {@link MillerPlane}s to an {@link IndexConsumer}, or collected into a
+ * {@link List} or {@link ReflectionTable}.
+ *
+ * If a {@link SpaceGroup} is given, systematically absent reflections are
+ * skipped using its {@link ReflectionConditions}. Values of l forbidden by
+ * lattice centring are rejected with a table lookup per row, and the other
+ * conditions with a few integer operations, before any d-spacing is
+ * calculated.
+ *
+ * @author Michael Wharmby
+ */
+public class ReflectionGenerator {
+
+    /**
+     * Receives the Miller indices and 1/d<sup>2</sup> of each generated
+     * reflection.
+     */
+    @FunctionalInterface
+    public interface IndexConsumer {
+        void accept(int h, int k, int l, double inverseDSquared);
+    }
+
+    //Allow for rounding in the bounds and in the final d-spacing comparison
+    private static final double BOUND_TOLERANCE = 1e-9, LIMIT_TOLERANCE = 1e-12;
+
+    private final double[] coeffs;
+    private final double dMin, invDMinSq;
+    private final int hMax;
+    //Coefficients of the minimum of 1/d^2 over l, as a quadratic in h & k
+    private final double kA, kB;
+    //null if absent reflections are generated
+    private final ReflectionConditions conditions;
+
+    public ReflectionGenerator(UnitCell unitCell, double dMin) {
+        this(unitCell, dMin, null);
+    }
+
+    /**
+     * Create a generator which skips reflections absent in a space group.
+     * @param unitCell {@link UnitCell}
+     * @param dMin double smallest d-spacing to generate in Angstrom
+     * @param spaceGroup {@link SpaceGroup} (null to generate all reflections)
+     */
+    public ReflectionGenerator(UnitCell unitCell, double dMin, SpaceGroup spaceGroup) {
+        this(DSpacingCalculator.coefficients(unitCell.getReciprocalMetricTensor()), dMin,
+                spaceGroup == null ? null : ReflectionConditions.forSpaceGroup(spaceGroup));
+    }
+
+    /**
+     * Create a generator from the six reciprocal metric tensor coefficients
+     * (see {@link DSpacingCalculator#coefficients}).
+     * @param reciprocalCoefficients double[6]
+     * @param dMin double smallest d-spacing to generate in Angstrom
+     */
+    public ReflectionGenerator(double[] reciprocalCoefficients, double dMin) {
+        this(reciprocalCoefficients, dMin, null);
+    }
+
+    /**
+     * Create a generator from the six reciprocal metric tensor coefficients
+     * which skips reflections failing the given reflection conditions.
+     * @param reciprocalCoefficients double[6]
+     * @param dMin double smallest d-spacing to generate in Angstrom
+     * @param conditions {@link ReflectionConditions} (null to generate all
+     *                   reflections)
+     */
+    public ReflectionGenerator(double[] reciprocalCoefficients, double dMin, ReflectionConditions conditions) {
+        if (!(dMin > 0)) throw new IllegalArgumentException("d-spacing limit must be positive");
+        this.coeffs = reciprocalCoefficients.clone();
+        this.dMin = dMin;
+        this.invDMinSq = 1 / (dMin * dMin);
+        this.conditions = conditions;
+
+        double g11 = coeffs[DSpacingCalculator.G11], g22 = coeffs[DSpacingCalculator.G22],
+                g33 = coeffs[DSpacingCalculator.G33], g12 = coeffs[DSpacingCalculator.G12],
+                g13 = coeffs[DSpacingCalculator.G13], g23 = coeffs[DSpacingCalculator.G23];
+        //min over l of Q(h,k,l) = kA k^2 + 2 kB h k + hCoeff h^2
+        kA = g22 - g23 * g23 / g33;
+        kB = g12 - g13 * g23 / g33;
+        double hCoeff = g11 - g13 * g13 / g33;
+        //...and its minimum over k is (hCoeff - kB^2/kA) h^2
+        double hSchur = hCoeff - kB * kB / kA;
+        hMax = (int) Math.floor(Math.sqrt(invDMinSq / hSchur) + BOUND_TOLERANCE);
+    }
+
+    /**
+     * Return the smallest d-spacing generated.
+     * @return double d<sub>min</sub> in Angstrom
+     */
+    public double getDMin() {
+        return dMin;
+    }
+
+    /**
+     * Return the largest absolute value of h which can occur.
+     * @return int
+     */
+    public int getHMax() {
+        return hMax;
+    }
+
+    /**
+     * Pass every reflection to consumer, in order of increasing h, then k,
+     * then l. No objects are created per reflection.
+     * @param consumer {@link IndexConsumer}
+     */
+    public void forEach(IndexConsumer consumer) {
+        int[] range = new int[2];
+        boolean[] allowedL = new boolean[12];
+        for (int h = -hMax; h <= hMax; h++) {
+            if (!kRange(h, range)) continue;
+            int kLo = range[0], kHi = range[1];
+            for (int k = kLo; k <= kHi; k++) {
+                if (!lRange(h, k, range) || !rowAllowed(h, k, allowedL)) continue;
+                for (int l = range[0]; l <= range[1]; l++) {
+                    if (absent(h, k, l, allowedL)) continue;
+                    double invDSq = DSpacingCalculator.inverseDSquared(coeffs, h, k, l);
+                    if (accept(h, k, l, invDSq)) {
+                        consumer.accept(h, k, l, invDSq);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of reflections which will be generated.
+     * @return int
+     */
+    public int count() {
+        int[] counter = new int[1];
+        forEach((h, k, l, invDSq) -> counter[0]++);
+        return counter[0];
+    }
+
+    /**
+     * Generate all reflections into a new list, with d-spacings set.
+     * @return List<MillerPlane>
+     */
+    public List<MillerPlane> toList() {
+        List<MillerPlane> reflections = new ArrayList<>();
+        forEach((h, k, l, invDSq) -> reflections.add(createPlane(h, k, l, invDSq)));
+        return reflections;
+    }
+
+    /**
+     * Generate all reflections into a new {@link ReflectionTable}, with
+     * d-spacings set.
+     * @return {@link ReflectionTable}
+     */
+    public ReflectionTable toTable() {
+        ReflectionTable table = new ReflectionTable();
+        forEach((h, k, l, invDSq) -> table.add(h, k, l, 1 / Math.sqrt(invDSq)));
+        return table;
+    }
+
+    /**
+     * Return a lazy sequential stream of the reflections, with d-spacings set.
+     * @return Stream<MillerPlane>
+     */
+    public Stream<MillerPlane> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Return a lazy parallel stream of the reflections, with d-spacings set.
+     * @return Stream<MillerPlane>
+     */
+    public Stream<MillerPlane> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Return a spliterator over all the reflections.
+     * @return Spliterator<MillerPlane>
+     */
+    public Spliterator<MillerPlane> spliterator() {
+        return new HklSpliterator(-hMax, hMax + 1);
+    }
+
+    /**
+     * Return the reflection conditions applied, if any.
+     * @return {@link ReflectionConditions} (null if absences are generated)
+     */
+    public ReflectionConditions getReflectionConditions() {
+        return conditions;
+    }
+
+    /**
+     * Find the values of l allowed by lattice centring in the row (h,k).
+     * @return false if the whole row is absent
+     */
+    private boolean rowAllowed(int h, int k, boolean[] allowedL) {
+        return conditions == null || conditions.allowedL(h, k, allowedL);
+    }
+
+    private boolean absent(int h, int k, int l, boolean[] allowedL) {
+        return conditions != null && (!allowedL[Math.floorMod(l, 12)] || conditions.isOperatorAbsent(h, k, l));
+    }
+
+    private boolean accept(int h, int k, int l, double invDSq) {
+        return invDSq <= invDMinSq * (1 + LIMIT_TOLERANCE) && (h != 0 || k != 0 || l != 0);
+    }
+
+    private static MillerPlane createPlane(int h, int k, int l, double invDSq) {
+        return new MillerPlane(h, k, l, 1 / Math.sqrt(invDSq), "");
+    }
+
+    /**
+     * Find the range of k for which some l gives a reflection inside the
+     * limiting sphere.
+     * @return false if there is no such k
+     */
+    private boolean kRange(int h, int[] range) {
+        //kA k^2 + 2 kB h k + (hCoeff h^2 - invDMinSq) <= 0
+        double centre = -kB * h / kA;
+        double disc = centre * centre - (minOverL(h, 0) - invDMinSq) / kA;
+        return solve(centre, disc, range);
+    }
+
+    /**
+     * Find the range of l for which (h,k,l) is inside the limiting sphere.
+     * @return false if there is no such l
+     */
+    private boolean lRange(int h, int k, int[] range) {
+        double g33 = coeffs[DSpacingCalculator.G33];
+        double centre = -(coeffs[DSpacingCalculator.G13] * h + coeffs[DSpacingCalculator.G23] * k) / g33;
+        double c0 = coeffs[DSpacingCalculator.G11] * h * h + coeffs[DSpacingCalculator.G22] * k * k
+                + 2 * coeffs[DSpacingCalculator.G12] * h * k;
+        double disc = centre * centre - (c0 - invDMinSq) / g33;
+        return solve(centre, disc, range);
+    }
+
+    private double minOverL(int h, int k) {
+        double g13 = coeffs[DSpacingCalculator.G13], g33 = coeffs[DSpacingCalculator.G33];
+        return (coeffs[DSpacingCalculator.G11] - g13 * g13 / g33) * h * h + 2 * kB * h * k + kA * k * k;
+    }
+
+    private static boolean solve(double centre, double disc, int[] range) {
+        if (disc < -BOUND_TOLERANCE) return false;
+        double halfWidth = Math.sqrt(Math.max(disc, 0));
+        range[0] = (int) Math.ceil(centre - halfWidth - BOUND_TOLERANCE);
+        range[1] = (int) Math.floor(centre + halfWidth + BOUND_TOLERANCE);
+        return range[0] <= range[1];
+    }
+
+    /**
+     * Relative number of reflections in the slab at h, proportional to the
+     * area of the slab's cross-section through the limiting sphere.
+     */
+    private double slabWeight(int h) {
+        double frac = (double) h / (hMax + 1);
+        return 1 - frac * frac;
+    }
+
+    private final class HklSpliterator implements Spliterator<MillerPlane> {
+
+        private final int[] range = new int[2];
+        private final boolean[] allowedL = new boolean[12];
+        private int h, hEnd;
+        private int k, kHi, l, lHi;
+        private boolean inSlab;
+
+        private HklSpliterator(int hStart, int hEnd) {
+            this.h = hStart;
+            this.hEnd = hEnd;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super MillerPlane> action) {
+            while (true) {
+                if (inSlab) {
+                    while (l <= lHi) {
+                        int currL = l++;
+                        if (absent(h, k, currL, allowedL)) continue;
+                        double invDSq = DSpacingCalculator.inverseDSquared(coeffs, h, k, currL);
+                        if (accept(h, k, currL, invDSq)) {
+                            action.accept(createPlane(h, k, currL, invDSq));
+                            return true;
+                        }
+                    }
+                    //Move to the next row of l...
+                    if (nextK()) continue;
+                    //... or the next slab of h
+                    inSlab = false;
+                    h++;
+                }
+                if (h >= hEnd) return false;
+                if (kRange(h, range)) {
+                    k = range[0] - 1;
+                    kHi = range[1];
+                    inSlab = true;
+                    if (nextK()) continue;
+                    inSlab = false;
+                }
+                h++;
+            }
+        }
+
+        /**
+         * Advance to the next k in the current slab which has any l values.
+         */
+        private boolean nextK() {
+            while (++k <= kHi) {
+                if (lRange(h, k, range) && rowAllowed(h, k, allowedL)) {
+                    l = range[0];
+                    lHi = range[1];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<MillerPlane> trySplit() {
+            //Only whole, unstarted slabs are handed to the prefix...
+            int firstFree = inSlab ? h + 1 : h;
+            if (hEnd - firstFree < 2) return null;
+
+            //...and split to give each part roughly the same number of reflections
+            double total = 0;
+            for (int i = firstFree; i < hEnd; i++) total += slabWeight(i);
+            double half = total / 2, cumulative = 0;
+            int mid = firstFree;
+            while (mid < hEnd - 1 && cumulative + slabWeight(mid) <= half) {
+                cumulative += slabWeight(mid++);
+            }
+            if (mid == firstFree) mid++;
+
+            //Prefix keeps any partly consumed slab, this keeps the suffix
+            HklSpliterator prefix = new HklSpliterator(h, mid);
+            prefix.inSlab = inSlab;
+            prefix.k = k;
+            prefix.kHi = kHi;
+            prefix.l = l;
+            prefix.lHi = lHi;
+            System.arraycopy(allowedL, 0, prefix.allowedL, 0, allowedL.length);
+
+            h = mid;
+            inSlab = false;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            //Lattice points in the sphere = (4/3) pi s^3 / V*, shared between slabs by weight
+            if (h >= hEnd) return 0;
+            double weight = 0, total = 0;
+            for (int i = -hMax; i <= hMax; i++) {
+                double w = slabWeight(i);
+                total += w;
+                if (i >= h && i < hEnd) weight += w;
+            }
+            double recipVolume = Math.sqrt(recipMetricDeterminant());
+            double points = 4 * Math.PI / 3 * Math.pow(invDMinSq, 1.5) / recipVolume;
+            if (conditions != null) points /= conditions.getNumberOfCentringConditions() + 1;
+            return (long) Math.ceil(points * weight / total);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+        }
+    }
+
+    private double recipMetricDeterminant() {
+        double g11 = coeffs[DSpacingCalculator.G11], g22 = coeffs[DSpacingCalculator.G22],
+                g33 = coeffs[DSpacingCalculator.G33], g12 = coeffs[DSpacingCalculator.G12],
+                g13 = coeffs[DSpacingCalculator.G13], g23 = coeffs[DSpacingCalculator.G23];
+        return g11 * (g22 * g33 - g23 * g23) - g12 * (g12 * g33 - g23 * g13) + g13 * (g12 * g23 - g22 * g13);
+    }
+
+}
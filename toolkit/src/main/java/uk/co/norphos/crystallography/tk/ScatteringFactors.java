@@ -0,0 +1,119 @@
+package uk.co.norphos.crystallography.tk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * X-ray atomic scattering factors of the neutral atoms, calculated from the
+ * Cromer-Mann coefficients in International Tables Vol. C:<br />
+ * f(s) = &Sigma; a<sub>i</sub> exp(-b<sub>i</sub>s<sup>2</sup>) + c, where
+ * s = sin&theta;/&lambda; = 1/2d
+ *
+ * Atom types are matched by their element (see
+ * {@link Elements#getElement(String)}), so that site labels or charges (e.g.
+ * Fe1, O2-, OW) are ignored.
+ *
+ * @author Michael Wharmby
+ */
+public final class ScatteringFactors {
+
+    private static final String TABLE = "scatteringfactors.txt";
+    /**
+     * Number of coefficients of each element: a1, b1, a2, b2, a3, b3, a4, b4, c
+     */
+    public static final int N_COEFFICIENTS = 9;
+
+    private ScatteringFactors() {
+    }
+
+    /**
+     * Table of coefficients, loaded on first use.
+     */
+    private static final class Coefficients {
+        private static final Map<String, double[]> elements = new HashMap<>();
+
+        static {
+            try (InputStream in = ScatteringFactors.class.getResourceAsStream(TABLE)) {
+                if (in == null) throw new IllegalStateException("Cannot find scattering factor table "+TABLE);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    String[] columns = line.split("\t");
+                    double[] coeffs = new double[N_COEFFICIENTS];
+                    for (int i = 0; i < N_COEFFICIENTS; i++) {
+                        coeffs[i] = Double.parseDouble(columns[i + 1]);
+                    }
+                    elements.put(columns[0], coeffs);
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Failed to read scattering factor table "+TABLE, ioe);
+            }
+        }
+    }
+
+    /**
+     * Return the element symbol at the start of an atom type, e.g. Fe from
+     * FE3+ or O from O2-.
+     * @param type String atom type
+     * @return String element symbol
+     * @throws IllegalArgumentException if the type does not start with a
+     * letter
+     */
+    public static String elementSymbol(String type) {
+        if (type == null || type.isEmpty() || !Character.isLetter(type.charAt(0))) {
+            throw new IllegalArgumentException("No element symbol in atom type "+type);
+        }
+        StringBuilder symbol = new StringBuilder(2).append(Character.toUpperCase(type.charAt(0)));
+        if (type.length() > 1 && Character.isLetter(type.charAt(1))) {
+            symbol.append(Character.toLowerCase(type.charAt(1)));
+        }
+        return symbol.toString();
+    }
+
+    /**
+     * Return the Cromer-Mann coefficients for an atom type.
+     * @param type String atom type
+     * @return double[{@link #N_COEFFICIENTS}] a1, b1, a2, b2, a3, b3, a4, b4, c
+     * (a copy)
+     * @throws IllegalArgumentException if the type is not an element or the
+     * element is not tabulated
+     */
+    public static double[] getCoefficients(String type) {
+        String symbol = Elements.getElement(type);
+        double[] coeffs = Coefficients.elements.get(symbol);
+        if (coeffs == null) {
+            throw new IllegalArgumentException("No scattering factor for element "+symbol+" of atom type "+type);
+        }
+        return coeffs.clone();
+    }
+
+    /**
+     * Calculate a scattering factor from its coefficients.
+     * @param coeffs double[] from {@link #getCoefficients(String)}
+     * @param sSquared double (sin&theta;/&lambda;)<sup>2</sup> =
+     *                 1/4d<sup>2</sup> in Angstrom<sup>-2</sup>
+     * @return double scattering factor in electrons
+     */
+    public static double calculate(double[] coeffs, double sSquared) {
+        return coeffs[0] * Math.exp(-coeffs[1] * sSquared) + coeffs[2] * Math.exp(-coeffs[3] * sSquared)
+                + coeffs[4] * Math.exp(-coeffs[5] * sSquared) + coeffs[6] * Math.exp(-coeffs[7] * sSquared)
+                + coeffs[8];
+    }
+
+    /**
+     * Calculate the scattering factor of an atom type.
+     * @param type String atom type
+     * @param dSpacing double in Angstrom
+     * @return double scattering factor in electrons
+     */
+    public static double calculate(String type, double dSpacing) {
+        return calculate(getCoefficients(type), 0.25 / (dSpacing * dSpacing));
+    }
+}
@@ -0,0 +1,181 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Provides the {@link SpaceGroup}s of the 230 standard settings (as listed
+ * in International Tables Vol. A: unique axis b, origin choice 1, hexagonal
+ * axes for R lattices), by number, Hermann-Mauguin symbol or Hall symbol.
+ * Other settings can be created from their Hall symbols or from their
+ * symmetry operators (e.g. -x,y+1/2,-z+1/2).
+ *
+ * Each group is generated from its Hall symbol the first time it is
+ * requested and the same immutable instance is returned thereafter, so
+ * symbols are never parsed twice. All methods are thread safe.
+ *
+ * @author Michael Wharmby
+ */
+public final class SpaceGroupFactory {
+
+    private static final String TABLE = "spacegroups.txt";
+    private static final int N_GROUPS = 230;
+
+    private static final AtomicReferenceArray<SpaceGroup> standardGroups = new AtomicReferenceArray<>(N_GROUPS + 1);
+    private static final ConcurrentMap<String, SpaceGroup> otherGroups = new ConcurrentHashMap<>();
+
+    private SpaceGroupFactory() {
+    }
+
+    /**
+     * Table of symbols, loaded on first use.
+     */
+    private static final class Symbols {
+        private static final String[] hermannMauguin = new String[N_GROUPS + 1], hall = new String[N_GROUPS + 1];
+        private static final Map<String, Integer> numbers = new HashMap<>();
+
+        static {
+            try (InputStream in = SpaceGroupFactory.class.getResourceAsStream(TABLE)) {
+                if (in == null) throw new IllegalStateException("Cannot find space group table "+TABLE);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    String[] columns = line.split("\t");
+                    int number = Integer.parseInt(columns[0]);
+                    hermannMauguin[number] = columns[1];
+                    hall[number] = HallSymbolParser.normalise(columns[2]);
+                    numbers.put(hermannMauguinKey(columns[1]), number);
+                    numbers.put(hallKey(columns[2]), number);
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Failed to read space group table "+TABLE, ioe);
+            }
+        }
+    }
+
+    /**
+     * Standard settings by their operators, built on first use.
+     */
+    private static final class StandardOperators {
+        private static final Map<String, Integer> numbers = new HashMap<>();
+
+        static {
+            for (int number = 1; number <= N_GROUPS; number++) {
+                numbers.put(operatorKey(getSpaceGroup(number)), number);
+            }
+        }
+    }
+
+    /*
+     * Hermann-Mauguin symbols are matched ignoring spaces, underscores and case
+     */
+    private static String hermannMauguinKey(String symbol) {
+        return "HM:" + symbol.replaceAll("[\\s_]", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static String hallKey(String symbol) {
+        return "Hall:" + HallSymbolParser.normalise(symbol);
+    }
+
+    /*
+     * Operators are matched whatever their order, with translations in twelfths
+     */
+    private static String operatorKey(SpaceGroup group) {
+        List<String> ops = new ArrayList<>(group.getOrder());
+        for (int op = 0; op < group.getOrder(); op++) {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) key.append(group.getRotation(op, i, j)).append(',');
+            }
+            for (int i = 0; i < 3; i++) {
+                key.append(Math.floorMod(Math.round(12 * group.getTranslation(op, i)), 12)).append(',');
+            }
+            ops.add(key.toString());
+        }
+        Collections.sort(ops);
+        return "Ops:" + String.join(";", ops);
+    }
+
+    /**
+     * Return the standard setting of a space group by its number.
+     * @param number int 1 to 230
+     * @return {@link SpaceGroup}
+     */
+    public static SpaceGroup getSpaceGroup(int number) {
+        if (number < 1 || number > N_GROUPS) {
+            throw new IllegalArgumentException("Space group number must be between 1 and "+N_GROUPS);
+        }
+        SpaceGroup group = standardGroups.get(number);
+        if (group == null) {
+            //Generating twice is harmless, but only one instance is ever returned
+            standardGroups.compareAndSet(number, null,
+                    HallSymbolParser.parse(number, Symbols.hermannMauguin[number], Symbols.hall[number]));
+            group = standardGroups.get(number);
+        }
+        return group;
+    }
+
+    /**
+     * Return a space group by its short Hermann-Mauguin symbol (e.g. P21/c
+     * or "P 21/c") or its Hall symbol (e.g. -P 2ybc). Hall symbols of
+     * non-standard settings are parsed and cached.
+     * @param symbol String
+     * @return {@link SpaceGroup}
+     * @throws IllegalArgumentException if the symbol is not recognised
+     */
+    public static SpaceGroup getSpaceGroup(String symbol) {
+        Integer number = Symbols.numbers.get(hermannMauguinKey(symbol));
+        if (number == null) number = Symbols.numbers.get(hallKey(symbol));
+        if (number != null) return getSpaceGroup(number);
+        return getSpaceGroupFromHallSymbol(symbol);
+    }
+
+    /**
+     * Return a space group from its Hall symbol, which need not be one of the
+     * standard settings.
+     * @param hallSymbol String
+     * @return {@link SpaceGroup}
+     * @throws IllegalArgumentException if the symbol cannot be parsed
+     */
+    public static SpaceGroup getSpaceGroupFromHallSymbol(String hallSymbol) {
+        String key = hallKey(hallSymbol);
+        Integer number = Symbols.numbers.get(key);
+        if (number != null) return getSpaceGroup(number);
+        return otherGroups.computeIfAbsent(key, k -> HallSymbolParser.parse(0, null, hallSymbol));
+    }
+
+    /**
+     * Return a space group from its symmetry operators as coordinate
+     * triplets, e.g. "x,y,z", "-x,y+1/2,-z+1/2". The operators are closed
+     * into a group, so need only include its generators. If they are those
+     * of a standard setting, that group is returned; otherwise the group has
+     * no number or symbols and is cached.
+     * @param operators List of String coordinate triplets
+     * @return {@link SpaceGroup}
+     * @throws IllegalArgumentException if an operator cannot be parsed or
+     * the operators do not form a space group
+     */
+    public static SpaceGroup getSpaceGroupFromOperators(List<String> operators) {
+        SpaceGroup group = SymmetryOperatorParser.parse(operators);
+        String key = operatorKey(group);
+        Integer number = StandardOperators.numbers.get(key);
+        if (number != null) return getSpaceGroup(number);
+        return otherGroups.computeIfAbsent(key, k -> group);
+    }
+}
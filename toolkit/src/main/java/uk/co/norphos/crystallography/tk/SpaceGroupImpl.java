@@ -0,0 +1,217 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable {@link SpaceGroup} with its operators held in two flat arrays:
+ * nine row-ordered rotation matrix elements and three translation components
+ * per operator. Instances are normally obtained from
+ * {@link SpaceGroupFactory}, which shares them between callers.
+ *
+ * @author Michael Wharmby
+ */
+public final class SpaceGroupImpl implements SpaceGroup {
+
+    private final int number;
+    private final String hermannMauguinSymbol, hallSymbol;
+    private final int[] rotations;
+    private final double[] translations;
+    private final int order, primitiveOrder;
+    private final boolean centrosymmetric;
+    private final CrystalSystem crystalSystem;
+
+    private final Object lock = new Object();
+    private volatile ReflectionConditions reflectionConditions;
+
+    /**
+     * Create a space group from operators ordered as described in
+     * {@link SpaceGroup}.
+     * @param number int International Tables number (0 if not standard)
+     * @param hermannMauguinSymbol String (may be null)
+     * @param hallSymbol String (may be null)
+     * @param rotations int[9 * order] rotation matrix elements
+     * @param translations double[3 * order] translations in the range [0,1)
+     * @param primitiveOrder int number of operators not related by centring
+     */
+    SpaceGroupImpl(int number, String hermannMauguinSymbol, String hallSymbol, int[] rotations,
+                   double[] translations, int primitiveOrder) {
+        this.number = number;
+        this.hermannMauguinSymbol = hermannMauguinSymbol;
+        this.hallSymbol = hallSymbol;
+        this.rotations = rotations;
+        this.translations = translations;
+        this.order = translations.length / 3;
+        this.primitiveOrder = primitiveOrder;
+        this.centrosymmetric = findInversion();
+        this.crystalSystem = determineCrystalSystem();
+    }
+
+    /**
+     * Create a space group from operators given as int[12]: nine rotation
+     * elements and three translation components in twelfths.
+     */
+    static SpaceGroupImpl fromOperators(int number, String hermannMauguinSymbol, String hallSymbol,
+                                        List<int[]> ops, int primitiveOrder) {
+        int[] rotations = new int[9 * ops.size()];
+        double[] translations = new double[3 * ops.size()];
+        for (int n = 0; n < ops.size(); n++) {
+            int[] op = ops.get(n);
+            System.arraycopy(op, 0, rotations, 9 * n, 9);
+            for (int i = 0; i < 3; i++) {
+                translations[3 * n + i] = op[9 + i] / 12.0;
+            }
+        }
+        return new SpaceGroupImpl(number, hermannMauguinSymbol, hallSymbol, rotations, translations, primitiveOrder);
+    }
+
+    private boolean findInversion() {
+        for (int n = 0; n < primitiveOrder; n++) {
+            boolean inversion = true;
+            for (int i = 0; i < 9 && inversion; i++) {
+                inversion = rotations[9 * n + i] == (i % 4 == 0 ? -1 : 0);
+            }
+            if (inversion) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Classify by the rotation axes of the point group: the proper rotation
+     * R (or -R if improper) has order 1, 2, 3, 4 or 6 if its trace is 3, -1,
+     * 0, 1 or 2.
+     */
+    private CrystalSystem determineCrystalSystem() {
+        Set<String> twoFolds = new HashSet<>(), threeFolds = new HashSet<>();
+        boolean fourFold = false, sixFold = false;
+        for (int n = 0; n < primitiveOrder; n++) {
+            int[] proper = new int[9];
+            int sign = determinant(n) < 0 ? -1 : 1;
+            for (int i = 0; i < 9; i++) proper[i] = sign * rotations[9 * n + i];
+            int trace = proper[0] + proper[4] + proper[8];
+            String key = Arrays.toString(proper);
+            switch (trace) {
+                case -1: twoFolds.add(key); break;
+                case 0: threeFolds.add(key); break;
+                case 1: fourFold = true; break;
+                case 2: sixFold = true; break;
+                default: break;
+            }
+        }
+        if (threeFolds.size() >= 8) return CrystalSystem.CUBIC;
+        if (sixFold) return CrystalSystem.HEXAGONAL;
+        if (!threeFolds.isEmpty()) {
+            return getNumberOfCentringVectors() == 3 ? CrystalSystem.RHOMBOHEDRAL : CrystalSystem.TRIGONAL;
+        }
+        if (fourFold) return CrystalSystem.TETRAGONAL;
+        if (twoFolds.size() >= 3) return CrystalSystem.ORTHORHOMBIC;
+        if (twoFolds.size() == 1) return CrystalSystem.MONOCLINIC;
+        return CrystalSystem.TRICLINIC;
+    }
+
+    private int determinant(int op) {
+        int[] r = rotations;
+        int o = 9 * op;
+        return r[o] * (r[o + 4] * r[o + 8] - r[o + 5] * r[o + 7])
+                - r[o + 1] * (r[o + 3] * r[o + 8] - r[o + 5] * r[o + 6])
+                + r[o + 2] * (r[o + 3] * r[o + 7] - r[o + 4] * r[o + 6]);
+    }
+
+    @Override
+    public int getNumber() {
+        return number;
+    }
+
+    @Override
+    public String getHermannMauguinSymbol() {
+        return hermannMauguinSymbol;
+    }
+
+    @Override
+    public String getHallSymbol() {
+        return hallSymbol;
+    }
+
+    @Override
+    public CrystalSystem getCrystalSystem() {
+        return crystalSystem;
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    public int getPrimitiveOrder() {
+        return primitiveOrder;
+    }
+
+    @Override
+    public boolean isCentrosymmetric() {
+        return centrosymmetric;
+    }
+
+    @Override
+    public int getRotation(int op, int row, int col) {
+        return rotations[9 * op + 3 * row + col];
+    }
+
+    @Override
+    public double getTranslation(int op, int component) {
+        return translations[3 * op + component];
+    }
+
+    @Override
+    public int[] getRotations() {
+        return rotations.clone();
+    }
+
+    @Override
+    public double[] getTranslations() {
+        return translations.clone();
+    }
+
+    @Override
+    public void applyOperator(int op, double x, double y, double z, double[] dst, int dstOffset) {
+        int r = 9 * op, t = 3 * op;
+        dst[dstOffset] = rotations[r] * x + rotations[r + 1] * y + rotations[r + 2] * z + translations[t];
+        dst[dstOffset + 1] = rotations[r + 3] * x + rotations[r + 4] * y + rotations[r + 5] * z + translations[t + 1];
+        dst[dstOffset + 2] = rotations[r + 6] * x + rotations[r + 7] * y + rotations[r + 8] * z + translations[t + 2];
+    }
+
+    @Override
+    public boolean isSystematicallyAbsent(int h, int k, int l) {
+        return getReflectionConditions().isAbsent(h, k, l);
+    }
+
+    /**
+     * Return the reflection conditions of this group, which are derived
+     * from the operators on first use.
+     * @return {@link ReflectionConditions}
+     */
+    public ReflectionConditions getReflectionConditions() {
+        ReflectionConditions conditions = reflectionConditions;
+        if (conditions == null) {
+            synchronized (lock) {
+                conditions = reflectionConditions;
+                if (conditions == null) {
+                    conditions = ReflectionConditions.of(this);
+                    reflectionConditions = conditions;
+                }
+            }
+        }
+        return conditions;
+    }
+
+    @Override
+    public String toString() {
+        return "SpaceGroup [number=" + number + ", symbol=" + hermannMauguinSymbol + ", hall=" + hallSymbol
+                + ", order=" + order + "]";
+    }
+}
@@ -0,0 +1,341 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Crystal;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates X-ray structure factors<br />
+ * F(hkl) = &Sigma; occ f(s) T(hkl) exp(2&pi;i(hx + ky + lz))<br />
+ * summed over every atom of the unit cell, using the scattering factors of
+ * {@link ScatteringFactors} and the anisotropic displacement factor
+ * T = exp(-2&pi;<sup>2</sup> &Sigma; h<sub>i</sub>h<sub>j</sub>
+ * a*<sub>i</sub>a*<sub>j</sub>U<sub>ij</sub>).
+ *
+ * When created, the asymmetric unit is expanded by the space group into
+ * primitive arrays by {@link SymmetryExpander}, with the U<sub>ij</sub> of
+ * each image rotated to match. Images which coincide (atoms on special
+ * positions) are only kept once, so occupancies are those of the site.
+ * The calculator is a snapshot: create a new one when the atoms change
+ * (e.g. each refinement cycle).
+ *
+ * For each batch of reflections, exp(2&pi;ihx) etc. are tabulated for every
+ * index and atom by recurrence, so the sum over atoms needs only
+ * multiplications. Reflections are then split into blocks, which are
+ * calculated in parallel in a {@link ForkJoinPool}.
+ *
+ * @author Michael Wharmby
+ */
+public class StructureFactorCalculator {
+
+    //Reflections calculated by each fork-join task
+    private static final int BLOCK_SIZE = 128;
+
+    private final double[] coeffs;
+    private final ForkJoinPool pool;
+
+    private final int nAtoms;
+    private final double[] positions, occupancies, betas;
+    private final int[] typeCodes;
+    private final double[][] scatteringCoeffs;
+    private final boolean anisotropic;
+
+    /**
+     * Create a calculator for the contents of a {@link Crystal}, using the
+     * common fork-join pool.
+     * @param crystal {@link Crystal}
+     */
+    public StructureFactorCalculator(Crystal crystal) {
+        this(crystal.getUnitCell(), crystal.getSpaceGroup(), AtomTable.fromAtoms(crystal.getAsymmetricUnit()));
+    }
+
+    /**
+     * Create a calculator using the common fork-join pool.
+     * @param unitCell {@link UnitCell}
+     * @param spaceGroup {@link SpaceGroup} (null for P1)
+     * @param asymmetricUnit {@link AtomTable}
+     */
+    public StructureFactorCalculator(UnitCell unitCell, SpaceGroup spaceGroup, AtomTable asymmetricUnit) {
+        this(unitCell, spaceGroup, asymmetricUnit, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a calculator.
+     * @param unitCell {@link UnitCell}
+     * @param spaceGroup {@link SpaceGroup} (null for P1)
+     * @param asymmetricUnit {@link AtomTable}
+     * @param pool {@link ForkJoinPool} to calculate blocks of reflections in
+     */
+    public StructureFactorCalculator(UnitCell unitCell, SpaceGroup spaceGroup, AtomTable asymmetricUnit,
+                                     ForkJoinPool pool) {
+        this.coeffs = DSpacingCalculator.coefficients(unitCell.getReciprocalMetricTensor());
+        this.pool = pool;
+        if (spaceGroup == null) spaceGroup = SpaceGroupFactory.getSpaceGroup(1);
+
+        List<String> types = asymmetricUnit.getTypes();
+        scatteringCoeffs = new double[types.size()][];
+        for (int t = 0; t < types.size(); t++) {
+            scatteringCoeffs[t] = ScatteringFactors.getCoefficients(types.get(t));
+        }
+
+        //Cell contents, with images which coincide on special positions merged
+        SymmetryExpander.Expansion expansion = new SymmetryExpander(spaceGroup, SymmetryExpander.DEFAULT_TOLERANCE,
+                pool).expand(asymmetricUnit);
+        int n = expansion.size();
+        double[] occ = new double[n], beta = new double[6 * n];
+        int[] atomTypes = new int[n];
+        double[] reciprocalLengths = {Math.sqrt(coeffs[DSpacingCalculator.G11]),
+                Math.sqrt(coeffs[DSpacingCalculator.G22]), Math.sqrt(coeffs[DSpacingCalculator.G33])};
+        boolean anyDisplacement = false;
+        double[][] atomBeta = new double[3][3];
+        for (int i = 0; i < asymmetricUnit.size(); i++) {
+            for (int r = 0; r < 3; r++) {
+                for (int c = 0; c < 3; c++) {
+                    atomBeta[r][c] = 2 * Math.PI * Math.PI * reciprocalLengths[r] * reciprocalLengths[c]
+                            * asymmetricUnit.getUij(i, uijComponent(r, c));
+                    anyDisplacement |= atomBeta[r][c] != 0;
+                }
+            }
+            int first = expansion.getFirstSite(i);
+            for (int s = first; s < first + expansion.getMultiplicity(i); s++) {
+                occ[s] = asymmetricUnit.getOcc(i);
+                atomTypes[s] = asymmetricUnit.getTypeCode(i);
+                rotateBeta(spaceGroup, expansion.getOperator(s), atomBeta, beta, 6 * s);
+            }
+        }
+        nAtoms = n;
+        positions = expansion.getCoordinateArray();
+        occupancies = occ;
+        typeCodes = atomTypes;
+        betas = beta;
+        anisotropic = anyDisplacement;
+    }
+
+    private static int uijComponent(int row, int col) {
+        if (row == col) return row;
+        return row + col == 1 ? AtomTable.U12 : row + col == 2 ? AtomTable.U13 : AtomTable.U23;
+    }
+
+    /*
+     * The displacement tensor beta of the image is R beta R^T. Off-diagonal
+     * elements are stored doubled, as they appear twice in h^T beta h.
+     */
+    private static void rotateBeta(SpaceGroup spaceGroup, int op, double[][] beta, double[] dst, int offset) {
+        double[][] rotated = new double[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double sum = 0;
+                for (int m = 0; m < 3; m++) {
+                    for (int p = 0; p < 3; p++) {
+                        sum += spaceGroup.getRotation(op, i, m) * beta[m][p] * spaceGroup.getRotation(op, j, p);
+                    }
+                }
+                rotated[i][j] = sum;
+            }
+        }
+        dst[offset] = rotated[0][0];
+        dst[offset + 1] = rotated[1][1];
+        dst[offset + 2] = rotated[2][2];
+        dst[offset + 3] = 2 * rotated[0][1];
+        dst[offset + 4] = 2 * rotated[0][2];
+        dst[offset + 5] = 2 * rotated[1][2];
+    }
+
+    /**
+     * Return the number of atoms in the unit cell, after removing images
+     * which coincide on special positions.
+     * @return int
+     */
+    public int getNumberOfAtoms() {
+        return nAtoms;
+    }
+
+    /**
+     * Calculate the structure factors of reflections from (inclusive) to to
+     * (exclusive) of the index arrays.
+     * @param h int[] Miller indices
+     * @param k int[] Miller indices
+     * @param l int[] Miller indices
+     * @param from int first reflection to calculate
+     * @param to int index after the last reflection to calculate
+     * @param real double[] to receive the real parts of F
+     * @param imaginary double[] to receive the imaginary parts of F
+     */
+    public void calculate(int[] h, int[] k, int[] l, int from, int to, double[] real, double[] imaginary) {
+        if (from >= to) return;
+        PhaseTables tables = new PhaseTables(h, k, l, from, to);
+        pool.invoke(new BlockTask(tables, h, k, l, from, to, real, imaginary));
+    }
+
+    /**
+     * Calculate the structure factors of all reflections in a table, setting
+     * |F|, its phase (in radians) and the intensity |F|<sup>2</sup>.
+     * @param table {@link ReflectionTable}
+     */
+    public void calculate(ReflectionTable table) {
+        int size = table.size();
+        int[] h = new int[size], k = new int[size], l = new int[size];
+        for (int i = 0; i < size; i++) {
+            h[i] = table.getH(i);
+            k[i] = table.getK(i);
+            l[i] = table.getL(i);
+        }
+        double[] real = new double[size], imaginary = new double[size];
+        calculate(h, k, l, 0, size, real, imaginary);
+        for (int i = 0; i < size; i++) {
+            double intensity = real[i] * real[i] + imaginary[i] * imaginary[i];
+            table.setStructureFactor(i, Math.sqrt(intensity));
+            table.setPhase(i, Math.atan2(imaginary[i], real[i]));
+            table.setIntensity(i, intensity);
+        }
+    }
+
+    /**
+     * Calculate the structure factors of a list of reflections, setting |F|
+     * and the intensity |F|<sup>2</sup> of each.
+     * @param reflections List<MillerPlane>
+     */
+    public void calculate(List<MillerPlane> reflections) {
+        int size = reflections.size();
+        int[] h = new int[size], k = new int[size], l = new int[size];
+        for (int i = 0; i < size; i++) {
+            MillerPlane hkl = reflections.get(i);
+            h[i] = hkl.getH();
+            k[i] = hkl.getK();
+            l[i] = hkl.getL();
+        }
+        double[] real = new double[size], imaginary = new double[size];
+        calculate(h, k, l, 0, size, real, imaginary);
+        for (int i = 0; i < size; i++) {
+            double intensity = real[i] * real[i] + imaginary[i] * imaginary[i];
+            reflections.get(i).setStructureFactor(Math.sqrt(intensity));
+            reflections.get(i).setIntensity(intensity);
+        }
+    }
+
+    /**
+     * exp(2&pi;inx) for each atom and each index n in the range of a batch
+     * of reflections, stored index by index so that the atoms of one index
+     * are contiguous.
+     */
+    private final class PhaseTables {
+        private final int hMax, kMax, lMax;
+        private final double[] cosX, sinX, cosY, sinY, cosZ, sinZ;
+
+        private PhaseTables(int[] h, int[] k, int[] l, int from, int to) {
+            int hm = 0, km = 0, lm = 0;
+            for (int i = from; i < to; i++) {
+                hm = Math.max(hm, Math.abs(h[i]));
+                km = Math.max(km, Math.abs(k[i]));
+                lm = Math.max(lm, Math.abs(l[i]));
+            }
+            hMax = hm;
+            kMax = km;
+            lMax = lm;
+            cosX = new double[(2 * hMax + 1) * nAtoms];
+            sinX = new double[cosX.length];
+            cosY = new double[(2 * kMax + 1) * nAtoms];
+            sinY = new double[cosY.length];
+            cosZ = new double[(2 * lMax + 1) * nAtoms];
+            sinZ = new double[cosZ.length];
+            tabulate(0, hMax, cosX, sinX);
+            tabulate(1, kMax, cosY, sinY);
+            tabulate(2, lMax, cosZ, sinZ);
+        }
+
+        /*
+         * exp(2 pi i (n+1) x) = exp(2 pi i n x) exp(2 pi i x); negative n are
+         * the complex conjugates.
+         */
+        private void tabulate(int axis, int max, double[] cos, double[] sin) {
+            for (int a = 0; a < nAtoms; a++) {
+                double angle = 2 * Math.PI * positions[3 * a + axis];
+                double c1 = Math.cos(angle), s1 = Math.sin(angle);
+                double c = 1, s = 0;
+                for (int n = 0; n <= max; n++) {
+                    cos[(max + n) * nAtoms + a] = c;
+                    sin[(max + n) * nAtoms + a] = s;
+                    cos[(max - n) * nAtoms + a] = c;
+                    sin[(max - n) * nAtoms + a] = -s;
+                    double next = c * c1 - s * s1;
+                    s = s * c1 + c * s1;
+                    c = next;
+                }
+            }
+        }
+    }
+
+    private final class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = -6424361021716305734L;
+
+        private final PhaseTables tables;
+        private final int[] h, k, l;
+        private final int from, to;
+        private final double[] real, imaginary;
+
+        private BlockTask(PhaseTables tables, int[] h, int[] k, int[] l, int from, int to,
+                          double[] real, double[] imaginary) {
+            this.tables = tables;
+            this.h = h;
+            this.k = k;
+            this.l = l;
+            this.from = from;
+            this.to = to;
+            this.real = real;
+            this.imaginary = imaginary;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BLOCK_SIZE) {
+                calculateBlock();
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlockTask(tables, h, k, l, from, mid, real, imaginary),
+                        new BlockTask(tables, h, k, l, mid, to, real, imaginary));
+            }
+        }
+
+        private void calculateBlock() {
+            double[] scattering = new double[scatteringCoeffs.length];
+            for (int i = from; i < to; i++) {
+                int hi = h[i], ki = k[i], li = l[i];
+                double sSquared = 0.25 * DSpacingCalculator.inverseDSquared(coeffs, hi, ki, li);
+                for (int t = 0; t < scattering.length; t++) {
+                    scattering[t] = ScatteringFactors.calculate(scatteringCoeffs[t], sSquared);
+                }
+
+                int ox = (tables.hMax + hi) * nAtoms, oy = (tables.kMax + ki) * nAtoms,
+                        oz = (tables.lMax + li) * nAtoms;
+                double hh = hi * hi, kk = ki * ki, ll = li * li, hk = hi * ki, hl = hi * li, kl = ki * li;
+                double re = 0, im = 0;
+                for (int a = 0; a < nAtoms; a++) {
+                    double xr = tables.cosX[ox + a], xi = tables.sinX[ox + a];
+                    double yr = tables.cosY[oy + a], yi = tables.sinY[oy + a];
+                    double zr = tables.cosZ[oz + a], zi = tables.sinZ[oz + a];
+                    double xyr = xr * yr - xi * yi, xyi = xr * yi + xi * yr;
+                    double pr = xyr * zr - xyi * zi, pi = xyr * zi + xyi * zr;
+
+                    double scale = occupancies[a] * scattering[typeCodes[a]];
+                    if (anisotropic) {
+                        int b = 6 * a;
+                        scale *= Math.exp(-(betas[b] * hh + betas[b + 1] * kk + betas[b + 2] * ll
+                                + betas[b + 3] * hk + betas[b + 4] * hl + betas[b + 5] * kl));
+                    }
+                    re += scale * pr;
+                    im += scale * pi;
+                }
+                real[i] = re;
+                imaginary[i] = im;
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.Atom;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Crystal;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+import uk.co.norphos.crystallography.io.CifHandler;
+import uk.co.norphos.crystallography.io.CifParser;
+import uk.co.norphos.crystallography.io.CifStructureReader;
+import uk.co.norphos.crystallography.io.MappedCrystal;
+import uk.co.norphos.crystallography.io.StructureListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads every structure file in a directory tree or zip archive into
+ * {@link Crystal}s, parsing files in parallel on an {@link ExecutorService}.
+ * CIFs (.cif) and crystal files (.crystal, see {@link MappedCrystal}) are
+ * read; each data block with a unit cell gives one crystal.
+ *
+ * Results are passed to the consumer on the calling thread, so the consumer
+ * need not be thread safe. No more than maxInFlight files are read ahead of
+ * the consumer, which bounds the memory used however fast files are parsed.
+ * A file which cannot be read gives a {@link Result} holding the error,
+ * without stopping the others. If ordered, results are given in the order
+ * of the files (sorted by path in a directory, in entry order in an
+ * archive), so runs are repeatable; otherwise they are given as each file
+ * is finished.
+ *
+ * @author Michael Wharmby
+ */
+public class StructureLoader {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    /**
+     * The crystals read from one file, or the error which stopped it being
+     * read.
+     */
+    public static final class Result {
+        private final String source;
+        private final List<Crystal> crystals;
+        private final Exception error;
+
+        private Result(String source, List<Crystal> crystals, Exception error) {
+            this.source = source;
+            this.crystals = crystals;
+            this.error = error;
+        }
+
+        /**
+         * @return String path of the file (or archive entry) read
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return List of {@link Crystal}s, one for each data block (empty if the file could not be read)
+         */
+        public List<Crystal> getCrystals() {
+            return crystals;
+        }
+
+        /**
+         * @return Exception thrown while reading the file (null if read successfully)
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private final MathsFactory mathsFactory;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final boolean ordered;
+
+    /**
+     * Create a loader giving results in file order, with up to
+     * {@link #DEFAULT_MAX_IN_FLIGHT} files read ahead.
+     * @param mathsFactory {@link MathsFactory} for the unit cells
+     * @param executor ExecutorService to parse files on
+     */
+    public StructureLoader(MathsFactory mathsFactory, ExecutorService executor) {
+        this(mathsFactory, executor, DEFAULT_MAX_IN_FLIGHT, true);
+    }
+
+    /**
+     * Create a loader.
+     * @param mathsFactory {@link MathsFactory} for the unit cells
+     * @param executor ExecutorService to parse files on
+     * @param maxInFlight int most files being parsed or waiting for the consumer at once
+     * @param ordered boolean true to give results in file order
+     */
+    public StructureLoader(MathsFactory mathsFactory, ExecutorService executor, int maxInFlight, boolean ordered) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("At least one file must be in flight");
+        this.mathsFactory = mathsFactory;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Load all structures from a directory tree or zip archive.
+     * @param source Path of a directory or zip file
+     * @return List of {@link Result}s, one for each file
+     * @throws IOException if the directory or archive cannot be listed
+     */
+    public List<Result> load(Path source) throws IOException {
+        List<Result> results = new ArrayList<>();
+        load(source, results::add);
+        return results;
+    }
+
+    /**
+     * Load all structures from a directory tree or zip archive, passing the
+     * result for each file to a consumer.
+     * @param source Path of a directory or zip file
+     * @param consumer Consumer of each {@link Result}
+     * @throws IOException if the directory or archive cannot be listed
+     */
+    public void load(Path source, Consumer<Result> consumer) throws IOException {
+        if (Files.isDirectory(source)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(source)) {
+                files = walk.filter(file -> Files.isRegularFile(file) && isStructureFile(file.toString()))
+                        .sorted().collect(Collectors.toList());
+            }
+            Pipeline pipeline = new Pipeline(consumer);
+            for (Path file : files) {
+                pipeline.submit(() -> read(file));
+            }
+            pipeline.finish();
+        } else {
+            try (ZipFile zip = new ZipFile(source.toFile())) {
+                Pipeline pipeline = new Pipeline(consumer);
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory() || !isStructureFile(entry.getName())) continue;
+                    //Entries are read in turn here and only parsed in parallel
+                    byte[] bytes;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        bytes = readAll(in);
+                    } catch (IOException e) {
+                        pipeline.submit(() -> new Result(entry.getName(), Collections.emptyList(), e));
+                        continue;
+                    }
+                    pipeline.submit(() -> read(entry.getName(), bytes));
+                }
+                pipeline.finish();
+            }
+        }
+    }
+
+    private static boolean isStructureFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".cif") || lower.endsWith(".crystal");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buffer)) >= 0) out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private Result read(Path file) {
+        return read(file.toString(), () -> MappedCrystal.open(file), handler -> CifParser.parse(file, handler));
+    }
+
+    private Result read(String name, byte[] bytes) {
+        return read(name, () -> MappedCrystal.wrap(ByteBuffer.wrap(bytes)),
+                handler -> CifParser.parse(new ByteArrayInputStream(bytes), handler));
+    }
+
+    private Result read(String name, CrystalFileSource crystalFile, CifSource cif) {
+        try {
+            List<Crystal> crystals = new ArrayList<>();
+            if (name.toLowerCase(Locale.ROOT).endsWith(".crystal")) {
+                MappedCrystal stored = crystalFile.open();
+                if (stored.getLattice() != null) {
+                    crystals.add(createCrystal(stored.getLattice(), null, stored.getHermannMauguinSymbol(),
+                            stored.getHallSymbol(), stored.getSpaceGroupNumber(), stored.toAtomTable()));
+                }
+            } else {
+                cif.parse(new CifStructureReader(new CrystalCollector(crystals)));
+            }
+            return new Result(name, crystals, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(name, Collections.emptyList(), e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface CrystalFileSource {
+        MappedCrystal open() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface CifSource {
+        void parse(CifHandler handler) throws IOException;
+    }
+
+    private Crystal createCrystal(Lattice lattice, List<String> operators, String hermannMauguin, String hall,
+                                  Integer number, AtomTable atoms) {
+        Lattice classified = CrystallographyFactory.createLattice(lattice.getA(), lattice.getB(), lattice.getC(),
+                lattice.getAl(), lattice.getBe(), lattice.getGa());
+        List<Atom> asymmetricUnit = new ArrayList<>(atoms == null ? 0 : atoms.size());
+        for (int i = 0; atoms != null && i < atoms.size(); i++) {
+            asymmetricUnit.add(atoms.toAtom(i));
+        }
+        return new CrystalImpl(new UnitCellImpl(mathsFactory, classified),
+                findSpaceGroup(operators, hermannMauguin, hall, number), asymmetricUnit);
+    }
+
+    /**
+     * The symmetry operators and Hall symbol are the least ambiguous, so are
+     * tried first. Each description which is present but cannot be read
+     * (e.g. a full or non-standard Hermann-Mauguin symbol such as P 1 21/n 1)
+     * falls back to the next; only if none can be read is the first error
+     * thrown.
+     */
+    private static SpaceGroup findSpaceGroup(List<String> operators, String hermannMauguin, String hall,
+                                             Integer number) {
+        List<Supplier<SpaceGroup>> lookups = new ArrayList<>(4);
+        if (operators != null) lookups.add(() -> SpaceGroupFactory.getSpaceGroupFromOperators(operators));
+        if (hall != null) lookups.add(() -> SpaceGroupFactory.getSpaceGroupFromHallSymbol(hall));
+        if (hermannMauguin != null) lookups.add(() -> SpaceGroupFactory.getSpaceGroup(hermannMauguin));
+        if (number != null) lookups.add(() -> SpaceGroupFactory.getSpaceGroup(number));
+        IllegalArgumentException error = null;
+        for (Supplier<SpaceGroup> lookup : lookups) {
+            try {
+                return lookup.get();
+            } catch (IllegalArgumentException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) throw error;
+        return null;
+    }
+
+    /**
+     * Builds a crystal from each data block with a unit cell.
+     */
+    private final class CrystalCollector implements StructureListener {
+        private final List<Crystal> crystals;
+        private Lattice lattice;
+        private List<String> operators;
+        private String hermannMauguin, hall;
+        private Integer number;
+        private AtomTable atoms;
+
+        private CrystalCollector(List<Crystal> crystals) {
+            this.crystals = crystals;
+        }
+
+        @Override
+        public void startBlock(String name) {
+            lattice = null;
+            operators = null;
+            hermannMauguin = hall = null;
+            number = null;
+            atoms = null;
+        }
+
+        @Override
+        public void lattice(Lattice lattice) {
+            this.lattice = lattice;
+        }
+
+        @Override
+        public void symmetryOperators(List<String> operators) {
+            this.operators = operators;
+        }
+
+        @Override
+        public void spaceGroup(String hermannMauguin, String hall, Integer number) {
+            this.hermannMauguin = hermannMauguin;
+            this.hall = hall;
+            this.number = number;
+        }
+
+        @Override
+        public void atoms(AtomTable atoms) {
+            this.atoms = atoms;
+        }
+
+        @Override
+        public void reflections(ReflectionTable batch) {
+            //Reflections are not part of the crystal
+        }
+
+        @Override
+        public void endBlock() {
+            if (lattice != null) crystals.add(createCrystal(lattice, operators, hermannMauguin, hall, number, atoms));
+        }
+    }
+
+    /**
+     * Submits tasks to the executor, holding back the submitting thread when
+     * maxInFlight results are outstanding, and passes results to the
+     * consumer as they become due.
+     */
+    private final class Pipeline {
+        private final Consumer<Result> consumer;
+        private final CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        //Results finished out of turn, by sequence number
+        private final Map<Future<Result>, Integer> sequence = new HashMap<>();
+        private final Map<Integer, Result> waiting = new HashMap<>();
+        private int submitted, delivered;
+
+        private Pipeline(Consumer<Result> consumer) {
+            this.consumer = consumer;
+        }
+
+        private void submit(Callable<Result> task) throws IOException {
+            while (submitted - delivered >= maxInFlight) {
+                takeOne();
+            }
+            sequence.put(completion.submit(task), submitted++);
+        }
+
+        private void finish() throws IOException {
+            while (delivered < submitted) {
+                takeOne();
+            }
+        }
+
+        private void takeOne() throws IOException {
+            Future<Result> future;
+            try {
+                future = completion.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading structures", e);
+            }
+            Result result;
+            try {
+                result = future.get();
+            } catch (ExecutionException | InterruptedException e) {
+                //Tasks catch their own errors, so this is not expected
+                throw new IllegalStateException("Structure loading task failed", e);
+            }
+            int n = sequence.remove(future);
+            if (!ordered) {
+                delivered++;
+                consumer.accept(result);
+                return;
+            }
+            waiting.put(n, result);
+            while (waiting.containsKey(delivered)) {
+                consumer.accept(waiting.remove(delivered++));
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Expands the asymmetric unit of a structure into the full contents of the
+ * unit cell by applying every operator of a {@link SpaceGroup} to packed
+ * fractional coordinates, wrapping the images into [0, 1).
+ *
+ * Images of an atom on a special position coincide, so each image is kept
+ * only if no earlier image of the same atom lies within the tolerance along
+ * every axis (allowing for wrapping round the cell). Rather than comparing
+ * each image with all those before it, the kept images are put in a spatial
+ * hash of bins at least the tolerance wide, so only the 27 bins around an
+ * image need to be searched. The number of images kept is the multiplicity
+ * of the site. The first image of each atom is from the identity, so the
+ * atom itself is always kept.
+ *
+ * Blocks of atoms are expanded as separate tasks in a {@link ForkJoinPool}.
+ * Each task applies every operator to each of its atoms in turn, merging the
+ * images as they are made, so only the distinct sites of a block are stored
+ * before they are copied into place. An expander is immutable and may be
+ * shared between threads.
+ *
+ * @author Michael Wharmby
+ */
+public final class SymmetryExpander {
+
+    //Separation (in fractional coordinates) of images treated as one site
+    public static final double DEFAULT_TOLERANCE = 1e-4;
+
+    //Atoms handled by each fork-join task
+    private static final int BLOCK_SIZE = 256;
+    //Bins per axis are limited so that the three bin indices pack into a long
+    private static final int MAX_BINS = 1 << 20;
+
+    private final SpaceGroup spaceGroup;
+    private final int order;
+    private final int[] rotations;
+    private final double[] translations;
+    private final double tolerance;
+    private final int nBins;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an expander with the default tolerance, using the common
+     * fork-join pool.
+     * @param spaceGroup {@link SpaceGroup} (null for P1)
+     */
+    public SymmetryExpander(SpaceGroup spaceGroup) {
+        this(spaceGroup, DEFAULT_TOLERANCE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an expander.
+     * @param spaceGroup {@link SpaceGroup} (null for P1)
+     * @param tolerance double largest separation of coinciding images along each axis, in fractional coordinates
+     * @param pool {@link ForkJoinPool} to expand in
+     */
+    public SymmetryExpander(SpaceGroup spaceGroup, double tolerance, ForkJoinPool pool) {
+        if (!(tolerance > 0 && tolerance < 0.1)) throw new IllegalArgumentException("Tolerance must be in (0, 0.1)");
+        this.spaceGroup = spaceGroup == null ? SpaceGroupFactory.getSpaceGroup(1) : spaceGroup;
+        this.order = this.spaceGroup.getOrder();
+        this.rotations = this.spaceGroup.getRotations();
+        this.translations = this.spaceGroup.getTranslations();
+        this.tolerance = tolerance;
+        this.nBins = (int) Math.min(MAX_BINS, Math.floor(1 / tolerance));
+        this.pool = pool;
+    }
+
+    public SpaceGroup getSpaceGroup() {
+        return spaceGroup;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Expand the atoms of an {@link AtomTable}.
+     * @param asymmetricUnit {@link AtomTable}
+     * @return {@link Expansion}
+     */
+    public Expansion expand(AtomTable asymmetricUnit) {
+        return expand(asymmetricUnit.getCoordinateArray(), asymmetricUnit.size());
+    }
+
+    /**
+     * Expand atoms given by packed fractional coordinates.
+     * @param fracCoords double[] packed fractional coordinates
+     * @param nAtoms int number of atoms in fracCoords
+     * @return {@link Expansion}
+     */
+    public Expansion expand(double[] fracCoords, int nAtoms) {
+        if (fracCoords.length < 3 * nAtoms) {
+            throw new IndexOutOfBoundsException("Too few coordinates for "+nAtoms+" atoms");
+        }
+        //Distinct sites of the atoms of each block, in atom order
+        int nBlocks = (nAtoms + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        double[][] blockCoords = new double[nBlocks][];
+        int[][] blockOperators = new int[nBlocks][];
+        int[] counts = new int[nAtoms];
+        if (nAtoms > 0) {
+            pool.invoke(new ExpandTask(fracCoords, nAtoms, blockCoords, blockOperators, counts, 0, nBlocks));
+        }
+
+        int[] first = new int[nAtoms + 1];
+        for (int a = 0; a < nAtoms; a++) first[a + 1] = first[a] + counts[a];
+        int size = first[nAtoms];
+        double[] coords = new double[3 * size];
+        int[] atoms = new int[size], siteOperators = new int[size];
+        for (int b = 0; b < nBlocks; b++) {
+            int start = first[b * BLOCK_SIZE], end = first[Math.min(nAtoms, (b + 1) * BLOCK_SIZE)];
+            System.arraycopy(blockCoords[b], 0, coords, 3 * start, 3 * (end - start));
+            System.arraycopy(blockOperators[b], 0, siteOperators, start, end - start);
+        }
+        for (int a = 0; a < nAtoms; a++) {
+            for (int s = first[a]; s < first[a + 1]; s++) atoms[s] = a;
+        }
+        return new Expansion(spaceGroup, coords, atoms, siteOperators, first);
+    }
+
+    private static double wrap(double x) {
+        double wrapped = x - Math.floor(x);
+        //Tiny negative values round up to 1
+        return wrapped < 1 ? wrapped : 0;
+    }
+
+    /**
+     * Applies every operator to each atom of a range of blocks, keeping the
+     * distinct images of each atom and recording their operators and number.
+     */
+    private final class ExpandTask extends RecursiveAction {
+        private static final long serialVersionUID = 6130894417263258301L;
+
+        private final double[] coords;
+        private final double[][] blockCoords;
+        private final int[][] blockOperators;
+        private final int[] counts;
+        private final int nAtoms, from, to;
+
+        private ExpandTask(double[] coords, int nAtoms, double[][] blockCoords, int[][] blockOperators, int[] counts,
+                           int from, int to) {
+            this.coords = coords;
+            this.nAtoms = nAtoms;
+            this.blockCoords = blockCoords;
+            this.blockOperators = blockOperators;
+            this.counts = counts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ExpandTask(coords, nAtoms, blockCoords, blockOperators, counts, from, mid),
+                        new ExpandTask(coords, nAtoms, blockCoords, blockOperators, counts, mid, to));
+                return;
+            }
+            int start = from * BLOCK_SIZE, end = Math.min(nAtoms, start + BLOCK_SIZE);
+            //Grown as needed, so that special positions take little room
+            double[] sites = new double[3 * Math.max(order, end - start)];
+            int[] operators = new int[sites.length / 3];
+            int size = 0;
+            SiteHash hash = new SiteHash();
+            for (int a = start; a < end; a++) {
+                if (size + order > operators.length) {
+                    operators = Arrays.copyOf(operators, Math.max(2 * operators.length, size + order));
+                    sites = Arrays.copyOf(sites, 3 * operators.length);
+                }
+                double x = coords[3 * a], y = coords[3 * a + 1], z = coords[3 * a + 2];
+                int kept = 0;
+                hash.clear();
+                for (int op = 0; op < order; op++) {
+                    int r = 9 * op, t = 3 * op;
+                    double u = wrap(rotations[r] * x + rotations[r + 1] * y + rotations[r + 2] * z + translations[t]);
+                    double v = wrap(rotations[r + 3] * x + rotations[r + 4] * y + rotations[r + 5] * z
+                            + translations[t + 1]);
+                    double w = wrap(rotations[r + 6] * x + rotations[r + 7] * y + rotations[r + 8] * z
+                            + translations[t + 2]);
+                    int bu = bin(u), bv = bin(v), bw = bin(w);
+                    if (hash.containsNear(sites, size, u, v, w, bu, bv, bw)) continue;
+
+                    int dst = 3 * (size + kept);
+                    sites[dst] = u;
+                    sites[dst + 1] = v;
+                    sites[dst + 2] = w;
+                    operators[size + kept] = op;
+                    hash.add(key(bu, bv, bw), kept);
+                    kept++;
+                }
+                counts[a] = kept;
+                size += kept;
+            }
+            blockCoords[from] = sites;
+            blockOperators[from] = operators;
+        }
+    }
+
+    private int bin(double x) {
+        return Math.min((int) (x * nBins), nBins - 1);
+    }
+
+    private long key(int bx, int by, int bz) {
+        return ((long) bx * nBins + by) * nBins + bz;
+    }
+
+    /**
+     * Open-addressed hash from bin to the chain of kept images of one atom
+     * in that bin. Sized for every image of an atom being kept, and cleared
+     * between atoms by resetting only the slots used.
+     */
+    private final class SiteHash {
+        private final long[] keys;
+        private final int[] heads, next, used;
+        private final int mask;
+        private int nUsed;
+
+        private SiteHash() {
+            int capacity = 16;
+            while (capacity < 2 * order) capacity <<= 1;
+            keys = new long[capacity];
+            heads = new int[capacity];
+            used = new int[capacity];
+            next = new int[order];
+            mask = capacity - 1;
+            Arrays.fill(heads, -1);
+        }
+
+        private void clear() {
+            for (int i = 0; i < nUsed; i++) heads[used[i]] = -1;
+            nUsed = 0;
+        }
+
+        private int slot(long key) {
+            int s = (int) (key ^ (key >>> 29)) * 0x9E3779B9 & mask;
+            while (heads[s] >= 0 && keys[s] != key) s = (s + 1) & mask;
+            return s;
+        }
+
+        private void add(long key, int site) {
+            int s = slot(key);
+            if (heads[s] < 0) {
+                keys[s] = key;
+                used[nUsed++] = s;
+            }
+            next[site] = heads[s];
+            heads[s] = site;
+        }
+
+        /**
+         * Whether a kept image of the atom whose kept images start at site
+         * base of sites is within tolerance of (x, y, z), in bin (bx, by, bz).
+         */
+        private boolean containsNear(double[] sites, int base, double x, double y, double z, int bx, int by,
+                                     int bz) {
+            for (int i = -1; i <= 1; i++) {
+                int nx = Math.floorMod(bx + i, nBins);
+                for (int j = -1; j <= 1; j++) {
+                    int ny = Math.floorMod(by + j, nBins);
+                    for (int k = -1; k <= 1; k++) {
+                        int s = slot(key(nx, ny, Math.floorMod(bz + k, nBins)));
+                        for (int site = heads[s]; site >= 0; site = next[site]) {
+                            int p = 3 * (base + site);
+                            if (near(sites[p], x) && near(sites[p + 1], y) && near(sites[p + 2], z)) return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean near(double u, double v) {
+            double diff = Math.abs(u - v);
+            return Math.min(diff, 1 - diff) < tolerance;
+        }
+    }
+
+    /**
+     * Contents of the unit cell. The sites of each atom of the asymmetric
+     * unit are consecutive, in the order of the atoms.
+     */
+    public static final class Expansion {
+
+        private final SpaceGroup spaceGroup;
+        private final double[] coords;
+        private final int[] atoms, operators, first;
+
+        private Expansion(SpaceGroup spaceGroup, double[] coords, int[] atoms, int[] operators, int[] first) {
+            this.spaceGroup = spaceGroup;
+            this.coords = coords;
+            this.atoms = atoms;
+            this.operators = operators;
+            this.first = first;
+        }
+
+        /**
+         * @return int number of sites in the unit cell
+         */
+        public int size() {
+            return atoms.length;
+        }
+
+        /**
+         * Return the packed fractional coordinates of the sites, each in
+         * [0, 1). The array is not copied.
+         * @return double[3 * {@link #size()}]
+         */
+        public double[] getCoordinateArray() {
+            return coords;
+        }
+
+        public double getX(int site) {
+            return coords[3 * site];
+        }
+
+        public double getY(int site) {
+            return coords[3 * site + 1];
+        }
+
+        public double getZ(int site) {
+            return coords[3 * site + 2];
+        }
+
+        /**
+         * @param site int
+         * @return int index in the asymmetric unit of the atom at the site
+         */
+        public int getAtom(int site) {
+            return atoms[site];
+        }
+
+        /**
+         * @param site int
+         * @return int number of the space group operator which generated the site
+         */
+        public int getOperator(int site) {
+            return operators[site];
+        }
+
+        /**
+         * @param atom int index in the asymmetric unit
+         * @return int first site of the atom
+         */
+        public int getFirstSite(int atom) {
+            return first[atom];
+        }
+
+        /**
+         * @param atom int index in the asymmetric unit
+         * @return int number of sites of the atom in the unit cell
+         */
+        public int getMultiplicity(int atom) {
+            return first[atom + 1] - first[atom];
+        }
+
+        /**
+         * Create a table of the contents of the unit cell, with the name,
+         * type, occupancy and U<sub>ij</sub> (rotated by the operator) of
+         * the atom at each site. Atoms are not renamed.
+         * @param asymmetricUnit {@link AtomTable} which was expanded
+         * @return {@link AtomTable}
+         */
+        public AtomTable toAtomTable(AtomTable asymmetricUnit) {
+            AtomTable table = new AtomTable(size());
+            double[][] uij = new double[3][3];
+            for (int s = 0; s < size(); s++) {
+                int a = atoms[s];
+                int i = table.add(asymmetricUnit.getName(a), asymmetricUnit.getType(a), coords[3 * s],
+                        coords[3 * s + 1], coords[3 * s + 2], asymmetricUnit.getOcc(a));
+                if (operators[s] == 0) {
+                    for (int c = 0; c < 6; c++) table.setUij(i, c, asymmetricUnit.getUij(a, c));
+                    continue;
+                }
+                //U' = R U R^T
+                double[][] u = asymmetricUnit.getUijMatrix(a);
+                for (int r = 0; r < 3; r++) {
+                    for (int c = 0; c < 3; c++) {
+                        double sum = 0;
+                        for (int m = 0; m < 3; m++) {
+                            for (int p = 0; p < 3; p++) {
+                                sum += spaceGroup.getRotation(operators[s], r, m) * u[m][p]
+                                        * spaceGroup.getRotation(operators[s], c, p);
+                            }
+                        }
+                        uij[r][c] = sum;
+                    }
+                }
+                table.setUijMatrix(i, uij);
+            }
+            return table;
+        }
+    }
+}
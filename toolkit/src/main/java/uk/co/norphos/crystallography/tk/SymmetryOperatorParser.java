@@ -0,0 +1,99 @@
+package uk.co.norphos.crystallography.tk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates the operators of a space group from symmetry operators written
+ * as coordinate triplets, e.g. "-x, y+1/2, -z+1/2", as listed in the
+ * _space_group_symop_operation_xyz (or _symmetry_equiv_pos_as_xyz) loop of a
+ * CIF.
+ *
+ * Operators are read into the same int[12] form as
+ * {@link HallSymbolParser}, with translations in twelfths of a lattice
+ * vector, and closed into a group, so a list of generators is enough.
+ *
+ * @author Michael Wharmby
+ */
+final class SymmetryOperatorParser {
+
+    //Translations of space group operators are all multiples of 1/12
+    private static final double TWELFTHS_TOLERANCE = 0.01;
+
+    private SymmetryOperatorParser() {
+    }
+
+    /**
+     * Parse coordinate triplets into a space group.
+     * @param operators List of String coordinate triplets
+     * @return {@link SpaceGroupImpl} with no number or symbols
+     * @throws IllegalArgumentException if an operator cannot be parsed or
+     * the operators do not form a space group
+     */
+    static SpaceGroupImpl parse(List<String> operators) {
+        List<int[]> generators = new ArrayList<>(operators.size());
+        for (String operator : operators) {
+            generators.add(parseOperator(operator));
+        }
+        String source = "symmetry operators "+operators;
+        return HallSymbolParser.arrange(0, null, null, HallSymbolParser.close(generators, source), source);
+    }
+
+    /**
+     * Parse one coordinate triplet, e.g. "-x+1/2,y,-z" or "1/2-X, Y, -Z",
+     * into an int[12] operator.
+     */
+    static int[] parseOperator(String operator) {
+        String[] rows = operator.replaceAll("\\s", "").toLowerCase(Locale.ROOT).split(",", -1);
+        if (rows.length != 3) throw invalid(operator, "expected three comma separated coordinates");
+        int[] op = new int[12];
+        for (int i = 0; i < 3; i++) {
+            String row = rows[i];
+            if (row.isEmpty()) throw invalid(operator, "empty coordinate");
+            double translation = 0;
+            int pos = 0;
+            while (pos < row.length()) {
+                int sign = 1;
+                if (row.charAt(pos) == '+' || row.charAt(pos) == '-') {
+                    if (row.charAt(pos) == '-') sign = -1;
+                    pos++;
+                } else if (pos > 0) {
+                    //Only the first term can be unsigned, so e.g. 2x is not read as 2 + x
+                    throw invalid(operator, "missing sign before '"+row.substring(pos)+"'");
+                }
+                if (pos == row.length()) throw invalid(operator, "sign without a term in '"+row+"'");
+                char c = row.charAt(pos);
+                if (c >= 'x' && c <= 'z') {
+                    op[3 * i + (c - 'x')] += sign;
+                    pos++;
+                } else {
+                    int start = pos;
+                    while (pos < row.length() && "0123456789./".indexOf(row.charAt(pos)) >= 0) pos++;
+                    if (pos == start) throw invalid(operator, "unexpected '"+c+"' in '"+row+"'");
+                    translation += sign * number(row.substring(start, pos), operator);
+                }
+            }
+            double twelfths = 12 * translation;
+            if (!Double.isFinite(twelfths) || Math.abs(twelfths - Math.rint(twelfths)) > TWELFTHS_TOLERANCE) {
+                throw invalid(operator, "translation is not a multiple of 1/12");
+            }
+            op[9 + i] = Math.floorMod((int) Math.rint(twelfths), 12);
+        }
+        return op;
+    }
+
+    private static double number(String term, String operator) {
+        try {
+            int slash = term.indexOf('/');
+            if (slash < 0) return Double.parseDouble(term);
+            return Double.parseDouble(term.substring(0, slash)) / Double.parseDouble(term.substring(slash + 1));
+        } catch (NumberFormatException nfe) {
+            throw invalid(operator, "bad number '"+term+"'");
+        }
+    }
+
+    private static IllegalArgumentException invalid(String operator, String reason) {
+        return new IllegalArgumentException("Invalid symmetry operator '"+operator+"': "+reason);
+    }
+}
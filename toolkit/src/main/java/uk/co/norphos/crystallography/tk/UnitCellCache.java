@@ -0,0 +1,174 @@
+package uk.co.norphos.crystallography.tk;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+import uk.co.norphos.crystallography.api.maths.MathsFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link UnitCell}s by {@link Lattice}, so that a job
+ * creating cells for the same few lattices over and over shares one cell for
+ * each, along with its metric tensors, reciprocal cell and matrices once
+ * they have been calculated. Lattices are matched by
+ * {@link Lattice#equals(Object)}, i.e. on their parameters quantised to
+ * {@link Lattice#LENGTH_QUANTUM} and {@link Lattice#ANGLE_QUANTUM}.
+ *
+ * When full, the least recently used cell is evicted. Counts of hits, misses
+ * and evictions are kept to judge whether the cache is worth having and
+ * large enough. The cache may be shared between threads; the cells given
+ * out are immutable.
+ *
+ * @author Michael Wharmby
+ */
+public class UnitCellCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final MathsFactory mathsFactory;
+    private final int maxSize;
+    private final LruMap cells;
+    private long hits, misses;
+
+    /**
+     * Create a cache holding up to {@link #DEFAULT_MAX_SIZE} cells.
+     * @param mathsFactory {@link MathsFactory} for the cells
+     */
+    public UnitCellCache(MathsFactory mathsFactory) {
+        this(mathsFactory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a cache.
+     * @param mathsFactory {@link MathsFactory} for the cells
+     * @param maxSize int most cells held
+     */
+    public UnitCellCache(MathsFactory mathsFactory, int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("Cache must hold at least one cell");
+        this.mathsFactory = mathsFactory;
+        this.maxSize = maxSize;
+        this.cells = new LruMap(maxSize);
+    }
+
+    /**
+     * Return the cached cell for a lattice, creating and caching it if there
+     * is none. The cell is created outside the lock, so two threads asking
+     * for the same new lattice may both create it, but both are given the
+     * one which was cached.
+     * @param lattice {@link Lattice}
+     * @return {@link UnitCell}
+     */
+    public UnitCell getUnitCell(Lattice lattice) {
+        synchronized (cells) {
+            UnitCell cell = cells.get(lattice);
+            if (cell != null) {
+                hits++;
+                return cell;
+            }
+            misses++;
+        }
+        UnitCell created = new UnitCellImpl(mathsFactory, lattice);
+        synchronized (cells) {
+            UnitCell cell = cells.putIfAbsent(lattice, created);
+            return cell == null ? created : cell;
+        }
+    }
+
+    /**
+     * Remove all cells. Statistics are not reset.
+     */
+    public void clear() {
+        synchronized (cells) {
+            cells.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cells) {
+            return cells.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return long number of requests answered from the cache
+     */
+    public long getHits() {
+        synchronized (cells) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return long number of requests for which a new cell was created
+     */
+    public long getMisses() {
+        synchronized (cells) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return long number of cells removed to make room for others
+     */
+    public long getEvictions() {
+        synchronized (cells) {
+            return cells.evictions;
+        }
+    }
+
+    /**
+     * @return double fraction of requests answered from the cache (NaN if there have been none)
+     */
+    public double getHitRate() {
+        synchronized (cells) {
+            return (double) hits / (hits + misses);
+        }
+    }
+
+    /**
+     * Reset the hit, miss and eviction counts to zero.
+     */
+    public void resetStatistics() {
+        synchronized (cells) {
+            hits = misses = cells.evictions = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (cells) {
+            return "UnitCellCache [size=" + cells.size() + ", maxSize=" + maxSize + ", hits=" + hits + ", misses="
+                    + misses + ", evictions=" + cells.evictions + "]";
+        }
+    }
+
+    /**
+     * Access ordered map which evicts its least recently used entry when it
+     * grows beyond maxSize, counting the evictions.
+     */
+    private static final class LruMap extends LinkedHashMap<Lattice, UnitCell> {
+        private static final long serialVersionUID = 3380417742856951906L;
+
+        private final int maxSize;
+        private long evictions;
+
+        private LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Lattice, UnitCell> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package uk.co.norphos.crystallography.tk;
 
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
 import uk.co.norphos.crystallography.api.Lattice;
 import uk.co.norphos.crystallography.api.MillerPlane;
 import uk.co.norphos.crystallography.api.UnitCell;
@@ -7,22 +8,32 @@ import uk.co.norphos.crystallography.api.maths.MathsFactory;
 import uk.co.norphos.crystallography.api.maths.Matrix;
 import uk.co.norphos.crystallography.api.maths.Vector;
 
+/**
+ * {@link UnitCell} built around a {@link Lattice} or a metric tensor.
+ *
+ * Only the lattice is determined on construction. The metric tensors, the
+ * reciprocal cell, the orthogonalisation and fractionalisation matrices and
+ * the Niggli reduced cell are calculated the first time they are requested
+ * and then cached. Each is calculated at most once, even when the cell is
+ * shared between threads.
+ *
+ * @author Michael Wharmby
+ */
 public class UnitCellImpl implements UnitCell {
 
     private final MathsFactory mathsFactory;
+    private final Lattice lattice;
 
-    private Lattice lattice;
-    private Matrix metricTensor, orthogonalisationMatrix;
-    private UnitCell reciprocalUnitCell;
+    private final Object lock = new Object();
+    private volatile Matrix metricTensor, reciprocalMetricTensor,
+            orthogonalisationMatrix, fractionalisationMatrix;
+    private volatile UnitCell reciprocalUnitCell, niggliReducedCell;
+    private volatile Matrix niggliTransformation;
+    private volatile double[] metricCoefficients, reciprocalCoefficients;
 
     public UnitCellImpl(MathsFactory mathsFactory, Lattice lattice) {
-        this.lattice = lattice;
         this.mathsFactory = mathsFactory;
-
-        this.metricTensor = determineMetricTensor(lattice);
-        reciprocalUnitCell = new UnitCellImpl(mathsFactory, metricTensor, true);
-
-        this.orthogonalisationMatrix = determineOrthogonalisationMatrix();
+        this.lattice = lattice;
     }
 
     public UnitCellImpl(MathsFactory mathsFactory, Matrix metricTensor) {
@@ -32,16 +43,28 @@ public class UnitCellImpl implements UnitCell {
     public UnitCellImpl(MathsFactory mathsFactory, Matrix metricTensor, boolean reciprocal) {
         this.mathsFactory = mathsFactory;
         if (reciprocal) {
+            //Supplied tensor is the reciprocal of this cell's
+            this.reciprocalMetricTensor = metricTensor;
             this.metricTensor = metricTensor.getInverse();
         } else {
             this.metricTensor = metricTensor;
-            reciprocalUnitCell = new UnitCellImpl(mathsFactory, metricTensor, true);
-            this.orthogonalisationMatrix = determineOrthogonalisationMatrix();
         }
         this.lattice = CrystallographyFactory.createLattice(this.metricTensor);
-}
+    }
+
+    /**
+     * Create the reciprocal of an existing cell, sharing the already
+     * calculated reciprocal metric tensor.
+     */
+    private UnitCellImpl(MathsFactory mathsFactory, Matrix metricTensor, UnitCell reciprocalUnitCell) {
+        this.mathsFactory = mathsFactory;
+        this.metricTensor = metricTensor;
+        this.reciprocalUnitCell = reciprocalUnitCell;
+        this.reciprocalMetricTensor = reciprocalUnitCell.getMetricTensor();
+        this.lattice = CrystallographyFactory.createLattice(metricTensor);
+    }
 
-    private Matrix determineMetricTensor(Lattice lattice) {
+    private Matrix determineMetricTensor() {
         double[] lengths = lattice.getLengths();
         double[] angles = lattice.getAnglesRadians();
 
@@ -62,61 +85,296 @@ public class UnitCellImpl implements UnitCell {
         }
         return mathsFactory.createMatrix(tensor);
     }
+
+    /*
+     * [ a, b cos ga, c cos be                          ]
+     * [ 0, b sin ga, c (cos al - cos be cos ga) / sin ga ]
+     * [ 0,        0, c v / sin ga                      ]
+     * where v = V / abc
+     */
     private Matrix determineOrthogonalisationMatrix() {
-        double[][] matrix = new double[][]{{lattice.getA(), lattice.getB() * Math.cos(lattice.getGaR()), lattice.getC() * Math.cos(lattice.getBeR())},
-                {0, lattice.getB() * Math.sin(lattice.getGaR()), -lattice.getC() * Math.cos(getReciprocalLattice().getAlR())},
-                {0, 0, 1 / getReciprocalLattice().getC()}};
+        double cosAl = Math.cos(lattice.getAlR()), cosBe = Math.cos(lattice.getBeR()),
+                cosGa = Math.cos(lattice.getGaR()), sinGa = Math.sin(lattice.getGaR());
+        double v = reducedVolume(cosAl, cosBe, cosGa);
+        double a = lattice.getA(), b = lattice.getB(), c = lattice.getC();
+
+        double[][] matrix = new double[][]{{a, b * cosGa, c * cosBe},
+                {0, b * sinGa, c * (cosAl - cosBe * cosGa) / sinGa},
+                {0, 0, c * v / sinGa}};
+        return mathsFactory.createMatrix(matrix);
+    }
+
+    /*
+     * Closed form inverse of the (upper triangular) orthogonalisation matrix
+     */
+    private Matrix determineFractionalisationMatrix() {
+        double cosAl = Math.cos(lattice.getAlR()), cosBe = Math.cos(lattice.getBeR()),
+                cosGa = Math.cos(lattice.getGaR()), sinGa = Math.sin(lattice.getGaR());
+        double v = reducedVolume(cosAl, cosBe, cosGa);
+        double a = lattice.getA(), b = lattice.getB(), c = lattice.getC();
+
+        double[][] matrix = new double[][]{{1 / a, -cosGa / (a * sinGa), (cosAl * cosGa - cosBe) / (a * v * sinGa)},
+                {0, 1 / (b * sinGa), (cosBe * cosGa - cosAl) / (b * v * sinGa)},
+                {0, 0, sinGa / (c * v)}};
         return mathsFactory.createMatrix(matrix);
     }
 
+    /**
+     * Volume of a cell with unit length edges and the given angles.
+     */
+    private static double reducedVolume(double cosAl, double cosBe, double cosGa) {
+        return Math.sqrt(1 - cosAl * cosAl - cosBe * cosBe - cosGa * cosGa + 2 * cosAl * cosBe * cosGa);
+    }
+
     @Override
     public Lattice getLattice() {
         return lattice;
     }
 
+    @Override
+    public double getVolume() {
+        Double volume = lattice.getVolume();
+        if (volume != null) return volume;
+        return lattice.getA() * lattice.getB() * lattice.getC() * reducedVolume(
+                Math.cos(lattice.getAlR()), Math.cos(lattice.getBeR()), Math.cos(lattice.getGaR()));
+    }
+
     @Override
     public Matrix getMetricTensor() {
-        return metricTensor;
+        Matrix result = metricTensor;
+        if (result == null) {
+            synchronized (lock) {
+                result = metricTensor;
+                if (result == null) {
+                    metricTensor = result = determineMetricTensor();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Matrix getReciprocalMetricTensor() {
+        Matrix result = reciprocalMetricTensor;
+        if (result == null) {
+            synchronized (lock) {
+                result = reciprocalMetricTensor;
+                if (result == null) {
+                    reciprocalMetricTensor = result = getMetricTensor().getInverse();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the six independent elements of the metric tensor, in the
+     * order used by {@link DSpacingCalculator}.
+     * @return double[6] (should not be modified)
+     */
+    private double[] getMetricCoefficients() {
+        double[] result = metricCoefficients;
+        if (result == null) {
+            synchronized (lock) {
+                result = metricCoefficients;
+                if (result == null) {
+                    metricCoefficients = result = DSpacingCalculator.coefficients(getMetricTensor());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the six independent elements of the reciprocal metric tensor,
+     * in the order used by {@link DSpacingCalculator}.
+     * @return double[6] (should not be modified)
+     */
+    private double[] getReciprocalCoefficients() {
+        double[] result = reciprocalCoefficients;
+        if (result == null) {
+            synchronized (lock) {
+                result = reciprocalCoefficients;
+                if (result == null) {
+                    reciprocalCoefficients = result = DSpacingCalculator.coefficients(getReciprocalMetricTensor());
+                }
+            }
+        }
+        return result;
     }
 
     @Override
     public UnitCell getReciprocal() {
-        return this.reciprocalUnitCell;
+        UnitCell result = reciprocalUnitCell;
+        if (result == null) {
+            synchronized (lock) {
+                result = reciprocalUnitCell;
+                if (result == null) {
+                    reciprocalUnitCell = result = new UnitCellImpl(mathsFactory, getReciprocalMetricTensor(), this);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public UnitCell getNiggliReducedCell() {
+        UnitCell result = niggliReducedCell;
+        if (result == null) {
+            synchronized (lock) {
+                result = niggliReducedCell;
+                if (result == null) {
+                    reduce();
+                    result = niggliReducedCell;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Matrix getNiggliTransformation() {
+        Matrix result = niggliTransformation;
+        if (result == null) {
+            synchronized (lock) {
+                result = niggliTransformation;
+                if (result == null) {
+                    reduce();
+                    result = niggliTransformation;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determine the reduced cell and transformation together. Must be
+     * called holding the lock.
+     */
+    private void reduce() {
+        double[] g6 = NiggliReduction.toG6(getMetricCoefficients(), new double[6]);
+        int[] transform = new int[9];
+        NiggliReduction.reduce(g6, transform);
+
+        double[][] matrix = new double[3][3];
+        for (int i = 0; i < 9; i++) matrix[i / 3][i % 3] = transform[i];
+        niggliTransformation = mathsFactory.createMatrix(matrix);
+        niggliReducedCell = new UnitCellImpl(mathsFactory, NiggliReduction.toLattice(g6));
     }
 
     @Override
     public Matrix getFractionalizationMatrix() {
-        return null;
+        Matrix result = fractionalisationMatrix;
+        if (result == null) {
+            synchronized (lock) {
+                result = fractionalisationMatrix;
+                if (result == null) {
+                    fractionalisationMatrix = result = determineFractionalisationMatrix();
+                }
+            }
+        }
+        return result;
     }
 
     @Override
     public Matrix getOrthogonalizationMatrix() {
-        return null;
+        Matrix result = orthogonalisationMatrix;
+        if (result == null) {
+            synchronized (lock) {
+                result = orthogonalisationMatrix;
+                if (result == null) {
+                    orthogonalisationMatrix = result = determineOrthogonalisationMatrix();
+                }
+            }
+        }
+        return result;
     }
 
     @Override
     public double calculateLength(Vector fracVec) {
-        return 0;
+        double x = fracVec.get(0), y = fracVec.get(1), z = fracVec.get(2);
+        return Math.sqrt(scalarProduct(getMetricCoefficients(), x, y, z, x, y, z));
+    }
+
+    @Override
+    public double calculateDistance(Vector site1, Vector site2) {
+        double x = site2.get(0) - site1.get(0), y = site2.get(1) - site1.get(1), z = site2.get(2) - site1.get(2);
+        return Math.sqrt(scalarProduct(getMetricCoefficients(), x, y, z, x, y, z));
     }
 
     @Override
     public double calculateAngle(Vector fracVec1, Vector fracVec2) {
-        return 0;
+        double[] g = getMetricCoefficients();
+        double x1 = fracVec1.get(0), y1 = fracVec1.get(1), z1 = fracVec1.get(2),
+                x2 = fracVec2.get(0), y2 = fracVec2.get(1), z2 = fracVec2.get(2);
+        double cos = scalarProduct(g, x1, y1, z1, x2, y2, z2) / Math.sqrt(scalarProduct(g, x1, y1, z1, x1, y1, z1)
+                * scalarProduct(g, x2, y2, z2, x2, y2, z2));
+        //Rounding can take parallel vectors just outside [-1, 1]
+        return Math.acos(Math.max(-1, Math.min(1, cos)));
+    }
+
+    /*
+     * u.v = u^T G v in fractional coordinates
+     */
+    private static double scalarProduct(double[] g, double x1, double y1, double z1, double x2, double y2, double z2) {
+        return g[DSpacingCalculator.G11] * x1 * x2 + g[DSpacingCalculator.G22] * y1 * y2
+                + g[DSpacingCalculator.G33] * z1 * z2
+                + g[DSpacingCalculator.G12] * (x1 * y2 + y1 * x2)
+                + g[DSpacingCalculator.G13] * (x1 * z2 + z1 * x2)
+                + g[DSpacingCalculator.G23] * (y1 * z2 + z1 * y2);
     }
 
+    /*
+     * With b1 = 2-1, b2 = 3-2 & b3 = 4-3 in Cartesian coordinates, the angle
+     * is atan2(|b2| b1.(b2 x b3), (b1 x b2).(b2 x b3)), signed as in IUPAC
+     * torsion angles.
+     */
     @Override
     public double calculateDihedralAngle(Vector site1, Vector site2, Vector site3, Vector site4) {
-        return 0;
+        double[] sites = new double[12];
+        Vector[] fracSites = {site1, site2, site3, site4};
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 3; j++) sites[3 * i + j] = fracSites[i].get(j);
+        }
+        orthogonalize(sites, sites);
+
+        double[] b1 = new double[3], b2 = new double[3], b3 = new double[3];
+        for (int j = 0; j < 3; j++) {
+            b1[j] = sites[3 + j] - sites[j];
+            b2[j] = sites[6 + j] - sites[3 + j];
+            b3[j] = sites[9 + j] - sites[6 + j];
+        }
+        double[] n1 = cross(b1, b2), n2 = cross(b2, b3);
+        double b2Length = Math.sqrt(b2[0] * b2[0] + b2[1] * b2[1] + b2[2] * b2[2]);
+        double y = b2Length * (b1[0] * n2[0] + b1[1] * n2[1] + b1[2] * n2[2]);
+        double x = n1[0] * n2[0] + n1[1] * n2[1] + n1[2] * n2[2];
+        return Math.atan2(y, x);
+    }
+
+    private static double[] cross(double[] u, double[] v) {
+        return new double[]{u[1] * v[2] - u[2] * v[1], u[2] * v[0] - u[0] * v[2], u[0] * v[1] - u[1] * v[0]};
     }
 
     @Override
     public MillerPlane getMaxMillerIndex(double dSpacing) {
-        return null;
+        //|h| = |a.d*| <= a/d, with equality when d* is parallel to a
+        return new MillerPlane(maxIndex(lattice.getA(), dSpacing), maxIndex(lattice.getB(), dSpacing),
+                maxIndex(lattice.getC(), dSpacing));
+    }
+
+    private static int maxIndex(double length, double dSpacing) {
+        //Allow for rounding when the limit is an exact fraction of the length
+        return (int) Math.floor(length / dSpacing + 1e-9);
     }
 
     @Override
     public double calculateDSpacing(MillerPlane hkl) {
-        return 0;
+        return DSpacingCalculator.dSpacing(getReciprocalCoefficients(), hkl.getH(), hkl.getK(), hkl.getL());
+    }
+
+    @Override
+    public void calculateDSpacings(int[] h, int[] k, int[] l, int from, int to, double[] dSpacings, double[] qValues) {
+        DSpacingCalculator.dSpacings(getReciprocalCoefficients(), h, k, l, from, to, dSpacings, qValues);
     }
 
     @Override
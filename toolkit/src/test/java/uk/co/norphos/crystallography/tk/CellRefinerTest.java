@@ -0,0 +1,136 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CellRefinerTest {
+
+    @Test
+    public void testExactCells() {
+        double[][] cells = {{5.1, 6.3, 7.4, 90, 103.5, 90}, {3.21, 3.21, 5.21, 90, 90, 120},
+                {5.3, 5.3, 5.3, 58.2, 58.2, 58.2}, {5.1, 6.3, 7.4, 81.2, 103.5, 95.7}};
+        CrystalSystem[] systems = {CrystalSystem.MONOCLINIC, CrystalSystem.HEXAGONAL, CrystalSystem.RHOMBOHEDRAL,
+                CrystalSystem.TRICLINIC};
+        PrincipleAxis[] axes = {PrincipleAxis.B, PrincipleAxis.C, PrincipleAxis.NONE, PrincipleAxis.NONE};
+        for (int i = 0; i < cells.length; i++) {
+            double[] cell = cells[i];
+            CellRefiner refiner = refiner(cell, 1.5, 0, null);
+            Lattice start = new Lattice(1, 1, 1, 90, 90, 90, null, systems[i], axes[i]);
+            CellRefiner.Refinement refinement = refiner.refine(start);
+            Lattice lattice = refinement.getLattice();
+            double[] actual = {lattice.getA(), lattice.getB(), lattice.getC(), lattice.getAl(), lattice.getBe(),
+                    lattice.getGa()};
+            for (int p = 0; p < 6; p++) {
+                assertEquals("Wrong parameter "+p+" of "+systems[i]+" cell", cell[p], actual[p], 1e-7);
+            }
+            assertEquals("Wrong crystal system", systems[i], lattice.getCrystalSystem());
+            assertEquals("Exact d-spacings should fit exactly", 0, refinement.getGoodnessOfFit(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testUncertainties() {
+        //Cubic: 1/d^2 = s/a^2 with s = h^2+k^2+l^2, so the fit can be checked by hand
+        double a = 5.6402;
+        int[][] hkl = {{1, 0, 0}, {1, 1, 0}, {1, 1, 1}, {2, 0, 0}, {2, 1, 0}, {2, 1, 1}, {2, 2, 0}, {3, 1, 0}};
+        int n = hkl.length;
+        int[] h = new int[n], k = new int[n], l = new int[n];
+        double[] d = new double[n];
+        Random random = new Random(42);
+        double sumSQ = 0, sumSS = 0;
+        double[] s = new double[n], q = new double[n];
+        for (int i = 0; i < n; i++) {
+            h[i] = hkl[i][0];
+            k[i] = hkl[i][1];
+            l[i] = hkl[i][2];
+            s[i] = h[i] * h[i] + k[i] * k[i] + l[i] * l[i];
+            d[i] = a / Math.sqrt(s[i]) * (1 + 2e-4 * random.nextGaussian());
+            q[i] = 1 / (d[i] * d[i]);
+            sumSQ += s[i] * q[i];
+            sumSS += s[i] * s[i];
+        }
+        double p = sumSQ / sumSS, residual = 0;
+        for (int i = 0; i < n; i++) residual += Math.pow(q[i] - s[i] * p, 2);
+        double sigmaP = Math.sqrt(residual / (n - 1) / sumSS);
+
+        double[] parameters = new double[6], uncertainties = new double[6];
+        double goodnessOfFit = new CellRefiner(h, k, l, d).refine(CrystalSystem.CUBIC, PrincipleAxis.NONE,
+                parameters, uncertainties);
+        assertEquals("Wrong goodness of fit", Math.sqrt(residual / (n - 1)), goodnessOfFit, 1e-12);
+        assertEquals("Wrong a", 1 / Math.sqrt(p), parameters[0], 1e-10);
+        assertEquals("Wrong s.u. of a", 0.5 * Math.pow(p, -1.5) * sigmaP, uncertainties[0], 1e-10);
+        assertEquals("Constrained b has the s.u. of a", uncertainties[0], uncertainties[1], 1e-12);
+        assertEquals("Fixed angle has no s.u.", 0, uncertainties[3], 1e-12);
+
+        //Monoclinic: the s.u.s match the scatter of repeated refinements
+        double[] cell = {5.1, 6.3, 7.4, 90, 103.5, 90};
+        double[] sum = new double[6], sumSq = new double[6], expected = new double[6];
+        int trials = 400;
+        for (int t = 0; t < trials; t++) {
+            CellRefiner refiner = refiner(cell, 1.2, 2e-4, random);
+            refiner.refine(CrystalSystem.MONOCLINIC, PrincipleAxis.B, parameters, uncertainties);
+            for (int i = 0; i < 6; i++) {
+                sum[i] += parameters[i];
+                sumSq[i] += parameters[i] * parameters[i];
+                expected[i] += uncertainties[i] / trials;
+            }
+        }
+        for (int i = 0; i < 6; i++) {
+            double scatter = Math.sqrt(Math.max(0, sumSq[i] / trials - Math.pow(sum[i] / trials, 2)));
+            if (i == 3 || i == 5) {
+                assertEquals("Fixed angle has no s.u.", 0, expected[i], 1e-9);
+            } else {
+                assertTrue("s.u. of parameter "+i+" ("+expected[i]+") differs from the scatter ("+scatter+")",
+                        Math.abs(expected[i] - scatter) < 0.2 * scatter);
+            }
+        }
+    }
+
+    @Test
+    public void testUndetermined() {
+        //Only h00 reflections cannot determine b or c
+        CellRefiner refiner = new CellRefiner(new int[]{1, 2, 3}, new int[3], new int[3],
+                new double[]{5, 2.5, 5 / 3.});
+        try {
+            refiner.refine(CrystalSystem.ORTHORHOMBIC, PrincipleAxis.NONE, new double[6], null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+        double[] parameters = new double[6];
+        refiner.refine(CrystalSystem.CUBIC, PrincipleAxis.NONE, parameters, null);
+        assertEquals("Wrong cubic cell", 5, parameters[2], 1e-12);
+    }
+
+    /**
+     * Refiner for all reflections of a cell to dMin, with random errors of
+     * the given fractional size in the d-spacings.
+     */
+    private static CellRefiner refiner(double[] cell, double dMin, double error, Random random) {
+        double[] coeffs = DSpacingCalculator.reciprocalCoefficients(cell[0], cell[1], cell[2], cell[3], cell[4],
+                cell[5], new double[6]);
+        ReflectionTable table = new ReflectionGenerator(coeffs, dMin).toTable();
+        int n = table.size();
+        int[] h = new int[n], k = new int[n], l = new int[n];
+        double[] d = new double[n], uncertainties = new double[n];
+        for (int i = 0; i < n; i++) {
+            h[i] = table.getH(i);
+            k[i] = table.getK(i);
+            l[i] = table.getL(i);
+            d[i] = DSpacingCalculator.dSpacing(coeffs, h[i], k[i], l[i]);
+            uncertainties[i] = error * d[i];
+            if (error != 0) d[i] += uncertainties[i] * random.nextGaussian();
+        }
+        return error == 0 ? new CellRefiner(h, k, l, d) : new CellRefiner(h, k, l, d, uncertainties);
+    }
+}
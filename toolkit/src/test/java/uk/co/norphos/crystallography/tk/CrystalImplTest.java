@@ -0,0 +1,63 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.Atom;
+import uk.co.norphos.crystallography.api.Lattice;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CrystalImplTest {
+
+    @Test
+    public void testAsymmetricUnitKeepsAtoms() {
+        CrystalImpl crystal = new CrystalImpl(new UnitCellImpl(new ApacheMathsFactory(),
+                new Lattice(5.6402, 5.6402, 5.6402, 90, 90, 90)));
+        Atom na = new Atom("Na1", "Na", 0, 0, 0, 1, null, 1.02, 6, 1, 23);
+        Atom cl = new Atom("Cl1", "Cl", 0.5, 0.5, 0.5, 1, null, 1.81, 6, -1, 35);
+        crystal.addAtom(na);
+        crystal.addAtom(cl);
+
+        Atom stored = crystal.getAsymmetricUnit().get(0);
+        assertSame("Stored atom replaced", na, stored);
+        assertEquals("Radius lost", 1.02, stored.getRadius(), 0);
+        assertEquals("Charge lost", 1, stored.getCharge());
+        assertNull("Null Uij changed", stored.getUijMatrix());
+
+        stored.setOcc(0.5);
+        assertEquals("Change to atom lost", 0.5, crystal.getAsymmetricUnit().get(0).getOcc(), 0);
+        assertTrue("Atom not found", crystal.getAsymmetricUnit().contains(cl));
+        crystal.removeAtom(cl);
+        assertEquals("Atom not removed", 1, crystal.getAsymmetricUnit().size());
+    }
+
+    @Test
+    public void testDensity() {
+        //Rock salt: 4 NaCl per cell, 2.163 g/cm^3
+        CrystalImpl crystal = new CrystalImpl(new UnitCellImpl(new ApacheMathsFactory(),
+                new Lattice(5.6402, 5.6402, 5.6402, 90, 90, 90)), SpaceGroupFactory.getSpaceGroup("Fm-3m"),
+                new ArrayList<>());
+        crystal.addAtom(new Atom("Na1", "Na+", 0, 0, 0));
+        crystal.addAtom(new Atom("Cl1", "Cl-", 0.5, 0.5, 0.5));
+        assertEquals("Wrong density", 2.163, crystal.calculateDensity(), 1e-3);
+
+        //Half occupied chlorine
+        crystal.getAsymmetricUnit().get(1).setOcc(0.5);
+        double expected = 4 * (22.990 + 0.5 * 35.450) / (6.02214076e23 * Math.pow(5.6402e-8, 3));
+        assertEquals("Occupancy not used", expected, crystal.calculateDensity(), 1e-9);
+    }
+
+    @Test
+    public void testElements() {
+        assertEquals("Wrong element", "Co", Elements.getElement("CO2+"));
+        assertEquals("Label not resolved", "O", Elements.getElement("OW1"));
+        assertEquals("Wrong atomic number", 118, Elements.getAtomicNumber("Og"));
+        assertEquals("Wrong mass", 207.2, Elements.getAtomicMass("Pb2+"), 1e-9);
+        assertEquals("Masses not aligned with symbols", 294, Elements.getAtomicMass("Og"), 0);
+    }
+}
@@ -89,4 +89,41 @@ public class CrystallographyFactoryTest {
         Lattice createdTric = CrystallographyFactory.createLattice(mockMatrix);
         assertEquals("Wrong lattice created from triclinic metric tensor", tricLatt, createdTric);
     }
+
+    @Test
+    public void testLatticeFromPrimitiveMetricTensor() {
+        Lattice createdTric = CrystallographyFactory.createLatticeFromMetricTensor(tricGMat[0][0], tricGMat[1][1],
+                tricGMat[2][2], tricGMat[0][1], tricGMat[0][2], tricGMat[1][2]);
+        assertEquals("Wrong lattice created from triclinic metric tensor", tricLatt.getCrystalSystem(),
+                createdTric.getCrystalSystem());
+        assertArrayEquals("Wrong lengths from triclinic metric tensor", tricLatt.getLengths(),
+                createdTric.getLengths(), 1e-6);
+        assertArrayEquals("Wrong angles from triclinic metric tensor", tricLatt.getAngles(),
+                createdTric.getAngles(), 1e-4);
+        assertEquals("Wrong volume from triclinic metric tensor", 415.482298, createdTric.getVolume(), 1e-4);
+    }
+
+    @Test
+    public void testBulkLatticeCreation() {
+        double[] parameters = {5.43018, 5.43018, 5.43018, 90, 90, 90,
+                5.145, 5.2075, 5.3107, 90, 99.23, 90,
+                7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584};
+        Lattice[] lattices = CrystallographyFactory.createLattices(parameters, LatticeClassifier.DEFAULT);
+        assertArrayEquals("Wrong lattices created", new Lattice[]{cubicLattNoVol, monoLattNoVol, tricLattNoVol},
+                lattices);
+
+        double[] coefficients = new double[18];
+        double[][][] tensors = {cubicGMat, orthoGMat, tricGMat};
+        for (int i = 0; i < 3; i++) {
+            double[][] g = tensors[i];
+            System.arraycopy(new double[]{g[0][0], g[1][1], g[2][2], g[0][1], g[0][2], g[1][2]}, 0, coefficients,
+                    6 * i, 6);
+        }
+        lattices = CrystallographyFactory.createLatticesFromMetricTensors(coefficients, LatticeClassifier.DEFAULT);
+        assertEquals("Wrong crystal system from cubic metric tensor", CUBIC, lattices[0].getCrystalSystem());
+        assertEquals("Wrong crystal system from orthorhombic metric tensor", ORTHORHOMBIC,
+                lattices[1].getCrystalSystem());
+        assertEquals("Wrong crystal system from triclinic metric tensor", TRICLINIC, lattices[2].getCrystalSystem());
+        assertEquals("Wrong volume from orthorhombic metric tensor", 2926.626460, lattices[1].getVolume(), 1e-3);
+    }
 }
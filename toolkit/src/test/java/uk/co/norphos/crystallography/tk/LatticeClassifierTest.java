@@ -0,0 +1,145 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+import static org.junit.Assert.assertEquals;
+import static uk.co.norphos.crystallography.api.CrystalSystem.*;
+
+public class LatticeClassifierTest {
+
+    private final LatticeClassifier exact = LatticeClassifier.DEFAULT,
+            measured = new LatticeClassifier(1e-3, 0.05);
+
+    @Test
+    public void testCrystalSystemDetermination() {
+        assertEquals("Wrong crystal system for cubic", CUBIC, exact.getCrystalSystem(3, 3, 3, 90, 90, 90));
+        assertEquals("Wrong crystal system for rhombohedral", RHOMBOHEDRAL, exact.getCrystalSystem(3, 3, 3, 60, 60, 60));
+        assertEquals("Wrong crystal system for hexagonal", HEXAGONAL, exact.getCrystalSystem(5, 5, 2, 90, 90, 120));
+        assertEquals("Wrong crystal system for tetragonal", TETRAGONAL, exact.getCrystalSystem(2, 2, 5, 90, 90, 90));
+        assertEquals("Wrong crystal system for orthorhombic", ORTHORHOMBIC, exact.getCrystalSystem(5, 3, 2, 90, 90, 90));
+        assertEquals("Wrong crystal system for monoclinic", MONOCLINIC, exact.getCrystalSystem(2, 3, 5, 90, 30, 90));
+        assertEquals("Wrong crystal system for triclinic", TRICLINIC, exact.getCrystalSystem(3, 5, 2, 30, 45, 60));
+        assertEquals("Equal angles with unequal lengths are not rhombohedral", TRICLINIC,
+                exact.getCrystalSystem(3, 4, 5, 70, 70, 70));
+        assertEquals("Invalid cell classified", UNKNOWN, exact.getCrystalSystem(Double.NaN, 3, 3, 90, 90, 90));
+
+        assertEquals("Wrong principal axis for monoclinic", PrincipleAxis.B,
+                exact.getPrincipalAxis(90, 99.23, 90, MONOCLINIC));
+        assertEquals("Wrong principal axis for c-unique monoclinic", PrincipleAxis.C,
+                exact.getPrincipalAxis(90, 90, 115, MONOCLINIC));
+        assertEquals("Wrong principal axis for hexagonal", PrincipleAxis.C, exact.getPrincipalAxis(90, 90, 120, HEXAGONAL));
+        assertEquals("Wrong principal axis for triclinic", PrincipleAxis.NONE,
+                exact.getPrincipalAxis(30, 45, 60, TRICLINIC));
+    }
+
+    @Test
+    public void testTolerances() {
+        //Measured tetragonal cell
+        assertEquals("Noisy cell not within tolerance", TETRAGONAL,
+                measured.getCrystalSystem(4.0012, 4.0009, 7.5, 90.02, 89.99, 90.01));
+        assertEquals("Noisy cell classified exactly", TRICLINIC,
+                exact.getCrystalSystem(4.0012, 4.0009, 7.5, 90.02, 89.99, 90.01));
+        assertEquals("Noisy monoclinic cell", MONOCLINIC,
+                measured.getCrystalSystem(5.145, 5.2075, 5.3107, 90.01, 99.23, 89.98));
+        assertEquals("Wrong principal axis for noisy monoclinic", PrincipleAxis.B,
+                measured.getPrincipalAxis(90.01, 99.23, 89.98, MONOCLINIC));
+    }
+
+    @Test
+    public void testFromMetricTensor() {
+        ApacheMathsFactory maths = new ApacheMathsFactory();
+        Lattice[] lattices = {new Lattice(5.43018, 5.43018, 5.43018, 90, 90, 90),
+                new Lattice(4.9134, 4.9134, 5.4052, 90, 90, 120),
+                new Lattice(5.145, 5.2075, 5.3107, 90, 99.23, 90),
+                new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584)};
+        for (Lattice lattice : lattices) {
+            double[][] g = new UnitCellImpl(maths, lattice).getMetricTensor().toArray();
+            assertEquals("Wrong crystal system from metric tensor",
+                    exact.getCrystalSystem(lattice.getA(), lattice.getB(), lattice.getC(), lattice.getAl(),
+                            lattice.getBe(), lattice.getGa()),
+                    exact.getMetricSymmetry(g[0][0], g[1][1], g[2][2], g[0][1], g[0][2], g[1][2]));
+        }
+        double[][] g = new UnitCellImpl(maths, lattices[2]).getMetricTensor().toArray();
+        assertEquals("Wrong principal axis from metric tensor", PrincipleAxis.B,
+                exact.getPrincipalAxis(g[0][0], g[1][1], g[2][2], g[0][1], g[0][2], g[1][2], MONOCLINIC));
+    }
+
+    @Test
+    public void testMetricSymmetryInAnySetting() {
+        //Conventional cells, and the primitive cells of centred lattices (doubled, as columns in the conventional axes)
+        double[][] cells = {{5.43, 5.43, 5.43, 90, 90, 90}, {5.43, 5.43, 5.43, 90, 90, 90},
+                {3.3, 3.3, 3.3, 90, 90, 90}, {4.9134, 4.9134, 5.4052, 90, 90, 120}, {5.3, 5.3, 5.3, 58.2, 58.2, 58.2},
+                {3.9, 3.9, 12.4, 90, 90, 90}, {5.1, 6.3, 7.4, 90, 90, 90}, {5.1, 6.3, 7.4, 90, 103.5, 90},
+                {5.1, 6.3, 7.4, 81.2, 103.5, 95.7}};
+        int[][] centring = {{0, 1, 1, 1, 0, 1, 1, 1, 0}, {-1, 1, 1, 1, -1, 1, 1, 1, -1}, null, null, null,
+                {-1, 1, 1, 1, -1, 1, 1, 1, -1}, {1, 1, 0, -1, 1, 0, 0, 0, 2}, {1, 1, 0, -1, 1, 0, 0, 0, 2}, null};
+        CrystalSystem[] expected = {CUBIC, CUBIC, CUBIC, HEXAGONAL, RHOMBOHEDRAL, TETRAGONAL, ORTHORHOMBIC,
+                MONOCLINIC, TRICLINIC};
+        //Unimodular change of basis to a non-conventional setting
+        int[] skew = {1, 1, 0, 0, 1, 2, -1, 0, 1};
+        double[] scratch = new double[6];
+        for (int i = 0; i < cells.length; i++) {
+            double[] g = metric(cells[i]);
+            if (centring[i] != null) g = transform(g, centring[i], 0.5);
+            double[] skewed = transform(g, skew, 1);
+            assertEquals("Wrong metric symmetry of cell "+i, expected[i], exact.getMetricSymmetry(g));
+            assertEquals("Metric symmetry depends on setting of cell "+i, expected[i], exact.getMetricSymmetry(skewed));
+            assertEquals("Wrong metric symmetry with scratch of cell "+i, expected[i],
+                    exact.getMetricSymmetry(skewed[0], skewed[1], skewed[2], skewed[3], skewed[4], skewed[5], scratch));
+        }
+
+        //Primitive cell of a measured face centred cubic lattice
+        double[] noisy = transform(metric(new double[]{5.4301, 5.4298, 5.4303, 90.01, 89.99, 90.02}), centring[0], 0.5);
+        assertEquals("Noisy lattice not within tolerance", CUBIC, measured.getMetricSymmetry(noisy));
+        assertEquals("Noisy lattice classified exactly", TRICLINIC, exact.getMetricSymmetry(noisy));
+        assertEquals("Invalid cell classified", UNKNOWN, exact.getMetricSymmetry(1, 1, 1, 1, 1, 1));
+    }
+
+    /**
+     * Metric coefficients in the order of {@link DSpacingCalculator}.
+     */
+    private static double[] metric(double[] cell) {
+        double[] cos = new double[3];
+        for (int i = 0; i < 3; i++) cos[i] = Math.cos(Math.toRadians(cell[3 + i]));
+        double[] g = new double[6];
+        g[DSpacingCalculator.G11] = cell[0] * cell[0];
+        g[DSpacingCalculator.G22] = cell[1] * cell[1];
+        g[DSpacingCalculator.G33] = cell[2] * cell[2];
+        g[DSpacingCalculator.G23] = cell[1] * cell[2] * cos[0];
+        g[DSpacingCalculator.G13] = cell[0] * cell[2] * cos[1];
+        g[DSpacingCalculator.G12] = cell[0] * cell[1] * cos[2];
+        return g;
+    }
+
+    /**
+     * Metric coefficients of the cell with axes scale * P (P row-major, new axes as columns).
+     */
+    private static double[] transform(double[] g, int[] p, double scale) {
+        double[][] full = {{g[DSpacingCalculator.G11], g[DSpacingCalculator.G12], g[DSpacingCalculator.G13]},
+                {g[DSpacingCalculator.G12], g[DSpacingCalculator.G22], g[DSpacingCalculator.G23]},
+                {g[DSpacingCalculator.G13], g[DSpacingCalculator.G23], g[DSpacingCalculator.G33]}};
+        double[][] result = new double[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    for (int l = 0; l < 3; l++) {
+                        result[i][j] += scale * p[3 * k + i] * full[k][l] * scale * p[3 * l + j];
+                    }
+                }
+            }
+        }
+        double[] transformed = new double[6];
+        transformed[DSpacingCalculator.G11] = result[0][0];
+        transformed[DSpacingCalculator.G22] = result[1][1];
+        transformed[DSpacingCalculator.G33] = result[2][2];
+        transformed[DSpacingCalculator.G12] = result[0][1];
+        transformed[DSpacingCalculator.G13] = result[0][2];
+        transformed[DSpacingCalculator.G23] = result[1][2];
+        return transformed;
+    }
+}
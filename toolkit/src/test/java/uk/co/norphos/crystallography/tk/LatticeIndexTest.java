@@ -0,0 +1,74 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatticeIndexTest {
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(7);
+        List<Lattice> lattices = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            //Many cells at exactly 90 degrees, as in real collections
+            lattices.add(new Lattice(3 + 20 * random.nextDouble(), 3 + 20 * random.nextDouble(),
+                    3 + 20 * random.nextDouble(), random.nextBoolean() ? 90 : 60 + 60 * random.nextDouble(),
+                    random.nextBoolean() ? 90 : 60 + 60 * random.nextDouble(),
+                    random.nextBoolean() ? 90 : 60 + 60 * random.nextDouble()));
+        }
+        LatticeIndex index = new LatticeIndex(lattices);
+        assertEquals("Wrong size", lattices.size(), index.size());
+
+        for (int q = 0; q < 200; q++) {
+            //Half the queries are perturbed copies of indexed cells, so have matches
+            Lattice query;
+            if (q % 2 == 0) {
+                Lattice near = lattices.get(random.nextInt(lattices.size()));
+                query = new Lattice(near.getA() * 1.01, near.getB() * 0.99, near.getC(), near.getAl() + 0.5,
+                        near.getBe(), near.getGa() - 0.5);
+            } else {
+                query = lattices.get(random.nextInt(lattices.size()));
+            }
+            double lengthTol = q % 3 == 0 ? 0.1 : 0.02, angleTol = q % 3 == 0 ? 5 : 1;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < lattices.size(); i++) {
+                if (query.isSimilar(lattices.get(i), lengthTol, angleTol)) expected.add(i);
+            }
+            int[] found = index.findSimilar(query, lengthTol, angleTol);
+            assertArrayEquals("Wrong matches for query "+q, expected.stream().mapToInt(Integer::intValue).toArray(),
+                    found);
+            if (q % 2 == 0) assertTrue("Perturbed cell not found", found.length > 0);
+        }
+    }
+
+    @Test
+    public void testIdenticalAndEmpty() {
+        Lattice cubic = new Lattice(4, 4, 4, 90, 90, 90);
+        LatticeIndex index = new LatticeIndex(Collections.nCopies(100, cubic));
+        assertEquals("Identical cells missed", 100, index.findSimilar(cubic).length);
+        assertEquals("Dissimilar cell matched", 0, index.findSimilar(new Lattice(4.1, 4, 4, 90, 90, 90),
+                0.02, 1).length + index.findSimilar(new Lattice(4, 4, 4, 91.5, 90, 90)).length);
+        assertEquals("Found in empty index", 0, new LatticeIndex(Collections.emptyList()).findSimilar(cubic).length);
+    }
+
+    @Test
+    public void testUnitCellSimilarity() {
+        UnitCell cell = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(5, 6, 7, 90, 100, 90));
+        UnitCell close = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(5.05, 6, 6.9, 90.5, 100, 90));
+        assertTrue("Cells not similar with default tolerances", cell.isSimilar(close, null, null));
+        assertFalse("Cells similar with tight tolerances", cell.isSimilar(close, 0.005, null));
+        assertFalse("Cells similar with tight angle tolerance", cell.isSimilar(close, null, 0.1));
+    }
+}
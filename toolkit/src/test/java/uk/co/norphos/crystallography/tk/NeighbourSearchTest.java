@@ -0,0 +1,112 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class NeighbourSearchTest {
+
+    private final UnitCell tricCell = new UnitCellImpl(new ApacheMathsFactory(),
+            new Lattice(17.19196, 18.12720, 16.12771, 82.4809, 69.2610, 69.2584)),
+            naclCell = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(5.6402, 5.6402, 5.6402, 90, 90, 90));
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(42);
+        int nAtoms = 400;
+        double[] coords = new double[3 * nAtoms];
+        for (int i = 0; i < coords.length; i++) coords[i] = 2 * random.nextDouble() - 0.5;
+        double cutoff = 3.2;
+
+        NeighbourSearch search = new NeighbourSearch(tricCell, coords, nAtoms, cutoff);
+        assertTrue("Cell not divided into bins", search.getGridSize()[0] > 1);
+        NeighbourList pairs = search.findPairs();
+
+        Map<String, Double> found = new HashMap<>();
+        for (int n = 0; n < pairs.size(); n++) {
+            assertTrue("Pair not ordered", pairs.getFirst(n) <= pairs.getSecond(n));
+            String key = pairKey(pairs.getFirst(n), pairs.getSecond(n), pairs.getImage(n, 0), pairs.getImage(n, 1),
+                    pairs.getImage(n, 2));
+            assertEquals("Pair found twice: "+key, null, found.put(key, pairs.getDistance(n)));
+        }
+
+        //Every pair of atoms, with images of the wrapped coordinates from -1 to 1
+        int expected = 0;
+        double[] wrapped = new double[3];
+        for (int i = 0; i < nAtoms; i++) {
+            for (int j = i; j < nAtoms; j++) {
+                for (int a = -1; a <= 1; a++) {
+                    for (int b = -1; b <= 1; b++) {
+                        for (int c = -1; c <= 1; c++) {
+                            if (i == j && (a < 0 || (a == 0 && (b < 0 || (b == 0 && c <= 0))))) continue;
+                            int[] image = {a, b, c};
+                            for (int m = 0; m < 3; m++) {
+                                double xi = coords[3 * i + m] - Math.floor(coords[3 * i + m]),
+                                        xj = coords[3 * j + m] - Math.floor(coords[3 * j + m]);
+                                wrapped[m] = xj + image[m] - xi;
+                            }
+                            double distance = tricCell.calculateLength(
+                                    new ApacheMathsFactory().createVector(wrapped.clone()));
+                            if (distance <= cutoff) {
+                                expected++;
+                                Double d = found.get(pairKey(i, j, a, b, c));
+                                assertNotNull("Missing pair "+pairKey(i, j, a, b, c), d);
+                                assertEquals("Wrong distance", distance, d, 1e-10);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals("Wrong number of pairs", expected, pairs.size());
+        assertArrayEquals("Counts differ", pairs.countNeighbours(nAtoms), search.countNeighbours());
+    }
+
+    private static String pairKey(int i, int j, int a, int b, int c) {
+        return i + "-" + j + Arrays.toString(new int[]{a, b, c});
+    }
+
+    @Test
+    public void testRockSaltCoordination() {
+        AtomTable atoms = new AtomTable();
+        double[][] fcc = {{0, 0, 0}, {0, 0.5, 0.5}, {0.5, 0, 0.5}, {0.5, 0.5, 0}};
+        for (double[] site : fcc) {
+            atoms.add("Na", "Na", site[0], site[1], site[2], 1);
+            atoms.add("Cl", "Cl", site[0] + 0.5, site[1] + 0.5, site[2] + 0.5, 1);
+        }
+        NeighbourList pairs = new NeighbourSearch(naclCell, atoms, 3).findPairs();
+        int[] counts = pairs.countNeighbours(atoms.size());
+        for (int i = 0; i < atoms.size(); i++) {
+            assertEquals("Wrong coordination of atom "+i, 6, counts[i]);
+        }
+        for (int n = 0; n < pairs.size(); n++) {
+            assertEquals("Wrong Na-Cl distance", 2.8201, pairs.getDistance(n), 1e-10);
+        }
+    }
+
+    @Test
+    public void testCutoffLargerThanCell() {
+        //One atom in a 2 A cubic cell has 6 neighbours at 2 A and 12 at 2.83 A, i.e. 9 pairs with itself
+        UnitCell small = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(2, 2, 2, 90, 90, 90));
+        NeighbourSearch search = new NeighbourSearch(small, new double[]{0.3, 0.3, 0.3}, 1, 2.9);
+        assertEquals("Wrong number of self pairs", 9, search.findPairs().size());
+        assertEquals("Wrong coordination", 18, search.countNeighbours()[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveCutoff() {
+        new NeighbourSearch(naclCell, new double[3], 1, 0);
+    }
+}
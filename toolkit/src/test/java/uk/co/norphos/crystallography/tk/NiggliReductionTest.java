@@ -0,0 +1,120 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NiggliReductionTest {
+
+    private static final double TOLERANCE = 1e-8;
+
+    @Test
+    public void testFaceCentredCubic() {
+        //Primitive cell of fcc with a = 4, given by a = (0, 1/2, 1/2) etc.
+        double[] g = {8, 8, 8, 4, 4, 4};
+        double[] expected = g.clone();
+        int[] p = new int[9];
+        Random random = new Random(3);
+        for (int n = 0; n < 100; n++) {
+            double[] g6 = transform(g, randomUnimodular(random));
+            NiggliReduction.reduce(g6, p);
+            assertArrayEquals("Wrong reduced cell for trial "+n, expected, g6, TOLERANCE);
+        }
+
+        UnitCell cell = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(Math.sqrt(8), Math.sqrt(8), Math.sqrt(8),
+                60, 60, 60));
+        Lattice reduced = cell.getNiggliReducedCell().getLattice();
+        assertEquals("Wrong reduced a", Math.sqrt(8), reduced.getA(), TOLERANCE);
+        assertEquals("Wrong reduced gamma", 60, reduced.getGa(), TOLERANCE);
+    }
+
+    @Test
+    public void testTransformedCellsReduceAlike() {
+        Random random = new Random(11);
+        int[] p = new int[9];
+        for (int n = 0; n < 200; n++) {
+            //Random cell, reduced to give the expected form
+            double[] expected = transform(toG6(new Lattice(3 + 10 * random.nextDouble(), 3 + 10 * random.nextDouble(),
+                    3 + 10 * random.nextDouble(), 70 + 40 * random.nextDouble(), 70 + 40 * random.nextDouble(),
+                    70 + 40 * random.nextDouble())), randomUnimodular(random));
+            NiggliReduction.reduce(expected, p);
+
+            double[] g6 = transform(expected, randomUnimodular(random));
+            double[] original = g6.clone();
+            NiggliReduction.reduce(g6, p);
+            assertArrayEquals("Wrong reduced cell for trial "+n, expected, g6, 1e-6);
+            assertEquals("Transformation is not unimodular", 1, determinant(p));
+            assertArrayEquals("Transformation does not give reduced cell", g6, transform(original, p), 1e-6);
+        }
+    }
+
+    @Test
+    public void testCachedOnCell() {
+        UnitCell cell = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(5, 5.2, 14, 80, 100, 97));
+        UnitCell reduced = cell.getNiggliReducedCell();
+        assertSame("Reduced cell not cached", reduced, cell.getNiggliReducedCell());
+        assertSame("Transformation not cached", cell.getNiggliTransformation(), cell.getNiggliTransformation());
+
+        //P^T G P gives the metric tensor of the reduced cell
+        double[][] p = cell.getNiggliTransformation().toArray(), g = cell.getMetricTensor().toArray(),
+                expected = reduced.getMetricTensor().toArray();
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double element = 0;
+                for (int k = 0; k < 3; k++) {
+                    for (int l = 0; l < 3; l++) element += p[k][i] * g[k][l] * p[l][j];
+                }
+                assertEquals("Wrong reduced metric tensor element "+i+j, expected[i][j], element, 1e-6);
+            }
+        }
+        assertEquals("Volume changed on reduction", cell.getVolume(), reduced.getVolume(), 1e-6);
+    }
+
+    private static double[] toG6(Lattice lattice) {
+        double a = lattice.getA(), b = lattice.getB(), c = lattice.getC();
+        return new double[]{a * a, b * b, c * c, 2 * b * c * Math.cos(lattice.getAlR()),
+                2 * a * c * Math.cos(lattice.getBeR()), 2 * a * b * Math.cos(lattice.getGaR())};
+    }
+
+    /**
+     * G6 of the cell with basis vectors given by the columns of p.
+     */
+    private static double[] transform(double[] g6, int[] p) {
+        double[][] g = {{g6[0], g6[5] / 2, g6[4] / 2}, {g6[5] / 2, g6[1], g6[3] / 2}, {g6[4] / 2, g6[3] / 2, g6[2]}};
+        double[][] result = new double[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    for (int l = 0; l < 3; l++) result[i][j] += p[3 * k + i] * g[k][l] * p[3 * l + j];
+                }
+            }
+        }
+        return new double[]{result[0][0], result[1][1], result[2][2], 2 * result[1][2], 2 * result[0][2],
+                2 * result[0][1]};
+    }
+
+    /**
+     * Product of random shears, so has determinant 1.
+     */
+    private static int[] randomUnimodular(Random random) {
+        int[] p = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+        for (int n = 0; n < 4; n++) {
+            int i = random.nextInt(3), j = (i + 1 + random.nextInt(2)) % 3, factor = random.nextInt(5) - 2;
+            //Add factor times column j to column i
+            for (int row = 0; row < 3; row++) p[3 * row + i] += factor * p[3 * row + j];
+        }
+        return p;
+    }
+
+    private static int determinant(int[] p) {
+        return p[0] * (p[4] * p[8] - p[5] * p[7]) - p[1] * (p[3] * p[8] - p[5] * p[6])
+                + p[2] * (p[3] * p[7] - p[4] * p[6]);
+    }
+}
@@ -0,0 +1,120 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.DSpacingCalculator;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PowderIndexerTest {
+
+    @Test
+    public void testCubic() {
+        //Rock salt, F-centred
+        double[] lines = lines(5.6402, 5.6402, 5.6402, 90, 90, 90, SpaceGroupFactory.getSpaceGroup("Fm-3m"), 12);
+        PowderIndexer indexer = new PowderIndexer(lines, 5e-4);
+        indexer.setWavelength(1.5406);
+        List<PowderIndexer.Solution> solutions = indexer.index(CrystalSystem.CUBIC);
+        assertFalse("No solution", solutions.isEmpty());
+        PowderIndexer.Solution best = solutions.get(0);
+        assertEquals("Wrong cell", 5.6402, best.getLattice().getA(), 5e-3);
+        assertEquals("Wrong crystal system", CrystalSystem.CUBIC, best.getLattice().getCrystalSystem());
+        assertTrue("F(N) not calculated", best.getFN() > 0);
+    }
+
+    @Test
+    public void testTetragonalAndHexagonal() {
+        double[] lines = lines(4.1, 4.1, 7.3, 90, 90, 90, null, 20);
+        List<PowderIndexer.Solution> solutions = new PowderIndexer(lines, 5e-4).index(CrystalSystem.CUBIC,
+                CrystalSystem.TETRAGONAL, CrystalSystem.HEXAGONAL);
+        assertFalse("No solution", solutions.isEmpty());
+        assertCell("Wrong tetragonal cell", new double[]{4.1, 4.1, 7.3, 90, 90, 90}, solutions.get(0).getLattice());
+        assertEquals("Wrong system searched", CrystalSystem.TETRAGONAL, solutions.get(0).getCrystalSystem());
+
+        lines = lines(3.21, 3.21, 5.21, 90, 90, 120, null, 20);
+        solutions = new PowderIndexer(lines, 5e-4).index(CrystalSystem.TETRAGONAL, CrystalSystem.HEXAGONAL);
+        assertFalse("No solution", solutions.isEmpty());
+        assertCell("Wrong hexagonal cell", new double[]{3.21, 3.21, 5.21, 90, 90, 120}, solutions.get(0).getLattice());
+
+        //Trigonal cells are searched on hexagonal axes
+        solutions = new PowderIndexer(lines, 5e-4).index(CrystalSystem.TRIGONAL);
+        assertFalse("No trigonal solution", solutions.isEmpty());
+        assertCell("Wrong trigonal cell", new double[]{3.21, 3.21, 5.21, 90, 90, 120}, solutions.get(0).getLattice());
+        assertEquals("Wrong system searched", CrystalSystem.TRIGONAL, solutions.get(0).getCrystalSystem());
+    }
+
+    @Test
+    public void testOrthorhombic() {
+        double[] lines = lines(5.2, 6.7, 8.1, 90, 90, 90, null, 20);
+        List<PowderIndexer.Solution> solutions = new PowderIndexer(lines, 5e-4).index(CrystalSystem.ORTHORHOMBIC);
+        assertFalse("No solution", solutions.isEmpty());
+        assertCell("Wrong orthorhombic cell", new double[]{5.2, 6.7, 8.1, 90, 90, 90}, solutions.get(0).getLattice());
+        for (int i = 1; i < solutions.size(); i++) {
+            assertTrue("Solutions not ordered", solutions.get(i).getFigureOfMerit()
+                    <= solutions.get(i - 1).getFigureOfMerit());
+        }
+    }
+
+    @Test
+    public void testMonoclinic() {
+        double[] lines = lines(4.1, 4.7, 5.3, 90, 100, 90, null, 20);
+        PowderIndexer indexer = new PowderIndexer(lines, 5e-4);
+        indexer.setMaxCellLength(8);
+        List<PowderIndexer.Solution> solutions = indexer.index(CrystalSystem.MONOCLINIC);
+        assertFalse("No solution", solutions.isEmpty());
+        //Found as the reduced cell, with beta >= 90
+        assertCell("Wrong monoclinic cell", new double[]{4.1, 4.7, 5.3, 90, 100, 90}, solutions.get(0).getLattice());
+        assertEquals("Wrong crystal system", CrystalSystem.MONOCLINIC, solutions.get(0).getCrystalSystem());
+    }
+
+    @Test
+    public void testTriclinic() {
+        //Six parameters: few lines and a short maximum axis keep the search short
+        double[] lines = lines(3.6, 4.1, 4.6, 95, 100, 105, null, 10);
+        PowderIndexer indexer = new PowderIndexer(lines, 5e-4);
+        indexer.setMaxCellLength(4.7);
+        indexer.setNumberOfLines(10);
+        List<PowderIndexer.Solution> solutions = indexer.index(CrystalSystem.TRICLINIC);
+        assertFalse("No solution", solutions.isEmpty());
+        assertCell("Wrong triclinic cell", new double[]{3.6, 4.1, 4.6, 95, 100, 105}, solutions.get(0).getLattice(),
+                5e-3, 0.2);
+        assertEquals("Wrong crystal system", CrystalSystem.TRICLINIC, solutions.get(0).getCrystalSystem());
+    }
+
+    private static void assertCell(String message, double[] expected, Lattice lattice) {
+        assertCell(message, expected, lattice, 5e-3, 0.1);
+    }
+
+    private static void assertCell(String message, double[] expected, Lattice lattice, double lengthTolerance,
+                                   double angleTolerance) {
+        double[] actual = {lattice.getA(), lattice.getB(), lattice.getC(), lattice.getAl(), lattice.getBe(),
+                lattice.getGa()};
+        for (int i = 0; i < 6; i++) {
+            assertEquals(message, expected[i], actual[i], i < 3 ? lengthTolerance : angleTolerance);
+        }
+    }
+
+    /**
+     * d-spacings of the first n distinct lines of a cell.
+     */
+    private static double[] lines(double a, double b, double c, double al, double be, double ga, SpaceGroup spaceGroup,
+                                  int n) {
+        double[] coeffs = DSpacingCalculator.reciprocalCoefficients(a, b, c, al, be, ga, new double[6]);
+        double[] d = new ReflectionGenerator(coeffs, 1.0, spaceGroup == null ? null
+                : ReflectionConditions.forSpaceGroup(spaceGroup)).toTable().toMillerPlanes().stream()
+                .mapToDouble(plane -> plane.getDSpacing()).sorted().toArray();
+        double[] distinct = new double[n];
+        int count = 0;
+        for (int i = d.length - 1; i >= 0 && count < n; i--) {
+            if (count == 0 || distinct[count - 1] - d[i] > 1e-9) distinct[count++] = d[i];
+        }
+        return Arrays.copyOf(distinct, count);
+    }
+}
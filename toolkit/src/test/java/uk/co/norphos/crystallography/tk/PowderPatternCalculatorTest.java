@@ -0,0 +1,129 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PowderPatternCalculatorTest {
+
+    private static final double CU_KA1 = 1.5406;
+
+    private final UnitCell naclCell = new UnitCellImpl(new ApacheMathsFactory(),
+            new Lattice(5.6402, 5.6402, 5.6402, 90, 90, 90));
+
+    @Test
+    public void testSinglePeak() {
+        PowderPatternCalculator calculator = new PowderPatternCalculator(CU_KA1, 20, 40, 0.005);
+        calculator.setProfile(0, 0, 0.01, 0);
+        calculator.setMonochromatorAngle(0);
+        double d = CU_KA1 / (2 * Math.sin(Math.toRadians(15)));
+        double[] pattern = calculator.calculate(new double[]{d}, new double[]{100}, 1);
+        assertEquals("Wrong number of points", 4001, pattern.length);
+
+        int max = 0;
+        double sum = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i] > pattern[max]) max = i;
+            sum += pattern[i];
+        }
+        assertEquals("Peak in wrong place", 30, calculator.getTwoTheta(max), 1e-9);
+        double theta = Math.toRadians(15);
+        double lp = (1 + Math.pow(Math.cos(2 * theta), 2)) / (2 * Math.pow(Math.sin(theta), 2) * Math.cos(theta));
+        assertEquals("Wrong peak area", 100 * lp, sum * 0.005, 1e-3 * 100 * lp);
+        assertEquals("Peak rendered outside window", 0, pattern[0], 0);
+    }
+
+    @Test
+    public void testCoincidentPeaksMerged() {
+        PowderPatternCalculator calculator = new PowderPatternCalculator(CU_KA1, 10, 80, 0.01);
+        ReflectionTable single = new ReflectionTable(), repeated = new ReflectionTable();
+        single.add(1, 1, 1, 3.2564);
+        single.setIntensity(0, 50);
+        for (int i = 0; i < 2; i++) {
+            repeated.add(i, 1, 1, 3.2564);
+            repeated.setIntensity(i, 25);
+        }
+        //Without an intensity, a reflection is skipped
+        repeated.add(2, 0, 0, 2.8201);
+        assertArrayEquals("Merged peaks differ from a single peak", calculator.calculate(single),
+                calculator.calculate(repeated), 1e-9);
+    }
+
+    @Test
+    public void testRockSalt() {
+        AtomTable atoms = new AtomTable();
+        atoms.add("Na1", "Na", 0, 0, 0, 1);
+        atoms.add("Cl1", "Cl", 0.5, 0.5, 0.5, 1);
+        SpaceGroup fm3m = SpaceGroupFactory.getSpaceGroup("Fm-3m");
+
+        PowderPatternCalculator calculator = new PowderPatternCalculator(CU_KA1, 10, 80, 0.01);
+        double[] pattern = calculator.calculate(naclCell, fm3m, atoms);
+        double i111 = pattern[index(calculator, 27.37)], i200 = pattern[index(calculator, 31.70)];
+        assertTrue("No (111) peak", i111 > 0);
+        assertTrue("(200) should be strongest", i200 > i111);
+        assertEquals("Absent (100) reflection present", 0, pattern[index(calculator, 15.70)], 1e-6 * i200);
+
+        //Rendering in one thread gives the same pattern
+        PowderPatternCalculator sequential = new PowderPatternCalculator(CU_KA1, 10, 80, 0.01, new ForkJoinPool(1));
+        assertArrayEquals("Parallel and sequential patterns differ", pattern,
+                sequential.calculate(naclCell, fm3m, atoms), 1e-9 * i200);
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        AtomTable atoms = new AtomTable();
+        atoms.add("Na1", "Na", 0, 0, 0, 1);
+        atoms.add("Cl1", "Cl", 0.5, 0.5, 0.5, 1);
+        SpaceGroup fm3m = SpaceGroupFactory.getSpaceGroup("Fm-3m");
+        PowderPatternCalculator calculator = new PowderPatternCalculator(CU_KA1, 10, 80, 0.01);
+        PowderPatternCalculator.ReflectionSet reflections = calculator.prepare(naclCell, fm3m, atoms);
+
+        //Only (111) represents its set, with all eight equivalents in its intensity
+        StructureFactorCalculator sfCalculator = new StructureFactorCalculator(naclCell, fm3m, atoms);
+        ReflectionTable table = new ReflectionTable();
+        table.add(1, 1, 1);
+        table.add(2, 0, 0);
+        sfCalculator.calculate(table);
+        for (int i = 0; i < reflections.size(); i++) {
+            int h = reflections.getH(i), k = reflections.getK(i), l = reflections.getL(i);
+            if (h == 1 && k == 1 && l == 1) {
+                assertEquals("Wrong multiplicity of (111)", 8 * Math.pow(table.getStructureFactor(0), 2),
+                        reflections.getIntensity(i), 1e-6);
+            } else if (h == 2 && k == 0 && l == 0) {
+                assertEquals("Wrong multiplicity of (200)", 6 * Math.pow(table.getStructureFactor(1), 2),
+                        reflections.getIntensity(i), 1e-6);
+            } else {
+                int sumSq = h * h + k * k + l * l;
+                assertTrue("Equivalent of (111) or (200) kept", sumSq != 3 && sumSq != 4);
+            }
+        }
+
+        //New lattice parameters only move the peaks
+        UnitCell expanded = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(5.7, 5.7, 5.7, 90, 90, 90));
+        reflections.update(5.7, 5.7, 5.7, 90, 90, 90);
+        for (int i = 0; i < reflections.size(); i++) {
+            MillerPlane plane = new MillerPlane(reflections.getH(i), reflections.getK(i), reflections.getL(i));
+            assertEquals("Wrong updated d-spacing", expanded.calculateDSpacing(plane), reflections.getDSpacing(i),
+                    1e-9);
+        }
+        double[] pattern = calculator.calculate(reflections);
+        double twoTheta111 = 2 * Math.toDegrees(Math.asin(CU_KA1 * Math.sqrt(3) / (2 * 5.7)));
+        assertTrue("(111) not moved", pattern[index(calculator, twoTheta111)] > 10 * pattern[index(calculator, 27.37)]);
+    }
+
+    private static int index(PowderPatternCalculator calculator, double twoTheta) {
+        return (int) Math.round((twoTheta - calculator.getTwoTheta(0)) / (calculator.getTwoTheta(1)
+                - calculator.getTwoTheta(0)));
+    }
+}
@@ -0,0 +1,89 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReflectionConditionsTest {
+
+    @Test
+    public void testMatchesOperators() {
+        boolean[] allowedL = new boolean[12];
+        for (int number = 1; number <= 230; number++) {
+            SpaceGroup group = SpaceGroupFactory.getSpaceGroup(number);
+            ReflectionConditions conditions = ReflectionConditions.forSpaceGroup(group);
+            assertEquals("Wrong number of centring conditions for "+group,
+                    group.getNumberOfCentringVectors() - 1, conditions.getNumberOfCentringConditions());
+
+            for (int h = -6; h <= 6; h++) {
+                for (int k = -6; k <= 6; k++) {
+                    conditions.allowedL(h, k, allowedL);
+                    for (int l = -6; l <= 6; l++) {
+                        boolean absent = absentByOperators(group, h, k, l);
+                        assertEquals("Wrong absence of ("+h+k+l+") in "+group, absent, group.isSystematicallyAbsent(h, k, l));
+                        assertEquals("Wrong centring absence of ("+h+k+l+") in "+group,
+                                conditions.isCentringAbsent(h, k, l), !allowedL[Math.floorMod(l, 12)]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean absentByOperators(SpaceGroup group, int h, int k, int l) {
+        for (int op = 0; op < group.getOrder(); op++) {
+            boolean invariant = true;
+            for (int col = 0; col < 3 && invariant; col++) {
+                int hR = h * group.getRotation(op, 0, col) + k * group.getRotation(op, 1, col)
+                        + l * group.getRotation(op, 2, col);
+                invariant = hR == (col == 0 ? h : col == 1 ? k : l);
+            }
+            double phase = h * group.getTranslation(op, 0) + k * group.getTranslation(op, 1)
+                    + l * group.getTranslation(op, 2);
+            if (invariant && Math.abs(phase - Math.rint(phase)) > 1e-6) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testMonoclinic() {
+        //P21/c: h0l l = 2n; 0k0 k = 2n
+        SpaceGroup group = SpaceGroupFactory.getSpaceGroup("P21/c");
+        assertTrue("010 present", group.isSystematicallyAbsent(0, 1, 0));
+        assertFalse("020 absent", group.isSystematicallyAbsent(0, 2, 0));
+        assertTrue("101 present", group.isSystematicallyAbsent(1, 0, 1));
+        assertFalse("102 absent", group.isSystematicallyAbsent(1, 0, 2));
+        assertFalse("111 absent", group.isSystematicallyAbsent(1, 1, 1));
+        assertEquals("Wrong number of conditions", 2,
+                ReflectionConditions.forSpaceGroup(group).getNumberOfOperatorConditions());
+    }
+
+    @Test
+    public void testCentredCubic() {
+        SpaceGroup im3m = SpaceGroupFactory.getSpaceGroup("Im-3m");
+        assertTrue("100 present in I", im3m.isSystematicallyAbsent(1, 0, 0));
+        assertFalse("110 absent in I", im3m.isSystematicallyAbsent(1, 1, 0));
+        assertEquals("Im-3m has no other conditions", 0,
+                ReflectionConditions.forSpaceGroup(im3m).getNumberOfOperatorConditions());
+
+        //Fd-3m: hkl unmixed; 0kl k + l = 4n; hhl h + l = 2n; h00 h = 4n
+        SpaceGroup fd3m = SpaceGroupFactory.getSpaceGroup("Fd-3m");
+        assertTrue("110 present", fd3m.isSystematicallyAbsent(1, 1, 0));
+        assertFalse("111 absent", fd3m.isSystematicallyAbsent(1, 1, 1));
+        assertTrue("200 present", fd3m.isSystematicallyAbsent(2, 0, 0));
+        assertFalse("400 absent", fd3m.isSystematicallyAbsent(4, 0, 0));
+        assertFalse("220 absent", fd3m.isSystematicallyAbsent(2, 2, 0));
+        assertTrue("024 present", fd3m.isSystematicallyAbsent(0, 2, 4));
+        assertFalse("222 absent", fd3m.isSystematicallyAbsent(2, 2, 2));
+        assertTrue("006 present", fd3m.isSystematicallyAbsent(0, 0, 6));
+    }
+
+    @Test
+    public void testCached() {
+        SpaceGroupImpl group = (SpaceGroupImpl) SpaceGroupFactory.getSpaceGroup(227);
+        assertSame("Conditions not cached", group.getReflectionConditions(), ReflectionConditions.forSpaceGroup(group));
+    }
+}
@@ -0,0 +1,191 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReflectionGeneratorTest {
+
+    private final UnitCell cubicCell = new UnitCellImpl(new ApacheMathsFactory(),
+            new Lattice(5.43018, 5.43018, 5.43018, 90, 90, 90)),
+            tricCell = new UnitCellImpl(new ApacheMathsFactory(),
+                    new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+
+    @Test
+    public void testCubicShells() {
+        //h^2+k^2+l^2 <= 3: 6 {100} + 12 {110} + 8 {111}
+        ReflectionGenerator generator = new ReflectionGenerator(cubicCell, 5.43018 / Math.sqrt(3));
+        assertEquals("Wrong number of reflections up to {111}", 26, generator.count());
+        assertEquals("Wrong hMax", 1, generator.getHMax());
+
+        List<MillerPlane> reflections = generator.toList();
+        assertEquals("List and count differ", 26, reflections.size());
+        for (MillerPlane hkl : reflections) {
+            assertEquals("Wrong d-spacing for "+hkl, cubicCell.calculateDSpacing(hkl), hkl.getDSpacing(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        double dMin = 1.2;
+        Set<List<Integer>> expected = new HashSet<>();
+        MillerPlane max = tricCell.getMaxMillerIndex(dMin);
+        for (int h = -max.getH(); h <= max.getH(); h++) {
+            for (int k = -max.getK(); k <= max.getK(); k++) {
+                for (int l = -max.getL(); l <= max.getL(); l++) {
+                    if (h == 0 && k == 0 && l == 0) continue;
+                    if (tricCell.calculateDSpacing(new MillerPlane(h, k, l)) >= dMin) {
+                        expected.add(Arrays.asList(h, k, l));
+                    }
+                }
+            }
+        }
+        //Check the box really is big enough
+        for (int h = -max.getH() - 1; h <= max.getH() + 1; h += 2 * max.getH() + 2) {
+            assertTrue("Reflection outside maximum index", tricCell.calculateDSpacing(new MillerPlane(h, 0, 0)) < dMin);
+        }
+
+        ReflectionGenerator generator = new ReflectionGenerator(tricCell, dMin);
+        List<MillerPlane> generated = generator.toList();
+        assertEquals("Wrong number of reflections", expected.size(), generated.size());
+        assertEquals("Wrong reflections", expected, generated.stream()
+                .map(hkl -> Arrays.asList(hkl.getH(), hkl.getK(), hkl.getL())).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testStreams() {
+        ReflectionGenerator generator = new ReflectionGenerator(tricCell, 0.8);
+        List<MillerPlane> list = generator.toList();
+
+        assertEquals("Sequential stream differs from list", list, generator.stream().collect(Collectors.toList()));
+        assertEquals("Parallel stream differs from list", list, generator.parallelStream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSpliteratorSplits() {
+        ReflectionGenerator generator = new ReflectionGenerator(tricCell, 0.8);
+        int total = generator.count();
+
+        //Consume part of a slab, then split repeatedly
+        Spliterator<MillerPlane> suffix = generator.spliterator();
+        List<MillerPlane> collected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) suffix.tryAdvance(collected::add);
+
+        List<Spliterator<MillerPlane>> parts = new ArrayList<>();
+        Spliterator<MillerPlane> prefix;
+        while ((prefix = suffix.trySplit()) != null) {
+            parts.add(prefix);
+        }
+        parts.add(suffix);
+        assertTrue("Too few splits", parts.size() > 4);
+
+        for (Spliterator<MillerPlane> part : parts) {
+            part.forEachRemaining(collected::add);
+        }
+        assertEquals("Wrong number of reflections after splitting", total, collected.size());
+        assertEquals("Reflections out of order after splitting", generator.toList(), collected);
+    }
+
+    @Test
+    public void testEstimateSize() {
+        ReflectionGenerator generator = new ReflectionGenerator(tricCell, 0.8);
+        long estimate = generator.spliterator().estimateSize();
+        int count = generator.count();
+        assertTrue("Estimate "+estimate+" too far from "+count, Math.abs(estimate - count) < 0.05 * count);
+    }
+
+    @Test
+    public void testTable() {
+        ReflectionGenerator generator = new ReflectionGenerator(tricCell, 0.8);
+        List<MillerPlane> list = generator.toList();
+        ReflectionTable table = generator.toTable();
+        assertEquals("Table and list differ", list, table.toMillerPlanes());
+
+        //Recalculate d-spacings in bulk from the cell, on heap and in a direct table
+        ReflectionTable direct = ReflectionTable.allocateDirect(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            direct.add(table.getH(i), table.getK(i), table.getL(i));
+            table.setDSpacing(i, -1);
+        }
+        for (ReflectionTable recalculated : Arrays.asList(table, direct)) {
+            recalculated.calculateDSpacings(tricCell);
+            for (int i = 0; i < recalculated.size(); i++) {
+                assertEquals("Wrong d-spacing", tricCell.calculateDSpacing(list.get(i)), recalculated.getDSpacing(i),
+                        1e-12);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveLimit() {
+        new ReflectionGenerator(cubicCell, 0);
+    }
+
+    @Test
+    public void testCrystalExpectedReflections() {
+        CrystalImpl crystal = new CrystalImpl(cubicCell);
+        assertEquals("Reflections before any limit set", 0, crystal.getExpectedReflections().size());
+
+        List<MillerPlane> reflections = crystal.calculateExpectedReflections(5.43018 / Math.sqrt(3));
+        assertEquals("Wrong number of reflections", 26, reflections.size());
+        assertEquals("Current list not returned", reflections, crystal.getExpectedReflections());
+        assertEquals("Stream differs from list", 26, crystal.streamExpectedReflections(5.43018 / Math.sqrt(3), true).count());
+
+        //Changing the cell regenerates the reflections to the same limit
+        crystal.setUnitCell(new UnitCellImpl(new ApacheMathsFactory(), new Lattice(10.86036, 10.86036, 10.86036, 90, 90, 90)));
+        List<MillerPlane> updated = crystal.getExpectedReflections();
+        assertNotNull(updated);
+        assertEquals("Reflections not regenerated for new cell", new ReflectionGenerator(crystal.getUnitCell(),
+                5.43018 / Math.sqrt(3)).count(), updated.size());
+    }
+
+    @Test
+    public void testSystematicAbsences() {
+        for (String symbol : new String[]{"P21/c", "Fd-3m", "R-3c"}) {
+            SpaceGroup group = SpaceGroupFactory.getSpaceGroup(symbol);
+            ReflectionGenerator all = new ReflectionGenerator(tricCell, 0.9),
+                    present = new ReflectionGenerator(tricCell, 0.9, group);
+            List<MillerPlane> expected = all.toList().stream()
+                    .filter(hkl -> !group.isSystematicallyAbsent(hkl.getH(), hkl.getK(), hkl.getL()))
+                    .collect(Collectors.toList());
+            assertEquals("Wrong reflections present in "+symbol, expected, present.toList());
+            assertEquals("Parallel stream differs in "+symbol, expected, present.parallelStream().collect(Collectors.toList()));
+            assertEquals("Wrong count in "+symbol, expected.size(), present.count());
+        }
+
+        //Only one reflection in four is allowed by F centring
+        SpaceGroup fm3m = SpaceGroupFactory.getSpaceGroup("Fm-3m");
+        ReflectionGenerator generator = new ReflectionGenerator(cubicCell, 0.5, fm3m);
+        long estimate = generator.spliterator().estimateSize();
+        int count = generator.count();
+        assertTrue("Estimate "+estimate+" too far from "+count, Math.abs(estimate - count) < 0.05 * count);
+
+        CrystalImpl crystal = new CrystalImpl(cubicCell, fm3m, new AtomTable().asList());
+        assertEquals("Crystal includes absent reflections", 8 + 6,
+                crystal.calculateExpectedReflections(5.43018 / Math.sqrt(4)).size());
+    }
+
+    @Test
+    public void testMaxMillerIndex() {
+        MillerPlane max = cubicCell.getMaxMillerIndex(5.43018 / 3);
+        assertArrayEquals("Wrong maximum index", new int[]{3, 3, 3}, max.getIndices());
+    }
+}
@@ -0,0 +1,211 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpaceGroupFactoryTest {
+
+    //Last space group number with each point group order
+    private final int[][] pointGroupOrders = new int[][]{{1, 1}, {9, 2}, {15, 4}, {46, 4}, {74, 8}, {82, 4}, {88, 8},
+            {122, 8}, {142, 16}, {146, 3}, {148, 6}, {161, 6}, {167, 12}, {174, 6}, {176, 12}, {190, 12},
+            {194, 24}, {199, 12}, {220, 24}, {230, 48}};
+    private final int[] centrosymmetric = new int[]{2, 10, 11, 12, 13, 14, 15, 47, 48, 49, 50, 51, 52, 53, 54, 55,
+            56, 57, 58, 59, 60, 61, 62, 63, 64, 65, 66, 67, 68, 69, 70, 71, 72, 73, 74, 83, 84, 85, 86, 87, 88, 123,
+            124, 125, 126, 127, 128, 129, 130, 131, 132, 133, 134, 135, 136, 137, 138, 139, 140, 141, 142, 147, 148,
+            162, 163, 164, 165, 166, 167, 175, 176, 191, 192, 193, 194, 200, 201, 202, 203, 204, 205, 206, 221, 222,
+            223, 224, 225, 226, 227, 228, 229, 230};
+
+    @Test
+    public void testAllStandardGroups() {
+        int centroIndex = 0;
+        for (int number = 1; number <= 230; number++) {
+            SpaceGroup group = SpaceGroupFactory.getSpaceGroup(number);
+            assertEquals("Wrong number", number, group.getNumber());
+
+            int pointGroupOrder = 0;
+            for (int[] orders : pointGroupOrders) {
+                if (number <= orders[0]) {
+                    pointGroupOrder = orders[1];
+                    break;
+                }
+            }
+            assertEquals("Wrong point group order for "+group, pointGroupOrder, group.getPrimitiveOrder());
+            assertEquals("Wrong order for "+group, pointGroupOrder * centringVectors(group.getHermannMauguinSymbol()),
+                    group.getOrder());
+
+            boolean expectCentro = centroIndex < centrosymmetric.length && centrosymmetric[centroIndex] == number;
+            if (expectCentro) centroIndex++;
+            assertEquals("Wrong centrosymmetry for "+group, expectCentro, group.isCentrosymmetric());
+            assertEquals("Wrong crystal system for "+group, crystalSystem(number, group.getHermannMauguinSymbol()),
+                    group.getCrystalSystem());
+
+            //Operator 0 is the identity
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    assertEquals("First operator not identity for "+group, i == j ? 1 : 0, group.getRotation(0, i, j));
+                }
+                assertEquals("First operator not identity for "+group, 0, group.getTranslation(0, i), 0);
+            }
+        }
+    }
+
+    private static int centringVectors(String symbol) {
+        switch (symbol.charAt(0)) {
+            case 'P': return 1;
+            case 'R': return 3;
+            case 'F': return 4;
+            default: return 2;
+        }
+    }
+
+    private static CrystalSystem crystalSystem(int number, String symbol) {
+        if (number <= 2) return CrystalSystem.TRICLINIC;
+        if (number <= 15) return CrystalSystem.MONOCLINIC;
+        if (number <= 74) return CrystalSystem.ORTHORHOMBIC;
+        if (number <= 142) return CrystalSystem.TETRAGONAL;
+        if (number <= 167) return symbol.startsWith("R") ? CrystalSystem.RHOMBOHEDRAL : CrystalSystem.TRIGONAL;
+        if (number <= 194) return CrystalSystem.HEXAGONAL;
+        return CrystalSystem.CUBIC;
+    }
+
+    @Test
+    public void testP21c() {
+        SpaceGroup group = SpaceGroupFactory.getSpaceGroup("P 21/c");
+        assertEquals("Wrong number", 14, group.getNumber());
+        assertEquals("Wrong Hall symbol", "-P 2ybc", group.getHallSymbol());
+
+        //x,y,z; -x,y+1/2,-z+1/2; -x,-y,-z; x,-y+1/2,z+1/2
+        double[][] expected = new double[][]{{0.1, 0.2, 0.3}, {-0.1, 0.7, 0.2}, {-0.1, -0.2, -0.3}, {0.1, 0.3, 0.8}};
+        boolean[] found = new boolean[4];
+        double[] position = new double[3];
+        for (int op = 0; op < group.getOrder(); op++) {
+            group.applyOperator(op, 0.1, 0.2, 0.3, position, 0);
+            for (int n = 0; n < 4; n++) {
+                boolean match = true;
+                for (int i = 0; i < 3; i++) {
+                    double diff = position[i] - expected[n][i];
+                    match &= Math.abs(diff - Math.rint(diff)) < 1e-12;
+                }
+                found[n] |= match;
+            }
+        }
+        assertArrayEquals("Not all general positions generated", new boolean[]{true, true, true, true}, found);
+    }
+
+    @Test
+    public void testOriginShift() {
+        //P3112 includes -y,-x,-z+2/3
+        SpaceGroup group = SpaceGroupFactory.getSpaceGroup(151);
+        boolean found = false;
+        for (int op = 0; op < group.getOrder(); op++) {
+            if (group.getRotation(op, 0, 1) == -1 && group.getRotation(op, 1, 0) == -1 &&
+                    group.getRotation(op, 2, 2) == -1) {
+                assertEquals("Wrong translation of 2-fold", 2.0 / 3, group.getTranslation(op, 2), 1e-12);
+                found = true;
+            }
+        }
+        assertTrue("2-fold along a-b not found", found);
+    }
+
+    @Test
+    public void testCentring() {
+        SpaceGroup group = SpaceGroupFactory.getSpaceGroup("Fm-3m");
+        assertEquals("Wrong order", 192, group.getOrder());
+        assertEquals("Wrong number of centring vectors", 4, group.getNumberOfCentringVectors());
+        //Operator c * primitiveOrder + p is operator p plus centring vector c
+        int p = 5, c = 2, op = c * group.getPrimitiveOrder() + p;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals("Rotation differs for centred operator", group.getRotation(p, i, j), group.getRotation(op, i, j));
+            }
+        }
+    }
+
+    @Test
+    public void testCaching() {
+        SpaceGroup group = SpaceGroupFactory.getSpaceGroup(62);
+        assertSame("Not cached by number", group, SpaceGroupFactory.getSpaceGroup(62));
+        assertSame("Not cached by symbol", group, SpaceGroupFactory.getSpaceGroup("Pnma"));
+        assertSame("Not cached by Hall symbol", group, SpaceGroupFactory.getSpaceGroup("-P  2ac 2n"));
+
+        //Non-standard setting of P21/c
+        SpaceGroup p21n = SpaceGroupFactory.getSpaceGroupFromHallSymbol("-P 2yn");
+        assertNotNull(p21n);
+        assertEquals("Non-standard setting should have no number", 0, p21n.getNumber());
+        assertEquals("Wrong order", 4, p21n.getOrder());
+        assertSame("Non-standard setting not cached", p21n, SpaceGroupFactory.getSpaceGroup("-P 2yn"));
+        assertFalse("Non-standard setting should be a new group", p21n == SpaceGroupFactory.getSpaceGroup(14));
+    }
+
+    @Test
+    public void testOperators() {
+        //Every standard setting is found from its own operators, in any order
+        for (int number = 1; number <= 230; number++) {
+            SpaceGroup group = SpaceGroupFactory.getSpaceGroup(number);
+            List<String> operators = new ArrayList<>();
+            for (int op = group.getOrder() - 1; op >= 0; op--) operators.add(triplet(group, op));
+            assertSame("Standard setting not found for "+group, group,
+                    SpaceGroupFactory.getSpaceGroupFromOperators(operators));
+        }
+        //Generators are enough
+        assertSame("Not found from generators", SpaceGroupFactory.getSpaceGroup(14),
+                SpaceGroupFactory.getSpaceGroupFromOperators(Arrays.asList("-X, 1/2+Y, 0.5-Z", "-x,-y,-z")));
+
+        SpaceGroup p21n = SpaceGroupFactory.getSpaceGroupFromOperators(Arrays.asList("x, y, z",
+                "-x+1/2, y+1/2, -z+1/2", "-x, -y, -z", "x+1/2, -y+1/2, z+1/2"));
+        assertEquals("Non-standard setting should have no number", 0, p21n.getNumber());
+        assertEquals("Wrong order", 4, p21n.getOrder());
+        assertEquals("Wrong crystal system", CrystalSystem.MONOCLINIC, p21n.getCrystalSystem());
+        assertSame("Non-standard setting not cached", p21n,
+                SpaceGroupFactory.getSpaceGroupFromOperators(Arrays.asList("-x,-y,-z", "1/2-x,1/2+y,1/2-z")));
+
+        for (String bad : new String[]{"x,y", "x,y,z+1/5", "x,y,w", "x,y,-", "x,y,z+1/0", "2x,y,z"}) {
+            try {
+                SpaceGroupFactory.getSpaceGroupFromOperators(Arrays.asList(bad));
+                fail("Expected IllegalArgumentException for "+bad);
+            } catch (IllegalArgumentException e) {
+                //Expected
+            }
+        }
+    }
+
+    /**
+     * Write an operator as a coordinate triplet, e.g. -x+y,y,-z+5/12.
+     */
+    private static String triplet(SpaceGroup group, int op) {
+        StringBuilder triplet = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            if (i > 0) triplet.append(',');
+            for (int j = 0; j < 3; j++) {
+                int r = group.getRotation(op, i, j);
+                if (r != 0) triplet.append(r < 0 ? "-" : "+").append((char) ('x' + j));
+            }
+            long twelfths = Math.round(12 * group.getTranslation(op, i));
+            if (twelfths != 0) triplet.append('+').append(twelfths).append("/12");
+        }
+        return triplet.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSymbol() {
+        SpaceGroupFactory.getSpaceGroup("Q 7");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadNumber() {
+        SpaceGroupFactory.getSpaceGroup(231);
+    }
+}
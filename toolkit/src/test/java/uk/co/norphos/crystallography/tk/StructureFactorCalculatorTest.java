@@ -0,0 +1,150 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerPlane;
+import uk.co.norphos.crystallography.api.ReflectionTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class StructureFactorCalculatorTest {
+
+    private final UnitCell naclCell = new UnitCellImpl(new ApacheMathsFactory(),
+            new Lattice(5.6402, 5.6402, 5.6402, 90, 90, 90)),
+            monoCell = new UnitCellImpl(new ApacheMathsFactory(), new Lattice(7.1, 9.3, 6.2, 90, 104.5, 90));
+
+    @Test
+    public void testScatteringFactors() {
+        assertEquals("Wrong element", "Fe", ScatteringFactors.elementSymbol("FE3+"));
+        assertEquals("Wrong element", "O", ScatteringFactors.elementSymbol("O2-"));
+        //At s = 0, f is the number of electrons
+        assertEquals("Wrong f(0) for O", 8, ScatteringFactors.calculate(ScatteringFactors.getCoefficients("O"), 0), 0.01);
+        assertEquals("Wrong f(0) for Fe", 26, ScatteringFactors.calculate(ScatteringFactors.getCoefficients("Fe2+"), 0), 0.01);
+        assertEquals("Label not matched to element", ScatteringFactors.calculate("O", 1.5),
+                ScatteringFactors.calculate("OW", 1.5), 0);
+        //Two letter elements must not fall back to their first letter
+        for (String type : new String[]{"Co", "Ni", "Cr", "Sn", "Sr", "Pb", "Pt", "Hg", "Hf", "Os", "CO2+", "PB"}) {
+            double z = Elements.getAtomicNumber(Elements.getElement(type));
+            assertEquals("Wrong f(0) for "+type, z, ScatteringFactors.calculate(ScatteringFactors.getCoefficients(type),
+                    0), 0.06);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownElement() {
+        ScatteringFactors.getCoefficients("Xx");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUntabulatedElement() {
+        //An element, so must not be read as P
+        ScatteringFactors.getCoefficients("Pu");
+    }
+
+    @Test
+    public void testRockSalt() {
+        AtomTable atoms = new AtomTable();
+        atoms.add("Na1", "Na", 0, 0, 0, 1);
+        atoms.add("Cl1", "Cl", 0.5, 0.5, 0.5, 1);
+        StructureFactorCalculator calculator = new StructureFactorCalculator(naclCell,
+                SpaceGroupFactory.getSpaceGroup("Fm-3m"), atoms);
+        assertEquals("Special positions not merged", 8, calculator.getNumberOfAtoms());
+
+        ReflectionTable table = new ReflectionTable();
+        table.add(1, 1, 1);
+        table.add(2, 0, 0);
+        table.add(1, 0, 0);
+        calculator.calculate(table);
+
+        //F(111) = 4(fNa - fCl), F(200) = 4(fNa + fCl), (100) is absent
+        double d111 = naclCell.calculateDSpacing(new MillerPlane(1, 1, 1)),
+                d200 = naclCell.calculateDSpacing(new MillerPlane(2, 0, 0));
+        assertEquals("Wrong F(111)", 4 * Math.abs(ScatteringFactors.calculate("Na", d111)
+                - ScatteringFactors.calculate("Cl", d111)), table.getStructureFactor(0), 1e-9);
+        assertEquals("Wrong phase of F(111)", Math.PI, Math.abs(table.getPhase(0)), 1e-9);
+        assertEquals("Wrong F(200)", 4 * (ScatteringFactors.calculate("Na", d200)
+                + ScatteringFactors.calculate("Cl", d200)), table.getStructureFactor(1), 1e-9);
+        assertEquals("Wrong intensity", Math.pow(table.getStructureFactor(1), 2), table.getIntensity(1), 1e-9);
+        assertEquals("Absent reflection has intensity", 0, table.getStructureFactor(2), 1e-9);
+    }
+
+    @Test
+    public void testMatchesDirectSum() {
+        SpaceGroup group = SpaceGroupFactory.getSpaceGroup("C2/c");
+        AtomTable atoms = new AtomTable();
+        atoms.add("Fe1", "Fe", 0, 0.1532, 0.25, 1);
+        atoms.setUijMatrix(0, new double[][]{{0.011, 0, 0.002}, {0, 0.009, 0}, {0.002, 0, 0.014}});
+        atoms.add("O1", "O", 0.1213, 0.3722, 0.0911, 0.8);
+        atoms.setUijMatrix(1, new double[][]{{0.021, 0.003, -0.004}, {0.003, 0.018, 0.001}, {-0.004, 0.001, 0.025}});
+        atoms.add("C1", "C", 0.3311, 0.0124, 0.4412, 1);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        List<MillerPlane> reflections = new ReflectionGenerator(monoCell, 0.9).toList();
+        try {
+            StructureFactorCalculator calculator = new StructureFactorCalculator(monoCell, group, atoms, pool);
+            //Fe on the 2-fold axis: 4 sites, others 8 each
+            assertEquals("Wrong number of atoms in cell", 20, calculator.getNumberOfAtoms());
+            calculator.calculate(reflections);
+        } finally {
+            pool.shutdown();
+        }
+        for (MillerPlane hkl : reflections) {
+            double[] expected = directSum(group, atoms, hkl);
+            assertEquals("Wrong |F| for "+hkl, Math.hypot(expected[0], expected[1]), hkl.getStructureFactor(), 1e-8);
+            assertEquals("Wrong intensity for "+hkl, hkl.getStructureFactor() * hkl.getStructureFactor(),
+                    hkl.getIntensity(), 1e-6);
+        }
+    }
+
+    /**
+     * Sum over every operator, weighting each atom by the inverse of the
+     * number of operators which leave it in place.
+     */
+    private double[] directSum(SpaceGroup group, AtomTable atoms, MillerPlane hkl) {
+        int[] h = hkl.getIndices();
+        double[][] g = monoCell.getReciprocalMetricTensor().toArray();
+        double[] recip = {Math.sqrt(g[0][0]), Math.sqrt(g[1][1]), Math.sqrt(g[2][2])};
+        double sSquared = 0.25 / (hkl.getDSpacing() * hkl.getDSpacing());
+        double[] sum = new double[2], x = new double[3], image = new double[3];
+        for (int i = 0; i < atoms.size(); i++) {
+            double f = ScatteringFactors.calculate(ScatteringFactors.getCoefficients(atoms.getType(i)), sSquared);
+            x[0] = atoms.getX(i);
+            x[1] = atoms.getY(i);
+            x[2] = atoms.getZ(i);
+            double[][] u = atoms.getUijMatrix(i);
+            int siteOrder = 0;
+            for (int op = 0; op < group.getOrder(); op++) {
+                group.applyOperator(op, x[0], x[1], x[2], image, 0);
+                boolean same = true;
+                for (int j = 0; j < 3; j++) {
+                    double diff = image[j] - x[j];
+                    same &= Math.abs(diff - Math.rint(diff)) < 1e-6;
+                }
+                if (same) siteOrder++;
+            }
+            for (int op = 0; op < group.getOrder(); op++) {
+                group.applyOperator(op, x[0], x[1], x[2], image, 0);
+                //h.(Rx + t) and h^T R U R^T h = (hR) U (hR)^T
+                int[] hR = new int[3];
+                for (int c = 0; c < 3; c++) {
+                    for (int r = 0; r < 3; r++) hR[c] += h[r] * group.getRotation(op, r, c);
+                }
+                double exponent = 0;
+                for (int r = 0; r < 3; r++) {
+                    for (int c = 0; c < 3; c++) exponent += hR[r] * hR[c] * recip[r] * recip[c] * u[r][c];
+                }
+                double phase = 2 * Math.PI * (h[0] * image[0] + h[1] * image[1] + h[2] * image[2]);
+                double scale = atoms.getOcc(i) * f * Math.exp(-2 * Math.PI * Math.PI * exponent) / siteOrder;
+                sum[0] += scale * Math.cos(phase);
+                sum[1] += scale * Math.sin(phase);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,169 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.Crystal;
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+import uk.co.norphos.crystallography.io.CrystalFileWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StructureLoaderTest {
+
+    private static final int N_FILES = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A cubic CIF with cell edge 3 + n/100 A, in space group Pm-3m and one
+     * atom, or an unterminated text field every seventh file.
+     */
+    private static String cif(int n) {
+        if (n % 7 == 3) return "data_broken_" + n + "\n_title\n;\nno end\n";
+        double a = 3 + n / 100.;
+        return "data_cubic_" + n + "\n_cell_length_a " + a + "\n_cell_length_b " + a + "\n_cell_length_c " + a +
+                "\n_cell_angle_alpha 90\n_cell_angle_beta 90\n_cell_angle_gamma 90\n" +
+                "_symmetry_space_group_name_H-M 'P m -3 m'\n" +
+                "loop_\n_atom_site_label\n_atom_site_fract_x\n_atom_site_fract_y\n_atom_site_fract_z\n" +
+                "Fe1 0 0 0\n";
+    }
+
+    private static String name(int n) {
+        return String.format("%03d.cif", n);
+    }
+
+    private void checkResults(List<StructureLoader.Result> results, boolean ordered) {
+        assertEquals("Wrong number of results", N_FILES, results.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < N_FILES; i++) {
+            StructureLoader.Result result = results.get(i);
+            int n = Integer.parseInt(result.getSource().replaceAll(".*(\\d{3})\\.cif$", "$1"));
+            if (ordered) assertEquals("Results out of order", i, n);
+            assertTrue("File loaded twice", seen.add(result.getSource()));
+            if (n % 7 == 3) {
+                assertFalse("Broken file loaded", result.isSuccess());
+                assertNotNull("No error given", result.getError());
+                assertTrue("No crystals expected", result.getCrystals().isEmpty());
+            } else {
+                assertNull("Unexpected error", result.getError());
+                assertEquals("Wrong number of crystals", 1, result.getCrystals().size());
+                Crystal crystal = result.getCrystals().get(0);
+                assertEquals("Wrong cell", 3 + n / 100., crystal.getUnitCell().getA(), 1e-12);
+                assertEquals("Wrong crystal system", CrystalSystem.CUBIC, crystal.getUnitCell().getCrystalSystem());
+                assertEquals("Wrong space group", 221, crystal.getSpaceGroup().getNumber());
+                assertEquals("Wrong atoms", "Fe", crystal.getAsymmetricUnit().get(0).getType());
+            }
+        }
+    }
+
+    @Test
+    public void testLoadDirectory() throws IOException {
+        Path dir = folder.newFolder("cifs").toPath();
+        Files.createDirectory(dir.resolve("sub"));
+        for (int n = 0; n < N_FILES; n++) {
+            Path file = (n % 2 == 0 ? dir : dir.resolve("sub")).resolve(name(n));
+            Files.write(file, cif(n).getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(dir.resolve("readme.txt"), "Not a structure".getBytes(StandardCharsets.UTF_8));
+
+        //Paths sort with the subdirectory last, so compare by file name
+        List<StructureLoader.Result> results = new StructureLoader(new ApacheMathsFactory(), executor, 3, false)
+                .load(dir);
+        checkResults(results, false);
+        results.sort((r1, r2) -> r1.getSource().compareTo(r2.getSource()));
+        List<StructureLoader.Result> ordered = new StructureLoader(new ApacheMathsFactory(), executor).load(dir);
+        for (int i = 0; i < N_FILES; i++) {
+            assertEquals("Ordered results not in path order", results.get(i).getSource(),
+                    ordered.get(i).getSource());
+        }
+    }
+
+    @Test
+    public void testLoadArchive() throws IOException {
+        Path zip = folder.newFile("cifs.zip").toPath();
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            for (int n = 0; n < N_FILES; n++) {
+                zipOut.putNextEntry(new ZipEntry("structures/" + name(n)));
+                zipOut.write(cif(n).getBytes(StandardCharsets.UTF_8));
+                zipOut.closeEntry();
+            }
+        }
+        //Only one file in flight at a time still loads everything
+        checkResults(new StructureLoader(new ApacheMathsFactory(), executor, 1, true).load(zip), true);
+
+        List<StructureLoader.Result> results = new ArrayList<>();
+        new StructureLoader(new ApacheMathsFactory(), executor, 5, true).load(zip, results::add);
+        checkResults(results, true);
+    }
+
+    @Test
+    public void testSpaceGroupFallback() throws IOException {
+        Path dir = folder.newFolder("settings").toPath();
+        String cell = "_cell_length_a 5\n_cell_length_b 6\n_cell_length_c 7\n" +
+                "_cell_angle_alpha 90\n_cell_angle_beta 100\n_cell_angle_gamma 90\n";
+        //Full symbol not recognised, so the number is used
+        Files.write(dir.resolve("full.cif"), ("data_full\n" + cell + "_symmetry_space_group_name_H-M 'P 1 21/c 1'\n" +
+                "_space_group_IT_number 14\n").getBytes(StandardCharsets.UTF_8));
+        //Non-standard setting from its operators
+        Files.write(dir.resolve("p21n.cif"), ("data_p21n\n" + cell + "_symmetry_space_group_name_H-M 'P 21/n'\n" +
+                "_space_group_IT_number 14\nloop_\n_symmetry_equiv_pos_as_xyz\n'x, y, z'\n" +
+                "'-x+1/2, y+1/2, -z+1/2'\n'-x, -y, -z'\n'x+1/2, -y+1/2, z+1/2'\n").getBytes(StandardCharsets.UTF_8));
+
+        List<StructureLoader.Result> results = new StructureLoader(new ApacheMathsFactory(), executor).load(dir);
+        assertEquals("Wrong number of results", 2, results.size());
+        for (StructureLoader.Result result : results) {
+            assertNull("Unexpected error in "+result.getSource(), result.getError());
+        }
+        assertEquals("Number not used", 14, results.get(0).getCrystals().get(0).getSpaceGroup().getNumber());
+        SpaceGroup p21n = results.get(1).getCrystals().get(0).getSpaceGroup();
+        assertEquals("Operators not used", 0, p21n.getNumber());
+        assertEquals("Wrong order", 4, p21n.getOrder());
+    }
+
+    @Test
+    public void testLoadCrystalFile() throws IOException {
+        Path dir = folder.newFolder("binary").toPath();
+        CrystalFileWriter writer = new CrystalFileWriter();
+        writer.setLattice(new Lattice(5, 6, 7, 90, 100, 90));
+        writer.setSpaceGroup(null, "-P 2ybc", 14);
+        writer.write(dir.resolve("p21c.crystal"));
+
+        List<StructureLoader.Result> results = new StructureLoader(new ApacheMathsFactory(), executor).load(dir);
+        assertEquals("Wrong number of results", 1, results.size());
+        Crystal crystal = results.get(0).getCrystals().get(0);
+        assertEquals("Wrong crystal system", CrystalSystem.MONOCLINIC, crystal.getUnitCell().getCrystalSystem());
+        assertEquals("Wrong space group", 14, crystal.getSpaceGroup().getNumber());
+        assertTrue("Atoms found", crystal.getAsymmetricUnit().isEmpty());
+    }
+}
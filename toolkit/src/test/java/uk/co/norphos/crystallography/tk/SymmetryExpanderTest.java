@@ -0,0 +1,106 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.api.AtomTable;
+import uk.co.norphos.crystallography.api.SpaceGroup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SymmetryExpanderTest {
+
+    @Test
+    public void testRockSalt() {
+        AtomTable atoms = new AtomTable();
+        atoms.add("Na1", "Na", 0, 0, 0, 1);
+        //Just off the special position, either side of the cell edge
+        atoms.add("Cl1", "Cl", 0.5, 0.5, -2e-5, 1);
+        atoms.add("X1", "C", 0.11, 0.23, 0.37, 1);
+        SymmetryExpander.Expansion expansion = new SymmetryExpander(SpaceGroupFactory.getSpaceGroup("Fm-3m"))
+                .expand(atoms);
+
+        assertEquals("Wrong Na multiplicity", 4, expansion.getMultiplicity(0));
+        assertEquals("Wrong Cl multiplicity", 4, expansion.getMultiplicity(1));
+        assertEquals("Wrong general multiplicity", 192, expansion.getMultiplicity(2));
+        assertEquals("Wrong number of sites", 200, expansion.size());
+        for (int s = 0; s < expansion.size(); s++) {
+            assertEquals("Sites not in atom order", s < 4 ? 0 : s < 8 ? 1 : 2, expansion.getAtom(s));
+            for (double x : new double[]{expansion.getX(s), expansion.getY(s), expansion.getZ(s)}) {
+                assertTrue("Site not wrapped into cell", x >= 0 && x < 1);
+            }
+        }
+        assertEquals("Atom not kept first", 0, expansion.getOperator(expansion.getFirstSite(1)));
+        assertEquals("Atom not wrapped", 1 - 2e-5, expansion.getZ(expansion.getFirstSite(1)), 1e-12);
+    }
+
+    @Test
+    public void testAgainstPairwiseMerging() {
+        SpaceGroup spaceGroup = SpaceGroupFactory.getSpaceGroup("Fm-3m");
+        Random random = new Random(7);
+        int n = 600;
+        double[] coords = new double[3 * n];
+        for (int i = 0; i < n; i++) {
+            double x = random.nextDouble(), y = random.nextDouble(), z = random.nextDouble();
+            //Mix of general and special positions
+            double[][] positions = {{x, y, z}, {x, x, x}, {x, 0, 0}, {0.25, 0.25, z}};
+            System.arraycopy(positions[i % 4], 0, coords, 3 * i, 3);
+        }
+        SymmetryExpander.Expansion parallel = new SymmetryExpander(spaceGroup).expand(coords, n);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            SymmetryExpander.Expansion sequential = new SymmetryExpander(spaceGroup,
+                    SymmetryExpander.DEFAULT_TOLERANCE, pool).expand(coords, n);
+            assertArrayEquals("Parallel and sequential expansions differ", sequential.getCoordinateArray(),
+                    parallel.getCoordinateArray(), 0);
+        } finally {
+            pool.shutdown();
+        }
+
+        double[] site = new double[3];
+        for (int i = 0; i < n; i++) {
+            double[] kept = new double[3 * spaceGroup.getOrder()];
+            int count = 0;
+            for (int op = 0; op < spaceGroup.getOrder(); op++) {
+                spaceGroup.applyOperator(op, coords[3 * i], coords[3 * i + 1], coords[3 * i + 2], site, 0);
+                boolean known = false;
+                for (int k = 0; k < count && !known; k++) {
+                    known = true;
+                    for (int j = 0; j < 3 && known; j++) {
+                        double diff = Math.abs(kept[3 * k + j] - (site[j] - Math.floor(site[j])));
+                        known = Math.min(diff, 1 - diff) < SymmetryExpander.DEFAULT_TOLERANCE;
+                    }
+                }
+                if (!known) {
+                    for (int j = 0; j < 3; j++) kept[3 * count + j] = site[j] - Math.floor(site[j]);
+                    count++;
+                }
+            }
+            assertEquals("Wrong multiplicity of atom "+i, count, parallel.getMultiplicity(i));
+        }
+    }
+
+    @Test
+    public void testAtomTable() {
+        SpaceGroup spaceGroup = SpaceGroupFactory.getSpaceGroup("P4");
+        AtomTable atoms = new AtomTable();
+        atoms.add("O1", "O", 0.1, 0.2, 0.3, 0.5);
+        atoms.setUij(0, AtomTable.U11, 0.01);
+        atoms.setUij(0, AtomTable.U22, 0.02);
+        atoms.setUij(0, AtomTable.U33, 0.03);
+        AtomTable cell = new SymmetryExpander(spaceGroup).expand(atoms).toAtomTable(atoms);
+
+        assertEquals("Wrong number of atoms", 4, cell.size());
+        for (int i = 0; i < cell.size(); i++) {
+            assertEquals("Wrong name", "O1", cell.getName(i));
+            assertEquals("Wrong occupancy", 0.5, cell.getOcc(i), 0);
+            assertEquals("Wrong U33", 0.03, cell.getUij(i, AtomTable.U33), 1e-12);
+            //The fourfold axis swaps a and b
+            boolean swapped = Math.abs(cell.getX(i) - 0.1) > 1e-9 && Math.abs(cell.getX(i) - 0.9) > 1e-9;
+            assertEquals("U11 not rotated", swapped ? 0.02 : 0.01, cell.getUij(i, AtomTable.U11), 1e-12);
+        }
+    }
+}
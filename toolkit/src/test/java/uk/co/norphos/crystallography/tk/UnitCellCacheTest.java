@@ -0,0 +1,69 @@
+package uk.co.norphos.crystallography.tk;
+
+import org.junit.Test;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UnitCell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class UnitCellCacheTest {
+
+    private final Lattice silicon = CrystallographyFactory.createLattice(5.43102, 5.43102, 5.43102, 90, 90, 90),
+            lab6 = CrystallographyFactory.createLattice(4.15689, 4.15689, 4.15689, 90, 90, 90),
+            ceo2 = CrystallographyFactory.createLattice(5.4113, 5.4113, 5.4113, 90, 90, 90);
+
+    @Test
+    public void testSharedCells() {
+        UnitCellCache cache = new UnitCellCache(new ApacheMathsFactory());
+        UnitCell cell = CrystallographyFactory.createUnitCell(cache, silicon);
+        //Same parameters, but calculated rather than given
+        Lattice fromTensor = CrystallographyFactory.createLattice(cell.getMetricTensor());
+        assertSame("Cell for equal lattice not shared", cell, CrystallographyFactory.createUnitCell(cache, fromTensor));
+        assertNotSame("Cell for different lattice shared", cell, cache.getUnitCell(lab6));
+
+        assertEquals("Wrong number of hits", 1, cache.getHits());
+        assertEquals("Wrong number of misses", 2, cache.getMisses());
+        assertEquals("Wrong hit rate", 1 / 3d, cache.getHitRate(), 1e-12);
+        assertEquals("Wrong size", 2, cache.size());
+
+        cache.resetStatistics();
+        assertEquals("Hits not reset", 0, cache.getHits());
+        cache.clear();
+        assertEquals("Not cleared", 0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        UnitCellCache cache = new UnitCellCache(new ApacheMathsFactory(), 2);
+        UnitCell siliconCell = cache.getUnitCell(silicon);
+        UnitCell lab6Cell = cache.getUnitCell(lab6);
+        //Using silicon makes LaB6 the least recently used
+        cache.getUnitCell(silicon);
+        cache.getUnitCell(ceo2);
+
+        assertEquals("Wrong size", 2, cache.size());
+        assertEquals("Wrong number of evictions", 1, cache.getEvictions());
+        assertSame("Recently used cell evicted", siliconCell, cache.getUnitCell(silicon));
+        assertNotSame("Least recently used cell not evicted", lab6Cell, cache.getUnitCell(lab6));
+    }
+
+    @Test
+    public void testLatticeEqualityConsistentWithHash() {
+        Lattice nearly = CrystallographyFactory.createLattice(5.43102 + 1e-12, 5.43102, 5.43102 - 1e-12, 90, 90,
+                90 + 1e-12);
+        assertEquals("Lattices differing by rounding not equal", silicon, nearly);
+        assertEquals("Equal lattices have different hash codes", silicon.hashCode(), nearly.hashCode());
+
+        Lattice volume = new Lattice(5.43102, 5.43102, 5.43102, 90, 90, 90, 160.1955, silicon.getCrystalSystem(),
+                silicon.getPrincipleAxis());
+        assertEquals("Volume should not be compared", silicon, volume);
+        assertEquals("Equal lattices have different hash codes", silicon.hashCode(), volume.hashCode());
+
+        assertNotEquals("Lattices differing in one parameter equal", silicon,
+                CrystallographyFactory.createLattice(5.43102, 5.43102, 5.4311, 90, 90, 90));
+    }
+}
@@ -9,20 +9,30 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.stubbing.Answer;
+import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMathsFactory;
 import uk.co.norphos.crystallography.adaptor.apachemaths.ApacheMatrix;
 import uk.co.norphos.crystallography.api.Lattice;
 import uk.co.norphos.crystallography.api.LatticeException;
+import uk.co.norphos.crystallography.api.MillerPlane;
 import uk.co.norphos.crystallography.api.UnitCell;
 import uk.co.norphos.crystallography.api.maths.MathsFactory;
 import uk.co.norphos.crystallography.api.maths.Matrix;
 import uk.co.norphos.crystallography.api.maths.Vector;
 
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.*;
 import static uk.co.norphos.crystallography.tk.TestUtils.*;
 
@@ -49,15 +59,18 @@ public class UnitCellImplTest {
                                                      {-0.0068836 , -0.0001078 ,  0.01730886}};
     /*
      * Derived from https://en.wikipedia.org/wiki/Fractional_coordinates
-     * [ a, b cos ga, c cos be      ]
-     * [ 0, b sin ga, -c cos al*    ]
-     * [ 0,        0, ab sin ga / V ]
-     * (ab sin ga / V) = 1/c*
-     * ((cos be cos ga - cos al)/sin ga) = cos al*
+     * [ a, b cos ga, c cos be            ]
+     * [ 0, b sin ga, -c sin be cos al*   ]
+     * [ 0,        0, V / (ab sin ga)     ]
+     * (V / (ab sin ga)) = 1/c*
+     * ((cos be cos ga - cos al)/(sin be sin ga)) = cos al*
      */
     private double[][] tricOrthoTensor = new double[][]{{ 7.19196   ,  2.87827987,  2.87811557},
-                                                        { 0.        ,  7.60045294,  0.05061718},
+                                                        { 0.        ,  7.60045294,  0.04733735},
                                                         { 0.        ,  0.        ,  7.60091309}};
+    private double[][] tricFracTensor = new double[][]{{ 0.13904415, -0.05265581, -0.05232168},
+                                                       { 0.        ,  0.13157111, -0.00081941},
+                                                       { 0.        ,  0.        ,  0.13156314}};
 
     private double cubicVol = 160.118936, orthoVol = 2926.626460, tricVol = 415.482298;
 
@@ -70,27 +83,58 @@ public class UnitCellImplTest {
     @Test
     public void testMetricTensorCalculation() {
         when(mockMaths.createMatrix(any(double[][].class))).thenReturn(mockMatrix);
-        when(mockMatrix.getInverse()).thenReturn(mockMatrix);
-        when(mockMatrix.toArray()).thenReturn(new double[3][3]);
 
         //We use Argument capture rather than a verify since maths introduces
         //slight differences in values (<= 1e-10), so the arrays are different
         ArgumentCaptor<double[][]> argCapture = ArgumentCaptor.forClass(double[][].class);
 
         uc = new UnitCellImpl(mockMaths, cubicLatt);
-        List<double[][]> badger = argCapture.getAllValues();
-        verify(mockMaths, times(2)).createMatrix(argCapture.capture());
+        uc.getMetricTensor();
+        verify(mockMaths, times(1)).createMatrix(argCapture.capture());
         assertTwoDArrayEquals("Incorrect G-matrix for cubic", cubicGMat, argCapture.getAllValues().get(0), 1e-10);
 
         uc = new UnitCellImpl(mockMaths, orthoLatt);
-        verify(mockMaths, times(4)).createMatrix(argCapture.capture());
-        badger = argCapture.getAllValues();
-        assertTwoDArrayEquals("Incorrect G-matrix for orthorhombic", orthoGMat, argCapture.getAllValues().get(4), 1e-10);
+        uc.getMetricTensor();
+        verify(mockMaths, times(2)).createMatrix(argCapture.capture());
+        assertTwoDArrayEquals("Incorrect G-matrix for orthorhombic", orthoGMat, argCapture.getAllValues().get(2), 1e-10);
+
+        uc = new UnitCellImpl(mockMaths, tricLatt);
+        uc.getMetricTensor();
+        verify(mockMaths, times(3)).createMatrix(argCapture.capture());
+        assertTwoDArrayEquals("Incorrect G-matrix for triclinic", tricGMat, argCapture.getAllValues().get(5), 1e-10);
+    }
+
+    @Test
+    public void testDerivedQuantitiesAreLazy() {
+        when(mockMaths.createMatrix(any(double[][].class))).thenReturn(mockMatrix);
+
+        uc = new UnitCellImpl(mockMaths, tricLatt);
+        verify(mockMaths, never()).createMatrix(any(double[][].class));
+        assertEquals("Wrong volume for triclinic", tricVol, uc.getVolume(), 1e-4);
+        verify(mockMaths, never()).createMatrix(any(double[][].class));
 
+        //Once calculated, the metric tensor is cached
+        uc.getMetricTensor();
+        uc.getMetricTensor();
+        verify(mockMaths, times(1)).createMatrix(any(double[][].class));
+        verify(mockMatrix, never()).getInverse();
+    }
+
+    @Test
+    public void testMetricTensorCalculatedOnceAcrossThreads() throws Exception {
+        when(mockMaths.createMatrix(any(double[][].class))).thenReturn(mockMatrix);
         uc = new UnitCellImpl(mockMaths, tricLatt);
-        verify(mockMaths, times(6)).createMatrix(argCapture.capture());
-        badger = argCapture.getAllValues();
-        assertTwoDArrayEquals("Incorrect G-matrix for triclinic", tricGMat, argCapture.getAllValues().get(10), 1e-10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Matrix>> tasks = Collections.nCopies(16, uc::getMetricTensor);
+            for (Future<Matrix> result : executor.invokeAll(tasks)) {
+                assertSame("Threads saw different metric tensors", mockMatrix, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        verify(mockMaths, times(1)).createMatrix(any(double[][].class));
     }
 
     @Test
@@ -104,29 +148,163 @@ public class UnitCellImplTest {
         when(mockRecipMat.toArray()).thenReturn(tricGMatInv);
 
         uc = new UnitCellImpl(mockMaths, tricLatt);
+        verify(mockMatrix, never()).getInverse();
+
+        UnitCell recip = uc.getReciprocal();
+        assertSame("Reciprocal metric tensor not shared with reciprocal cell", mockRecipMat, uc.getReciprocalMetricTensor());
+        assertSame("Reciprocal of reciprocal is not the original cell", uc, recip.getReciprocal());
         verify(mockMatrix, times(1)).getInverse();
     }
 
     @Test
     public void testOrthogonalisationMatrixCalculation() {
-        // - calculation of metric tensor
-        when(mockMaths.createMatrix(argThat(new twoDArrayAlmostEquals(tricGMat)))).thenReturn(mockMatrix);
-        // - inversion of G-matrix
-        Matrix mockRecipMat = mock(Matrix.class);
-        when(mockMatrix.getInverse()).thenReturn(mockRecipMat);
-        // - determination of reciprocal Lattice
-        when(mockRecipMat.toArray()).thenReturn(tricGMatInv);
-
         //We use Argument capture rather than a verify since maths introduces
         //slight differences in values (<= 1e-10), so the arrays are different
         ArgumentCaptor<double[][]> argCapture = ArgumentCaptor.forClass(double[][].class);
         uc = new UnitCellImpl(mockMaths, tricLatt);
-        verify(mockMaths, times(2)).createMatrix(argCapture.capture());
+        uc.getOrthogonalizationMatrix();
+        //Orthogonalisation matrix only depends on the lattice parameters
+        verify(mockMaths, times(1)).createMatrix(argCapture.capture());
 
-        double[][] val = argCapture.getValue();
         assertTwoDArrayEquals("Incorrect orthogonalisation matrix for triclinic", tricOrthoTensor, argCapture.getValue(), 1e-5);
     }
 
+    @Test
+    public void testFractionalisationMatrixCalculation() {
+        ArgumentCaptor<double[][]> argCapture = ArgumentCaptor.forClass(double[][].class);
+        uc = new UnitCellImpl(mockMaths, tricLatt);
+        uc.getFractionalizationMatrix();
+        verify(mockMaths, times(1)).createMatrix(argCapture.capture());
+
+        assertTwoDArrayEquals("Incorrect fractionalisation matrix for triclinic", tricFracTensor, argCapture.getValue(), 1e-7);
+    }
+
+    @Test
+    public void testBulkCoordinateConversion() {
+        MathsFactory maths = new ApacheMathsFactory();
+        uc = new UnitCellImpl(maths, tricLatt);
+
+        double[] frac = new double[]{0.1, 0.2, 0.3, 0.5, 0.5, 0.5, -0.25, 0.75, 1.0};
+        double[] cart = new double[frac.length];
+        uc.orthogonalize(frac, cart);
+        for (int i = 0; i < frac.length; i += 3) {
+            Vector expected = uc.orthogonalize(maths.createVector(Arrays.copyOfRange(frac, i, i + 3)));
+            assertArrayEquals("Bulk orthogonalisation differs from single vector (i="+i/3+")",
+                    expected.toArray(), Arrays.copyOfRange(cart, i, i + 3), 1e-12);
+        }
+
+        //Round trip, in place
+        double[] roundTrip = cart.clone();
+        uc.fractionalize(roundTrip, roundTrip);
+        assertArrayEquals("Fractional coordinates not recovered", frac, roundTrip, 1e-12);
+
+        //Offsets: only convert the middle coordinate
+        double[] partial = new double[3];
+        uc.fractionalize(cart, 3, partial, 0, 1);
+        assertArrayEquals("Wrong coordinate converted with offset", new double[]{0.5, 0.5, 0.5}, partial, 1e-12);
+    }
+
+    @Test
+    public void testBulkCoordinateConversionBuffers() {
+        uc = new UnitCellImpl(new ApacheMathsFactory(), tricLatt);
+
+        double[] frac = new double[]{0.1, 0.2, 0.3, 0.5, 0.5, 0.5};
+        double[] expected = new double[frac.length];
+        uc.orthogonalize(frac, expected);
+
+        DoubleBuffer direct = ByteBuffer.allocateDirect(8 * frac.length).asDoubleBuffer();
+        direct.put(frac).flip();
+        uc.orthogonalize(direct, direct);
+        assertEquals("Buffer position not advanced", frac.length, direct.position());
+        double[] found = new double[frac.length];
+        direct.flip();
+        direct.get(found);
+        assertArrayEquals("Direct buffer conversion differs from array conversion", expected, found, 1e-12);
+
+        DoubleBuffer heapOut = DoubleBuffer.allocate(frac.length);
+        uc.fractionalize(DoubleBuffer.wrap(expected), heapOut);
+        assertArrayEquals("Heap buffer conversion did not round trip", frac, heapOut.array(), 1e-12);
+    }
+
+    @Test
+    public void testDSpacingCalculation() {
+        uc = new UnitCellImpl(new ApacheMathsFactory(), cubicLatt);
+        assertEquals("Wrong d-spacing for cubic (111)", 5.43018 / Math.sqrt(3), uc.calculateDSpacing(new MillerPlane(1, 1, 1)), 1e-10);
+        assertEquals("Wrong d-spacing for cubic (2-20)", 5.43018 / Math.sqrt(8), uc.calculateDSpacing(new MillerPlane(2, -2, 0)), 1e-10);
+
+        //Triclinic: compare with 1/d^2 = h.G*.h using the tabulated G* inverse
+        uc = new UnitCellImpl(new ApacheMathsFactory(), tricLatt);
+        int[] hkl = new int[]{1, -2, 3};
+        double invDSq = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                invDSq += hkl[i] * tricGMatInv[i][j] * hkl[j];
+            }
+        }
+        assertEquals("Wrong d-spacing for triclinic (1-23)", 1 / Math.sqrt(invDSq), uc.calculateDSpacing(new MillerPlane(1, -2, 3)), 1e-5);
+    }
+
+    @Test
+    public void testBulkDSpacingCalculation() {
+        uc = new UnitCellImpl(new ApacheMathsFactory(), tricLatt);
+        int[] h = new int[]{1, 0, 0, 1, -2, 3},
+                k = new int[]{0, 1, 0, 1, 1, -4},
+                l = new int[]{0, 0, 1, 1, 0, 5};
+        double[] dSpacings = new double[h.length], qValues = new double[h.length];
+
+        uc.calculateDSpacings(h, k, l, 0, h.length, dSpacings, qValues);
+        for (int i = 0; i < h.length; i++) {
+            MillerPlane plane = new MillerPlane(h[i], k[i], l[i]);
+            double expected = uc.calculateDSpacing(plane);
+            assertEquals("Bulk d-spacing differs for reflection "+i, expected, dSpacings[i], 1e-12);
+            plane.setDSpacing(expected);
+            assertEquals("Bulk Q differs for reflection "+i, plane.getQSpacing(), qValues[i], 1e-10);
+        }
+
+        //Sub-range only touches the requested elements
+        double[] partial = new double[h.length];
+        uc.calculateDSpacings(h, k, l, 2, 4, partial, null);
+        assertEquals("Element outside range was written", 0, partial[1], 0);
+        assertEquals("Element inside range not calculated", dSpacings[3], partial[3], 1e-12);
+    }
+
+    @Test
+    public void testGeometryCalculation() {
+        MathsFactory maths = new ApacheMathsFactory();
+        uc = new UnitCellImpl(maths, tricLatt);
+        Vector origin = maths.createVector(new double[]{0, 0, 0}), a = maths.createVector(new double[]{1, 0, 0}),
+                b = maths.createVector(new double[]{0, 1, 0}), c = maths.createVector(new double[]{0, 0, 1});
+        assertEquals("Wrong length of a", tricLatt.getA(), uc.calculateLength(a), 1e-10);
+        assertEquals("Wrong distance", tricLatt.getC(), uc.calculateDistance(b, maths.createVector(new double[]{0, 1, 1})), 1e-10);
+        assertEquals("Wrong angle between b and c", tricLatt.getAlR(), uc.calculateAngle(b, c), 1e-10);
+        assertEquals("Wrong angle at origin", tricLatt.getGaR(), uc.calculateAngle(a, origin, b), 1e-10);
+
+        //Compare with the Cartesian calculation
+        double[] sites = {0.1, 0.2, 0.3, 0.4, 0.1, 0.2, 0.6, 0.5, 0.1, 0.7, 0.9, 0.4};
+        double[] cart = new double[12];
+        uc.orthogonalize(sites, cart);
+        double[] u = new double[3], v = new double[3];
+        for (int i = 0; i < 3; i++) {
+            u[i] = cart[3 + i] - cart[i];
+            v[i] = cart[6 + i] - cart[3 + i];
+        }
+        Vector s1 = maths.createVector(Arrays.copyOfRange(sites, 0, 3)), s2 = maths.createVector(Arrays.copyOfRange(sites, 3, 6)),
+                s3 = maths.createVector(Arrays.copyOfRange(sites, 6, 9)), s4 = maths.createVector(Arrays.copyOfRange(sites, 9, 12));
+        double dot = u[0] * v[0] + u[1] * v[1] + u[2] * v[2];
+        double uLen = Math.sqrt(u[0] * u[0] + u[1] * u[1] + u[2] * u[2]), vLen = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        assertEquals("Wrong distance between sites", uLen, uc.calculateDistance(s1, s2), 1e-10);
+        assertEquals("Wrong angle between vectors", Math.acos(dot / (uLen * vLen)),
+                uc.calculateAngle(s2.subtract(s1), s3.subtract(s2)), 1e-10);
+
+        //Reversing the order of the sites gives the same dihedral angle
+        assertEquals("Dihedral not symmetric", uc.calculateDihedralAngle(s1, s2, s3, s4),
+                uc.calculateDihedralAngle(s4, s3, s2, s1), 1e-10);
+        assertEquals("Planar trans dihedral", Math.PI, Math.abs(uc.calculateDihedralAngle(
+                maths.createVector(new double[]{0, 1, 0}), origin, a, maths.createVector(new double[]{1, -1, 0}))), 1e-10);
+        assertEquals("Planar cis dihedral", 0, uc.calculateDihedralAngle(
+                maths.createVector(new double[]{0, 1, 0}), origin, a, maths.createVector(new double[]{1, 1, 0})), 1e-10);
+    }
+
 //    @Test
 //    public void testFractionalisationMatrix() {
 //        // - calculation of metric tensor